@@ -0,0 +1,147 @@
+package org.littleshoot.proxy.benchmarks;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.codec.http.DefaultHttpContent;
+import io.netty.handler.codec.http.DefaultHttpResponse;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpServerCodec;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.LastHttpContent;
+import org.apache.http.HttpHost;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.util.EntityUtils;
+import org.littleshoot.proxy.ActivityTracker;
+import org.littleshoot.proxy.ActivityTrackerAdapter;
+import org.littleshoot.proxy.HttpProxyServer;
+import org.littleshoot.proxy.HttpProxyServerBootstrap;
+import org.littleshoot.proxy.impl.DefaultHttpProxyServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the garbage that reporting to an {@link ActivityTracker} adds to proxying. Each operation is a GET of a
+ * streamed response through the proxy, which is run once without a tracker and once with a tracker that does nothing.
+ * The origin flushes every chunk separately, so the proxy reads about one chunk per batch.
+ * <p>
+ * Compare {@code gc.alloc.rate.norm} of the two runs: the client and the origin do the same work in both, so the
+ * difference, divided by {@code chunks}, is the garbage per proxied chunk that activity tracking costs. It should be 0.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ActivityTrackerAllocationBenchmark {
+    private static final byte[] CHUNK = new byte[4096];
+
+    @Param({"false", "true"})
+    public boolean tracked;
+
+    @Param({"64"})
+    public int chunks;
+
+    private EventLoopGroup originGroup;
+    private Channel origin;
+    private HttpProxyServer proxyServer;
+    private CloseableHttpClient httpClient;
+    private HttpGet get;
+
+    @Setup
+    public void setUp() throws Exception {
+        originGroup = new NioEventLoopGroup(1);
+        origin = startOrigin(originGroup, chunks);
+        int originPort = ((InetSocketAddress) origin.localAddress()).getPort();
+
+        HttpProxyServerBootstrap bootstrap = DefaultHttpProxyServer.bootstrap()
+                .withPort(0);
+        if (tracked) {
+            bootstrap.plusActivityTracker(new ActivityTrackerAdapter());
+        }
+        proxyServer = bootstrap.start();
+
+        httpClient = HttpClients.custom()
+                .setProxy(new HttpHost("127.0.0.1", proxyServer.getListenAddress().getPort()))
+                .build();
+        get = new HttpGet("http://127.0.0.1:" + originPort + "/benchmark");
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        httpClient.close();
+        proxyServer.stop();
+        origin.close().sync();
+        originGroup.shutdownGracefully();
+    }
+
+    @Benchmark
+    public void proxiedGet() throws Exception {
+        CloseableHttpResponse response = httpClient.execute(get);
+        try {
+            EntityUtils.consume(response.getEntity());
+        } finally {
+            response.close();
+        }
+    }
+
+    /**
+     * Starts an origin server that streams its responses in separately flushed chunks, so that the proxy reads them in
+     * separate batches.
+     */
+    private static Channel startOrigin(EventLoopGroup group, final int chunks) throws InterruptedException {
+        return new ServerBootstrap()
+                .group(group)
+                .channel(NioServerSocketChannel.class)
+                .childHandler(new ChannelInitializer<Channel>() {
+                    @Override
+                    protected void initChannel(Channel ch) throws Exception {
+                        ch.pipeline().addLast(new HttpServerCodec());
+                        ch.pipeline().addLast(new HttpObjectAggregator(65536));
+                        ch.pipeline().addLast(new SimpleChannelInboundHandler<FullHttpRequest>() {
+                            @Override
+                            protected void channelRead0(ChannelHandlerContext ctx, FullHttpRequest request) throws Exception {
+                                HttpResponse response = new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
+                                HttpHeaders.setContentLength(response, (long) CHUNK.length * chunks);
+                                HttpHeaders.setKeepAlive(response, true);
+                                ctx.writeAndFlush(response);
+                                for (int i = 0; i < chunks; i++) {
+                                    ctx.writeAndFlush(new DefaultHttpContent(Unpooled.wrappedBuffer(CHUNK)));
+                                }
+                                ctx.writeAndFlush(LastHttpContent.EMPTY_LAST_CONTENT);
+                            }
+                        });
+                    }
+                })
+                .bind("127.0.0.1", 0)
+                .sync()
+                .channel();
+    }
+}
@@ -0,0 +1,30 @@
+package org.littleshoot.proxy.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks of this module with the usual JMH command line. Unless other profilers are asked for with
+ * {@code -prof}, JMH's GC profiler is added, so that every benchmark reports its allocation rate
+ * ({@code gc.alloc.rate}) and the bytes it allocates per operation ({@code gc.alloc.rate.norm}) next to its score.
+ * <p>
+ * Usage: <code>java -jar target/benchmarks.jar [JMH options] [benchmark regexps]</code>
+ */
+public class BenchmarkLauncher {
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions commandLineOptions = new CommandLineOptions(args);
+        if (commandLineOptions.shouldHelp()) {
+            commandLineOptions.showHelp();
+            return;
+        }
+
+        ChainedOptionsBuilder options = new OptionsBuilder().parent(commandLineOptions);
+        if (commandLineOptions.getProfilers().isEmpty()) {
+            options.addProfiler(GCProfiler.class);
+        }
+        new Runner(options.build()).run();
+    }
+}
@@ -0,0 +1,115 @@
+package org.littleshoot.proxy.benchmarks;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.compression.BrotliDecoder;
+import io.netty.handler.codec.compression.BrotliEncoder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link BrotliEncoder} and {@link BrotliDecoder} in a pipeline on a whole body of text, at the quality the
+ * proxy compresses responses with. Each operation is one stream: the body is written in chunks of 8 KiB, like a
+ * response read from a server, and the stream is finished.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BrotliBenchmark {
+    private static final int CHUNK_SIZE = 8192;
+
+    private static final String[] WORDS = {
+            "<div class=\"item\">", "</div>", "<span>", "</span>", "proxy", "request", "response", "header",
+            "connection", "server", "client", "content", "encoding", "the", "of", "and", "a", "to", "in", "is"
+    };
+
+    @Param({"1024", "65536"})
+    public int bodySize;
+
+    private byte[] body;
+    private byte[] compressed;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        StringBuilder text = new StringBuilder(bodySize + 32);
+        while (text.length() < bodySize) {
+            text.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+        }
+        body = text.substring(0, bodySize).getBytes(StandardCharsets.US_ASCII);
+        compressed = compress();
+    }
+
+    @Benchmark
+    public int encode() {
+        return release(encodeStream());
+    }
+
+    @Benchmark
+    public int decode() {
+        EmbeddedChannel channel = new EmbeddedChannel(new BrotliDecoder());
+        for (int offset = 0; offset < compressed.length; offset += CHUNK_SIZE) {
+            channel.writeInbound(Unpooled.wrappedBuffer(compressed, offset,
+                    Math.min(CHUNK_SIZE, compressed.length - offset)));
+        }
+        channel.finish();
+
+        int decoded = 0;
+        ByteBuf buf;
+        while ((buf = channel.readInbound()) != null) {
+            decoded += buf.readableBytes();
+            buf.release();
+        }
+        return decoded;
+    }
+
+    private EmbeddedChannel encodeStream() {
+        EmbeddedChannel channel = new EmbeddedChannel(new BrotliEncoder());
+        for (int offset = 0; offset < body.length; offset += CHUNK_SIZE) {
+            channel.writeOutbound(Unpooled.wrappedBuffer(body, offset, Math.min(CHUNK_SIZE, body.length - offset)));
+        }
+        // closing the channel finishes the stream
+        channel.finish();
+        return channel;
+    }
+
+    private static int release(EmbeddedChannel channel) {
+        int encoded = 0;
+        ByteBuf buf;
+        while ((buf = channel.readOutbound()) != null) {
+            encoded += buf.readableBytes();
+            buf.release();
+        }
+        return encoded;
+    }
+
+    private byte[] compress() {
+        EmbeddedChannel channel = encodeStream();
+        ByteBuf all = Unpooled.buffer();
+        ByteBuf buf;
+        while ((buf = channel.readOutbound()) != null) {
+            all.writeBytes(buf);
+            buf.release();
+        }
+        byte[] array = new byte[all.readableBytes()];
+        all.readBytes(array);
+        return array;
+    }
+}
@@ -0,0 +1,202 @@
+package org.littleshoot.proxy.benchmarks;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpServerCodec;
+import io.netty.handler.codec.http.HttpVersion;
+import org.apache.http.HttpHost;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.util.EntityUtils;
+import org.littleshoot.proxy.HttpProxyServer;
+import org.littleshoot.proxy.impl.DefaultHttpProxyServer;
+import org.littleshoot.proxy.impl.ThreadPoolConfiguration;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares throughput and latency of the proxy with and without event loop affinity (see
+ * {@link ThreadPoolConfiguration#withEventLoopAffinity(boolean)}). Keep-alive clients send GETs through the proxy to an
+ * in-process origin server, first with separate client-to-proxy and proxy-to-server worker pools, then with a single
+ * shared worker pool of the same total size.
+ * <p>
+ * Usage: <code>java -cp target/benchmarks.jar org.littleshoot.proxy.benchmarks.EventLoopAffinityBenchmark [clients] [seconds] [workerThreads]</code>
+ */
+public class EventLoopAffinityBenchmark {
+    private static final byte[] BODY = new byte[1024];
+
+    public static void main(String[] args) throws Exception {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 32;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        int workerThreads = args.length > 2 ? Integer.parseInt(args[2]) : 8;
+
+        EventLoopGroup originGroup = new NioEventLoopGroup(2);
+        try {
+            Channel origin = startOrigin(originGroup);
+            int originPort = ((InetSocketAddress) origin.localAddress()).getPort();
+            String url = "http://127.0.0.1:" + originPort + "/benchmark";
+
+            // separate pools get half the threads each, so both modes use the same number of worker threads
+            ThreadPoolConfiguration separate = new ThreadPoolConfiguration()
+                    .withClientToProxyWorkerThreads(Math.max(1, workerThreads / 2))
+                    .withProxyToServerWorkerThreads(Math.max(1, workerThreads / 2));
+            ThreadPoolConfiguration affinity = new ThreadPoolConfiguration()
+                    .withClientToProxyWorkerThreads(workerThreads)
+                    .withEventLoopAffinity(true);
+
+            // one warm-up round for the JIT, then the measured round
+            for (int round = 0; round < 2; round++) {
+                boolean measured = round == 1;
+                run("separate worker pools", separate, url, clients, measured ? seconds : seconds / 4, measured);
+                run("event loop affinity", affinity, url, clients, measured ? seconds : seconds / 4, measured);
+            }
+
+            origin.close().sync();
+        } finally {
+            originGroup.shutdownGracefully();
+        }
+    }
+
+    private static void run(String mode, ThreadPoolConfiguration threadPoolConfiguration, final String url,
+                            int clients, int seconds, boolean report) throws Exception {
+        final HttpProxyServer proxyServer = DefaultHttpProxyServer.bootstrap()
+                .withPort(0)
+                .withThreadPoolConfiguration(threadPoolConfiguration)
+                .start();
+
+        ExecutorService executor = Executors.newFixedThreadPool(clients);
+        try {
+            final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+            List<Future<long[]>> results = new ArrayList<Future<long[]>>();
+            for (int i = 0; i < clients; i++) {
+                results.add(executor.submit(new Callable<long[]>() {
+                    @Override
+                    public long[] call() throws Exception {
+                        return runClient(proxyServer, url, deadline);
+                    }
+                }));
+            }
+
+            List<long[]> latencies = new ArrayList<long[]>();
+            int requests = 0;
+            for (Future<long[]> result : results) {
+                long[] clientLatencies = result.get();
+                latencies.add(clientLatencies);
+                requests += clientLatencies.length;
+            }
+
+            if (report) {
+                long[] all = new long[requests];
+                int offset = 0;
+                long total = 0;
+                for (long[] clientLatencies : latencies) {
+                    System.arraycopy(clientLatencies, 0, all, offset, clientLatencies.length);
+                    offset += clientLatencies.length;
+                    for (long latency : clientLatencies) {
+                        total += latency;
+                    }
+                }
+                Arrays.sort(all);
+
+                System.out.println(String.format("%-24s %10.0f req/s   mean %8.1f us   p50 %8.1f us   p99 %8.1f us",
+                        mode,
+                        requests / (double) seconds,
+                        requests == 0 ? 0 : total / (double) requests / 1000,
+                        percentile(all, 0.50) / 1000,
+                        percentile(all, 0.99) / 1000));
+            }
+        } finally {
+            executor.shutdownNow();
+            proxyServer.stop();
+        }
+    }
+
+    private static long[] runClient(HttpProxyServer proxyServer, String url, long deadline) throws Exception {
+        CloseableHttpClient httpClient = HttpClients.custom()
+                .setProxy(new HttpHost("127.0.0.1", proxyServer.getListenAddress().getPort()))
+                .build();
+        try {
+            long[] latencies = new long[1024];
+            int count = 0;
+            HttpGet get = new HttpGet(url);
+            while (System.nanoTime() - deadline < 0) {
+                long start = System.nanoTime();
+                CloseableHttpResponse response = httpClient.execute(get);
+                try {
+                    EntityUtils.consume(response.getEntity());
+                } finally {
+                    response.close();
+                }
+                if (count == latencies.length) {
+                    latencies = Arrays.copyOf(latencies, count * 2);
+                }
+                latencies[count++] = System.nanoTime() - start;
+            }
+            return Arrays.copyOf(latencies, count);
+        } finally {
+            httpClient.close();
+        }
+    }
+
+    private static double percentile(long[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        return sorted[Math.min(sorted.length - 1, (int) (sorted.length * percentile))];
+    }
+
+    private static Channel startOrigin(EventLoopGroup group) throws InterruptedException {
+        return new ServerBootstrap()
+                .group(group)
+                .channel(NioServerSocketChannel.class)
+                .childHandler(new ChannelInitializer<Channel>() {
+                    @Override
+                    protected void initChannel(Channel ch) throws Exception {
+                        ch.pipeline().addLast(new HttpServerCodec());
+                        ch.pipeline().addLast(new HttpObjectAggregator(65536));
+                        ch.pipeline().addLast(new SimpleChannelInboundHandler<FullHttpRequest>() {
+                            @Override
+                            protected void channelRead0(ChannelHandlerContext ctx, FullHttpRequest request) throws Exception {
+                                ByteBuf content = Unpooled.wrappedBuffer(BODY);
+                                FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK, content);
+                                HttpHeaders.setContentLength(response, BODY.length);
+                                if (HttpHeaders.isKeepAlive(request)) {
+                                    HttpHeaders.setKeepAlive(response, true);
+                                    ctx.writeAndFlush(response);
+                                } else {
+                                    ctx.writeAndFlush(response).addListener(ChannelFutureListener.CLOSE);
+                                }
+                            }
+                        });
+                    }
+                })
+                .bind("127.0.0.1", 0)
+                .sync()
+                .channel();
+    }
+}
@@ -0,0 +1,168 @@
+package org.littleshoot.proxy.benchmarks;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpServerCodec;
+import io.netty.handler.codec.http.HttpVersion;
+import org.apache.http.HttpHost;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.util.EntityUtils;
+import org.littleshoot.proxy.ActivityTracker;
+import org.littleshoot.proxy.ActivityTrackerAdapter;
+import org.littleshoot.proxy.HttpFilters;
+import org.littleshoot.proxy.HttpFiltersAdapter;
+import org.littleshoot.proxy.HttpFiltersSourceAdapter;
+import org.littleshoot.proxy.HttpProxyServer;
+import org.littleshoot.proxy.HttpProxyServerBootstrap;
+import org.littleshoot.proxy.impl.DefaultHttpProxyServer;
+
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Compares the channel pipelines that the proxy assembles for a fully featured configuration (an
+ * {@link ActivityTracker}, PROXY protocol headers, Brotli compression and an idle timeout) with those of a minimal
+ * configuration that needs none of these stages. For each, it prints the number of handlers in the client and server
+ * pipelines, and the latency of keep-alive GETs proxied to an in-process origin server by a single client.
+ * <p>
+ * Usage: <code>java -cp target/benchmarks.jar org.littleshoot.proxy.benchmarks.PipelineBenchmark [requests]</code>
+ */
+public class PipelineBenchmark {
+    private static final byte[] BODY = new byte[1024];
+
+    public static void main(String[] args) throws Exception {
+        int requests = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+
+        EventLoopGroup originGroup = new NioEventLoopGroup(1);
+        try {
+            Channel origin = startOrigin(originGroup);
+            int originPort = ((InetSocketAddress) origin.localAddress()).getPort();
+            String url = "http://127.0.0.1:" + originPort + "/benchmark";
+
+            // one warm-up round for the JIT, then the measured round
+            for (int round = 0; round < 2; round++) {
+                boolean measured = round == 1;
+                int roundRequests = measured ? requests : requests / 4;
+                run("full", true, url, roundRequests, measured);
+                run("minimal", false, url, roundRequests, measured);
+            }
+
+            origin.close().sync();
+        } finally {
+            originGroup.shutdownGracefully();
+        }
+    }
+
+    private static void run(String mode, boolean full, String url, int requests, boolean report) throws Exception {
+        final AtomicInteger clientHandlers = new AtomicInteger();
+        final AtomicInteger serverHandlers = new AtomicInteger();
+
+        HttpProxyServerBootstrap bootstrap = DefaultHttpProxyServer.bootstrap()
+                .withPort(0)
+                .withFiltersSource(new HttpFiltersSourceAdapter() {
+                    @Override
+                    public HttpFilters filterRequest(HttpRequest originalRequest, ChannelHandlerContext ctx) {
+                        clientHandlers.set(ctx.pipeline().names().size());
+                        return new HttpFiltersAdapter(originalRequest, ctx) {
+                            @Override
+                            public void proxyToServerConnectionSucceeded(ChannelHandlerContext serverCtx) {
+                                serverHandlers.set(serverCtx.pipeline().names().size());
+                            }
+                        };
+                    }
+                });
+        if (full) {
+            bootstrap.plusActivityTracker(new ActivityTrackerAdapter())
+                    .withAcceptProxyProtocol(true)
+                    .withBrotliCompression(true)
+                    .withIdleConnectionTimeout(70);
+        } else {
+            bootstrap.withAcceptProxyProtocol(false)
+                    .withBrotliCompression(false)
+                    .withIdleConnectionTimeout(0);
+        }
+        HttpProxyServer proxyServer = bootstrap.start();
+
+        CloseableHttpClient httpClient = HttpClients.custom()
+                .setProxy(new HttpHost("127.0.0.1", proxyServer.getListenAddress().getPort()))
+                .build();
+        try {
+            HttpGet get = new HttpGet(url);
+            long[] latencies = new long[requests];
+            for (int i = 0; i < requests; i++) {
+                long start = System.nanoTime();
+                CloseableHttpResponse response = httpClient.execute(get);
+                try {
+                    EntityUtils.consume(response.getEntity());
+                } finally {
+                    response.close();
+                }
+                latencies[i] = System.nanoTime() - start;
+            }
+
+            if (report) {
+                long total = 0;
+                for (long latency : latencies) {
+                    total += latency;
+                }
+                Arrays.sort(latencies);
+                System.out.println(String.format(
+                        "%-8s client handlers %2d   server handlers %2d   mean %8.1f us   p50 %8.1f us   p99 %8.1f us",
+                        mode,
+                        clientHandlers.get(),
+                        serverHandlers.get(),
+                        total / (double) requests / 1000,
+                        latencies[requests / 2] / 1000.0,
+                        latencies[Math.min(requests - 1, (int) (requests * 0.99))] / 1000.0));
+            }
+        } finally {
+            httpClient.close();
+            proxyServer.stop();
+        }
+    }
+
+    private static Channel startOrigin(EventLoopGroup group) throws InterruptedException {
+        return new ServerBootstrap()
+                .group(group)
+                .channel(NioServerSocketChannel.class)
+                .childHandler(new ChannelInitializer<Channel>() {
+                    @Override
+                    protected void initChannel(Channel ch) throws Exception {
+                        ch.pipeline().addLast(new HttpServerCodec());
+                        ch.pipeline().addLast(new HttpObjectAggregator(65536));
+                        ch.pipeline().addLast(new SimpleChannelInboundHandler<FullHttpRequest>() {
+                            @Override
+                            protected void channelRead0(ChannelHandlerContext ctx, FullHttpRequest request) throws Exception {
+                                ByteBuf content = Unpooled.wrappedBuffer(BODY);
+                                FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK, content);
+                                HttpHeaders.setContentLength(response, BODY.length);
+                                HttpHeaders.setKeepAlive(response, true);
+                                ctx.writeAndFlush(response);
+                            }
+                        });
+                    }
+                })
+                .bind("127.0.0.1", 0)
+                .sync()
+                .channel();
+    }
+}
@@ -0,0 +1,171 @@
+package org.littleshoot.proxy.benchmarks;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.littleshoot.proxy.impl.ProtocolHeadersRequestDecoder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Compares the byte-level {@link ProtocolHeadersRequestDecoder} with the regular expression based decoder it replaced.
+ * Each operation is one client connection: a first read carrying the PROXY and TRACE headers and a request, followed by
+ * {@code reads - 1} more reads of request data.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProtocolHeadersDecoderBenchmark {
+
+    @Param({"1", "16"})
+    public int reads;
+
+    @Param({"TCP4", "TCP6"})
+    public String family;
+
+    private byte[] firstRead;
+    private byte[] nextRead;
+
+    @Setup
+    public void setUp() {
+        String header = "TCP4".equals(family)
+                ? "PROXY TCP4 198.51.100.22 203.0.113.7 35646 80\r\n"
+                : "PROXY TCP6 2001:0DB8:0000:021f:5bff:febf:ce22:8a2e 2001:0DB8:0000:012f:8baa:eafc:ce29:6b2e 35646 80\r\n";
+        String request = "POST /post HTTP/1.1\r\nHost: example.com\r\nContent-Length: 65536\r\n\r\n";
+
+        firstRead = (header + "TRACE 0123456789abcdef0123456789abcdef\r\n" + request).getBytes(StandardCharsets.US_ASCII);
+        nextRead = new byte[4096];
+
+        // the comparison only means something if both decoders do the same work
+        String regexResult = decodedBy(new RegexProtocolHeadersRequestDecoder());
+        String byteLevelResult = decodedBy(new ProtocolHeadersRequestDecoder());
+        if (!regexResult.equals(byteLevelResult)) {
+            throw new IllegalStateException("Decoders disagree: " + regexResult + " vs. " + byteLevelResult);
+        }
+    }
+
+    @Benchmark
+    public int regexDecoder() {
+        return connection(new RegexProtocolHeadersRequestDecoder());
+    }
+
+    @Benchmark
+    public int byteLevelDecoder() {
+        return connection(new ProtocolHeadersRequestDecoder());
+    }
+
+    private int connection(ChannelHandler decoder) {
+        EmbeddedChannel channel = new EmbeddedChannel(decoder);
+        channel.writeInbound(Unpooled.copiedBuffer(firstRead));
+        for (int i = 1; i < reads; i++) {
+            channel.writeInbound(Unpooled.copiedBuffer(nextRead));
+        }
+
+        int read = 0;
+        ByteBuf buf;
+        while ((buf = channel.readInbound()) != null) {
+            read += buf.readableBytes();
+            buf.release();
+        }
+        channel.finishAndReleaseAll();
+        return read;
+    }
+
+    /**
+     * @return the source IP, connection ID and first forwarded read of a connection decoded by the given decoder
+     */
+    private String decodedBy(ChannelHandler decoder) {
+        EmbeddedChannel channel = new EmbeddedChannel(decoder);
+        channel.writeInbound(Unpooled.copiedBuffer(firstRead));
+
+        ByteBuf buf = channel.readInbound();
+        String forwarded = buf.toString(StandardCharsets.US_ASCII);
+        buf.release();
+        String result = channel.attr(ProtocolHeadersRequestDecoder.SOURCE_IP_ATTRIBUTE).get()
+                + " " + channel.attr(ProtocolHeadersRequestDecoder.CONNECTION_ID_ATTRIBUTE).get()
+                + " " + forwarded;
+        channel.finishAndReleaseAll();
+        return result;
+    }
+
+    /**
+     * The previous implementation, which matches regular expressions against a copy of every inbound buffer.
+     */
+    private static class RegexProtocolHeadersRequestDecoder extends ChannelInboundHandlerAdapter {
+        private static final Pattern TCP4_PROXY_PROTOCOL_HEADER_PATTERN =
+                Pattern.compile("^PROXY TCP4 (((25[0-5]|2[0-4][0-9]|[01]?[0-9][0-9]?)(\\.)?){4}) ((25[0-5]|2[0-4][0-9]|[01]?[0-9][0-9]?)(\\.)?){4} \\d+ \\d+\\r\\n");
+
+        private static final Pattern TCP6_PROXY_PROTOCOL_HEADER_PATTERN =
+                Pattern.compile("^PROXY TCP6 (([0-9a-f]{1,4}:){7}([0-9a-f]){1,4}) ([0-9a-f]{1,4}:){7}([0-9a-f]){1,4} \\d+ \\d+\\r\\n", Pattern.CASE_INSENSITIVE);
+
+        private static final Pattern TRACE_HEADER_PATTERN = Pattern.compile("^TRACE ([0-9a-f]{32})\\r\\n");
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+            ByteBuf buf = ((ByteBuf) msg);
+
+            String body = bufToString(buf);
+
+            Matcher tcp4Matcher = TCP4_PROXY_PROTOCOL_HEADER_PATTERN.matcher(body);
+            Matcher tcp6Matcher = TCP6_PROXY_PROTOCOL_HEADER_PATTERN.matcher(body);
+
+            String sourceIp;
+
+            if (tcp4Matcher.find()) {
+                sourceIp = tcp4Matcher.group(1);
+            } else if (tcp6Matcher.find()) {
+                sourceIp = tcp6Matcher.group(1);
+            } else {
+                ctx.fireChannelRead(msg);
+                return;
+            }
+
+            ctx.channel().attr(ProtocolHeadersRequestDecoder.SOURCE_IP_ATTRIBUTE).set(sourceIp);
+
+            int proxyProtocolHeaderIndex = body.indexOf("\r\n");
+            String stripped = body.substring(proxyProtocolHeaderIndex + 2);
+
+            Matcher traceHeaderMatcher = TRACE_HEADER_PATTERN.matcher(stripped);
+            if (!traceHeaderMatcher.find()) {
+                buf.clear().writeBytes(stripped.getBytes());
+                ctx.fireChannelRead(buf);
+                return;
+            }
+
+            ctx.channel().attr(ProtocolHeadersRequestDecoder.CONNECTION_ID_ATTRIBUTE).set(traceHeaderMatcher.group(1));
+
+            stripped = stripped.substring(6 + 32 + 2);
+            buf.clear().writeBytes(stripped.getBytes());
+
+            ctx.fireChannelRead(buf);
+        }
+
+        private String bufToString(ByteBuf content) {
+            final byte[] bytes = new byte[content.readableBytes()];
+
+            content.getBytes(content.readerIndex(), bytes);
+
+            return new String(bytes);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package org.littleshoot.proxy.benchmarks;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.littleshoot.proxy.impl.ProtocolHeadersRequestDecoder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link ProtocolHeadersRequestDecoder} on the first read of a connection: a PROXY protocol header, if any,
+ * then a TRACE line and the start of a request. Each operation is one connection, so the cost of the decoder removing
+ * itself from the pipeline is included. {@link ProtocolHeadersDecoderBenchmark} compares the decoder with the regular
+ * expression based decoder it replaced.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProtocolHeadersRequestDecoderBenchmark {
+
+    private static final byte[] V2_SIGNATURE = {
+            0x0D, 0x0A, 0x0D, 0x0A, 0x00, 0x0D, 0x0A, 0x51, 0x55, 0x49, 0x54, 0x0A
+    };
+
+    /**
+     * none: a plain request. v1: a text header for TCP4. v2: a binary header for TCP4.
+     */
+    @Param({"none", "v1", "v2"})
+    public String header;
+
+    private byte[] firstRead;
+
+    @Setup
+    public void setUp() {
+        ByteBuf read = Unpooled.buffer();
+        if ("v1".equals(header)) {
+            read.writeCharSequence("PROXY TCP4 198.51.100.22 203.0.113.7 35646 80\r\n", StandardCharsets.US_ASCII);
+        } else if ("v2".equals(header)) {
+            read.writeBytes(V2_SIGNATURE);
+            // version 2 PROXY command, TCP over IPv4, 12 bytes of addresses and ports
+            read.writeByte(0x21).writeByte(0x11).writeShort(12);
+            read.writeBytes(new byte[]{(byte) 198, 51, 100, 22}).writeBytes(new byte[]{(byte) 203, 0, 113, 7});
+            read.writeShort(35646).writeShort(80);
+        }
+        if (!"none".equals(header)) {
+            read.writeCharSequence("TRACE 0123456789abcdef0123456789abcdef\r\n", StandardCharsets.US_ASCII);
+        }
+        read.writeCharSequence("GET http://www.example.com/ HTTP/1.1\r\nHost: www.example.com\r\n\r\n",
+                StandardCharsets.US_ASCII);
+
+        firstRead = new byte[read.readableBytes()];
+        read.readBytes(firstRead);
+    }
+
+    @Benchmark
+    public int connection() {
+        EmbeddedChannel channel = new EmbeddedChannel(new ProtocolHeadersRequestDecoder());
+        channel.writeInbound(Unpooled.wrappedBuffer(firstRead));
+
+        int read = 0;
+        ByteBuf buf;
+        while ((buf = channel.readInbound()) != null) {
+            read += buf.readableBytes();
+            buf.release();
+        }
+        channel.finishAndReleaseAll();
+        return read;
+    }
+}
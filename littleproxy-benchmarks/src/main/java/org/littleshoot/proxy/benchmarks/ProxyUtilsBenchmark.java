@@ -0,0 +1,46 @@
+package org.littleshoot.proxy.benchmarks;
+
+import org.littleshoot.proxy.impl.ProxyUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the URI parsing done for every proxied request: {@link ProxyUtils#parseHostAndPort(String)}, which finds the
+ * server to connect to, and {@link ProxyUtils#stripHost(String)}, which turns the absolute URI a client sends to a
+ * proxy into the origin form sent to the server. The URIs cover the absolute form of an HTTP request, the authority
+ * form of a CONNECT, and the origin form a transparent proxy receives.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProxyUtilsBenchmark {
+
+    @Param({
+            "http://www.example.com:8080/path/to/resource?query=value&other=1",
+            "www.example.com:443",
+            "/path/to/resource?query=value&other=1"})
+    public String uri;
+
+    @Benchmark
+    public String parseHostAndPort() {
+        return ProxyUtils.parseHostAndPort(uri);
+    }
+
+    @Benchmark
+    public String stripHost() {
+        return ProxyUtils.stripHost(uri);
+    }
+}
@@ -0,0 +1,168 @@
+package org.littleshoot.proxy.benchmarks;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.compression.BrotliEncoder;
+import io.netty.handler.codec.compression.BrotliHttpContentCompressor;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpRequestDecoder;
+import io.netty.handler.codec.http.HttpRequestEncoder;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseDecoder;
+import io.netty.handler.codec.http.HttpResponseEncoder;
+import io.netty.util.ReferenceCountUtil;
+import org.littleshoot.proxy.impl.ProxyUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures a full request/response round trip through the codecs of the proxy's client and server pipelines, without
+ * any network I/O. Each operation proxies one request on a keep-alive connection:
+ * <ol>
+ *   <li>the client's request bytes are decoded by the client pipeline</li>
+ *   <li>the request is rewritten the way {@code ClientToProxyConnection} does before forwarding it</li>
+ *   <li>the server pipeline encodes the request and decodes the server's response bytes</li>
+ *   <li>the response headers are rewritten, and the response is encoded by the client pipeline, compressed with Brotli
+ *   if the client accepts it</li>
+ * </ol>
+ * Both pipelines hold the same codecs as the proxy's, in the same order; stages that only observe the traffic, like
+ * those reporting to activity trackers, are left out.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RoundTripBenchmark {
+
+    @Param({"identity", "br"})
+    public String encoding;
+
+    @Param({"1024", "65536"})
+    public int bodySize;
+
+    private byte[] requestBytes;
+    private byte[] responseBytes;
+
+    private EmbeddedChannel clientChannel;
+    private EmbeddedChannel serverChannel;
+
+    @Setup
+    public void setUp() {
+        requestBytes = ("GET http://www.example.com/index.html HTTP/1.1\r\n"
+                + "Host: www.example.com\r\n"
+                + "User-Agent: Mozilla/5.0 (X11; Linux x86_64; rv:80.0) Gecko/20100101 Firefox/80.0\r\n"
+                + "Accept: text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8\r\n"
+                + "Accept-Encoding: " + ("br".equals(encoding) ? "gzip, deflate, br" : "identity") + "\r\n"
+                + "Proxy-Connection: keep-alive\r\n"
+                + "\r\n").getBytes(StandardCharsets.US_ASCII);
+
+        char[] body = new char[bodySize];
+        for (int i = 0; i < body.length; i++) {
+            body[i] = (char) ('a' + i % 26);
+        }
+        responseBytes = ("HTTP/1.1 200 OK\r\n"
+                + "Content-Type: text/html; charset=UTF-8\r\n"
+                + "Content-Length: " + bodySize + "\r\n"
+                + "Cache-Control: no-cache\r\n"
+                + "Date: Tue, 15 Sep 2020 08:00:00 GMT\r\n"
+                + "Connection: keep-alive\r\n"
+                + "\r\n" + new String(body)).getBytes(StandardCharsets.US_ASCII);
+
+        clientChannel = new EmbeddedChannel(
+                new HttpResponseEncoder(),
+                new HttpRequestDecoder(8192, 8192 * 2, 8192 * 2),
+                new BrotliHttpContentCompressor(
+                        BrotliEncoder.DEFAULT_COMPRESSION_QUALITY,
+                        BrotliEncoder.DEFAULT_WINDOW_SIZE,
+                        BrotliHttpContentCompressor.DEFAULT_CONTENT_SIZE_THRESHOLD));
+        clientChannel.attr(BrotliHttpContentCompressor.CONTENT_COMPRESSION_ATTRIBUTE).set("br");
+
+        serverChannel = new EmbeddedChannel(
+                new HttpRequestEncoder(),
+                new HttpResponseDecoder(8192, 8192 * 2, 8192 * 2));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        clientChannel.finishAndReleaseAll();
+        serverChannel.finishAndReleaseAll();
+    }
+
+    @Benchmark
+    public int roundTrip() {
+        // client to proxy
+        clientChannel.writeInbound(Unpooled.wrappedBuffer(requestBytes));
+        Object msg;
+        while ((msg = clientChannel.readInbound()) != null) {
+            if (msg instanceof HttpRequest) {
+                rewriteRequest((HttpRequest) msg);
+            }
+            // proxy to server
+            serverChannel.write(msg);
+        }
+        serverChannel.flush();
+        int requestBytesSent = release(serverChannel);
+
+        // server to proxy
+        serverChannel.writeInbound(Unpooled.wrappedBuffer(responseBytes));
+        while ((msg = serverChannel.readInbound()) != null) {
+            if (msg instanceof HttpResponse) {
+                rewriteResponse((HttpResponse) msg);
+            }
+            // proxy to client
+            clientChannel.write(msg);
+        }
+        clientChannel.flush();
+        return requestBytesSent + release(clientChannel);
+    }
+
+    private static void rewriteRequest(HttpRequest request) {
+        request.setUri(ProxyUtils.stripHost(request.getUri()));
+        HttpHeaders headers = request.headers();
+        ProxyUtils.removeSdchEncoding(headers);
+        ProxyUtils.switchProxyConnectionHeader(headers);
+        ProxyUtils.stripConnectionTokens(headers);
+        ProxyUtils.stripHopByHopHeaders(headers);
+        ProxyUtils.addVia(request, "littleproxy");
+    }
+
+    private static void rewriteResponse(HttpResponse response) {
+        HttpHeaders headers = response.headers();
+        ProxyUtils.stripConnectionTokens(headers);
+        ProxyUtils.stripHopByHopHeaders(headers);
+        ProxyUtils.addVia(response, "littleproxy");
+    }
+
+    /**
+     * Releases the bytes written to the channel.
+     *
+     * @return the number of bytes written
+     */
+    private static int release(EmbeddedChannel channel) {
+        int written = 0;
+        Object msg;
+        while ((msg = channel.readOutbound()) != null) {
+            written += ((ByteBuf) msg).readableBytes();
+            ReferenceCountUtil.release(msg);
+        }
+        return written;
+    }
+}
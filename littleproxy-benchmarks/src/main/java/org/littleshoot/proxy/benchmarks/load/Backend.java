@@ -0,0 +1,141 @@
+package org.littleshoot.proxy.benchmarks.load;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.DefaultHttpContent;
+import io.netty.handler.codec.http.DefaultHttpResponse;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpObject;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpServerCodec;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.handler.ssl.SslHandler;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.littleshoot.proxy.extras.SelfSignedSslEngineSource;
+
+import javax.net.ssl.SSLEngine;
+import java.net.InetSocketAddress;
+
+/**
+ * The origin server of the load benchmark. It listens on two ports of the loopback interface, one for plain HTTP and
+ * one for HTTPS with a self-signed certificate, and answers every request at once:
+ * <ul>
+ *   <li>{@value #SMALL_PATH}: a body of {@value #SMALL_BODY_SIZE} bytes with a Content-Length</li>
+ *   <li>{@value #CHUNKED_PATH}: a chunked body of the configured size, sent in chunks of {@value #CHUNK_SIZE}
+ *   bytes</li>
+ * </ul>
+ * Its threads are named {@code LoadBackend-*}, so they are not counted as the proxy's.
+ */
+class Backend {
+    static final String SMALL_PATH = "/small";
+    static final String CHUNKED_PATH = "/chunked";
+
+    private static final int SMALL_BODY_SIZE = 1024;
+    private static final int CHUNK_SIZE = 16384;
+
+    private static final byte[] SMALL_BODY = new byte[SMALL_BODY_SIZE];
+    private static final byte[] CHUNK = new byte[CHUNK_SIZE];
+
+    private final int chunkedBodySize;
+    private final SelfSignedSslEngineSource sslEngineSource;
+
+    private EventLoopGroup eventLoopGroup;
+    private Channel plainChannel;
+    private Channel tlsChannel;
+
+    Backend(int chunkedBodySize, SelfSignedSslEngineSource sslEngineSource) {
+        this.chunkedBodySize = chunkedBodySize;
+        this.sslEngineSource = sslEngineSource;
+    }
+
+    void start() {
+        eventLoopGroup = new NioEventLoopGroup(0, new DefaultThreadFactory("LoadBackend"));
+        plainChannel = bind(false);
+        tlsChannel = bind(true);
+    }
+
+    void stop() {
+        if (eventLoopGroup != null) {
+            plainChannel.close().syncUninterruptibly();
+            tlsChannel.close().syncUninterruptibly();
+            eventLoopGroup.shutdownGracefully().syncUninterruptibly();
+            eventLoopGroup = null;
+        }
+    }
+
+    InetSocketAddress getPlainAddress() {
+        return (InetSocketAddress) plainChannel.localAddress();
+    }
+
+    InetSocketAddress getTlsAddress() {
+        return (InetSocketAddress) tlsChannel.localAddress();
+    }
+
+    private Channel bind(final boolean tls) {
+        return new ServerBootstrap()
+                .group(eventLoopGroup)
+                .channel(NioServerSocketChannel.class)
+                .childHandler(new ChannelInitializer<Channel>() {
+                    @Override
+                    protected void initChannel(Channel ch) throws Exception {
+                        if (tls) {
+                            SSLEngine sslEngine = sslEngineSource.newSslEngine();
+                            sslEngine.setUseClientMode(false);
+                            ch.pipeline().addLast("ssl", new SslHandler(sslEngine));
+                        }
+                        ch.pipeline().addLast("codec", new HttpServerCodec());
+                        ch.pipeline().addLast("handler", new BackendHandler());
+                    }
+                })
+                .bind("127.0.0.1", 0)
+                .syncUninterruptibly()
+                .channel();
+    }
+
+    private class BackendHandler extends SimpleChannelInboundHandler<HttpObject> {
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, HttpObject msg) throws Exception {
+            if (!(msg instanceof HttpRequest)) {
+                return;
+            }
+
+            HttpRequest request = (HttpRequest) msg;
+            if (request.uri().startsWith(CHUNKED_PATH)) {
+                HttpResponse response = new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
+                HttpUtil.setTransferEncodingChunked(response, true);
+                response.headers().set(HttpHeaderNames.CONTENT_TYPE, HttpHeaderValues.APPLICATION_OCTET_STREAM);
+                ctx.write(response);
+                for (int sent = 0; sent < chunkedBodySize; sent += CHUNK_SIZE) {
+                    int length = Math.min(CHUNK_SIZE, chunkedBodySize - sent);
+                    ctx.write(new DefaultHttpContent(Unpooled.wrappedBuffer(CHUNK, 0, length)));
+                }
+                ctx.writeAndFlush(LastHttpContent.EMPTY_LAST_CONTENT);
+            } else {
+                FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK,
+                        Unpooled.wrappedBuffer(SMALL_BODY));
+                HttpUtil.setContentLength(response, SMALL_BODY_SIZE);
+                response.headers().set(HttpHeaderNames.CONTENT_TYPE, HttpHeaderValues.APPLICATION_OCTET_STREAM);
+                ctx.writeAndFlush(response);
+            }
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
+            ctx.close();
+        }
+    }
+}
@@ -0,0 +1,291 @@
+package org.littleshoot.proxy.benchmarks.load;
+
+import io.netty.channel.Channel;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.littleshoot.proxy.ChainedProxy;
+import org.littleshoot.proxy.ChainedProxyAdapter;
+import org.littleshoot.proxy.ChainedProxyManager;
+import org.littleshoot.proxy.HttpProxyServer;
+import org.littleshoot.proxy.HttpProxyServerBootstrap;
+import org.littleshoot.proxy.MitmManager;
+import org.littleshoot.proxy.MitmManagerFactory;
+import org.littleshoot.proxy.extras.SelfSignedMitmManager;
+import org.littleshoot.proxy.extras.SelfSignedSslEngineSource;
+import org.littleshoot.proxy.impl.DefaultHttpProxyServer;
+import org.littleshoot.proxy.monitoring.LatencyHistogram;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+
+/**
+ * <p>
+ * End-to-end load benchmark of LittleProxy. For each {@link Scenario}, it starts a {@link DefaultHttpProxyServer} in
+ * this JVM, in front of a local {@link Backend}, drives it with closed-loop Netty clients for a warm-up period and a
+ * measured period, and reports as JSON:
+ * </p>
+ * <ul>
+ *   <li>the throughput, in requests and body bytes per second</li>
+ *   <li>the mean, p50, p99, p999 and maximum latency of the requests</li>
+ *   <li>the bytes allocated by the proxy's threads per request</li>
+ * </ul>
+ * <p>
+ * Given the JSON of an earlier run as a baseline, it compares the throughput, the p50 and p99 latencies and the
+ * allocation per request of every scenario with the baseline's, and exits with status 1 if any of them is worse by more
+ * than the allowed regression.
+ * </p>
+ * <p>
+ * Usage: <code>LoadBenchmark [--scenarios=keepAliveGet,connectTunnel,mitm,chainedProxy,chunkedBody,idleConnections]
+ * [--connections=16] [--warmup=5] [--duration=10] [--idle-connections=1000] [--chunked-body-size=1048576]
+ * [--output=results.json] [--baseline=baseline.json] [--max-regression=10]</code>
+ * </p>
+ * <p>
+ * Times are in seconds, and the allowed regression is a percentage. Allocation is measured with
+ * {@link com.sun.management.ThreadMXBean#getThreadAllocatedBytes(long)}, which the JVM has to support.
+ * </p>
+ */
+public class LoadBenchmark {
+    private static final String PROXY_NAME = "LoadProxy";
+    private static final String UPSTREAM_PROXY_NAME = PROXY_NAME + "Upstream";
+
+    private final Set<Scenario> scenarios = EnumSet.allOf(Scenario.class);
+    private int connections = 16;
+    private int warmupSeconds = 5;
+    private int durationSeconds = 10;
+    private int idleConnections = 1000;
+    private int chunkedBodySize = 1024 * 1024;
+    private String output;
+    private String baseline;
+    private double maxRegressionPercent = 10;
+
+    public static void main(String[] args) throws Exception {
+        LoadBenchmark benchmark = new LoadBenchmark();
+        benchmark.parseArguments(args);
+
+        Map<Scenario, ScenarioResult> results = benchmark.run();
+        String json = ScenarioResult.toJson(results);
+        System.out.println(json);
+        if (benchmark.output != null) {
+            Files.write(Paths.get(benchmark.output), json.getBytes(StandardCharsets.UTF_8));
+        }
+
+        if (benchmark.baseline != null && !benchmark.compareWithBaseline(results)) {
+            System.exit(1);
+        }
+        System.exit(0);
+    }
+
+    private void parseArguments(String[] args) {
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (!arg.startsWith("--") || separator < 0) {
+                throw new IllegalArgumentException("Expected --name=value, got: " + arg);
+            }
+            String name = arg.substring(2, separator);
+            String value = arg.substring(separator + 1);
+            if ("scenarios".equals(name)) {
+                scenarios.clear();
+                for (String key : value.split(",")) {
+                    scenarios.add(Scenario.forKey(key.trim()));
+                }
+            } else if ("connections".equals(name)) {
+                connections = Integer.parseInt(value);
+            } else if ("warmup".equals(name)) {
+                warmupSeconds = Integer.parseInt(value);
+            } else if ("duration".equals(name)) {
+                durationSeconds = Integer.parseInt(value);
+            } else if ("idle-connections".equals(name)) {
+                idleConnections = Integer.parseInt(value);
+            } else if ("chunked-body-size".equals(name)) {
+                chunkedBodySize = Integer.parseInt(value);
+            } else if ("output".equals(name)) {
+                output = value;
+            } else if ("baseline".equals(name)) {
+                baseline = value;
+            } else if ("max-regression".equals(name)) {
+                maxRegressionPercent = Double.parseDouble(value);
+            } else {
+                throw new IllegalArgumentException("Unknown option: " + name);
+            }
+        }
+    }
+
+    private Map<Scenario, ScenarioResult> run() throws Exception {
+        // trusts all certificates, so that it can be used by the clients as well as the backend
+        SelfSignedSslEngineSource sslEngineSource = new SelfSignedSslEngineSource(true);
+        Backend backend = new Backend(chunkedBodySize, sslEngineSource);
+        backend.start();
+        EventLoopGroup clientGroup = new NioEventLoopGroup(0, new DefaultThreadFactory("LoadClient"));
+        try {
+            Map<Scenario, ScenarioResult> results = new LinkedHashMap<Scenario, ScenarioResult>();
+            for (Scenario scenario : scenarios) {
+                log("Running " + scenario.getKey());
+                results.put(scenario, run(scenario, backend, clientGroup, sslEngineSource));
+            }
+            return results;
+        } finally {
+            clientGroup.shutdownGracefully().syncUninterruptibly();
+            backend.stop();
+        }
+    }
+
+    private ScenarioResult run(Scenario scenario, Backend backend, EventLoopGroup clientGroup,
+            SelfSignedSslEngineSource sslEngineSource) throws Exception {
+        List<HttpProxyServer> proxies = new ArrayList<HttpProxyServer>();
+        List<LoadClient> clients = new ArrayList<LoadClient>();
+        try {
+            HttpProxyServerBootstrap bootstrap = DefaultHttpProxyServer.bootstrap()
+                    .withName(PROXY_NAME)
+                    .withPort(0);
+            switch (scenario) {
+                case MITM:
+                    final MitmManager mitmManager = new SelfSignedMitmManager();
+                    bootstrap.withManInTheMiddle(new MitmManagerFactory() {
+                        @Override
+                        public MitmManager getInstance(Channel channel) {
+                            // one manager for all connections, so that its key store is only loaded once
+                            return mitmManager;
+                        }
+                    });
+                    break;
+                case CHAINED_PROXY:
+                    HttpProxyServer upstream = DefaultHttpProxyServer.bootstrap()
+                            .withName(UPSTREAM_PROXY_NAME)
+                            .withPort(0)
+                            .start();
+                    proxies.add(upstream);
+                    bootstrap.withChainProxyManager(chainTo(upstream.getListenAddress()));
+                    break;
+                default:
+                    break;
+            }
+            HttpProxyServer proxy = bootstrap.start();
+            proxies.add(proxy);
+
+            InetSocketAddress target = scenario.getClientMode() == LoadClient.Mode.TUNNEL
+                    ? backend.getTlsAddress()
+                    : backend.getPlainAddress();
+            InetSocketAddress proxyAddress = new InetSocketAddress("127.0.0.1", proxy.getListenAddress().getPort());
+
+            if (scenario == Scenario.IDLE_CONNECTIONS) {
+                LoadClient idleClient = new LoadClient(clientGroup, proxyAddress, scenario.getClientMode(), target,
+                        scenario.getPath(), sslEngineSource);
+                clients.add(idleClient);
+                log("Opening " + idleConnections + " idle connections");
+                idleClient.open(idleConnections, true);
+            }
+
+            LoadClient client = new LoadClient(clientGroup, proxyAddress, scenario.getClientMode(), target,
+                    scenario.getPath(), sslEngineSource);
+            clients.add(client);
+            client.open(connections, false);
+
+            Thread.sleep(warmupSeconds * 1000L);
+
+            LatencyHistogram latencies = client.startMeasuring();
+            long allocatedBefore = proxyAllocatedBytes();
+            long start = System.nanoTime();
+            Thread.sleep(durationSeconds * 1000L);
+            long allocated = proxyAllocatedBytes() - allocatedBefore;
+            double seconds = (System.nanoTime() - start) / 1e9;
+
+            ScenarioResult result = new ScenarioResult(connections, seconds, latencies, client.getErrors(),
+                    client.getBodyBytes(), allocated);
+            if (result.get("errors") > 0) {
+                log(scenario.getKey() + ": " + (long) result.get("errors") + " errors");
+            }
+            return result;
+        } finally {
+            for (LoadClient client : clients) {
+                client.stop();
+            }
+            for (HttpProxyServer proxy : proxies) {
+                proxy.abort();
+            }
+        }
+    }
+
+    private static ChainedProxyManager chainTo(final InetSocketAddress upstreamAddress) {
+        return new ChainedProxyManager() {
+            @Override
+            public void lookupChainedProxies(HttpRequest httpRequest, Queue<ChainedProxy> chainedProxies) {
+                chainedProxies.add(new ChainedProxyAdapter() {
+                    @Override
+                    public InetSocketAddress getChainedProxyAddress() {
+                        return upstreamAddress;
+                    }
+                });
+            }
+        };
+    }
+
+    /**
+     * @return true if no measurement of any scenario is worse than the baseline's by more than the allowed regression
+     */
+    private boolean compareWithBaseline(Map<Scenario, ScenarioResult> results) throws IOException {
+        Map<String, Map<String, Double>> baselines = ScenarioResult.parseJson(
+                new String(Files.readAllBytes(Paths.get(baseline)), StandardCharsets.UTF_8));
+
+        boolean passed = true;
+        for (Map.Entry<Scenario, ScenarioResult> result : results.entrySet()) {
+            String key = result.getKey().getKey();
+            Map<String, Double> scenarioBaseline = baselines.get(key);
+            if (scenarioBaseline == null) {
+                log(key + ": not in the baseline");
+                continue;
+            }
+
+            for (int i = 0; i < ScenarioResult.COMPARED.length; i++) {
+                String name = ScenarioResult.COMPARED[i];
+                Double expected = scenarioBaseline.get(name);
+                if (expected == null || expected <= 0) {
+                    continue;
+                }
+                double actual = result.getValue().get(name);
+                boolean higherIsBetter = i == 0;
+                double regressionPercent = (higherIsBetter ? expected - actual : actual - expected) / expected * 100;
+                boolean regressed = regressionPercent > maxRegressionPercent;
+                log(String.format(Locale.US, "%-16s %-26s baseline %12.1f   now %12.1f   %s",
+                        key, name, expected, actual,
+                        regressed ? String.format(Locale.US, "REGRESSED by %.1f%%", regressionPercent) : "ok"));
+                passed &= !regressed;
+            }
+        }
+        return passed;
+    }
+
+    /**
+     * @return the bytes allocated so far by the threads of the proxies under test
+     */
+    private static long proxyAllocatedBytes() {
+        com.sun.management.ThreadMXBean threadMXBean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long allocated = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            // also matches the upstream proxy of the chained scenario
+            if (thread.getName().startsWith(PROXY_NAME)) {
+                allocated += Math.max(0, threadMXBean.getThreadAllocatedBytes(thread.getId()));
+            }
+        }
+        return allocated;
+    }
+
+    private static void log(String message) {
+        // the JSON goes to standard output
+        System.err.println(message);
+    }
+}
@@ -0,0 +1,319 @@
+package org.littleshoot.proxy.benchmarks.load;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.HttpClientCodec;
+import io.netty.handler.codec.http.HttpContent;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpObject;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.handler.ssl.SslHandler;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.GenericFutureListener;
+import org.littleshoot.proxy.SslEngineSource;
+import org.littleshoot.proxy.monitoring.LatencyHistogram;
+
+import javax.net.ssl.SSLEngine;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Closed-loop HTTP client of the load benchmark. Each of its connections to the proxy sends a request, waits for the
+ * whole response, and sends the next one at once, so the load it generates is limited by the latency of the proxy
+ * rather than by a fixed rate.
+ * <p>
+ * A connection either sends its requests to the proxy in absolute form, or first asks the proxy to CONNECT to the
+ * target, does a TLS handshake through the tunnel, and sends its requests in origin form over it.
+ */
+class LoadClient {
+    private static final long READY_TIMEOUT_SECONDS = 60;
+
+    /**
+     * How a connection reaches the target through the proxy.
+     */
+    enum Mode {
+        /**
+         * Requests in absolute form, sent to the proxy.
+         */
+        PROXY_REQUEST,
+
+        /**
+         * Requests in origin form, sent over TLS through a CONNECT tunnel.
+         */
+        TUNNEL
+    }
+
+    private final EventLoopGroup eventLoopGroup;
+    private final InetSocketAddress proxyAddress;
+    private final Mode mode;
+    private final InetSocketAddress target;
+    private final String targetHostAndPort;
+    private final String path;
+    private final SslEngineSource sslEngineSource;
+
+    private final List<Channel> channels = new ArrayList<Channel>();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder bodyBytes = new LongAdder();
+    private volatile LatencyHistogram latencies = new LatencyHistogram();
+    private volatile boolean running = true;
+
+    /**
+     * @param sslEngineSource source of the engines for TLS through a tunnel; only used in {@link Mode#TUNNEL}
+     */
+    LoadClient(EventLoopGroup eventLoopGroup, InetSocketAddress proxyAddress, Mode mode,
+            InetSocketAddress target, String path, SslEngineSource sslEngineSource) {
+        this.eventLoopGroup = eventLoopGroup;
+        this.proxyAddress = proxyAddress;
+        this.mode = mode;
+        this.target = target;
+        this.targetHostAndPort = target.getHostString() + ":" + target.getPort();
+        this.path = path;
+        this.sslEngineSource = sslEngineSource;
+    }
+
+    /**
+     * Opens connections to the proxy, and waits until each has received its first response.
+     *
+     * @param connections number of connections to open
+     * @param idle        true if the connections should stay idle after their first response, false if they should
+     *                    keep sending requests until {@link #stop()}
+     */
+    void open(int connections, boolean idle) throws InterruptedException {
+        final CountDownLatch ready = new CountDownLatch(connections);
+        Bootstrap bootstrap = new Bootstrap()
+                .group(eventLoopGroup)
+                .channel(NioSocketChannel.class)
+                .option(ChannelOption.TCP_NODELAY, true)
+                .handler(initializer(ready, idle));
+
+        long errorsBefore = errors.sum();
+        for (int i = 0; i < connections; i++) {
+            ChannelFuture connectFuture = bootstrap.connect(proxyAddress);
+            connectFuture.addListener(new ChannelFutureListener() {
+                @Override
+                public void operationComplete(ChannelFuture future) throws Exception {
+                    if (!future.isSuccess()) {
+                        errors.increment();
+                        ready.countDown();
+                    }
+                }
+            });
+            synchronized (channels) {
+                channels.add(connectFuture.channel());
+            }
+        }
+
+        if (!ready.await(READY_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+            throw new IllegalStateException("Timed out waiting for " + ready.getCount() + " of " + connections
+                    + " connections to receive their first response");
+        }
+        long failed = errors.sum() - errorsBefore;
+        if (failed > 0) {
+            throw new IllegalStateException(failed + " of " + connections + " connections failed");
+        }
+    }
+
+    /**
+     * Starts recording the latencies of the responses received from now on, and counting their errors and bytes anew.
+     *
+     * @return the histogram the latencies are recorded in
+     */
+    LatencyHistogram startMeasuring() {
+        LatencyHistogram measured = new LatencyHistogram();
+        latencies = measured;
+        errors.reset();
+        bodyBytes.reset();
+        return measured;
+    }
+
+    /**
+     * @return errors since {@link #startMeasuring()}: responses other than 200 OK, and connections that failed
+     */
+    long getErrors() {
+        return errors.sum();
+    }
+
+    /**
+     * @return bytes of the response bodies received since {@link #startMeasuring()}
+     */
+    long getBodyBytes() {
+        return bodyBytes.sum();
+    }
+
+    /**
+     * Stops sending requests, and closes all connections.
+     */
+    void stop() {
+        running = false;
+        synchronized (channels) {
+            for (Channel channel : channels) {
+                channel.close().syncUninterruptibly();
+            }
+            channels.clear();
+        }
+    }
+
+    private ChannelInitializer<Channel> initializer(final CountDownLatch ready, final boolean idle) {
+        return new ChannelInitializer<Channel>() {
+            @Override
+            protected void initChannel(Channel ch) throws Exception {
+                ch.pipeline().addLast("codec", new HttpClientCodec());
+                ch.pipeline().addLast("handler", new ConnectionHandler(ready, idle));
+            }
+        };
+    }
+
+    private class ConnectionHandler extends SimpleChannelInboundHandler<HttpObject> {
+        private final CountDownLatch ready;
+        private final boolean idle;
+
+        private boolean tunnelRequested;
+        private boolean firstResponseReceived;
+        private boolean failed;
+        private boolean ok;
+        private long requestSentAt;
+
+        ConnectionHandler(CountDownLatch ready, boolean idle) {
+            this.ready = ready;
+            this.idle = idle;
+        }
+
+        @Override
+        public void channelActive(ChannelHandlerContext ctx) throws Exception {
+            if (mode == Mode.TUNNEL) {
+                tunnelRequested = true;
+                ctx.writeAndFlush(request(HttpMethod.CONNECT, targetHostAndPort));
+            } else {
+                sendRequest(ctx);
+            }
+            super.channelActive(ctx);
+        }
+
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, HttpObject msg) throws Exception {
+            if (msg instanceof HttpResponse) {
+                ok = HttpResponseStatus.OK.equals(((HttpResponse) msg).status());
+            }
+            if (msg instanceof HttpContent) {
+                bodyBytes.add(((HttpContent) msg).content().readableBytes());
+            }
+            if (!(msg instanceof LastHttpContent)) {
+                return;
+            }
+
+            if (tunnelRequested) {
+                tunnelRequested = false;
+                if (!ok) {
+                    fail(ctx);
+                    return;
+                }
+                startTls(ctx);
+                return;
+            }
+
+            long latency = System.nanoTime() - requestSentAt;
+            if (ok) {
+                latencies.recordNanos(latency);
+            } else {
+                errors.increment();
+            }
+            if (!firstResponseReceived) {
+                firstResponseReceived = true;
+                ready.countDown();
+            }
+            if (running && !idle) {
+                sendRequest(ctx);
+            }
+        }
+
+        /**
+         * Replaces the codec used for the CONNECT with a TLS handler and a new codec, and sends the first request over
+         * the tunnel once the handshake is done.
+         */
+        private void startTls(final ChannelHandlerContext ctx) {
+            SSLEngine sslEngine = sslEngineSource.newSslEngine(target.getHostString(), target.getPort());
+            sslEngine.setUseClientMode(true);
+            SslHandler sslHandler = new SslHandler(sslEngine);
+
+            ChannelPipeline pipeline = ctx.pipeline();
+            pipeline.remove("codec");
+            pipeline.addFirst("ssl", sslHandler);
+            pipeline.addAfter("ssl", "codec", new HttpClientCodec());
+            sslHandler.handshakeFuture().addListener(new GenericFutureListener<Future<Channel>>() {
+                @Override
+                public void operationComplete(Future<Channel> future) throws Exception {
+                    if (future.isSuccess()) {
+                        sendRequest(ctx);
+                    } else {
+                        fail(ctx);
+                    }
+                }
+            });
+        }
+
+        private void sendRequest(ChannelHandlerContext ctx) {
+            String uri = mode == Mode.TUNNEL ? path : "http://" + targetHostAndPort + path;
+            requestSentAt = System.nanoTime();
+            ctx.writeAndFlush(request(HttpMethod.GET, uri)).addListener(new ChannelFutureListener() {
+                @Override
+                public void operationComplete(ChannelFuture future) throws Exception {
+                    if (!future.isSuccess()) {
+                        fail(ctx);
+                    }
+                }
+            });
+        }
+
+        private FullHttpRequest request(HttpMethod method, String uri) {
+            FullHttpRequest request = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, method, uri);
+            request.headers().set(HttpHeaderNames.HOST, targetHostAndPort);
+            return request;
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
+            fail(ctx);
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+            if (running) {
+                // the proxy closed a connection that the benchmark was still using
+                fail(ctx);
+            }
+            super.channelInactive(ctx);
+        }
+
+        private void fail(ChannelHandlerContext ctx) {
+            if (failed) {
+                return;
+            }
+            failed = true;
+            errors.increment();
+            if (!firstResponseReceived) {
+                firstResponseReceived = true;
+                ready.countDown();
+            }
+            ctx.close();
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package org.littleshoot.proxy.benchmarks.load;
+
+import org.littleshoot.proxy.benchmarks.load.LoadClient.Mode;
+
+/**
+ * The scenarios of the load benchmark. Each describes how the proxy is set up, and what its clients ask of it.
+ */
+enum Scenario {
+    /**
+     * Small GETs over keep-alive connections.
+     */
+    KEEP_ALIVE_GET("keepAliveGet", Mode.PROXY_REQUEST, Backend.SMALL_PATH),
+
+    /**
+     * Small GETs over TLS, tunneled through the proxy with CONNECT.
+     */
+    CONNECT_TUNNEL("connectTunnel", Mode.TUNNEL, Backend.SMALL_PATH),
+
+    /**
+     * Small GETs over TLS through CONNECT, which the proxy intercepts with a self-signed certificate and forwards over
+     * TLS of its own.
+     */
+    MITM("mitm", Mode.TUNNEL, Backend.SMALL_PATH),
+
+    /**
+     * Small GETs through a proxy that forwards them to another proxy.
+     */
+    CHAINED_PROXY("chainedProxy", Mode.PROXY_REQUEST, Backend.SMALL_PATH),
+
+    /**
+     * GETs of large chunked bodies over keep-alive connections.
+     */
+    CHUNKED_BODY("chunkedBody", Mode.PROXY_REQUEST, Backend.CHUNKED_PATH),
+
+    /**
+     * Small GETs over keep-alive connections, while many more connections, each with its own connection to the server,
+     * sit idle after a first request.
+     */
+    IDLE_CONNECTIONS("idleConnections", Mode.PROXY_REQUEST, Backend.SMALL_PATH);
+
+    private final String key;
+    private final Mode clientMode;
+    private final String path;
+
+    Scenario(String key, Mode clientMode, String path) {
+        this.key = key;
+        this.clientMode = clientMode;
+        this.path = path;
+    }
+
+    /**
+     * @return the name of the scenario on the command line and in the results
+     */
+    String getKey() {
+        return key;
+    }
+
+    Mode getClientMode() {
+        return clientMode;
+    }
+
+    /**
+     * @return the path requested from the backend
+     */
+    String getPath() {
+        return path;
+    }
+
+    static Scenario forKey(String key) {
+        for (Scenario scenario : values()) {
+            if (scenario.key.equals(key)) {
+                return scenario;
+            }
+        }
+        throw new IllegalArgumentException("Unknown scenario: " + key);
+    }
+}
@@ -0,0 +1,102 @@
+package org.littleshoot.proxy.benchmarks.load;
+
+import org.littleshoot.proxy.monitoring.LatencyHistogram;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The measurements of one scenario, and their JSON form. The JSON of a run is an object with one member per scenario:
+ * <pre>
+ * {"scenarios":{"keepAliveGet":{"connections":16,"seconds":10.0,"requests":250000,"errors":0,
+ *   "requestsPerSecond":25000.0,"bodyBytesPerSecond":25600000.0,"meanMicros":630.2,"p50Micros":600,
+ *   "p99Micros":1400,"p999Micros":2900,"maxMicros":9800,"allocatedBytesPerRequest":5120.0}, ...}}
+ * </pre>
+ */
+class ScenarioResult {
+    /**
+     * The measurements compared against a baseline. For the first, higher is better; for the others, lower is better.
+     */
+    static final String[] COMPARED = {"requestsPerSecond", "p50Micros", "p99Micros", "allocatedBytesPerRequest"};
+
+    private static final Pattern SCENARIO = Pattern.compile("\"(\\w+)\"\\s*:\\s*\\{([^{}]*)\\}");
+    private static final Pattern NUMBER = Pattern.compile("\"(\\w+)\"\\s*:\\s*(-?[0-9.Ee+-]+)");
+
+    private final Map<String, Number> values = new LinkedHashMap<String, Number>();
+
+    ScenarioResult(int connections, double seconds, LatencyHistogram latencies, long errors, long bodyBytes,
+            long allocatedBytes) {
+        long requests = latencies.getCount();
+        values.put("connections", connections);
+        values.put("seconds", seconds);
+        values.put("requests", requests);
+        values.put("errors", errors);
+        values.put("requestsPerSecond", requests / seconds);
+        values.put("bodyBytesPerSecond", bodyBytes / seconds);
+        values.put("meanMicros", latencies.getMeanMicros());
+        values.put("p50Micros", latencies.getValueAtPercentileMicros(50));
+        values.put("p99Micros", latencies.getValueAtPercentileMicros(99));
+        values.put("p999Micros", latencies.getValueAtPercentileMicros(99.9));
+        values.put("maxMicros", latencies.getMaxMicros());
+        values.put("allocatedBytesPerRequest", requests > 0 ? allocatedBytes / (double) requests : 0);
+    }
+
+    double get(String name) {
+        return values.get(name).doubleValue();
+    }
+
+    void appendJson(StringBuilder json) {
+        json.append('{');
+        boolean first = true;
+        for (Map.Entry<String, Number> value : values.entrySet()) {
+            if (!first) {
+                json.append(',');
+            }
+            first = false;
+            json.append('"').append(value.getKey()).append("\":");
+            if (value.getValue() instanceof Double) {
+                json.append(String.format(Locale.US, "%.1f", value.getValue().doubleValue()));
+            } else {
+                json.append(value.getValue());
+            }
+        }
+        json.append('}');
+    }
+
+    static String toJson(Map<Scenario, ScenarioResult> results) {
+        StringBuilder json = new StringBuilder(512);
+        json.append("{\"scenarios\":{");
+        boolean first = true;
+        for (Map.Entry<Scenario, ScenarioResult> result : results.entrySet()) {
+            if (!first) {
+                json.append(',');
+            }
+            first = false;
+            json.append('"').append(result.getKey().getKey()).append("\":");
+            result.getValue().appendJson(json);
+        }
+        return json.append("}}").toString();
+    }
+
+    /**
+     * Reads the measurements of each scenario from the JSON of an earlier run.
+     *
+     * @return the measurements by name, by scenario key
+     */
+    static Map<String, Map<String, Double>> parseJson(String json) {
+        Map<String, Map<String, Double>> scenarios = new LinkedHashMap<String, Map<String, Double>>();
+        Matcher scenario = SCENARIO.matcher(json);
+        while (scenario.find()) {
+            Map<String, Double> measurements = new LinkedHashMap<String, Double>();
+            Matcher number = NUMBER.matcher(scenario.group(2));
+            while (number.find()) {
+                measurements.put(number.group(1), Double.parseDouble(number.group(2)));
+            }
+            scenarios.put(scenario.group(1), measurements);
+        }
+        return scenarios;
+    }
+}
@@ -16,28 +16,36 @@
 package io.netty.handler.codec.compression;
 
 import com.nixxcode.jvmbrotli.common.BrotliLoader;
+import com.nixxcode.jvmbrotli.dec.BrotliDecoderChannel;
 import com.nixxcode.jvmbrotli.dec.BrotliInputStream;
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.ByteBufInputStream;
-import io.netty.buffer.ByteBufOutputStream;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.ByteToMessageDecoder;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
 import java.util.List;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
 /**
- * Decompress a {@link ByteBuf} using the inflate algorithm.
+ * Decompresses a Brotli stream arriving as a sequence of {@link ByteBuf}s. One native decoder is kept across reads, so
+ * every compressed byte is decoded exactly once. The decoder runs in eager mode, so the data decoded from each buffer
+ * is passed on in pooled buffers right away rather than when the native output buffer is full or the stream ends.
  */
 public class BrotliDecoder extends ByteToMessageDecoder {
 
-  private static final Logger log = LoggerFactory.getLogger(BrotliDecoder.class);
-
   private static final int EOF = -1;
 
+  // size of the buffers decoded data is written into
+  private static final int OUTPUT_BUFFER_SIZE = 8192;
+
+  // feeds the native decoder from the buffer currently being decoded; reads 0 bytes when that buffer is used up
+  private final ByteBufSource source = new ByteBufSource();
+
+  private BrotliDecoderChannel brotli;
+  private boolean finished;
+
   public BrotliDecoder() {
     // https://github.com/nixxcode/jvm-brotli#loading-jvm-brotli
     if (!BrotliLoader.isBrotliAvailable()) {
@@ -47,32 +55,66 @@ public class BrotliDecoder extends ByteToMessageDecoder {
 
   @Override
   protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) throws Exception {
-    ByteBuf result = in.alloc().buffer();
-    boolean success = true;
-    try (
-        ByteBufOutputStream bbout = new ByteBufOutputStream(result);
-        ByteBufInputStream bbin = new ByteBufInputStream(in);
-    ) {
-      decompress(bbin, bbout);
-      if (!result.isReadable()) {
-        success = false;
-        log.warn("Decoded result is not readable");
-        return;
+    if (finished) {
+      // data after the end of the stream is ignored
+      in.skipBytes(in.readableBytes());
+      return;
+    }
+
+    source.in = in;
+    try {
+      if (brotli == null) {
+        brotli = new BrotliDecoderChannel(source);
+        // hand out whatever has been decoded as soon as more input is needed, instead of waiting for the native
+        // output buffer to fill up or the stream to end
+        brotli.enableEagerOutput();
+      }
+
+      while (true) {
+        ByteBuf decoded = ctx.alloc().buffer(OUTPUT_BUFFER_SIZE);
+        int read;
+        try {
+          read = brotli.read(decoded.internalNioBuffer(decoded.writerIndex(), decoded.writableBytes()));
+        } catch (IOException e) {
+          decoded.release();
+          throw new DecompressionException("Brotli stream is corrupted", e);
+        }
+
+        if (read > 0) {
+          decoded.writerIndex(decoded.writerIndex() + read);
+          out.add(decoded);
+        } else {
+          decoded.release();
+        }
+
+        if (read == EOF) {
+          finished = true;
+          closeDecoder();
+          in.skipBytes(in.readableBytes());
+          return;
+        }
+        if (read == 0) {
+          // all input is with the native decoder, which needs more of it before producing more output
+          return;
+        }
       }
-      out.add(result);
-    } catch (IOException ioe) {
-      // stream is corrupted or not ready (retriable)
-      // exit condition will be reached when Netty has nothing more to add to the buffer
-      // and this function is not able to decode any messages to "out"
-      log.warn("Brotli stream was not ready for consumption", ioe);
-      success = false;
-    } catch (Exception e) {
-      success = false;
-      throw e;
     } finally {
-      if (!success) {
-        in.resetReaderIndex();
-        result.release();
+      source.in = null;
+    }
+  }
+
+  @Override
+  protected void handlerRemoved0(ChannelHandlerContext ctx) throws Exception {
+    closeDecoder();
+  }
+
+  private void closeDecoder() {
+    if (brotli != null) {
+      try {
+        brotli.close();
+      } catch (IOException ignored) {
+      } finally {
+        brotli = null;
       }
     }
   }
@@ -86,4 +128,33 @@ public class BrotliDecoder extends ByteToMessageDecoder {
       }
     }
   }
-}
\ No newline at end of file
+
+  private static final class ByteBufSource implements ReadableByteChannel {
+    private ByteBuf in;
+
+    @Override
+    public int read(ByteBuffer dst) {
+      if (in == null) {
+        return 0;
+      }
+      int length = Math.min(dst.remaining(), in.readableBytes());
+      if (length == 0) {
+        return 0;
+      }
+      ByteBuffer src = dst.duplicate();
+      src.limit(src.position() + length);
+      in.readBytes(src);
+      dst.position(dst.position() + length);
+      return length;
+    }
+
+    @Override
+    public boolean isOpen() {
+      return true;
+    }
+
+    @Override
+    public void close() {
+    }
+  }
+}
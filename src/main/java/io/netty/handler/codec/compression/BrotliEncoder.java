@@ -20,30 +20,42 @@ import com.nixxcode.jvmbrotli.enc.BrotliOutputStream;
 import com.nixxcode.jvmbrotli.enc.Encoder;
 
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.ByteBufOutputStream;
-import io.netty.buffer.ByteBufUtil;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
 import io.netty.handler.codec.MessageToByteEncoder;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
-
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Compresses a stream of {@link ByteBuf}s into a single Brotli stream. One native encoder is kept for the lifetime of
+ * the handler, so that later chunks are compressed with the context of earlier ones. The compressed data of every chunk
+ * is flushed out at the end of the chunk, and the stream is finished when the channel is closed, which
+ * {@link io.netty.handler.codec.http.HttpContentEncoder} does on {@link io.netty.handler.codec.http.LastHttpContent}.
+ */
 public class BrotliEncoder extends MessageToByteEncoder<ByteBuf> {
 
-  private static final Logger log = LoggerFactory.getLogger(BrotliEncoder.class);
-
-  private final boolean preferDirect;
-  private final int compressionQuality;
-  private final int windowSize;
-
   /*
    If the Brotli encoding is being used to compress streams in real-time,
    it is not advisable to have a quality setting above 4 due to performance.
   */
-  private static final int DEFAULT_COMPRESSION_QUALITY = 4;
+  public static final int DEFAULT_COMPRESSION_QUALITY = 4;
+
+  /*
+   -1 lets the native encoder pick its default window of 2^22 bytes.
+  */
+  public static final int DEFAULT_WINDOW_SIZE = -1;
 
-  private static final int DEFAULT_WINDOW_SIZE = -1;
+  private final boolean preferDirect;
+  private final int compressionQuality;
+  private final int windowSize;
 
+  // receives the compressed output of the native encoder, and writes it to the buffer currently being encoded into
+  private final ByteBufSink sink = new ByteBufSink();
+
+  private BrotliOutputStream brotli;
+  private volatile boolean finished;
 
   public BrotliEncoder() {
     this(true, DEFAULT_COMPRESSION_QUALITY, DEFAULT_WINDOW_SIZE);
@@ -74,22 +86,138 @@ public class BrotliEncoder extends MessageToByteEncoder<ByteBuf> {
 
   @Override
   protected void encode(ChannelHandlerContext ctx, ByteBuf uncompressed, ByteBuf out) throws Exception {
-    if (!uncompressed.isReadable() || uncompressed.readableBytes() == 0) {
+    if (finished) {
+      out.writeBytes(uncompressed);
       return;
     }
-    try (ByteBufOutputStream dst = new ByteBufOutputStream(uncompressed.alloc().buffer())) {
-      Encoder.Parameters params = new Encoder.Parameters().setQuality(this.compressionQuality);
-      try (BrotliOutputStream brotliOutputStream = new BrotliOutputStream(dst, params)) {
-        brotliOutputStream
-            .write(ByteBufUtil.getBytes(uncompressed, uncompressed.readerIndex(), uncompressed.readableBytes(), false));
-        brotliOutputStream.flush();
+    compress(uncompressed, out);
+  }
+
+  /**
+   * Compresses all readable bytes of {@code uncompressed} into {@code out}, and flushes the compressed data. Allows
+   * this encoder to be driven outside of a pipeline, for example on another thread, as long as it is used by one
+   * thread at a time.
+   */
+  public void compress(ByteBuf uncompressed, ByteBuf out) throws IOException {
+    if (!uncompressed.isReadable()) {
+      return;
+    }
+
+    sink.target = out;
+    try {
+      BrotliOutputStream stream = stream();
+      // heap buffers hand their backing array to the encoder, direct buffers go through a scratch array Netty reuses
+      uncompressed.readBytes(stream, uncompressed.readableBytes());
+      stream.flush();
+    } finally {
+      sink.target = null;
+    }
+  }
+
+  /**
+   * Finishes the Brotli stream, writing its last bytes into {@code out}, and frees the native encoder.
+   */
+  public void finish(ByteBuf out) throws IOException {
+    if (finished) {
+      return;
+    }
+    finished = true;
+
+    sink.target = out;
+    try {
+      stream().close();
+    } finally {
+      sink.target = null;
+      brotli = null;
+    }
+  }
+
+  /**
+   * Frees the native encoder of a stream that will not be finished. Its remaining output is discarded.
+   */
+  public void destroy() {
+    finished = true;
+    if (brotli != null) {
+      try {
+        brotli.close();
+      } catch (IOException ignored) {
+      } finally {
+        brotli = null;
       }
-      out.writeBytes(dst.buffer());
     }
   }
 
+  @Override
+  public void close(final ChannelHandlerContext ctx, final ChannelPromise promise) throws Exception {
+    ChannelFuture f = finishEncode(ctx, ctx.newPromise());
+    f.addListener(new ChannelFutureListener() {
+      @Override
+      public void operationComplete(ChannelFuture f) throws Exception {
+        ctx.close(promise);
+      }
+    });
+  }
+
+  @Override
+  public void handlerRemoved(ChannelHandlerContext ctx) throws Exception {
+    destroy();
+    super.handlerRemoved(ctx);
+  }
+
+  /**
+   * Returns true if the Brotli stream has been finished.
+   */
+  public boolean isClosed() {
+    return finished;
+  }
+
+  private ChannelFuture finishEncode(ChannelHandlerContext ctx, ChannelPromise promise) {
+    if (finished) {
+      promise.setSuccess();
+      return promise;
+    }
+
+    ByteBuf footer = ctx.alloc().heapBuffer();
+    try {
+      finish(footer);
+    } catch (IOException e) {
+      footer.release();
+      promise.setFailure(e);
+      return promise;
+    }
+    return ctx.writeAndFlush(footer, promise);
+  }
+
+  private BrotliOutputStream stream() throws IOException {
+    if (brotli == null) {
+      Encoder.Parameters params = new Encoder.Parameters()
+          .setQuality(compressionQuality)
+          .setWindow(windowSize);
+      brotli = new BrotliOutputStream(sink, params);
+    }
+    return brotli;
+  }
+
   @Override
   public boolean isPreferDirect() {
     return preferDirect;
   }
+
+  private static final class ByteBufSink extends OutputStream {
+    private ByteBuf target;
+
+    @Override
+    public void write(int b) {
+      if (target != null) {
+        target.writeByte(b);
+      }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+      if (target != null) {
+        target.writeBytes(b, off, len);
+      }
+    }
+  }
 }
@@ -1,20 +1,37 @@
 package io.netty.handler.codec.compression;
 
+import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
 import io.netty.channel.embedded.EmbeddedChannel;
 import io.netty.handler.codec.http.HttpContent;
 import io.netty.handler.codec.http.HttpContentEncoder;
 import io.netty.handler.codec.http.HttpHeaderNames;
 import io.netty.handler.codec.http.HttpMessage;
+import io.netty.handler.codec.http.HttpObject;
+import io.netty.handler.codec.http.HttpRequest;
 import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.codec.http.LastHttpContent;
 import io.netty.util.AsciiString;
 import io.netty.util.AttributeKey;
+import io.netty.util.ReferenceCountUtil;
+import java.util.ArrayDeque;
+import java.util.List;
 import org.apache.commons.lang3.StringUtils;
 
 /**
  * Compresses an {@link HttpMessage} and an {@link HttpContent} in {@code brotli} encoding while respecting the {@code
  * "Accept-Encoding"} header. If there is no matching encoding, no compression is done.  For more information on how
  * this handler modifies the message, please refer to {@link HttpContentEncoder}.
+ * <p>
+ * Each compressed response gets its own {@link BrotliEncoder}, so the body is compressed as one Brotli stream. Responses
+ * known to be smaller than the content size threshold are not compressed.
+ * <p>
+ * With a {@link CompressedResponseCache}, the compressed bodies of cacheable responses are kept, and a response the
+ * server sends again with the same validators gets the cached body instead of being compressed again.
  */
 public class BrotliHttpContentCompressor extends HttpContentEncoder {
 
@@ -24,11 +41,132 @@ public class BrotliHttpContentCompressor extends HttpContentEncoder {
 
   public static final AsciiString BR = AsciiString.cached("br");
 
+  /*
+   Compress responses of any size.
+  */
+  public static final int DEFAULT_CONTENT_SIZE_THRESHOLD = 0;
+
+  private final int compressionQuality;
+  private final int windowSize;
+  private final int contentSizeThreshold;
+  private final CompressionOffloadHandler offloadHandler;
+  private final CompressedResponseCache cache;
+
+  // request keys (see CompressedResponseCache#requestKey) of the requests that were not answered yet, "" if the
+  // response is not cacheable
+  private final ArrayDeque<String> requestKeys = new ArrayDeque<>();
+  private String currentRequestKey;
+  // records the body of the current response, when it is compressed here and cached
+  private CompressedResponseCache.Recorder recorder;
+
+  public BrotliHttpContentCompressor() {
+    this(BrotliEncoder.DEFAULT_COMPRESSION_QUALITY, BrotliEncoder.DEFAULT_WINDOW_SIZE, DEFAULT_CONTENT_SIZE_THRESHOLD);
+  }
+
+  public BrotliHttpContentCompressor(int compressionQuality, int windowSize, int contentSizeThreshold) {
+    this(compressionQuality, windowSize, contentSizeThreshold, null);
+  }
+
+  /**
+   * @param compressionQuality   Brotli quality, from 0 (fastest) to 11 (smallest)
+   * @param windowSize           base 2 logarithm of the sliding window size, from 10 to 24, or -1 for the encoder's
+   *                             default
+   * @param contentSizeThreshold responses with a body known to be smaller than this many bytes are not compressed; 0
+   *                             compresses all responses
+   * @param offloadHandler       when not null, bodies are passed through uncompressed and compressed by this handler,
+   *                             which must be placed between this compressor and the response encoder
+   */
+  public BrotliHttpContentCompressor(int compressionQuality, int windowSize, int contentSizeThreshold,
+      CompressionOffloadHandler offloadHandler) {
+    this(compressionQuality, windowSize, contentSizeThreshold, offloadHandler, null);
+  }
+
+  /**
+   * @param compressionQuality   Brotli quality, from 0 (fastest) to 11 (smallest)
+   * @param windowSize           base 2 logarithm of the sliding window size, from 10 to 24, or -1 for the encoder's
+   *                             default
+   * @param contentSizeThreshold responses with a body known to be smaller than this many bytes are not compressed; 0
+   *                             compresses all responses
+   * @param offloadHandler       when not null, bodies are passed through uncompressed and compressed by this handler,
+   *                             which must be placed between this compressor and the response encoder
+   * @param cache                when not null, compressed bodies are cached here; the cache may be shared by the
+   *                             compressors of all channels, as long as they use the same quality and window size
+   */
+  public BrotliHttpContentCompressor(int compressionQuality, int windowSize, int contentSizeThreshold,
+      CompressionOffloadHandler offloadHandler, CompressedResponseCache cache) {
+    if (compressionQuality < 0 || compressionQuality > 11) {
+      throw new IllegalArgumentException("compressionQuality: " + compressionQuality + " (expected: 0-11)");
+    }
+    if (windowSize != -1 && (windowSize < 10 || windowSize > 24)) {
+      throw new IllegalArgumentException("windowSize: " + windowSize + " (expected: -1 or 10-24)");
+    }
+    if (contentSizeThreshold < 0) {
+      throw new IllegalArgumentException("contentSizeThreshold: " + contentSizeThreshold + " (expected: >= 0)");
+    }
+    this.compressionQuality = compressionQuality;
+    this.windowSize = windowSize;
+    this.contentSizeThreshold = contentSizeThreshold;
+    this.offloadHandler = offloadHandler;
+    this.cache = cache;
+  }
+
+  public int getCompressionQuality() {
+    return compressionQuality;
+  }
+
+  public int getWindowSize() {
+    return windowSize;
+  }
+
+  public int getContentSizeThreshold() {
+    return contentSizeThreshold;
+  }
+
   @Override
   public void handlerAdded(ChannelHandlerContext ctx) throws Exception {
     this.ctx = ctx;
   }
 
+  @Override
+  public void handlerRemoved(ChannelHandlerContext ctx) throws Exception {
+    discardRecorder();
+    super.handlerRemoved(ctx);
+  }
+
+  @Override
+  protected void decode(ChannelHandlerContext ctx, HttpRequest msg, List<Object> out) throws Exception {
+    if (cache != null) {
+      String requestKey = CompressedResponseCache.requestKey(msg);
+      requestKeys.add(requestKey != null ? requestKey : "");
+    }
+    super.decode(ctx, msg, out);
+  }
+
+  @Override
+  protected void encode(ChannelHandlerContext ctx, HttpObject msg, List<Object> out) throws Exception {
+    if (cache != null && msg instanceof HttpResponse
+        && ((HttpResponse) msg).status().code() != HttpResponseStatus.CONTINUE.code()) {
+      // the same responses as those that take an Accept-Encoding value from HttpContentEncoder's queue
+      discardRecorder();
+      currentRequestKey = StringUtils.defaultIfEmpty(requestKeys.poll(), null);
+    }
+
+    super.encode(ctx, msg, out);
+
+    if (msg instanceof LastHttpContent && recorder != null) {
+      // the encoder has been finished, so the body is complete
+      recorder.commit();
+      recorder = null;
+    }
+  }
+
+  private void discardRecorder() {
+    if (recorder != null) {
+      recorder.discard();
+      recorder = null;
+    }
+  }
+
   @Override
   protected Result beginEncode(HttpResponse response, String acceptEncoding) throws Exception {
 
@@ -39,16 +177,61 @@ public class BrotliHttpContentCompressor extends HttpContentEncoder {
       return null;
     }
 
+    if (belowContentSizeThreshold(response)) {
+      return null;
+    }
+
     if (acceptEncoding.contains(BR) && brotliCompressionEnabled()) {
+      CompressedResponseCache.Key key = cache != null
+          ? CompressedResponseCache.key(currentRequestKey, response, BR.toString())
+          : null;
+      CompressedResponseCache.Recorder recorder = null;
+      if (key != null) {
+        ByteBuf cached = cache.get(key);
+        if (cached != null) {
+          return new Result(
+              acceptEncoding,
+              new EmbeddedChannel(ctx.channel().id(), ctx.channel().metadata().hasDisconnect(),
+                  ctx.channel().config(), new CachedBodyWriter(cached)));
+        }
+        recorder = cache.record(key);
+      }
+
+      if (offloadHandler != null) {
+        offloadHandler.compressNextResponse(new BrotliEncoder(compressionQuality, windowSize), recorder);
+        return new Result(
+            acceptEncoding,
+            new EmbeddedChannel(ctx.channel().id(), ctx.channel().metadata().hasDisconnect(),
+                ctx.channel().config()));
+      }
+      if (recorder == null) {
+        return new Result(
+            acceptEncoding,
+            new EmbeddedChannel(ctx.channel().id(), ctx.channel().metadata().hasDisconnect(),
+                ctx.channel().config(), new BrotliEncoder(compressionQuality, windowSize)));
+      }
+      this.recorder = recorder;
       return new Result(
           acceptEncoding,
           new EmbeddedChannel(ctx.channel().id(), ctx.channel().metadata().hasDisconnect(),
-              ctx.channel().config(), new BrotliEncoder()));
+              ctx.channel().config(), new BodyRecorder(recorder), new BrotliEncoder(compressionQuality, windowSize)));
     }
     // 'identity' or unsupported
     return null;
   }
 
+  private boolean belowContentSizeThreshold(HttpResponse response) {
+    if (contentSizeThreshold <= 0) {
+      return false;
+    }
+    if (response instanceof HttpContent) {
+      // a full response, so the size of the whole body is known
+      return ((HttpContent) response).content().readableBytes() < contentSizeThreshold;
+    }
+    long contentLength = HttpUtil.getContentLength(response, -1L);
+    return contentLength >= 0 && contentLength < contentSizeThreshold;
+  }
+
   private boolean brotliCompressionEnabled() {
     String compressionAttribute = ctx.channel().attr(CONTENT_COMPRESSION_ATTRIBUTE).get();
     if (StringUtils.isEmpty(compressionAttribute)) {
@@ -56,4 +239,53 @@ public class BrotliHttpContentCompressor extends HttpContentEncoder {
     }
     return compressionAttribute.contains(BR.toString());
   }
+
+  /**
+   * Copies the compressed output of the encoder after it into the cache recorder.
+   */
+  private static final class BodyRecorder extends ChannelOutboundHandlerAdapter {
+    private final CompressedResponseCache.Recorder recorder;
+
+    BodyRecorder(CompressedResponseCache.Recorder recorder) {
+      this.recorder = recorder;
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+      if (msg instanceof ByteBuf) {
+        recorder.append((ByteBuf) msg);
+      }
+      ctx.write(msg, promise);
+    }
+  }
+
+  /**
+   * Replaces the body of a response with a cached compressed body: the cached body is written in place of the first
+   * part of the body, and the body itself is dropped.
+   */
+  private static final class CachedBodyWriter extends ChannelOutboundHandlerAdapter {
+    private ByteBuf cached;
+
+    CachedBodyWriter(ByteBuf cached) {
+      this.cached = cached;
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+      ReferenceCountUtil.release(msg);
+      if (cached != null) {
+        ByteBuf body = cached;
+        cached = null;
+        ctx.write(body, promise);
+      } else {
+        promise.setSuccess();
+      }
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) throws Exception {
+      ReferenceCountUtil.release(cached);
+      cached = null;
+    }
+  }
 }
@@ -0,0 +1,292 @@
+package io.netty.handler.codec.compression;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps compressed response bodies, so that responses the server sends again unchanged are not compressed again. Bodies
+ * are stored in direct buffers and keyed by the request's host and URI, the response's {@code ETag} and the content
+ * encoding. Only successful responses to {@code GET} requests that may be stored are cached, and only if they carry a
+ * strong {@code ETag}, which promises the same bytes for the same tag, no {@code Set-Cookie}, and no {@code Vary} other
+ * than {@code Accept-Encoding}, so that a body is never served to a client whose request headers could have selected
+ * another one.
+ * <p>
+ * The total size of the cached bodies is bounded; the least recently used bodies are evicted first. The cache is shared
+ * by all connections and is safe to use from any thread.
+ */
+public class CompressedResponseCache {
+
+  private static final ByteBufAllocator ALLOC = UnpooledByteBufAllocator.DEFAULT;
+
+  private final long maxBytes;
+  private final long maxEntryBytes;
+
+  // access ordered, so iteration starts at the least recently used entry; guarded by this
+  private final LinkedHashMap<Key, ByteBuf> entries = new LinkedHashMap<>(16, 0.75f, true);
+  private long bytes;
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+
+  /**
+   * @param maxBytes      total size of the cached bodies
+   * @param maxEntryBytes size of the largest body that is cached
+   */
+  public CompressedResponseCache(long maxBytes, long maxEntryBytes) {
+    if (maxBytes <= 0) {
+      throw new IllegalArgumentException("maxBytes: " + maxBytes + " (expected: > 0)");
+    }
+    if (maxEntryBytes <= 0 || maxEntryBytes > maxBytes) {
+      throw new IllegalArgumentException("maxEntryBytes: " + maxEntryBytes + " (expected: 1-" + maxBytes + ")");
+    }
+    this.maxBytes = maxBytes;
+    this.maxEntryBytes = maxEntryBytes;
+  }
+
+  /**
+   * Returns the part of the key that comes from {@code request}, or null if the response to it is never cached.
+   */
+  static String requestKey(HttpRequest request) {
+    if (!HttpMethod.GET.equals(request.method())
+        || request.headers().contains(HttpHeaderNames.RANGE)
+        || request.headers().contains(HttpHeaderNames.AUTHORIZATION)) {
+      return null;
+    }
+    String host = request.headers().get(HttpHeaderNames.HOST, "");
+    return host + ' ' + request.uri();
+  }
+
+  /**
+   * Returns the key of the body of {@code response} to the request with the given {@link #requestKey}, compressed
+   * with {@code encoding}, or null if the body may not be cached.
+   */
+  static Key key(String requestKey, HttpResponse response, String encoding) {
+    if (requestKey == null || response.status().code() != HttpResponseStatus.OK.code()) {
+      return null;
+    }
+    HttpHeaders headers = response.headers();
+    String etag = headers.get(HttpHeaderNames.ETAG);
+    if (etag == null || etag.startsWith("W/")) {
+      // a weak tag only promises equivalent content, not the same bytes
+      return null;
+    }
+    if (headers.containsValue(HttpHeaderNames.CACHE_CONTROL, HttpHeaderValues.NO_STORE, true)
+        || headers.containsValue(HttpHeaderNames.CACHE_CONTROL, HttpHeaderValues.PRIVATE, true)
+        || headers.contains(HttpHeaderNames.SET_COOKIE)
+        || !variesOnlyByEncoding(headers)) {
+      return null;
+    }
+    return new Key(requestKey, etag, encoding);
+  }
+
+  /**
+   * Returns true if {@code headers} have no {@code Vary} field, or one that only names {@code Accept-Encoding}, which
+   * is already part of the key.
+   */
+  private static boolean variesOnlyByEncoding(HttpHeaders headers) {
+    for (String vary : headers.getAll(HttpHeaderNames.VARY)) {
+      for (String field : vary.split(",")) {
+        String name = field.trim();
+        if (!name.isEmpty() && !HttpHeaderNames.ACCEPT_ENCODING.contentEqualsIgnoreCase(name)) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns the cached body for {@code key}, which the caller must release, or null if there is none.
+   */
+  ByteBuf get(Key key) {
+    ByteBuf body;
+    synchronized (this) {
+      body = entries.get(key);
+      if (body != null) {
+        // retained while locked, so that a concurrent eviction can not free it first
+        body = body.retainedDuplicate();
+      }
+    }
+    if (body == null) {
+      misses.incrementAndGet();
+    } else {
+      hits.incrementAndGet();
+    }
+    return body;
+  }
+
+  /**
+   * Returns a recorder that collects the compressed body for {@code key} as it is produced.
+   */
+  Recorder record(Key key) {
+    return new Recorder(key);
+  }
+
+  private void put(Key key, ByteBuf body) {
+    int size = body.readableBytes();
+    synchronized (this) {
+      ByteBuf previous = entries.put(key, body);
+      bytes += size;
+      if (previous != null) {
+        bytes -= previous.readableBytes();
+        previous.release();
+      }
+
+      Iterator<ByteBuf> it = entries.values().iterator();
+      while (bytes > maxBytes && it.hasNext()) {
+        ByteBuf evicted = it.next();
+        it.remove();
+        bytes -= evicted.readableBytes();
+        evicted.release();
+        evictions.incrementAndGet();
+      }
+    }
+  }
+
+  /**
+   * Evicts all entries.
+   */
+  public synchronized void clear() {
+    for (ByteBuf body : entries.values()) {
+      body.release();
+    }
+    entries.clear();
+    bytes = 0;
+  }
+
+  public long getMaxBytes() {
+    return maxBytes;
+  }
+
+  public long getMaxEntryBytes() {
+    return maxEntryBytes;
+  }
+
+  /**
+   * Returns the total size of the cached bodies.
+   */
+  public synchronized long getBytes() {
+    return bytes;
+  }
+
+  public synchronized int getEntries() {
+    return entries.size();
+  }
+
+  public long getHits() {
+    return hits.get();
+  }
+
+  public long getMisses() {
+    return misses.get();
+  }
+
+  public long getEvictions() {
+    return evictions.get();
+  }
+
+  static final class Key {
+    private final String request;
+    private final String etag;
+    private final String encoding;
+
+    Key(String request, String etag, String encoding) {
+      this.request = request;
+      this.etag = etag;
+      this.encoding = encoding;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key key = (Key) o;
+      return request.equals(key.request)
+          && etag.equals(key.etag)
+          && encoding.equals(key.encoding);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(request, etag, encoding);
+    }
+  }
+
+  /**
+   * Copies the compressed body of one response into a direct buffer and caches it once the body is complete. Bodies
+   * that grow beyond the maximum entry size are dropped. Used by a single thread at a time.
+   */
+  final class Recorder {
+    private final Key key;
+    private ByteBuf body;
+    private boolean done;
+
+    private Recorder(Key key) {
+      this.key = key;
+    }
+
+    void append(ByteBuf compressed) {
+      if (done) {
+        return;
+      }
+      int size = compressed.readableBytes();
+      long recorded = body == null ? 0 : body.readableBytes();
+      if (recorded + size > maxEntryBytes) {
+        discard();
+        return;
+      }
+      if (body == null) {
+        body = ALLOC.directBuffer(Math.max(size, 256));
+      }
+      body.writeBytes(compressed, compressed.readerIndex(), size);
+    }
+
+    /**
+     * Caches the recorded body; it must be complete.
+     */
+    void commit() {
+      if (done) {
+        return;
+      }
+      done = true;
+      if (body == null) {
+        return;
+      }
+      ByteBuf complete = body;
+      body = null;
+      if (complete.writableBytes() > 0) {
+        complete.capacity(complete.writerIndex());
+      }
+      put(key, complete);
+    }
+
+    /**
+     * Drops the recorded body, for instance because the response was not completed.
+     */
+    void discard() {
+      done = true;
+      if (body != null) {
+        body.release();
+        body = null;
+      }
+    }
+  }
+}
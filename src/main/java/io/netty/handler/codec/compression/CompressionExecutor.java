@@ -0,0 +1,168 @@
+package io.netty.handler.codec.compression;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A fixed pool of threads that runs content compression off the event loops (see {@link CompressionOffloadHandler}).
+ * The number of queued tasks is bounded cooperatively: when more than {@code maxQueuedTasks} tasks are waiting, the
+ * channels submitting them stop reading upstream until the queue has room again.
+ */
+public class CompressionExecutor {
+
+  private final ThreadPoolExecutor executor;
+  private final int maxQueuedTasks;
+
+  private final AtomicInteger queueDepth = new AtomicInteger();
+  private final AtomicInteger activeTasks = new AtomicInteger();
+  private final AtomicLong completedTasks = new AtomicLong();
+  private final AtomicLong totalCompressionNanos = new AtomicLong();
+  private final AtomicLong maxCompressionNanos = new AtomicLong();
+
+  // run once the queue has room again
+  private final Queue<Runnable> notFullCallbacks = new ConcurrentLinkedQueue<>();
+
+  /**
+   * @param threads        number of compression threads
+   * @param maxQueuedTasks number of waiting tasks above which submitters are asked to stop reading
+   * @param threadFactory  creates the compression threads
+   */
+  public CompressionExecutor(int threads, int maxQueuedTasks, ThreadFactory threadFactory) {
+    if (threads <= 0) {
+      throw new IllegalArgumentException("threads: " + threads + " (expected: > 0)");
+    }
+    if (maxQueuedTasks <= 0) {
+      throw new IllegalArgumentException("maxQueuedTasks: " + maxQueuedTasks + " (expected: > 0)");
+    }
+    this.maxQueuedTasks = maxQueuedTasks;
+    this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+        new LinkedBlockingQueue<Runnable>(), threadFactory);
+  }
+
+  /**
+   * Queues a compression task. Tasks are always accepted while the executor is running; callers check
+   * {@link #isFull()} afterwards to apply backpressure.
+   *
+   * @throws java.util.concurrent.RejectedExecutionException if the executor has been shut down
+   */
+  public void execute(final Runnable task) {
+    queueDepth.incrementAndGet();
+    try {
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          activeTasks.incrementAndGet();
+          queueDepth.decrementAndGet();
+          try {
+            runNotFullCallbacks();
+
+            long start = System.nanoTime();
+            try {
+              task.run();
+            } finally {
+              recordCompressionTime(System.nanoTime() - start);
+            }
+          } finally {
+            activeTasks.decrementAndGet();
+          }
+        }
+      });
+    } catch (RuntimeException e) {
+      queueDepth.decrementAndGet();
+      throw e;
+    }
+  }
+
+  /**
+   * Returns true if more than the maximum number of tasks are waiting to run.
+   */
+  public boolean isFull() {
+    return queueDepth.get() >= maxQueuedTasks;
+  }
+
+  /**
+   * Runs {@code callback} once the queue is no longer full, on a compression thread or on the calling thread.
+   */
+  public void whenNotFull(Runnable callback) {
+    notFullCallbacks.add(callback);
+    runNotFullCallbacks();
+  }
+
+  private void runNotFullCallbacks() {
+    Runnable callback;
+    while (!isFull() && (callback = notFullCallbacks.poll()) != null) {
+      callback.run();
+    }
+  }
+
+  private void recordCompressionTime(long nanos) {
+    completedTasks.incrementAndGet();
+    totalCompressionNanos.addAndGet(nanos);
+    long max;
+    while (nanos > (max = maxCompressionNanos.get())) {
+      if (maxCompressionNanos.compareAndSet(max, nanos)) {
+        break;
+      }
+    }
+  }
+
+  /**
+   * Returns the number of tasks waiting to run.
+   */
+  public int getQueueDepth() {
+    return queueDepth.get();
+  }
+
+  /**
+   * Returns the number of tasks running right now.
+   */
+  public int getActiveTasks() {
+    return activeTasks.get();
+  }
+
+  public int getMaxQueuedTasks() {
+    return maxQueuedTasks;
+  }
+
+  /**
+   * Returns the number of tasks that have run.
+   */
+  public long getCompletedTasks() {
+    return completedTasks.get();
+  }
+
+  /**
+   * Returns the time spent running tasks, in nanoseconds.
+   */
+  public long getTotalCompressionTimeNanos() {
+    return totalCompressionNanos.get();
+  }
+
+  /**
+   * Returns the longest time spent running a single task, in nanoseconds.
+   */
+  public long getMaxCompressionTimeNanos() {
+    return maxCompressionNanos.get();
+  }
+
+  /**
+   * Returns the average time spent running a task, in nanoseconds, or 0 if no task has run yet.
+   */
+  public long getAverageCompressionTimeNanos() {
+    long completed = completedTasks.get();
+    return completed == 0 ? 0 : totalCompressionNanos.get() / completed;
+  }
+
+  /**
+   * Stops accepting tasks. Tasks already queued still run.
+   */
+  public void shutdown() {
+    executor.shutdown();
+  }
+}
@@ -0,0 +1,328 @@
+package io.netty.handler.codec.compression;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.ChannelConfig;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundBuffer;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
+import io.netty.handler.codec.http.DefaultHttpContent;
+import io.netty.handler.codec.http.DefaultLastHttpContent;
+import io.netty.handler.codec.http.HttpContent;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.util.ReferenceCountUtil;
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayDeque;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Compresses response bodies on a {@link CompressionExecutor} instead of the channel's event loop. Sits between the
+ * {@link io.netty.handler.codec.http.HttpResponseEncoder} and a {@link BrotliHttpContentCompressor} created with this
+ * handler, which passes the bodies through uncompressed and hands over an encoder for every response it compresses.
+ * <p>
+ * Writes leave this handler in the order they arrived: everything written after a chunk that is being compressed waits
+ * for it. One chunk per channel is compressed at a time. While too much data is waiting, or the executor's queue is
+ * full, the channel is marked unwritable, so that the proxy stops reading from the server.
+ */
+public class CompressionOffloadHandler extends ChannelOutboundHandlerAdapter {
+
+  // user-defined writability flag of the channel that this handler controls
+  private static final int WRITABILITY_INDEX = 1;
+
+  private final CompressionExecutor executor;
+
+  private ChannelHandlerContext ctx;
+  private final ArrayDeque<PendingWrite> pending = new ArrayDeque<>();
+  private long pendingBytes;
+  private boolean flushPending;
+
+  // the encoder for the next response, handed over by the compressor just before the response is written
+  private BrotliEncoder nextEncoder;
+  private CompressedResponseCache.Recorder nextRecorder;
+  // the encoder for the response currently being written, or null if it is not compressed here
+  private BrotliEncoder currentEncoder;
+  private CompressedResponseCache.Recorder currentRecorder;
+  // the chunk being compressed on the executor, if any
+  private PendingWrite compressing;
+
+  private boolean waitingForExecutor;
+  private boolean writable = true;
+  private boolean removed;
+
+  public CompressionOffloadHandler(CompressionExecutor executor) {
+    this.executor = executor;
+  }
+
+  /**
+   * Makes this handler compress the body of the next response written on the channel with {@code encoder}, and pass
+   * the compressed body to {@code recorder} if it is not null.
+   */
+  void compressNextResponse(BrotliEncoder encoder, CompressedResponseCache.Recorder recorder) {
+    if (nextEncoder != null) {
+      nextEncoder.destroy();
+    }
+    discard(nextRecorder);
+    nextEncoder = encoder;
+    nextRecorder = recorder;
+  }
+
+  @Override
+  public void handlerAdded(ChannelHandlerContext ctx) throws Exception {
+    this.ctx = ctx;
+  }
+
+  @Override
+  public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+    if (msg instanceof HttpResponse) {
+      currentEncoder = nextEncoder;
+      currentRecorder = nextRecorder;
+      nextEncoder = null;
+      nextRecorder = null;
+    }
+
+    BrotliEncoder encoder = msg instanceof HttpContent ? currentEncoder : null;
+    CompressedResponseCache.Recorder recorder = msg instanceof HttpContent ? currentRecorder : null;
+    if (msg instanceof LastHttpContent) {
+      currentEncoder = null;
+      currentRecorder = null;
+    }
+
+    if (encoder == null && pending.isEmpty()) {
+      ctx.write(msg, promise);
+      return;
+    }
+
+    PendingWrite write = new PendingWrite(msg, promise, encoder, recorder);
+    pending.add(write);
+    pendingBytes += write.size;
+    drain();
+  }
+
+  @Override
+  public void flush(ChannelHandlerContext ctx) throws Exception {
+    if (pending.isEmpty()) {
+      ctx.flush();
+    } else {
+      flushPending = true;
+    }
+  }
+
+  @Override
+  public void handlerRemoved(ChannelHandlerContext ctx) throws Exception {
+    removed = true;
+
+    Throwable cause = new ClosedChannelException();
+    PendingWrite write;
+    while ((write = pending.poll()) != null) {
+      if (write != compressing) {
+        write.fail(cause);
+      }
+    }
+    pendingBytes = 0;
+
+    // an encoder in use on the executor is destroyed when its task completes
+    destroy(nextEncoder);
+    destroy(currentEncoder);
+    nextEncoder = currentEncoder = null;
+    discard(nextRecorder);
+    discard(currentRecorder);
+    nextRecorder = currentRecorder = null;
+  }
+
+  private static void discard(CompressedResponseCache.Recorder recorder) {
+    if (recorder != null) {
+      recorder.discard();
+    }
+  }
+
+  private void destroy(BrotliEncoder encoder) {
+    if (encoder != null && (compressing == null || compressing.encoder != encoder)) {
+      encoder.destroy();
+    }
+  }
+
+  /**
+   * Writes out everything that is ready, in order, and starts compressing the next chunk when it is its turn.
+   */
+  private void drain() {
+    boolean wrote = false;
+    PendingWrite write;
+    while ((write = pending.peek()) != null) {
+      if (write.encoder != null && write.compressed == null) {
+        if (compressing == null) {
+          compress(write);
+        }
+        break;
+      }
+
+      pending.poll();
+      pendingBytes -= write.size;
+      ctx.write(write.encoder != null ? write.compressed : write.msg, write.promise);
+      wrote = true;
+    }
+
+    if (wrote && flushPending) {
+      flushPending = !pending.isEmpty();
+      ctx.flush();
+    }
+    updateWritability();
+  }
+
+  private void compress(final PendingWrite write) {
+    compressing = write;
+
+    final HttpContent content = (HttpContent) write.msg;
+    final ByteBufAllocator alloc = ctx.alloc();
+    try {
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          ByteBuf compressed = alloc.buffer();
+          Throwable cause = null;
+          try {
+            write.encoder.compress(content.content(), compressed);
+            if (content instanceof LastHttpContent) {
+              write.encoder.finish(compressed);
+            }
+          } catch (Throwable t) {
+            compressed.release();
+            compressed = null;
+            cause = t;
+          }
+          completeOnEventLoop(write, compressed, cause);
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      compressing = null;
+      failAndClose(e);
+      return;
+    }
+
+    if (executor.isFull() && !waitingForExecutor) {
+      waitingForExecutor = true;
+      executor.whenNotFull(new Runnable() {
+        @Override
+        public void run() {
+          ctx.executor().execute(new Runnable() {
+            @Override
+            public void run() {
+              waitingForExecutor = false;
+              if (!removed) {
+                updateWritability();
+              }
+            }
+          });
+        }
+      });
+    }
+  }
+
+  private void completeOnEventLoop(final PendingWrite write, final ByteBuf compressed, final Throwable cause) {
+    try {
+      ctx.executor().execute(new Runnable() {
+        @Override
+        public void run() {
+          completed(write, compressed, cause);
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      // the event loop has shut down, so the channel is gone
+      ReferenceCountUtil.release(compressed);
+      write.encoder.destroy();
+    }
+  }
+
+  private void completed(PendingWrite write, ByteBuf compressed, Throwable cause) {
+    compressing = null;
+
+    if (removed) {
+      ReferenceCountUtil.release(compressed);
+      write.encoder.destroy();
+      discard(write.recorder);
+      write.fail(new ClosedChannelException());
+      return;
+    }
+
+    if (cause != null) {
+      write.encoder.destroy();
+      discard(write.recorder);
+      failAndClose(new CompressionException("Failed to compress response content", cause));
+      return;
+    }
+
+    HttpContent content = (HttpContent) write.msg;
+    if (write.recorder != null) {
+      write.recorder.append(compressed);
+      if (content instanceof LastHttpContent) {
+        write.recorder.commit();
+      }
+    }
+    if (content instanceof LastHttpContent) {
+      LastHttpContent last = new DefaultLastHttpContent(compressed);
+      last.trailingHeaders().set(((LastHttpContent) content).trailingHeaders());
+      write.compressed = last;
+    } else {
+      write.compressed = new DefaultHttpContent(compressed);
+    }
+    content.release();
+
+    drain();
+  }
+
+  /**
+   * The stream of a response can not be continued once a chunk is lost, so everything pending is failed and the
+   * channel closed.
+   */
+  private void failAndClose(Throwable cause) {
+    PendingWrite write;
+    while ((write = pending.poll()) != null) {
+      if (write != compressing) {
+        write.fail(cause);
+      }
+    }
+    pendingBytes = 0;
+    ctx.fireExceptionCaught(cause);
+    ctx.close();
+  }
+
+  private void updateWritability() {
+    ChannelConfig config = ctx.channel().config();
+    boolean writable = this.writable
+        ? pendingBytes < config.getWriteBufferHighWaterMark()
+        : pendingBytes <= config.getWriteBufferLowWaterMark();
+    writable &= !waitingForExecutor;
+
+    if (writable != this.writable) {
+      this.writable = writable;
+      ChannelOutboundBuffer outboundBuffer = ctx.channel().unsafe().outboundBuffer();
+      if (outboundBuffer != null) {
+        outboundBuffer.setUserDefinedWritability(WRITABILITY_INDEX, writable);
+      }
+    }
+  }
+
+  private static final class PendingWrite {
+    private final Object msg;
+    private final ChannelPromise promise;
+    private final BrotliEncoder encoder;
+    private final CompressedResponseCache.Recorder recorder;
+    private final int size;
+    private HttpContent compressed;
+
+    PendingWrite(Object msg, ChannelPromise promise, BrotliEncoder encoder, CompressedResponseCache.Recorder recorder) {
+      this.msg = msg;
+      this.promise = promise;
+      this.encoder = encoder;
+      this.recorder = recorder;
+      this.size = msg instanceof HttpContent ? ((HttpContent) msg).content().readableBytes() : 0;
+    }
+
+    void fail(Throwable cause) {
+      discard(recorder);
+      ReferenceCountUtil.release(compressed != null ? compressed : msg);
+      promise.tryFailure(cause);
+    }
+  }
+}
@@ -0,0 +1,23 @@
+package org.littleshoot.proxy;
+
+import io.netty.channel.EventLoop;
+import io.netty.util.concurrent.Future;
+
+import java.net.InetSocketAddress;
+
+/**
+ * Resolves host and port into an InetSocketAddress without blocking the calling thread.
+ */
+public interface AsyncHostResolver {
+    /**
+     * Starts resolving the given host. The returned future completes with a resolved address, or fails with an
+     * {@link java.net.UnknownHostException} if the host cannot be resolved.
+     *
+     * @param host host name or IP address literal to resolve
+     * @param port port of the resulting address
+     * @param eventLoop event loop of the connection that waits for the address. Listeners of the returned future are
+     *                  notified on this event loop.
+     * @return future for the resolved address
+     */
+    Future<InetSocketAddress> resolve(String host, int port, EventLoop eventLoop);
+}
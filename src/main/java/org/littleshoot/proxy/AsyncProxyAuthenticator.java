@@ -0,0 +1,37 @@
+package org.littleshoot.proxy;
+
+import io.netty.channel.EventLoop;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.util.concurrent.Future;
+
+/**
+ * Authenticates someone for using our Proxy on the basis of the authorization header, without blocking the calling
+ * thread. The asynchronous counterpart of {@link ProxyAuthenticator}, which can be adapted to this interface with a
+ * {@link BlockingProxyAuthenticatorAdapter}.
+ */
+public interface AsyncProxyAuthenticator {
+    /**
+     * Starts authenticating the user of the given request. The returned future completes with <code>true</code> if
+     * the credentials are acceptable and <code>false</code> if they are not. A failed future rejects the credentials.
+     *
+     * @param httpRequest http request, which must not be used after the returned future has completed
+     * @param eventLoop event loop of the client connection that waits for the result. Listeners of the returned future
+     *                  are notified on this event loop.
+     * @return future for the result of the authentication
+     */
+    Future<Boolean> authenticate(HttpRequest httpRequest, EventLoop eventLoop);
+
+    /**
+     * The realm value to be used in the request for proxy authentication ("Proxy-Authenticate" header). Returning null
+     * will cause the string "Restricted Files" to be used by default.
+     *
+     * @return the realm
+     */
+    String getRealm();
+
+    /**
+     * Response that is going to be returned on authentication failure
+     */
+    FullHttpResponse authenticationFailureResponse(HttpRequest request);
+}
@@ -0,0 +1,72 @@
+package org.littleshoot.proxy;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.netty.channel.EventLoop;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.Promise;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Adapts a blocking {@link HostResolver} to the {@link AsyncHostResolver} interface by running it on a small
+ * dedicated thread pool, so that slow lookups never block an event loop.
+ */
+public class BlockingHostResolverAdapter implements AsyncHostResolver {
+    /**
+     * The default number of threads used to run blocking lookups.
+     */
+    public static final int DEFAULT_RESOLVER_THREADS = 16;
+
+    private final HostResolver hostResolver;
+    private final ExecutorService executor;
+
+    public BlockingHostResolverAdapter(HostResolver hostResolver) {
+        this(hostResolver, DEFAULT_RESOLVER_THREADS);
+    }
+
+    public BlockingHostResolverAdapter(HostResolver hostResolver, int resolverThreads) {
+        this.hostResolver = hostResolver;
+
+        ThreadPoolExecutor threadPool = new ThreadPoolExecutor(resolverThreads, resolverThreads,
+                60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactoryBuilder()
+                        .setNameFormat("LittleProxy-HostResolver-%d")
+                        .setDaemon(true)
+                        .build());
+        threadPool.allowCoreThreadTimeOut(true);
+        this.executor = threadPool;
+    }
+
+    /**
+     * @return the wrapped blocking resolver
+     */
+    public HostResolver getHostResolver() {
+        return hostResolver;
+    }
+
+    @Override
+    public Future<InetSocketAddress> resolve(final String host, final int port, EventLoop eventLoop) {
+        final Promise<InetSocketAddress> promise = eventLoop.newPromise();
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        promise.trySuccess(hostResolver.resolve(host, port));
+                    } catch (Throwable t) {
+                        promise.tryFailure(t);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            promise.tryFailure(e);
+        }
+        return promise;
+    }
+}
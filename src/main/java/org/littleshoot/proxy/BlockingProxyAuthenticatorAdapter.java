@@ -0,0 +1,95 @@
+package org.littleshoot.proxy;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.netty.channel.EventLoop;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.Promise;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Adapts a synchronous {@link ProxyAuthenticator} to the {@link AsyncProxyAuthenticator} interface. By default the
+ * authenticator runs on the event loop of the client connection, which suits authenticators that answer from memory.
+ * Given a number of threads, the adapter runs it on a dedicated thread pool instead, so that authenticators that block
+ * never hold up an event loop.
+ */
+public class BlockingProxyAuthenticatorAdapter implements AsyncProxyAuthenticator {
+    private final ProxyAuthenticator proxyAuthenticator;
+
+    /**
+     * Null to authenticate on the event loop.
+     */
+    private final ExecutorService executor;
+
+    /**
+     * Runs the authenticator on the event loop of the client connection.
+     */
+    public BlockingProxyAuthenticatorAdapter(ProxyAuthenticator proxyAuthenticator) {
+        this.proxyAuthenticator = proxyAuthenticator;
+        this.executor = null;
+    }
+
+    /**
+     * Runs the authenticator on a dedicated pool of the given number of threads.
+     */
+    public BlockingProxyAuthenticatorAdapter(ProxyAuthenticator proxyAuthenticator, int authenticatorThreads) {
+        this.proxyAuthenticator = proxyAuthenticator;
+
+        ThreadPoolExecutor threadPool = new ThreadPoolExecutor(authenticatorThreads, authenticatorThreads,
+                60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactoryBuilder()
+                        .setNameFormat("LittleProxy-Authenticator-%d")
+                        .setDaemon(true)
+                        .build());
+        threadPool.allowCoreThreadTimeOut(true);
+        this.executor = threadPool;
+    }
+
+    /**
+     * @return the wrapped synchronous authenticator
+     */
+    public ProxyAuthenticator getProxyAuthenticator() {
+        return proxyAuthenticator;
+    }
+
+    @Override
+    public Future<Boolean> authenticate(final HttpRequest httpRequest, EventLoop eventLoop) {
+        if (executor == null) {
+            return eventLoop.newSucceededFuture(proxyAuthenticator.authenticate(httpRequest));
+        }
+
+        final Promise<Boolean> promise = eventLoop.newPromise();
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        promise.trySuccess(proxyAuthenticator.authenticate(httpRequest));
+                    } catch (Throwable t) {
+                        promise.tryFailure(t);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            promise.tryFailure(e);
+        }
+        return promise;
+    }
+
+    @Override
+    public String getRealm() {
+        return proxyAuthenticator.getRealm();
+    }
+
+    @Override
+    public FullHttpResponse authenticationFailureResponse(HttpRequest request) {
+        return proxyAuthenticator.authenticationFailureResponse(request);
+    }
+}
@@ -0,0 +1,346 @@
+package org.littleshoot.proxy;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import io.netty.channel.EventLoop;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.GenericFutureListener;
+import io.netty.util.concurrent.Promise;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>
+ * Caching decorator for an {@link AsyncHostResolver} or a blocking {@link HostResolver}. Resolved hosts are cached for
+ * the TTL reported by a {@link TtlReportingHostResolver}, bounded by the configured minimum and maximum, or for the
+ * configured default TTL if the resolver does not report one. Hosts that do not exist are cached for a short negative
+ * TTL, if the resolver fails them with a {@link NonexistentHostException}. Other failures, such as timeouts or name
+ * server errors, are never cached.
+ * </p>
+ *
+ * <p>
+ * For a while after an entry expires, it is still served while a single background lookup refreshes it, so that
+ * popular hosts never wait for DNS. Concurrent lookups of the same host share one query.
+ * </p>
+ *
+ * <p>
+ * All addresses of a host are cached if the underlying resolver returns them, either as a
+ * {@link TtlReportingHostResolver} or as a {@link MultiAddressHostResolver}.
+ * </p>
+ *
+ * <p>
+ * Reads never lock. When the cache grows beyond its maximum size, the least recently used hosts are evicted, and
+ * entries that can no longer be served are dropped at the latest once the longest TTL they could have had has passed.
+ * </p>
+ */
+public class CachingHostResolver implements MultiAddressHostResolver {
+    private static final Logger LOG = LoggerFactory.getLogger(CachingHostResolver.class);
+
+    private final AsyncHostResolver delegate;
+    private final DnsCacheConfiguration configuration;
+
+    private final Cache<String, Entry> entries;
+    private final ConcurrentMap<String, Future<ResolvedAddress>> lookupsInFlight = new ConcurrentHashMap<String, Future<ResolvedAddress>>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder staleHits = new LongAdder();
+    private final LongAdder negativeHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder refreshes = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public CachingHostResolver(AsyncHostResolver delegate, DnsCacheConfiguration configuration) {
+        this.delegate = delegate;
+        this.configuration = configuration;
+
+        long maxLifetimeSeconds = Math.max(configuration.getMaxTtlSeconds(), configuration.getNegativeTtlSeconds())
+                + configuration.getStaleTtlSeconds();
+        this.entries = CacheBuilder.newBuilder()
+                .maximumSize(configuration.getMaxEntries())
+                .expireAfterWrite(maxLifetimeSeconds, TimeUnit.SECONDS)
+                .removalListener(new RemovalListener<String, Entry>() {
+                    @Override
+                    public void onRemoval(RemovalNotification<String, Entry> notification) {
+                        if (notification.wasEvicted()) {
+                            evictions.increment();
+                        }
+                    }
+                })
+                .build();
+    }
+
+    /**
+     * Caches the results of a blocking {@link HostResolver}, which is run by a {@link BlockingHostResolverAdapter}.
+     */
+    public CachingHostResolver(HostResolver delegate, DnsCacheConfiguration configuration) {
+        this(new BlockingHostResolverAdapter(delegate), configuration);
+    }
+
+    @Override
+    public Future<InetSocketAddress> resolve(String host, final int port, EventLoop eventLoop) {
+        Future<List<InetAddress>> addresses = addressesFor(host, eventLoop);
+        if (addresses.isDone()) {
+            return addresses.isSuccess()
+                    ? eventLoop.<InetSocketAddress>newSucceededFuture(new InetSocketAddress(addresses.getNow().get(0), port))
+                    : eventLoop.<InetSocketAddress>newFailedFuture(addresses.cause());
+        }
+
+        final Promise<InetSocketAddress> promise = eventLoop.newPromise();
+        addresses.addListener(new GenericFutureListener<Future<List<InetAddress>>>() {
+            @Override
+            public void operationComplete(Future<List<InetAddress>> future) throws Exception {
+                if (future.isSuccess()) {
+                    promise.trySuccess(new InetSocketAddress(future.getNow().get(0), port));
+                } else {
+                    promise.tryFailure(future.cause());
+                }
+            }
+        });
+        return promise;
+    }
+
+    @Override
+    public Future<List<InetSocketAddress>> resolveAll(String host, final int port, EventLoop eventLoop) {
+        final Promise<List<InetSocketAddress>> promise = eventLoop.newPromise();
+        addressesFor(host, eventLoop).addListener(new GenericFutureListener<Future<List<InetAddress>>>() {
+            @Override
+            public void operationComplete(Future<List<InetAddress>> future) throws Exception {
+                if (future.isSuccess()) {
+                    List<InetSocketAddress> socketAddresses = new ArrayList<InetSocketAddress>(future.getNow().size());
+                    for (InetAddress address : future.getNow()) {
+                        socketAddresses.add(new InetSocketAddress(address, port));
+                    }
+                    promise.trySuccess(socketAddresses);
+                } else {
+                    promise.tryFailure(future.cause());
+                }
+            }
+        });
+        return promise;
+    }
+
+    /**
+     * @return number of lookups answered from a fresh cache entry
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return number of lookups answered from an expired entry while it was being refreshed
+     */
+    public long getStaleHits() {
+        return staleHits.sum();
+    }
+
+    /**
+     * @return number of lookups failed from a cached unresolvable host
+     */
+    public long getNegativeHits() {
+        return negativeHits.sum();
+    }
+
+    /**
+     * @return number of lookups that had to wait for the underlying resolver
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return number of background refreshes of expired entries
+     */
+    public long getRefreshes() {
+        return refreshes.sum();
+    }
+
+    /**
+     * @return number of entries evicted to keep the cache within its maximum size, or after they could no longer be
+     * served
+     */
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * @return number of hosts currently cached
+     */
+    public int size() {
+        return (int) entries.size();
+    }
+
+    /**
+     * Removes all cached entries.
+     */
+    public void clear() {
+        entries.invalidateAll();
+    }
+
+    /**
+     * Answers from the cache if possible, and from the underlying resolver otherwise. A future answered from the cache
+     * is already complete when it is returned.
+     */
+    private Future<List<InetAddress>> addressesFor(String host, EventLoop eventLoop) {
+        final String key = host.toLowerCase(Locale.US);
+        long now = System.nanoTime();
+
+        Entry entry = entries.getIfPresent(key);
+        if (entry != null) {
+            if (now - entry.expiresAtNanos < 0) {
+                if (entry.addresses == null) {
+                    negativeHits.increment();
+                    return eventLoop.newFailedFuture(new NonexistentHostException(host));
+                }
+                hits.increment();
+                return eventLoop.newSucceededFuture(entry.addresses);
+            }
+
+            if (entry.addresses != null && now - entry.staleUntilNanos < 0) {
+                staleHits.increment();
+                if (entry.refreshing.compareAndSet(false, true)) {
+                    refresh(key, host, entry, eventLoop);
+                }
+                return eventLoop.newSucceededFuture(entry.addresses);
+            }
+        }
+
+        misses.increment();
+
+        final Promise<List<InetAddress>> promise = eventLoop.newPromise();
+        lookup(key, host, eventLoop).addListener(new GenericFutureListener<Future<ResolvedAddress>>() {
+            @Override
+            public void operationComplete(Future<ResolvedAddress> future) throws Exception {
+                if (future.isSuccess()) {
+                    promise.trySuccess(future.getNow().getAddresses());
+                } else {
+                    promise.tryFailure(future.cause());
+                }
+            }
+        });
+        return promise;
+    }
+
+    private void refresh(final String key, final String host, final Entry staleEntry, EventLoop eventLoop) {
+        refreshes.increment();
+        LOG.debug("Refreshing expired DNS entry for {}", host);
+
+        lookup(key, host, eventLoop).addListener(new GenericFutureListener<Future<ResolvedAddress>>() {
+            @Override
+            public void operationComplete(Future<ResolvedAddress> future) throws Exception {
+                if (!future.isSuccess()) {
+                    // keep serving the stale address until it can't be served any longer
+                    LOG.debug("Unable to refresh DNS entry for {}", host, future.cause());
+                    staleEntry.refreshing.set(false);
+                }
+            }
+        });
+    }
+
+    /**
+     * Queries the underlying resolver, sharing the query with any concurrent lookup of the same host, and caches the
+     * result.
+     */
+    private Future<ResolvedAddress> lookup(final String key, final String host, EventLoop eventLoop) {
+        Future<ResolvedAddress> inFlight = lookupsInFlight.get(key);
+        if (inFlight != null) {
+            return inFlight;
+        }
+
+        final Promise<ResolvedAddress> promise = eventLoop.newPromise();
+        inFlight = lookupsInFlight.putIfAbsent(key, promise);
+        if (inFlight != null) {
+            return inFlight;
+        }
+
+        promise.addListener(new GenericFutureListener<Future<ResolvedAddress>>() {
+            @Override
+            public void operationComplete(Future<ResolvedAddress> future) throws Exception {
+                if (future.isSuccess()) {
+                    ResolvedAddress resolved = future.getNow();
+                    long ttlSeconds = resolved.getTtlSeconds() < 0 ? configuration.getDefaultTtlSeconds() : resolved.getTtlSeconds();
+                    ttlSeconds = Math.max(configuration.getMinTtlSeconds(), Math.min(configuration.getMaxTtlSeconds(), ttlSeconds));
+                    cache(key, new Entry(resolved.getAddresses(), ttlSeconds, configuration.getStaleTtlSeconds()));
+                } else if (future.cause() instanceof NonexistentHostException && configuration.getNegativeTtlSeconds() > 0) {
+                    cache(key, new Entry(null, configuration.getNegativeTtlSeconds(), 0));
+                }
+                lookupsInFlight.remove(key, promise);
+            }
+        });
+
+        if (delegate instanceof TtlReportingHostResolver) {
+            ((TtlReportingHostResolver) delegate).resolveWithTtl(host, eventLoop).addListener(
+                    new GenericFutureListener<Future<ResolvedAddress>>() {
+                        @Override
+                        public void operationComplete(Future<ResolvedAddress> future) throws Exception {
+                            if (future.isSuccess()) {
+                                promise.trySuccess(future.getNow());
+                            } else {
+                                promise.tryFailure(future.cause());
+                            }
+                        }
+                    });
+        } else if (delegate instanceof MultiAddressHostResolver) {
+            ((MultiAddressHostResolver) delegate).resolveAll(host, 0, eventLoop).addListener(
+                    new GenericFutureListener<Future<List<InetSocketAddress>>>() {
+                        @Override
+                        public void operationComplete(Future<List<InetSocketAddress>> future) throws Exception {
+                            if (future.isSuccess()) {
+                                List<InetAddress> addresses = new ArrayList<InetAddress>(future.getNow().size());
+                                for (InetSocketAddress socketAddress : future.getNow()) {
+                                    addresses.add(socketAddress.getAddress());
+                                }
+                                promise.trySuccess(new ResolvedAddress(addresses, -1));
+                            } else {
+                                promise.tryFailure(future.cause());
+                            }
+                        }
+                    });
+        } else {
+            delegate.resolve(host, 0, eventLoop).addListener(new GenericFutureListener<Future<InetSocketAddress>>() {
+                @Override
+                public void operationComplete(Future<InetSocketAddress> future) throws Exception {
+                    if (future.isSuccess()) {
+                        promise.trySuccess(new ResolvedAddress(future.getNow().getAddress(), -1));
+                    } else {
+                        promise.tryFailure(future.cause());
+                    }
+                }
+            });
+        }
+
+        return promise;
+    }
+
+    private void cache(String key, Entry entry) {
+        entries.put(key, entry);
+    }
+
+    private static class Entry {
+        /**
+         * Null for a host that does not exist.
+         */
+        private final List<InetAddress> addresses;
+        private final long expiresAtNanos;
+        private final long staleUntilNanos;
+        private final AtomicBoolean refreshing = new AtomicBoolean(false);
+
+        private Entry(List<InetAddress> addresses, long ttlSeconds, long staleTtlSeconds) {
+            this.addresses = addresses;
+            this.expiresAtNanos = System.nanoTime() + TimeUnit.SECONDS.toNanos(ttlSeconds);
+            this.staleUntilNanos = expiresAtNanos + TimeUnit.SECONDS.toNanos(staleTtlSeconds);
+        }
+    }
+}
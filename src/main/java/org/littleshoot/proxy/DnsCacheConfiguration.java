@@ -0,0 +1,140 @@
+package org.littleshoot.proxy;
+
+/**
+ * Configuration object for a {@link CachingHostResolver}. Controls how long resolved and unresolvable hosts are
+ * cached, how long expired entries may still be served while they are refreshed, and how many hosts are cached.
+ */
+public class DnsCacheConfiguration {
+    /**
+     * The default lower bound for the time a resolved host is cached, in seconds.
+     */
+    public static final long DEFAULT_MIN_TTL_SECONDS = 1L;
+
+    /**
+     * The default upper bound for the time a resolved host is cached, in seconds.
+     */
+    public static final long DEFAULT_MAX_TTL_SECONDS = 3600L;
+
+    /**
+     * The default time a resolved host is cached for when the resolver does not report a TTL, in seconds.
+     */
+    public static final long DEFAULT_TTL_SECONDS = 60L;
+
+    /**
+     * The default time a host that does not exist is cached for, in seconds.
+     */
+    public static final long DEFAULT_NEGATIVE_TTL_SECONDS = 5L;
+
+    /**
+     * The default time an expired entry may still be served while it is refreshed in the background, in seconds.
+     */
+    public static final long DEFAULT_STALE_TTL_SECONDS = 30L;
+
+    /**
+     * The default maximum number of cached hosts.
+     */
+    public static final int DEFAULT_MAX_ENTRIES = 10000;
+
+    private long minTtlSeconds = DEFAULT_MIN_TTL_SECONDS;
+    private long maxTtlSeconds = DEFAULT_MAX_TTL_SECONDS;
+    private long defaultTtlSeconds = DEFAULT_TTL_SECONDS;
+    private long negativeTtlSeconds = DEFAULT_NEGATIVE_TTL_SECONDS;
+    private long staleTtlSeconds = DEFAULT_STALE_TTL_SECONDS;
+    private int maxEntries = DEFAULT_MAX_ENTRIES;
+
+    public long getMinTtlSeconds() {
+        return minTtlSeconds;
+    }
+
+    /**
+     * Set the lower bound for the time a resolved host is cached, regardless of the TTL of its records. The default
+     * value is {@link #DEFAULT_MIN_TTL_SECONDS}.
+     *
+     * @param minTtlSeconds minimum TTL in seconds
+     * @return this DNS cache configuration instance, for chaining
+     */
+    public DnsCacheConfiguration withMinTtlSeconds(long minTtlSeconds) {
+        this.minTtlSeconds = minTtlSeconds;
+        return this;
+    }
+
+    public long getMaxTtlSeconds() {
+        return maxTtlSeconds;
+    }
+
+    /**
+     * Set the upper bound for the time a resolved host is cached, regardless of the TTL of its records. The default
+     * value is {@link #DEFAULT_MAX_TTL_SECONDS}.
+     *
+     * @param maxTtlSeconds maximum TTL in seconds
+     * @return this DNS cache configuration instance, for chaining
+     */
+    public DnsCacheConfiguration withMaxTtlSeconds(long maxTtlSeconds) {
+        this.maxTtlSeconds = maxTtlSeconds;
+        return this;
+    }
+
+    public long getDefaultTtlSeconds() {
+        return defaultTtlSeconds;
+    }
+
+    /**
+     * Set the time a resolved host is cached for when the underlying resolver does not report a TTL, for example a
+     * blocking {@link HostResolver}. The default value is {@link #DEFAULT_TTL_SECONDS}.
+     *
+     * @param defaultTtlSeconds TTL in seconds
+     * @return this DNS cache configuration instance, for chaining
+     */
+    public DnsCacheConfiguration withDefaultTtlSeconds(long defaultTtlSeconds) {
+        this.defaultTtlSeconds = defaultTtlSeconds;
+        return this;
+    }
+
+    public long getNegativeTtlSeconds() {
+        return negativeTtlSeconds;
+    }
+
+    /**
+     * Set the time a host that could not be resolved (NXDOMAIN) is cached for. A value of 0 disables negative
+     * caching. The default value is {@link #DEFAULT_NEGATIVE_TTL_SECONDS}.
+     *
+     * @param negativeTtlSeconds negative TTL in seconds
+     * @return this DNS cache configuration instance, for chaining
+     */
+    public DnsCacheConfiguration withNegativeTtlSeconds(long negativeTtlSeconds) {
+        this.negativeTtlSeconds = negativeTtlSeconds;
+        return this;
+    }
+
+    public long getStaleTtlSeconds() {
+        return staleTtlSeconds;
+    }
+
+    /**
+     * Set the time after expiry during which a cached address is still served while it is refreshed in the
+     * background. A value of 0 disables serving stale entries. The default value is
+     * {@link #DEFAULT_STALE_TTL_SECONDS}.
+     *
+     * @param staleTtlSeconds stale period in seconds
+     * @return this DNS cache configuration instance, for chaining
+     */
+    public DnsCacheConfiguration withStaleTtlSeconds(long staleTtlSeconds) {
+        this.staleTtlSeconds = staleTtlSeconds;
+        return this;
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * Set the maximum number of cached hosts. The default value is {@link #DEFAULT_MAX_ENTRIES}.
+     *
+     * @param maxEntries maximum number of cached hosts
+     * @return this DNS cache configuration instance, for chaining
+     */
+    public DnsCacheConfiguration withMaxEntries(int maxEntries) {
+        this.maxEntries = maxEntries;
+        return this;
+    }
+}
@@ -16,6 +16,8 @@ import org.littleshoot.proxy.impl.ClientToProxyConnection;
 public class FlowContext {
     private final InetSocketAddress clientAddress;
     private final SSLSession clientSslSession;
+    private final String sourceIp;
+    private final String authenticatedUser;
 
     public FlowContext(ClientToProxyConnection clientConnection) {
         super();
@@ -23,6 +25,8 @@ public class FlowContext {
         SSLEngine sslEngine = clientConnection.getSslEngine();
         this.clientSslSession = sslEngine != null ? sslEngine.getSession()
                 : null;
+        this.sourceIp = clientConnection.getSourceIp();
+        this.authenticatedUser = clientConnection.getAuthenticatedUser();
     }
 
     /**
@@ -44,4 +48,24 @@ public class FlowContext {
         return clientSslSession;
     }
 
+    /**
+     * The IP address of the original client, as reported by a PROXY protocol
+     * header, or null if the connection did not start with one.
+     * 
+     * @return
+     */
+    public String getSourceIp() {
+        return sourceIp;
+    }
+
+    /**
+     * The name of the user that authenticated on the client connection, or
+     * null if the client has not authenticated.
+     * 
+     * @return
+     */
+    public String getAuthenticatedUser() {
+        return authenticatedUser;
+    }
+
 }
@@ -1,6 +1,12 @@
 package org.littleshoot.proxy;
 
+import org.littleshoot.proxy.impl.CompressionOffloadConfiguration;
+import org.littleshoot.proxy.impl.ConnectionPoolConfiguration;
+import org.littleshoot.proxy.impl.PreconnectConfiguration;
+import org.littleshoot.proxy.impl.ResponseCacheConfiguration;
+import org.littleshoot.proxy.monitoring.MetricsConfiguration;
 import org.littleshoot.proxy.impl.ThreadPoolConfiguration;
+import org.littleshoot.proxy.impl.TlsSessionCacheConfiguration;
 import org.littleshoot.proxy.monitoring.ProxyThreadPoolsObserver;
 import org.littleshoot.proxy.ratelimit.RateLimiter;
 
@@ -346,6 +352,38 @@ public interface HttpProxyServerBootstrap {
      */
     HttpProxyServerBootstrap withServerResolver(HostResolver serverResolver);
 
+    /**
+     * <p>
+     * Specify a custom {@link AsyncHostResolver} for resolving server addresses without blocking the proxy's event
+     * loops. While an address is being resolved, the proxy stops reading from the client.
+     * </p>
+     *
+     * <p>
+     * Default = null, in which case a {@link NettyDnsHostResolver} is used if the server resolver is the
+     * {@link DefaultHostResolver}, and any other server resolver is run on a separate thread pool by a
+     * {@link BlockingHostResolverAdapter}.
+     * </p>
+     *
+     * @param asyncServerResolver
+     * @return
+     */
+    HttpProxyServerBootstrap withAsyncServerResolver(AsyncHostResolver asyncServerResolver);
+
+    /**
+     * <p>
+     * Caches resolved server addresses in a {@link CachingHostResolver} in front of the server resolver. Its hit, miss
+     * and refresh counts are available from the proxy server.
+     * </p>
+     *
+     * <p>
+     * Default = null (server addresses are not cached by the proxy)
+     * </p>
+     *
+     * @param dnsCacheConfiguration TTL bounds, negative and stale TTLs and size of the cache
+     * @return
+     */
+    HttpProxyServerBootstrap withServerResolverCache(DnsCacheConfiguration dnsCacheConfiguration);
+
     /**
      * <p>
      * Add an {@link ActivityTracker} for tracking activity in this proxy.
@@ -407,7 +445,8 @@ public interface HttpProxyServerBootstrap {
     HttpProxyServer start();
 
     /**
-     * Set the configuration parameters for the proxy's thread pools.
+     * Set the configuration parameters for the proxy's thread pools, including the Netty transport (NIO or native
+     * epoll) used for TCP event loops and channels.
      *
      * @param configuration thread pool configuration
      * @return proxy server bootstrap for chaining
@@ -415,7 +454,9 @@ public interface HttpProxyServerBootstrap {
     HttpProxyServerBootstrap withThreadPoolConfiguration(ThreadPoolConfiguration configuration);
 
     /**
-     * Set an observer instance to monitor internal thread pools.
+     * Set an observer instance to monitor internal thread pools. Observers should read the pools with the
+     * {@code EventLoopGroup} getters of {@link org.littleshoot.proxy.impl.ProxyThreadPools}, which work with every
+     * transport.
      *
      * @param threadPoolObserver monitoring instance
      * @return proxy server bootstrap for chaining
@@ -424,7 +465,12 @@ public interface HttpProxyServerBootstrap {
 
     /**
      * <p>
-     * Specify a {@link RateLimiter} that is used for rate limiting requests
+     * Specify a {@link RateLimiter} that is used for rate limiting requests.
+     * Every request is checked after authentication and before any upstream
+     * work is done for it; requests over the limit are answered with the
+     * limiter's response. {@link org.littleshoot.proxy.ratelimit.TokenBucketRateLimiter}
+     * limits each client to a sustained rate with bursts. Its eviction thread is shut down when the last proxy server
+     * using it stops.
      * </p>
      *
      * <p>
@@ -434,4 +480,216 @@ public interface HttpProxyServerBootstrap {
      * @param rateLimiter
      */
     HttpProxyServerBootstrap withRateLimiter(RateLimiter rateLimiter);
-}
\ No newline at end of file
+
+    /**
+     * <p>
+     * Enables a pool of idle upstream connections that is shared by all clients of this proxy. When a client
+     * disconnects, its idle connections to servers and chained proxies are kept open and handed to the next client
+     * requesting the same upstream, instead of being closed.
+     * </p>
+     *
+     * <p>
+     * Default = null (upstream connections are closed together with the client connection)
+     * </p>
+     *
+     * @param connectionPoolConfiguration limits for the number and lifetime of idle pooled connections
+     */
+    HttpProxyServerBootstrap withUpstreamConnectionPool(ConnectionPoolConfiguration connectionPoolConfiguration);
+
+    /**
+     * <p>
+     * Relays CONNECT tunnels with splice(2) when both the client and the server channel use the native epoll transport
+     * and share an event loop (see {@link org.littleshoot.proxy.impl.ThreadPoolConfiguration#withEventLoopAffinity(boolean)}),
+     * neither side is encrypted by the proxy, traffic is not throttled and no {@link ActivityTracker}s are registered.
+     * Spliced bytes never enter the JVM, so such tunnels are not closed by the idle connection timeout. Tunnels that
+     * can't be spliced are relayed normally.
+     * </p>
+     *
+     * <p>
+     * Default = false
+     * </p>
+     *
+     * @param spliceTunnels true to splice eligible tunnels
+     */
+    HttpProxyServerBootstrap withSpliceTunnels(boolean spliceTunnels);
+
+    /**
+     * <p>
+     * When the server's host resolves to several addresses and the {@link AsyncHostResolver} returns all of them (see
+     * {@link MultiAddressHostResolver}), the proxy connects to them in a staggered race, alternating between IPv6 and
+     * IPv4 addresses as described in RFC 8305 ("Happy Eyeballs"). The next address is tried whenever the previous
+     * attempt fails, or has not succeeded within this delay. The first connection to succeed is used and all other
+     * attempts are cancelled. Addresses that failed or lost a race are tried last for a while.
+     * </p>
+     *
+     * <p>
+     * A value of 0 or less disables racing, so that only the first address is tried. Racing is disabled by default;
+     * RFC 8305 recommends a delay of 250 milliseconds.
+     * </p>
+     *
+     * <p>
+     * Default = 0
+     * </p>
+     *
+     * @param connectionAttemptDelay delay before the next address is tried, in milliseconds
+     */
+    HttpProxyServerBootstrap withConnectionAttemptDelay(int connectionAttemptDelay);
+
+    /**
+     * <p>
+     * Keeps warm connections ready for the origins that clients need new connections to most often. The proxy tracks
+     * a decaying rate of new connections per origin, and periodically opens connections to the hottest origins, within
+     * the configured budget. Warm connections are kept in the upstream connection pool (see
+     * {@link #withUpstreamConnectionPool(ConnectionPoolConfiguration)}), which is enabled
+     * with its default configuration if it hasn't been configured.
+     * </p>
+     *
+     * <p>
+     * Only direct connections are pre-connected, so pre-connecting is disabled when a {@link ChainedProxyManager} is
+     * configured.
+     * </p>
+     *
+     * <p>
+     * Default = null (no connections are opened before a client needs them)
+     * </p>
+     *
+     * @param preconnectConfiguration limits for the number of warm connections, and what makes an origin hot
+     */
+    HttpProxyServerBootstrap withUpstreamPreconnect(PreconnectConfiguration preconnectConfiguration);
+
+    /**
+     * <p>
+     * Compresses response bodies on a dedicated pool of threads instead of on the client-to-proxy worker threads, so
+     * that large compressible responses don't delay the other connections served by the same event loop. Compressed
+     * chunks are written to the client in their original order. While a connection has too much data waiting to be
+     * compressed, or too many compression tasks are waiting for a thread, the proxy stops reading from the server.
+     * </p>
+     *
+     * <p>
+     * Default = null (responses are compressed on the client-to-proxy worker threads)
+     * </p>
+     *
+     * @param compressionOffloadConfiguration number of compression threads and size of their queue
+     */
+    HttpProxyServerBootstrap withCompressionOffload(CompressionOffloadConfiguration compressionOffloadConfiguration);
+
+    /**
+     * <p>
+     * Keeps the Brotli-compressed bodies of responses that carry a strong {@code ETag}, in direct memory, so that when
+     * the server sends the same response again it is not compressed again. Entries are keyed by host, URI, ETag and
+     * encoding, and the least recently used ones are evicted once the cached bodies take more than {@code maxBytes}.
+     * Bodies larger than 1/16 of {@code maxBytes} are not cached, and neither are responses that set cookies or vary by
+     * request headers other than {@code Accept-Encoding}.
+     * </p>
+     *
+     * <p>
+     * Default = 0 (compressed bodies are not cached)
+     * </p>
+     *
+     * @param maxBytes total size of the cached compressed bodies, or 0 to not cache them
+     */
+    HttpProxyServerBootstrap withCompressedResponseCache(long maxBytes);
+
+    /**
+     * <p>
+     * Caches responses proxy-wide, following the rules for shared caches in RFC 7234. Fresh responses are served to
+     * clients without contacting the server, stale responses that carry validators are revalidated with a conditional
+     * request, and responses marked no-store or private, or that set cookies, are never stored. Responses are keyed by
+     * the server's host and port and the request URI, with variants selected by their Vary header.
+     * </p>
+     *
+     * <p>
+     * Default = null (responses are not cached)
+     * </p>
+     *
+     * @param responseCacheConfiguration size limits and body storage of the cache
+     */
+    HttpProxyServerBootstrap withResponseCache(ResponseCacheConfiguration responseCacheConfiguration);
+
+    /**
+     * <p>
+     * Specify an {@link AsyncProxyAuthenticator} to authenticate clients without blocking an event loop, for instance
+     * by calling a remote identity store. The client connection stops reading while its credentials are verified.
+     * Takes precedence over {@link #withProxyAuthenticator(ProxyAuthenticator)}. A blocking {@link ProxyAuthenticator}
+     * can be moved off the event loops with a {@link BlockingProxyAuthenticatorAdapter}.
+     * </p>
+     *
+     * <p>
+     * Default = null
+     * </p>
+     *
+     * @param asyncProxyAuthenticator authenticator for clients
+     */
+    HttpProxyServerBootstrap withAsyncProxyAuthenticator(AsyncProxyAuthenticator asyncProxyAuthenticator);
+
+    /**
+     * <p>
+     * Records the latencies of DNS resolution, connecting, TLS handshakes, the time to the first byte of responses and
+     * the total time of requests, overall and for each origin. The metrics are available from
+     * {@link org.littleshoot.proxy.impl.DefaultHttpProxyServer#getMetrics()}, and are served as JSON by a local admin
+     * endpoint if the configuration specifies its address.
+     * </p>
+     *
+     * <p>
+     * Default = null (latencies are not recorded)
+     * </p>
+     *
+     * @param metricsConfiguration per-origin breakdown and admin endpoint of the metrics
+     */
+    HttpProxyServerBootstrap withMetrics(MetricsConfiguration metricsConfiguration);
+
+    /**
+     * <p>
+     * Specify whether connections from clients may start with a PROXY protocol header, either the text v1 or the
+     * binary v2 header, which reports the address of the original client when the proxy runs behind a load balancer. If false, the header is not looked for, and
+     * {@link FlowContext#getSourceIp()} is always null.
+     * </p>
+     *
+     * <p>
+     * Default = true
+     * </p>
+     *
+     * @param acceptProxyProtocol true to read PROXY protocol headers
+     */
+    HttpProxyServerBootstrap withAcceptProxyProtocol(boolean acceptProxyProtocol);
+
+    /**
+     * <p>
+     * Specify whether responses are compressed with Brotli for clients that accept it. If false, responses are passed
+     * on with the encoding they were received in, and no compression stage is added to the client pipelines.
+     * </p>
+     *
+     * <p>
+     * Default = true
+     * </p>
+     *
+     * @param brotliCompression true to compress responses with Brotli
+     */
+    HttpProxyServerBootstrap withBrotliCompression(boolean brotliCompression);
+
+    /**
+     * <p>
+     * Bounds the client session caches that TLS sessions with servers and chained proxies are resumed from, and
+     * counts full and resumed upstream handshakes. The sessions are cached per peer host and port by the SSLContext
+     * that upstream connections are encrypted with; the size and lifetime limits of the configuration are applied to
+     * the session cache of every such SSLContext, including ones supplied by a
+     * {@link org.littleshoot.proxy.MitmManager} or {@link org.littleshoot.proxy.ChainedProxy}. The counts are
+     * available from {@link org.littleshoot.proxy.impl.DefaultHttpProxyServer#getUpstreamTlsSessionCache()} and the
+     * metrics endpoint.
+     * </p>
+     *
+     * <p>
+     * Session tickets (RFC 5077) are not enabled by the proxy. On JDK 13 and later, they can be offered to servers by
+     * starting the JVM with {@code -Djdk.tls.client.enableSessionTicketExtension=true}; earlier JDKs, including Java
+     * 8, do not support them on the client side.
+     * </p>
+     *
+     * <p>
+     * Default = null
+     * </p>
+     *
+     * @param tlsSessionCacheConfiguration limits for the number and lifetime of cached sessions, or null to not
+     *                                     bound the caches or count handshakes
+     */
+    HttpProxyServerBootstrap withUpstreamTlsSessionCache(TlsSessionCacheConfiguration tlsSessionCacheConfiguration);
+}
@@ -0,0 +1,25 @@
+package org.littleshoot.proxy;
+
+import io.netty.channel.EventLoop;
+import io.netty.util.concurrent.Future;
+
+import java.net.InetSocketAddress;
+import java.util.List;
+
+/**
+ * An {@link AsyncHostResolver} that can return every address of a host, e.g. all of its A and AAAA records, so that
+ * the proxy can fall back to another address when the first one is slow or unreachable.
+ */
+public interface MultiAddressHostResolver extends AsyncHostResolver {
+    /**
+     * Starts resolving all addresses of the given host. The returned future completes with at least one address, or
+     * fails with an {@link java.net.UnknownHostException} if the host cannot be resolved.
+     *
+     * @param host host name or IP address literal to resolve
+     * @param port port of the resulting addresses
+     * @param eventLoop event loop of the connection that waits for the addresses. Listeners of the returned future are
+     *                  notified on this event loop.
+     * @return future for the resolved addresses, in the order the resolver prefers them
+     */
+    Future<List<InetSocketAddress>> resolveAll(String host, int port, EventLoop eventLoop);
+}
@@ -0,0 +1,304 @@
+package org.littleshoot.proxy;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.AddressedEnvelope;
+import io.netty.channel.EventLoop;
+import io.netty.handler.codec.dns.DefaultDnsQuestion;
+import io.netty.handler.codec.dns.DnsQuestion;
+import io.netty.handler.codec.dns.DnsRawRecord;
+import io.netty.handler.codec.dns.DnsRecord;
+import io.netty.handler.codec.dns.DnsRecordType;
+import io.netty.handler.codec.dns.DnsResponse;
+import io.netty.handler.codec.dns.DnsResponseCode;
+import io.netty.resolver.ResolvedAddressTypes;
+import io.netty.resolver.dns.DnsNameResolver;
+import io.netty.resolver.dns.DnsNameResolverBuilder;
+import io.netty.resolver.dns.DnsNameResolverException;
+import io.netty.resolver.dns.DnsServerAddressStreamProvider;
+import io.netty.resolver.dns.DnsServerAddressStreamProviders;
+import io.netty.util.NetUtil;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.GenericFutureListener;
+import io.netty.util.concurrent.Promise;
+import org.littleshoot.proxy.impl.EventLoopTransport;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Default {@link AsyncHostResolver}, which sends DNS queries with Netty's non-blocking {@link DnsNameResolver}. One
+ * resolver is created per event loop, so that queries and their answers are handled on the event loop of the
+ * connection waiting for them. Entries in the hosts file are honoured. All A and AAAA records of a host are returned
+ * by {@link #resolveAll(String, int, EventLoop)}, and their TTL is reported to callers of
+ * {@link #resolveWithTtl(String, EventLoop)}. A host that the name server answers does not exist fails with a
+ * {@link NonexistentHostException}.
+ */
+public class NettyDnsHostResolver implements TtlReportingHostResolver, MultiAddressHostResolver {
+    private final DnsServerAddressStreamProvider nameServerProvider;
+
+    private final ConcurrentMap<EventLoop, DnsNameResolver> resolvers = new ConcurrentHashMap<EventLoop, DnsNameResolver>();
+
+    /**
+     * Creates a resolver that queries the name servers configured for this platform.
+     */
+    public NettyDnsHostResolver() {
+        this(DnsServerAddressStreamProviders.platformDefault());
+    }
+
+    /**
+     * Creates a resolver that queries the name servers returned by the given provider.
+     *
+     * @param nameServerProvider provides the name servers to query
+     */
+    public NettyDnsHostResolver(DnsServerAddressStreamProvider nameServerProvider) {
+        this.nameServerProvider = nameServerProvider;
+    }
+
+    @Override
+    public Future<InetSocketAddress> resolve(final String host, final int port, EventLoop eventLoop) {
+        final Promise<InetSocketAddress> promise = eventLoop.newPromise();
+        final DnsNameResolver resolver = resolverFor(eventLoop);
+        resolver.resolve(host).addListener(new GenericFutureListener<Future<InetAddress>>() {
+            @Override
+            public void operationComplete(Future<InetAddress> future) throws Exception {
+                if (future.isSuccess()) {
+                    promise.trySuccess(new InetSocketAddress(future.getNow(), port));
+                } else {
+                    fail(promise, host, future.cause(), resolver);
+                }
+            }
+        });
+        return promise;
+    }
+
+    @Override
+    public Future<List<InetSocketAddress>> resolveAll(final String host, final int port, EventLoop eventLoop) {
+        final Promise<List<InetSocketAddress>> promise = eventLoop.newPromise();
+        final DnsNameResolver resolver = resolverFor(eventLoop);
+        resolver.resolveAll(host).addListener(new GenericFutureListener<Future<List<InetAddress>>>() {
+            @Override
+            public void operationComplete(Future<List<InetAddress>> future) throws Exception {
+                if (future.isSuccess()) {
+                    promise.trySuccess(socketAddressesFor(future.getNow(), port));
+                } else {
+                    fail(promise, host, future.cause(), resolver);
+                }
+            }
+        });
+        return promise;
+    }
+
+    @Override
+    public Future<ResolvedAddress> resolveWithTtl(final String host, EventLoop eventLoop) {
+        final Promise<ResolvedAddress> promise = eventLoop.newPromise();
+
+        byte[] literal = NetUtil.createByteArrayFromIpAddressString(host);
+        if (literal != null) {
+            try {
+                promise.setSuccess(new ResolvedAddress(InetAddress.getByAddress(literal), -1));
+            } catch (UnknownHostException e) {
+                promise.setFailure(e);
+            }
+            return promise;
+        }
+
+        final DnsNameResolver resolver = resolverFor(eventLoop);
+        final List<Future<List<DnsRecord>>> queries = new ArrayList<Future<List<DnsRecord>>>();
+        for (DnsRecordType recordType : recordTypesFor(resolver.resolvedAddressTypes())) {
+            queries.add(resolver.resolveAll(new DefaultDnsQuestion(host, recordType)));
+        }
+
+        final AtomicInteger pendingQueries = new AtomicInteger(queries.size());
+        GenericFutureListener<Future<List<DnsRecord>>> listener = new GenericFutureListener<Future<List<DnsRecord>>>() {
+            @Override
+            public void operationComplete(Future<List<DnsRecord>> future) throws Exception {
+                if (pendingQueries.decrementAndGet() > 0) {
+                    return;
+                }
+
+                List<InetAddress> addresses = new ArrayList<InetAddress>();
+                long ttlSeconds = -1;
+                Throwable failure = null;
+                int failedQueries = 0;
+                for (Future<List<DnsRecord>> query : queries) {
+                    if (!query.isSuccess()) {
+                        failure = query.cause();
+                        failedQueries++;
+                        continue;
+                    }
+
+                    try {
+                        for (DnsRecord record : query.getNow()) {
+                            InetAddress address = addressOf(host, record);
+                            if (address != null) {
+                                addresses.add(address);
+                                ttlSeconds = ttlSeconds < 0 ? record.timeToLive() : Math.min(ttlSeconds, record.timeToLive());
+                            }
+                        }
+                    } finally {
+                        for (DnsRecord record : query.getNow()) {
+                            ReferenceCountUtil.release(record);
+                        }
+                    }
+                }
+
+                if (!addresses.isEmpty()) {
+                    promise.trySuccess(new ResolvedAddress(addresses, ttlSeconds));
+                } else if (failedQueries == queries.size()) {
+                    fail(promise, host, failure, resolver);
+                } else {
+                    // no address records, e.g. a host only found in the hosts file. fall back to a regular lookup
+                    // without a TTL.
+                    resolver.resolveAll(host).addListener(new GenericFutureListener<Future<List<InetAddress>>>() {
+                        @Override
+                        public void operationComplete(Future<List<InetAddress>> future) throws Exception {
+                            if (future.isSuccess()) {
+                                promise.trySuccess(new ResolvedAddress(future.getNow(), -1));
+                            } else {
+                                fail(promise, host, future.cause(), resolver);
+                            }
+                        }
+                    });
+                }
+            }
+        };
+        for (Future<List<DnsRecord>> query : queries) {
+            query.addListener(listener);
+        }
+        return promise;
+    }
+
+    /**
+     * Closes the resolvers of all event loops.
+     */
+    public void close() {
+        for (DnsNameResolver resolver : resolvers.values()) {
+            resolver.close();
+        }
+        resolvers.clear();
+    }
+
+    protected DnsNameResolverBuilder newResolverBuilder(EventLoop eventLoop) {
+        return new DnsNameResolverBuilder(eventLoop)
+                .channelType(EventLoopTransport.of(eventLoop).datagramChannelClass())
+                .nameServerProvider(nameServerProvider);
+    }
+
+    private DnsNameResolver resolverFor(EventLoop eventLoop) {
+        DnsNameResolver resolver = resolvers.get(eventLoop);
+        if (resolver == null) {
+            DnsNameResolver newResolver = newResolverBuilder(eventLoop).build();
+            resolver = resolvers.putIfAbsent(eventLoop, newResolver);
+            if (resolver == null) {
+                resolver = newResolver;
+            } else {
+                newResolver.close();
+            }
+        }
+        return resolver;
+    }
+
+    /**
+     * Fails a lookup. Netty reports a timeout, SERVFAIL or REFUSED as an {@link UnknownHostException} just like
+     * NXDOMAIN, so a lookup that was answered without an address is confirmed with a single query, and reported as a
+     * {@link NonexistentHostException} only if the name server answers that the host does not exist.
+     */
+    private static void fail(final Promise<?> promise, final String host, final Throwable cause, DnsNameResolver resolver) {
+        if (!(cause instanceof UnknownHostException) || causedByQueryFailure(cause)) {
+            promise.tryFailure(cause);
+            return;
+        }
+
+        DnsQuestion question = new DefaultDnsQuestion(host, recordTypesFor(resolver.resolvedAddressTypes()).get(0));
+        resolver.query(question).addListener(new GenericFutureListener<Future<AddressedEnvelope<DnsResponse, InetSocketAddress>>>() {
+            @Override
+            public void operationComplete(Future<AddressedEnvelope<DnsResponse, InetSocketAddress>> future) throws Exception {
+                if (future.isSuccess()) {
+                    AddressedEnvelope<DnsResponse, InetSocketAddress> envelope = future.getNow();
+                    try {
+                        if (envelope.content().code() == DnsResponseCode.NXDOMAIN) {
+                            NonexistentHostException nonexistent = new NonexistentHostException(host);
+                            nonexistent.initCause(cause);
+                            promise.tryFailure(nonexistent);
+                            return;
+                        }
+                    } finally {
+                        envelope.release();
+                    }
+                }
+                promise.tryFailure(cause);
+            }
+        });
+    }
+
+    /**
+     * @return true if a query of the lookup timed out or could not be sent
+     */
+    private static boolean causedByQueryFailure(Throwable failure) {
+        for (Throwable cause = failure.getCause(); cause != null; cause = cause.getCause()) {
+            if (cause instanceof DnsNameResolverException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the record types to query, the preferred address family first
+     */
+    private static List<DnsRecordType> recordTypesFor(ResolvedAddressTypes resolvedAddressTypes) {
+        switch (resolvedAddressTypes) {
+            case IPV4_ONLY:
+                return Collections.singletonList(DnsRecordType.A);
+            case IPV6_ONLY:
+                return Collections.singletonList(DnsRecordType.AAAA);
+            case IPV6_PREFERRED:
+                return Arrays.asList(DnsRecordType.AAAA, DnsRecordType.A);
+            default:
+                return Arrays.asList(DnsRecordType.A, DnsRecordType.AAAA);
+        }
+    }
+
+    /**
+     * @return the address of an A or AAAA record, or null for any other record
+     */
+    private static InetAddress addressOf(String host, DnsRecord record) throws UnknownHostException {
+        if (!(record instanceof DnsRawRecord)) {
+            return null;
+        }
+
+        int length;
+        if (record.type() == DnsRecordType.A) {
+            length = 4;
+        } else if (record.type() == DnsRecordType.AAAA) {
+            length = 16;
+        } else {
+            return null;
+        }
+
+        ByteBuf content = ((DnsRawRecord) record).content();
+        if (content.readableBytes() != length) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        content.getBytes(content.readerIndex(), bytes);
+        return InetAddress.getByAddress(host, bytes);
+    }
+
+    private static List<InetSocketAddress> socketAddressesFor(List<InetAddress> addresses, int port) {
+        List<InetSocketAddress> socketAddresses = new ArrayList<InetSocketAddress>(addresses.size());
+        for (InetAddress address : addresses) {
+            socketAddresses.add(new InetSocketAddress(address, port));
+        }
+        return socketAddresses;
+    }
+}
@@ -0,0 +1,16 @@
+package org.littleshoot.proxy;
+
+import java.net.UnknownHostException;
+
+/**
+ * This exception indicates that a name server answered that a host does not exist (NXDOMAIN), as opposed to a lookup
+ * that failed because no name server could be reached, the query timed out or the name server reported an error.
+ * Only hosts that fail with this exception are cached as unresolvable by a {@link CachingHostResolver}.
+ */
+public class NonexistentHostException extends UnknownHostException {
+    private static final long serialVersionUID = 1L;
+
+    public NonexistentHostException(String host) {
+        super(host);
+    }
+}
@@ -0,0 +1,54 @@
+package org.littleshoot.proxy;
+
+import java.net.InetAddress;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The addresses resolved by a {@link TtlReportingHostResolver}, together with the time they may be cached for.
+ */
+public class ResolvedAddress {
+    private final List<InetAddress> addresses;
+    private final long ttlSeconds;
+
+    /**
+     * @param address the resolved address
+     * @param ttlSeconds seconds the address may be cached for, or a negative value if unknown
+     */
+    public ResolvedAddress(InetAddress address, long ttlSeconds) {
+        this(Collections.singletonList(address), ttlSeconds);
+    }
+
+    /**
+     * @param addresses the resolved addresses, in the order they should be preferred. Must not be empty.
+     * @param ttlSeconds seconds the addresses may be cached for, or a negative value if unknown
+     */
+    public ResolvedAddress(List<InetAddress> addresses, long ttlSeconds) {
+        if (addresses.isEmpty()) {
+            throw new IllegalArgumentException("At least one address is required");
+        }
+        this.addresses = Collections.unmodifiableList(addresses);
+        this.ttlSeconds = ttlSeconds;
+    }
+
+    /**
+     * @return the preferred address
+     */
+    public InetAddress getAddress() {
+        return addresses.get(0);
+    }
+
+    /**
+     * @return all resolved addresses, the preferred one first
+     */
+    public List<InetAddress> getAddresses() {
+        return addresses;
+    }
+
+    /**
+     * @return seconds the addresses may be cached for, or a negative value if unknown
+     */
+    public long getTtlSeconds() {
+        return ttlSeconds;
+    }
+}
@@ -0,0 +1,20 @@
+package org.littleshoot.proxy;
+
+import io.netty.channel.EventLoop;
+import io.netty.util.concurrent.Future;
+
+/**
+ * An {@link AsyncHostResolver} that also reports the TTL of the records it resolved, so that a
+ * {@link CachingHostResolver} can cache them for as long as their owner allows.
+ */
+public interface TtlReportingHostResolver extends AsyncHostResolver {
+    /**
+     * Starts resolving the given host. The returned future fails with an {@link java.net.UnknownHostException} if
+     * the host does not exist.
+     *
+     * @param host host name or IP address literal to resolve
+     * @param eventLoop event loop on which listeners of the returned future are notified
+     * @return future for the resolved address and its TTL
+     */
+    Future<ResolvedAddress> resolveWithTtl(String host, EventLoop eventLoop);
+}
@@ -0,0 +1,207 @@
+package org.littleshoot.proxy.authenticator;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import org.littleshoot.proxy.ProxyAuthenticator;
+import org.littleshoot.proxy.impl.ProxyUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.crypto.spec.SecretKeySpec;
+
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpRequest;
+
+/**
+ * <p>
+ * Caching decorator for a {@link ProxyAuthenticator} whose verification is expensive, such as a
+ * {@link BasicProxyAuthenticator} that checks password hashes. Browsers open many connections with the same
+ * {@code Proxy-Authorization} header, and only the first of them has to wait for the underlying authenticator.
+ * Accepted and rejected credentials are cached for separate TTLs, see {@link CredentialCacheConfiguration}.
+ * </p>
+ *
+ * <p>
+ * The cache is keyed by an HMAC of the header value, with a random key generated for each instance, so credentials
+ * are never kept in memory and the keys are of no use outside this process. Since the key is derived from the header
+ * alone, the underlying authenticator's decision must not depend on anything else in the request.
+ * </p>
+ *
+ * <p>
+ * Reads never lock. When the cache grows beyond its maximum size, the least recently used credentials are evicted, and
+ * expired credentials are dropped at the latest once the longer of the two TTLs has passed.
+ * Concurrent connections that miss the cache with the same credentials each call the underlying authenticator.
+ * </p>
+ */
+public class CachingProxyAuthenticator implements ProxyAuthenticator {
+
+  private final ProxyAuthenticator delegate;
+  private final CredentialCacheConfiguration configuration;
+  private final HashFunction hmac;
+
+  private final Cache<HashCode, Entry> entries;
+
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder negativeHits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+
+  public CachingProxyAuthenticator(ProxyAuthenticator delegate) {
+    this(delegate, new CredentialCacheConfiguration());
+  }
+
+  public CachingProxyAuthenticator(ProxyAuthenticator delegate, CredentialCacheConfiguration configuration) {
+    this.delegate = delegate;
+    this.configuration = configuration;
+    // accepted and rejected credentials expire after different TTLs, which are checked on every lookup. the cache
+    // itself drops every entry once the longer of them has passed.
+    long maxTtlSeconds = Math.max(configuration.getTtlSeconds(), configuration.getNegativeTtlSeconds());
+    this.entries = CacheBuilder.newBuilder()
+        .maximumSize(configuration.getMaxEntries())
+        .expireAfterWrite(maxTtlSeconds, TimeUnit.SECONDS)
+        .removalListener(new RemovalListener<HashCode, Entry>() {
+          @Override
+          public void onRemoval(RemovalNotification<HashCode, Entry> notification) {
+            if (notification.getCause() == RemovalCause.SIZE) {
+              evictions.increment();
+            }
+          }
+        })
+        .build();
+
+    byte[] secret = new byte[32];
+    new SecureRandom().nextBytes(secret);
+    this.hmac = Hashing.hmacSha256(new SecretKeySpec(secret, "HmacSHA256"));
+  }
+
+  @Override
+  public boolean authenticate(HttpRequest httpRequest) {
+    String authorization = httpRequest.headers().get(HttpHeaderNames.PROXY_AUTHORIZATION);
+    if (authorization == null) {
+      // nothing worth caching, and nothing expensive to verify
+      return delegate.authenticate(httpRequest);
+    }
+
+    HashCode key = hmac.hashString(authorization, StandardCharsets.UTF_8);
+    long now = nanoTime();
+
+    Entry entry = entries.getIfPresent(key);
+    if (entry != null && now - entry.expiresAtNanos < 0) {
+      if (entry.accepted) {
+        hits.increment();
+      } else {
+        negativeHits.increment();
+      }
+      return entry.accepted;
+    }
+
+    misses.increment();
+    boolean accepted = delegate.authenticate(httpRequest);
+
+    long ttlSeconds = accepted ? configuration.getTtlSeconds() : configuration.getNegativeTtlSeconds();
+    if (ttlSeconds > 0) {
+      BasicCredentials credentials = ProxyUtils.getBasicCredentials(httpRequest);
+      entries.put(key, new Entry(accepted, credentials == null ? null : credentials.getUsername(),
+          now + TimeUnit.SECONDS.toNanos(ttlSeconds)));
+    }
+    return accepted;
+  }
+
+  @Override
+  public String getRealm() {
+    return delegate.getRealm();
+  }
+
+  @Override
+  public FullHttpResponse authenticationFailureResponse(HttpRequest request) {
+    return delegate.authenticationFailureResponse(request);
+  }
+
+  /**
+   * Removes the cached results for a user, for instance after its password was changed or it was revoked.
+   *
+   * @param username the user name from the user's basic credentials
+   */
+  public void invalidate(String username) {
+    Iterator<Entry> it = entries.asMap().values().iterator();
+    while (it.hasNext()) {
+      if (username.equals(it.next().username)) {
+        it.remove();
+      }
+    }
+  }
+
+  /**
+   * Removes all cached results.
+   */
+  public void clear() {
+    entries.invalidateAll();
+  }
+
+  /**
+   * @return number of credentials accepted from the cache
+   */
+  public long getHits() {
+    return hits.sum();
+  }
+
+  /**
+   * @return number of credentials rejected from the cache
+   */
+  public long getNegativeHits() {
+    return negativeHits.sum();
+  }
+
+  /**
+   * @return number of credentials that had to be verified by the underlying authenticator
+   */
+  public long getMisses() {
+    return misses.sum();
+  }
+
+  /**
+   * @return number of entries evicted to keep the cache within its maximum size
+   */
+  public long getEvictions() {
+    return evictions.sum();
+  }
+
+  /**
+   * @return number of credentials currently cached
+   */
+  public int size() {
+    return (int) entries.size();
+  }
+
+  /**
+   * @return the current time, in nanoseconds from an arbitrary origin
+   */
+  protected long nanoTime() {
+    return System.nanoTime();
+  }
+
+  private static class Entry {
+    private final boolean accepted;
+    /**
+     * Null if the credentials are not basic credentials.
+     */
+    private final String username;
+    private final long expiresAtNanos;
+
+    private Entry(boolean accepted, String username, long expiresAtNanos) {
+      this.accepted = accepted;
+      this.username = username;
+      this.expiresAtNanos = expiresAtNanos;
+    }
+  }
+}
@@ -0,0 +1,73 @@
+package org.littleshoot.proxy.authenticator;
+
+/**
+ * Configuration object for a {@link CachingProxyAuthenticator}. Controls how long accepted and rejected credentials
+ * are cached, and how many credentials are cached.
+ */
+public class CredentialCacheConfiguration {
+  /**
+   * The default time accepted credentials are cached for, in seconds.
+   */
+  public static final long DEFAULT_TTL_SECONDS = 300L;
+
+  /**
+   * The default time rejected credentials are cached for, in seconds.
+   */
+  public static final long DEFAULT_NEGATIVE_TTL_SECONDS = 30L;
+
+  /**
+   * The default maximum number of cached credentials.
+   */
+  public static final int DEFAULT_MAX_ENTRIES = 10000;
+
+  private long ttlSeconds = DEFAULT_TTL_SECONDS;
+  private long negativeTtlSeconds = DEFAULT_NEGATIVE_TTL_SECONDS;
+  private int maxEntries = DEFAULT_MAX_ENTRIES;
+
+  public long getTtlSeconds() {
+    return ttlSeconds;
+  }
+
+  /**
+   * Set the time accepted credentials are cached for. A password change or a revoked user takes effect after at most
+   * this long, unless the cache is invalidated. The default value is {@link #DEFAULT_TTL_SECONDS}.
+   *
+   * @param ttlSeconds TTL in seconds
+   * @return this credential cache configuration instance, for chaining
+   */
+  public CredentialCacheConfiguration withTtlSeconds(long ttlSeconds) {
+    this.ttlSeconds = ttlSeconds;
+    return this;
+  }
+
+  public long getNegativeTtlSeconds() {
+    return negativeTtlSeconds;
+  }
+
+  /**
+   * Set the time rejected credentials are cached for. A value of 0 disables negative caching. The default value is
+   * {@link #DEFAULT_NEGATIVE_TTL_SECONDS}.
+   *
+   * @param negativeTtlSeconds negative TTL in seconds
+   * @return this credential cache configuration instance, for chaining
+   */
+  public CredentialCacheConfiguration withNegativeTtlSeconds(long negativeTtlSeconds) {
+    this.negativeTtlSeconds = negativeTtlSeconds;
+    return this;
+  }
+
+  public int getMaxEntries() {
+    return maxEntries;
+  }
+
+  /**
+   * Set the maximum number of cached credentials. The default value is {@link #DEFAULT_MAX_ENTRIES}.
+   *
+   * @param maxEntries maximum number of cached credentials
+   * @return this credential cache configuration instance, for chaining
+   */
+  public CredentialCacheConfiguration withMaxEntries(int maxEntries) {
+    this.maxEntries = maxEntries;
+    return this;
+  }
+}
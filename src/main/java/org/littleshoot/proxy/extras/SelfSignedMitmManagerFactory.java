@@ -5,11 +5,17 @@ import org.littleshoot.proxy.MitmManager;
 import org.littleshoot.proxy.MitmManagerFactory;
 
 /**
- * The factory for self signed mitm manager
+ * The factory for self signed mitm manager. All channels share one manager, so that the key store is only loaded once,
+ * and TLS sessions with servers can be resumed by later connections.
  */
 public class SelfSignedMitmManagerFactory implements MitmManagerFactory {
+  private SelfSignedMitmManager mitmManager;
+
   @Override
-  public MitmManager getInstance(Channel channel) {
-    return new SelfSignedMitmManager();
+  public synchronized MitmManager getInstance(Channel channel) {
+    if (mitmManager == null) {
+      mitmManager = new SelfSignedMitmManager();
+    }
+    return mitmManager;
   }
 }
@@ -0,0 +1,82 @@
+package org.littleshoot.proxy.impl;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Remembers upstream addresses that recently could not be connected to, or were slower than another address of the
+ * same host, so that the {@link HappyEyeballsConnector} tries them last until their penalty expires. Lookups never
+ * lock. When more addresses are penalized than the maximum number of entries, the least recently penalized or looked up
+ * addresses are forgotten.
+ */
+class AddressPenaltyTracker {
+    static final long DEFAULT_PENALTY_MILLIS = TimeUnit.MINUTES.toMillis(5);
+    static final int DEFAULT_MAX_ENTRIES = 4096;
+
+    /**
+     * The penalized addresses. Every penalty lasts equally long, so it expires with its entry.
+     */
+    private final Cache<InetSocketAddress, Boolean> penalized;
+
+    AddressPenaltyTracker() {
+        this(DEFAULT_PENALTY_MILLIS, DEFAULT_MAX_ENTRIES);
+    }
+
+    AddressPenaltyTracker(long penaltyMillis, int maxEntries) {
+        this.penalized = CacheBuilder.newBuilder()
+                .maximumSize(maxEntries)
+                .expireAfterWrite(penaltyMillis, TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    /**
+     * Deprioritizes the given address until its penalty expires.
+     */
+    void penalize(InetSocketAddress address) {
+        penalized.put(address, Boolean.TRUE);
+    }
+
+    /**
+     * Lifts the penalty of an address that has just been connected to.
+     */
+    void succeeded(InetSocketAddress address) {
+        penalized.invalidate(address);
+    }
+
+    boolean isPenalized(InetSocketAddress address) {
+        return penalized.getIfPresent(address) != null;
+    }
+
+    /**
+     * Moves penalized addresses to the end of the list, keeping the relative order of the remaining addresses.
+     *
+     * @return a new list with the penalized addresses last
+     */
+    List<InetSocketAddress> deprioritizePenalized(List<InetSocketAddress> addresses) {
+        List<InetSocketAddress> ordered = new ArrayList<InetSocketAddress>(addresses.size());
+        List<InetSocketAddress> last = null;
+        for (InetSocketAddress address : addresses) {
+            if (isPenalized(address)) {
+                if (last == null) {
+                    last = new ArrayList<InetSocketAddress>();
+                }
+                last.add(address);
+            } else {
+                ordered.add(address);
+            }
+        }
+        if (last != null) {
+            ordered.addAll(last);
+        }
+        return ordered;
+    }
+
+    int size() {
+        return (int) penalized.size();
+    }
+}
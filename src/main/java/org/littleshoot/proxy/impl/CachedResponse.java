@@ -0,0 +1,196 @@
+package org.littleshoot.proxy.impl;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.DefaultHttpHeaders;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * A response stored in the {@link HttpResponseCache}: its status, end-to-end headers and body, the values of the
+ * request headers named by its Vary header, and the times needed to compute its age (RFC 7234, section 4.2.3).
+ * </p>
+ *
+ * <p>
+ * Instances are immutable. Revalidating a response replaces it with a new instance that shares its body.
+ * </p>
+ */
+class CachedResponse {
+    private final HttpResponseStatus status;
+    private final HttpHeaders headers;
+    private final ByteBuf body;
+    private final Map<String, String> varyValues;
+    private final long requestTime;
+    private final long responseTime;
+
+    // derived from the headers
+    private final Map<String, String> cacheControl;
+    private final long freshnessLifetime;
+    private final long correctedInitialAge;
+
+    /**
+     * @param status       status of the response
+     * @param headers      end-to-end headers of the response
+     * @param body         body of the response; this instance takes over the caller's reference
+     * @param varyValues   values of the request headers named by the response's Vary header, keyed by lower case name
+     * @param requestTime  time the request was sent, in milliseconds since the epoch
+     * @param responseTime time the response was received, in milliseconds since the epoch
+     * @param maxHeuristicFreshness upper bound of the heuristic freshness lifetime, in milliseconds
+     */
+    CachedResponse(HttpResponseStatus status, HttpHeaders headers, ByteBuf body, Map<String, String> varyValues,
+            long requestTime, long responseTime, long maxHeuristicFreshness) {
+        this.status = status;
+        this.headers = headers;
+        this.body = body;
+        this.varyValues = varyValues;
+        this.requestTime = requestTime;
+        this.responseTime = responseTime;
+
+        this.cacheControl = HttpResponseCache.parseCacheControl(headers);
+        this.freshnessLifetime = computeFreshnessLifetime(maxHeuristicFreshness);
+        this.correctedInitialAge = computeCorrectedInitialAge();
+    }
+
+    private long computeFreshnessLifetime(long maxHeuristicFreshness) {
+        long sharedMaxAge = HttpResponseCache.parseDeltaSeconds(cacheControl.get("s-maxage"));
+        if (sharedMaxAge >= 0) {
+            return TimeUnit.SECONDS.toMillis(sharedMaxAge);
+        }
+        long maxAge = HttpResponseCache.parseDeltaSeconds(cacheControl.get("max-age"));
+        if (maxAge >= 0) {
+            return TimeUnit.SECONDS.toMillis(maxAge);
+        }
+
+        long date = dateValue();
+        if (headers.contains(HttpHeaderNames.EXPIRES)) {
+            // an invalid Expires value, such as "0", means the response is already expired
+            long expires = headers.getTimeMillis(HttpHeaderNames.EXPIRES, date);
+            return Math.max(0, expires - date);
+        }
+
+        long lastModified = headers.getTimeMillis(HttpHeaderNames.LAST_MODIFIED, -1);
+        if (lastModified >= 0 && lastModified < date) {
+            return Math.min((date - lastModified) / 10, maxHeuristicFreshness);
+        }
+        return 0;
+    }
+
+    private long computeCorrectedInitialAge() {
+        long apparentAge = Math.max(0, responseTime - dateValue());
+        long ageValue = TimeUnit.SECONDS.toMillis(Math.max(0,
+                HttpResponseCache.parseDeltaSeconds(headers.get(HttpHeaderNames.AGE))));
+        long responseDelay = responseTime - requestTime;
+        return Math.max(apparentAge, ageValue + responseDelay);
+    }
+
+    private long dateValue() {
+        return headers.getTimeMillis(HttpHeaderNames.DATE, responseTime);
+    }
+
+    HttpResponseStatus getStatus() {
+        return status;
+    }
+
+    HttpHeaders getHeaders() {
+        return headers;
+    }
+
+    ByteBuf getBody() {
+        return body;
+    }
+
+    Map<String, String> getVaryValues() {
+        return varyValues;
+    }
+
+    /**
+     * @return the number of bytes this response takes in the cache, including an estimate of its headers
+     */
+    long size() {
+        long size = body.readableBytes();
+        for (Map.Entry<String, String> header : headers) {
+            size += header.getKey().length() + header.getValue().length();
+        }
+        return size;
+    }
+
+    /**
+     * @return the freshness lifetime of the response, in milliseconds
+     */
+    long freshnessLifetime() {
+        return freshnessLifetime;
+    }
+
+    /**
+     * @param now the current time, in milliseconds since the epoch
+     * @return the current age of the response, in milliseconds
+     */
+    long currentAge(long now) {
+        return correctedInitialAge + Math.max(0, now - responseTime);
+    }
+
+    boolean hasValidators() {
+        return headers.contains(HttpHeaderNames.ETAG) || headers.contains(HttpHeaderNames.LAST_MODIFIED);
+    }
+
+    /**
+     * @return true if the response may not be served stale, even if the client would accept it
+     */
+    boolean mustRevalidate() {
+        return cacheControl.containsKey("must-revalidate") || cacheControl.containsKey("proxy-revalidate")
+                || cacheControl.containsKey("s-maxage");
+    }
+
+    /**
+     * @return true if the response must be revalidated before every use
+     */
+    boolean noCache() {
+        return cacheControl.containsKey("no-cache");
+    }
+
+    /**
+     * Creates a copy of this response with the headers of a 304 (Not Modified) response merged in, as described in
+     * RFC 7234, section 4.3.4. The copy shares the body of this response, which is retained for it.
+     */
+    CachedResponse freshen(HttpHeaders notModifiedHeaders, long requestTime, long responseTime,
+            long maxHeuristicFreshness) {
+        HttpHeaders merged = new DefaultHttpHeaders().set(headers);
+        for (String name : notModifiedHeaders.names()) {
+            if (!HttpHeaderNames.CONTENT_LENGTH.contentEqualsIgnoreCase(name)
+                    && !ProxyUtils.shouldRemoveHopByHopHeader(name)) {
+                merged.set(name, notModifiedHeaders.getAll(name));
+            }
+        }
+        return new CachedResponse(status, merged, body.retain(), varyValues, requestTime, responseTime,
+                maxHeuristicFreshness);
+    }
+
+    /**
+     * Creates the response to send to the client. The caller must release it.
+     *
+     * @param now      the current time, in milliseconds since the epoch
+     * @param withBody false to leave out the body, for HEAD requests and 304 responses
+     */
+    FullHttpResponse toResponse(HttpResponseStatus status, long now, boolean withBody) {
+        ByteBuf content = withBody ? body.retainedDuplicate() : Unpooled.EMPTY_BUFFER;
+        FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, status, content);
+        response.headers().set(headers);
+        response.headers().set(HttpHeaderNames.AGE, TimeUnit.MILLISECONDS.toSeconds(currentAge(now)));
+        if (status.code() != HttpResponseStatus.NOT_MODIFIED.code()) {
+            response.headers().set(HttpHeaderNames.CONTENT_LENGTH, body.readableBytes());
+        }
+        return response;
+    }
+
+    void release() {
+        body.release();
+    }
+}
@@ -4,12 +4,16 @@ import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelPipeline;
+import io.netty.handler.codec.compression.BrotliEncoder;
 import io.netty.handler.codec.compression.BrotliHttpContentCompressor;
+import io.netty.handler.codec.compression.CompressionExecutor;
+import io.netty.handler.codec.compression.CompressionOffloadHandler;
 import io.netty.handler.codec.http.DefaultHttpRequest;
 import io.netty.handler.codec.http.FullHttpRequest;
 import io.netty.handler.codec.http.FullHttpResponse;
 import io.netty.handler.codec.http.HttpContent;
 import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpMessage;
 import io.netty.handler.codec.http.HttpMethod;
 import io.netty.handler.codec.http.HttpObject;
 import io.netty.handler.codec.http.HttpObjectAggregator;
@@ -21,37 +25,39 @@ import io.netty.handler.codec.http.HttpResponseStatus;
 import io.netty.handler.codec.http.HttpVersion;
 import io.netty.handler.timeout.IdleStateHandler;
 import io.netty.handler.traffic.GlobalTrafficShapingHandler;
+import io.netty.util.ReferenceCountUtil;
 import io.netty.util.ReferenceCounted;
 import io.netty.util.concurrent.Future;
 import io.netty.util.concurrent.GenericFutureListener;
 import org.apache.commons.lang3.StringUtils;
 import org.littleshoot.proxy.ActivityTracker;
+import org.littleshoot.proxy.AsyncProxyAuthenticator;
 import org.littleshoot.proxy.DefaultFailureHttpResponseComposer;
 import org.littleshoot.proxy.ExceptionHandler;
 import org.littleshoot.proxy.FailureHttpResponseComposer;
 import org.littleshoot.proxy.ratelimit.RateLimiter;
 import org.littleshoot.proxy.FlowContext;
-import org.littleshoot.proxy.FullFlowContext;
 import org.littleshoot.proxy.HttpFilters;
 import org.littleshoot.proxy.HttpFiltersAdapter;
-import org.littleshoot.proxy.ProxyAuthenticator;
 import org.littleshoot.proxy.SslEngineSource;
+import org.littleshoot.proxy.authenticator.BasicCredentials;
 
+import javax.net.ssl.SSLEngine;
 import javax.net.ssl.SSLSession;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
-import java.util.Locale;
 import java.util.Map;
-import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Pattern;
 
+import static org.littleshoot.proxy.impl.ConnectionState.AUTHENTICATING;
 import static org.littleshoot.proxy.impl.ConnectionState.AWAITING_CHUNK;
 import static org.littleshoot.proxy.impl.ConnectionState.AWAITING_INITIAL;
 import static org.littleshoot.proxy.impl.ConnectionState.AWAITING_PROXY_AUTHENTICATION;
@@ -87,7 +93,6 @@ public class ClientToProxyConnection extends ProxyConnection<HttpRequest> {
     /**
      * Used for case-insensitive comparisons when parsing Connection header values.
      */
-    private static final String LOWERCASE_TRANSFER_ENCODING_HEADER = HttpHeaders.Names.TRANSFER_ENCODING.toLowerCase(Locale.US);
 
     /**
      * Used for case-insensitive comparisons when checking direct proxy request.
@@ -129,6 +134,12 @@ public class ClientToProxyConnection extends ProxyConnection<HttpRequest> {
      */
     private volatile HttpFilters currentFilters = HttpFiltersAdapter.NOOP_FILTER;
 
+    /**
+     * The response cache's handling of the current request, if the proxy caches responses and the request may be
+     * answered from the cache.
+     */
+    private volatile ResponseCacheExchange cacheExchange;
+
     private volatile SSLSession clientSslSession;
 
     /**
@@ -138,8 +149,41 @@ public class ClientToProxyConnection extends ProxyConnection<HttpRequest> {
 
     private AtomicBoolean authenticated = new AtomicBoolean();
 
+    /**
+     * The name of the user that authenticated on this connection, if the proxy authenticates clients.
+     */
+    private volatile String authenticatedUser;
+
+    /**
+     * Incremented whenever something that the {@link FlowContext}s of this connection report about the client changes,
+     * so that they are rebuilt (see {@link #flowContextChanged()}).
+     */
+    private final AtomicInteger flowContextVersion = new AtomicInteger();
+
+    /**
+     * The context reported to {@link ActivityTracker}s while there is no server connection, and to the rate limiter.
+     */
+    private volatile VersionedFlowContext<FlowContext> clientFlowContext;
+
+    /**
+     * Whether the first request has been read, after which the PROXY protocol header (if any) has been decoded.
+     */
+    private boolean firstRequestRead;
+
+    /**
+     * Messages read from the client while an {@link AsyncProxyAuthenticator} verifies its credentials. Only accessed on
+     * the event loop.
+     */
+    private List<Object> heldWhileAuthenticating = new ArrayList<Object>();
+
     private final GlobalTrafficShapingHandler globalTrafficShapingHandler;
 
+    /**
+     * When true, all saturation callbacks are handled on this connection's event loop, so they don't need to be
+     * synchronized.
+     */
+    private final boolean eventLoopAffinity;
+
     ClientToProxyConnection(
             final DefaultHttpProxyServer proxyServer,
             SslEngineSource sslEngineSource,
@@ -169,6 +213,7 @@ public class ClientToProxyConnection extends ProxyConnection<HttpRequest> {
                             });
         }
         this.globalTrafficShapingHandler = globalTrafficShapingHandler;
+        this.eventLoopAffinity = proxyServer.isEventLoopAffinity();
 
         LOG.debug("Created ClientToProxyConnection");
     }
@@ -177,9 +222,23 @@ public class ClientToProxyConnection extends ProxyConnection<HttpRequest> {
      * Reading
      **************************************************************************/
 
+    /**
+     * Holds back what the client sends while its credentials are verified, such as the body of the request being
+     * authenticated, until {@link #resumeAfterAuthentication(AsyncProxyAuthenticator, HttpRequest, Future)}.
+     */
+    @Override
+    protected void read(Object msg) {
+        if (getCurrentState() == AUTHENTICATING) {
+            heldWhileAuthenticating.add(ReferenceCountUtil.retain(msg));
+        } else {
+            super.read(msg);
+        }
+    }
+
     @Override
     protected ConnectionState readHTTPInitial(HttpRequest httpRequest) {
         LOG.debug("Received raw request: {}", httpRequest);
+        requestRead();
 
         // if we cannot parse the request, immediately return a 400 and close the connection, since we do not know what state
         // the client thinks the connection is in
@@ -196,14 +255,30 @@ public class ClientToProxyConnection extends ProxyConnection<HttpRequest> {
             return DISCONNECT_REQUESTED;
         }
 
-        boolean authenticationRequired = authenticationRequired(httpRequest);
+        AsyncProxyAuthenticator authenticator = proxyServer.getAsyncProxyAuthenticator();
+        if (authenticator != null && !authenticated.get()) {
+            return authenticate(authenticator, httpRequest);
+        }
 
-        if (authenticationRequired) {
-            LOG.debug("Not authenticated!!");
-            return AWAITING_PROXY_AUTHENTICATION;
-        } else {
-            return doReadHTTPInitial(httpRequest);
+        return readAuthenticatedHTTPInitial(httpRequest);
+    }
+
+    /**
+     * Reads an {@link HttpRequest} from a client that does not need to authenticate, or has authenticated.
+     */
+    private ConnectionState readAuthenticatedHTTPInitial(HttpRequest httpRequest) {
+        RateLimiter rateLimiter = proxyServer.getRateLimiter();
+        if (rateLimiter.isOverLimit(httpRequest, clientFlowContext())) {
+            LOG.debug("Request is over the rate limit: {}", httpRequest.getUri());
+            boolean keepAlive = respondWithShortCircuitResponse(rateLimiter.limitReachedResponse(httpRequest));
+            if (keepAlive) {
+                return AWAITING_INITIAL;
+            } else {
+                return DISCONNECT_REQUESTED;
+            }
         }
+
+        return doReadHTTPInitial(httpRequest);
     }
 
     /**
@@ -285,6 +360,48 @@ public class ClientToProxyConnection extends ProxyConnection<HttpRequest> {
             }
         }
 
+        releaseCacheExchange();
+        HttpResponseCache responseCache = proxyServer.getResponseCache();
+        if (responseCache != null) {
+            ResponseCacheExchange exchange = responseCache.begin(serverHostAndPort, httpRequest);
+            if (exchange != null) {
+                FullHttpResponse cachedResponse = exchange.cachedResponse();
+                if (cachedResponse != null) {
+                    LOG.debug("Responding to client with cached response: {}", cachedResponse);
+
+                    HttpHeaders.setKeepAlive(cachedResponse, HttpHeaders.isKeepAlive(httpRequest));
+                    boolean keepAlive;
+                    try {
+                        keepAlive = respondWithShortCircuitResponse(cachedResponse);
+                    } finally {
+                        cachedResponse.release();
+                    }
+                    if (keepAlive) {
+                        return AWAITING_INITIAL;
+                    } else {
+                        return DISCONNECT_REQUESTED;
+                    }
+                }
+                cacheExchange = exchange;
+
+                if (exchange.collapse(this, httpRequest, serverHostAndPort)) {
+                    LOG.debug("Collapsed request into the in-flight request for: {}", httpRequest.getUri());
+                    return AWAITING_INITIAL;
+                }
+            }
+        }
+
+        return forwardRequest(httpRequest, serverHostAndPort);
+    }
+
+    /**
+     * Finds or creates the {@link ProxyToServerConnection} for a request and writes the request to it.
+     *
+     * @param httpRequest the request, which has passed the clientToProxyRequest filter
+     * @param serverHostAndPort the server the request is for
+     * @return the next state of this connection
+     */
+    private ConnectionState forwardRequest(HttpRequest httpRequest, String serverHostAndPort) {
         LOG.debug("Finding ProxyToServerConnection for: {}", serverHostAndPort);
         currentServerConnection = isMitming() || isTunneling() ?
                 this.currentServerConnection
@@ -303,6 +420,12 @@ public class ClientToProxyConnection extends ProxyConnection<HttpRequest> {
         }
 
         if (newConnectionRequired) {
+            UpstreamPreconnector preconnector = proxyServer.getUpstreamPreconnector();
+            if (preconnector != null && !ProxyUtils.isCONNECT(httpRequest)) {
+                // a warm connection for this origin may be waiting in the pool, and the demand keeps it warm
+                preconnector.recordConnection(serverHostAndPort);
+            }
+
             try {
                 currentServerConnection = ProxyToServerConnection.create(
                         proxyServer,
@@ -346,6 +469,7 @@ public class ClientToProxyConnection extends ProxyConnection<HttpRequest> {
         if (proxyToServerFilterResponse != null) {
             LOG.debug("Responding to client with short-circuit response from filter: {}", proxyToServerFilterResponse);
 
+            releaseCacheExchange();
             boolean keepAlive = respondWithShortCircuitResponse(proxyToServerFilterResponse);
             if (keepAlive) {
                 return AWAITING_INITIAL;
@@ -354,6 +478,11 @@ public class ClientToProxyConnection extends ProxyConnection<HttpRequest> {
             }
         }
 
+        if (cacheExchange != null) {
+            // turns the request into a conditional request if the cached response is stale
+            cacheExchange.prepareRequest(httpRequest);
+        }
+
         LOG.debug("Writing request to ProxyToServerConnection");
         currentServerConnection.write(httpRequest, currentFilters);
 
@@ -435,7 +564,83 @@ public class ClientToProxyConnection extends ProxyConnection<HttpRequest> {
     void respond(ProxyToServerConnection serverConnection, HttpFilters filters,
             HttpRequest currentHttpRequest, HttpResponse currentHttpResponse,
             HttpObject httpObject) {
+        ResponseCacheExchange exchange = cacheExchange;
+        if (exchange != null) {
+            if (ProxyUtils.isLastChunk(httpObject)) {
+                cacheExchange = null;
+            }
 
+            HttpObject cacheResult = exchange.serverResponse(httpObject);
+            if (cacheResult == null) {
+                // the rest of a 304 (Not Modified) response that was replaced with the cached response
+                return;
+            }
+            if (cacheResult != httpObject) {
+                try {
+                    writeResponse(serverConnection, filters, currentHttpRequest, currentHttpResponse, cacheResult);
+                } finally {
+                    ReferenceCountUtil.release(cacheResult);
+                }
+                return;
+            }
+        }
+
+        writeResponse(serverConnection, filters, currentHttpRequest, currentHttpResponse, httpObject);
+    }
+
+    /**
+     * Sends a part of the response to a request that was collapsed into another client's request for the same URI.
+     * Called on this connection's event loop.
+     *
+     * @param exchange            the cache handling of the collapsed request
+     * @param currentHttpRequest  the collapsed request
+     * @param currentHttpResponse the response, once it has started
+     * @param httpObject          the part of the response to send
+     */
+    void respondCollapsed(ResponseCacheExchange exchange, HttpRequest currentHttpRequest,
+            HttpResponse currentHttpResponse, HttpObject httpObject) {
+        if (exchange != cacheExchange) {
+            // the client has sent another request, or disconnected
+            return;
+        }
+        if (ProxyUtils.isLastChunk(httpObject)) {
+            cacheExchange = null;
+        }
+
+        writeResponse(null, currentFilters, currentHttpRequest, currentHttpResponse, httpObject);
+    }
+
+    /**
+     * Forwards a collapsed request to the server after all, because the request it was collapsed into did not get a
+     * response in time, or got one that can not be shared with this client. Called on this connection's event loop.
+     */
+    void forwardCollapsed(ResponseCacheExchange exchange, HttpRequest httpRequest, String serverHostAndPort) {
+        if (exchange != cacheExchange) {
+            return;
+        }
+
+        LOG.debug("Forwarding collapsed request for: {}", httpRequest.getUri());
+        exchange.uncollapse();
+        become(forwardRequest(httpRequest, serverHostAndPort));
+    }
+
+    /**
+     * Disconnects the client, because the response to the request its request was collapsed into was cut short.
+     * Called on this connection's event loop.
+     */
+    void abortCollapsed(ResponseCacheExchange exchange) {
+        if (exchange != cacheExchange) {
+            return;
+        }
+
+        LOG.debug("Response to collapsed request was cut short, disconnecting client");
+        cacheExchange = null;
+        disconnect();
+    }
+
+    private void writeResponse(ProxyToServerConnection serverConnection, HttpFilters filters,
+            HttpRequest currentHttpRequest, HttpResponse currentHttpResponse,
+            HttpObject httpObject) {
         httpObject = filters.serverToProxyResponse(httpObject);
         if (httpObject == null) {
             forceDisconnect(serverConnection);
@@ -544,9 +749,17 @@ public class ClientToProxyConnection extends ProxyConnection<HttpRequest> {
     @Override
     protected void disconnected() {
         super.disconnected();
+        releaseCacheExchange();
+        for (Object msg : heldWhileAuthenticating) {
+            ReferenceCountUtil.release(msg);
+        }
+        heldWhileAuthenticating.clear();
         for (ProxyToServerConnection serverConnection : serverConnectionsByHostAndPort
                 .values()) {
-            serverConnection.disconnect();
+            // idle server connections outlive the client if the proxy pools upstream connections
+            if (!serverConnection.releaseToPool()) {
+                serverConnection.disconnect();
+            }
         }
         recordClientDisconnected();
     }
@@ -666,6 +879,11 @@ public class ClientToProxyConnection extends ProxyConnection<HttpRequest> {
      */
     protected void serverDisconnected(ProxyToServerConnection serverConnection) {
         numberOfCurrentlyConnectedServers.decrementAndGet();
+        ResponseCacheExchange exchange = cacheExchange;
+        if (serverConnection == currentServerConnection && exchange != null && !exchange.isCollapsed()) {
+            // a response that was cut short is not stored
+            releaseCacheExchange();
+        }
 
         // for non-SSL connections, do not disconnect the client from the proxy, even if this was the last server connection.
         // this allows clients to continue to use the open connection to the proxy to make future requests. for SSL
@@ -681,14 +899,13 @@ public class ClientToProxyConnection extends ProxyConnection<HttpRequest> {
      * associated ProxyToServerConnections.
      */
     @Override
-    synchronized protected void becameSaturated() {
+    protected void becameSaturated() {
         super.becameSaturated();
-        for (ProxyToServerConnection serverConnection : serverConnectionsByHostAndPort
-                .values()) {
-            synchronized (serverConnection) {
-                if (this.isSaturated()) {
-                    serverConnection.stopReading();
-                }
+        if (eventLoopAffinity) {
+            stopReadingFromServers();
+        } else {
+            synchronized (this) {
+                stopReadingFromServers();
             }
         }
     }
@@ -698,28 +915,41 @@ public class ClientToProxyConnection extends ProxyConnection<HttpRequest> {
      * associated ProxyToServerConnections.
      */
     @Override
-    synchronized protected void becameWritable() {
+    protected void becameWritable() {
         super.becameWritable();
-        for (ProxyToServerConnection serverConnection : serverConnectionsByHostAndPort
-                .values()) {
-            synchronized (serverConnection) {
-                if (!this.isSaturated()) {
-                    serverConnection.resumeReading();
-                }
+        if (eventLoopAffinity) {
+            resumeReadingFromServers();
+        } else {
+            synchronized (this) {
+                resumeReadingFromServers();
             }
         }
     }
 
     /**
-     * When a server becomes saturated, we stop reading from the client.
+     * When a server becomes saturated, we stop reading from the client. With
+     * event loop affinity, this is handled on the client's event loop, which
+     * is where upstream channels normally live anyway.
      * 
      * @param serverConnection
      */
-    synchronized protected void serverBecameSaturated(
-            ProxyToServerConnection serverConnection) {
-        if (serverConnection.isSaturated()) {
-            LOG.info("Connection to server became saturated, stopping reading");
-            stopReading();
+    protected void serverBecameSaturated(
+            final ProxyToServerConnection serverConnection) {
+        if (eventLoopAffinity) {
+            if (channel.eventLoop().inEventLoop()) {
+                stopReadingIfSaturated(serverConnection);
+            } else {
+                channel.eventLoop().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        stopReadingIfSaturated(serverConnection);
+                    }
+                });
+            }
+        } else {
+            synchronized (this) {
+                stopReadingIfSaturated(serverConnection);
+            }
         }
     }
 
@@ -729,8 +959,52 @@ public class ClientToProxyConnection extends ProxyConnection<HttpRequest> {
      * 
      * @param serverConnection
      */
-    synchronized protected void serverBecameWriteable(
+    protected void serverBecameWriteable(
             ProxyToServerConnection serverConnection) {
+        if (eventLoopAffinity) {
+            if (channel.eventLoop().inEventLoop()) {
+                resumeReadingIfNoServersSaturated();
+            } else {
+                channel.eventLoop().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        resumeReadingIfNoServersSaturated();
+                    }
+                });
+            }
+        } else {
+            synchronized (this) {
+                resumeReadingIfNoServersSaturated();
+            }
+        }
+    }
+
+    private void stopReadingFromServers() {
+        for (ProxyToServerConnection serverConnection : serverConnectionsByHostAndPort
+                .values()) {
+            if (this.isSaturated()) {
+                serverConnection.stopReading();
+            }
+        }
+    }
+
+    private void resumeReadingFromServers() {
+        for (ProxyToServerConnection serverConnection : serverConnectionsByHostAndPort
+                .values()) {
+            if (!this.isSaturated()) {
+                serverConnection.resumeReading();
+            }
+        }
+    }
+
+    private void stopReadingIfSaturated(ProxyToServerConnection serverConnection) {
+        if (serverConnection.isSaturated()) {
+            LOG.info("Connection to server became saturated, stopping reading");
+            stopReading();
+        }
+    }
+
+    private void resumeReadingIfNoServersSaturated() {
         boolean anyServersSaturated = false;
         for (ProxyToServerConnection otherServerConnection : serverConnectionsByHostAndPort
                 .values()) {
@@ -801,10 +1075,16 @@ public class ClientToProxyConnection extends ProxyConnection<HttpRequest> {
             pipeline.addLast("inboundGlobalStateHandler", new InboundGlobalStateHandler(this));
         }
 
-        pipeline.addLast("bytesReadMonitor", bytesReadMonitor);
-        pipeline.addLast("bytesWrittenMonitor", bytesWrittenMonitor);
+        // stages that only matter for some configurations are left out of the others
+        boolean tracked = !proxyServer.getActivityTrackers().isEmpty();
+        if (tracked) {
+            pipeline.addLast("bytesMonitor", bytesMonitor);
+        }
 
-        pipeline.addLast("proxyProtocolReader", new ProtocolHeadersRequestDecoder());
+        if (proxyServer.isAcceptProxyProtocol()) {
+            // removes itself once the header, if any, has been read
+            pipeline.addLast("proxyProtocolReader", new ProtocolHeadersRequestDecoder());
+        }
 
         pipeline.addLast("encoder", new HttpResponseEncoder());
         // We want to allow longer request lines, headers, and chunks
@@ -814,7 +1094,20 @@ public class ClientToProxyConnection extends ProxyConnection<HttpRequest> {
                 proxyServer.getMaxHeaderSize(),
                 proxyServer.getMaxChunkSize()));
 
-        pipeline.addLast("brotli_compressor", new BrotliHttpContentCompressor());
+        if (proxyServer.isBrotliCompression()) {
+            CompressionExecutor compressionExecutor = proxyServer.getCompressionExecutor();
+            CompressionOffloadHandler compressionOffload = null;
+            if (compressionExecutor != null) {
+                compressionOffload = new CompressionOffloadHandler(compressionExecutor);
+                pipeline.addLast("compressionOffload", compressionOffload);
+            }
+            pipeline.addLast("brotli_compressor", new BrotliHttpContentCompressor(
+                    BrotliEncoder.DEFAULT_COMPRESSION_QUALITY,
+                    BrotliEncoder.DEFAULT_WINDOW_SIZE,
+                    BrotliHttpContentCompressor.DEFAULT_CONTENT_SIZE_THRESHOLD,
+                    compressionOffload,
+                    proxyServer.getCompressedResponseCache()));
+        }
 
         // Enable aggregation for filtering if necessary
         int numberOfBytesToBuffer = proxyServer.getFiltersSource()
@@ -823,13 +1116,16 @@ public class ClientToProxyConnection extends ProxyConnection<HttpRequest> {
             aggregateContentForFiltering(pipeline, numberOfBytesToBuffer);
         }
 
-        pipeline.addLast("requestReadMonitor", requestReadMonitor);
-        pipeline.addLast("responseWrittenMonitor", responseWrittenMonitor);
+        if (tracked) {
+            pipeline.addLast("messageMonitor", messageMonitor);
+        }
 
-        pipeline.addLast(
-                "idle",
-                new IdleStateHandler(0, 0, proxyServer
-                        .getIdleConnectionTimeout()));
+        if (proxyServer.getIdleConnectionTimeout() > 0) {
+            pipeline.addLast(
+                    "idle",
+                    new IdleStateHandler(0, 0, proxyServer
+                            .getIdleConnectionTimeout()));
+        }
 
         if (proxyServer.getGlobalStateHandler() != null) {
             pipeline.addLast("outboundGlobalStateHandler", new OutboundGlobalStateHandler(this));
@@ -852,7 +1148,8 @@ public class ClientToProxyConnection extends ProxyConnection<HttpRequest> {
         boolean closeClientConnection = shouldCloseClientConnection(
                 currentHttpRequest, currentHttpResponse, httpObject);
 
-        if (closeServerConnection) {
+        // collapsed requests are answered without a server connection of their own
+        if (closeServerConnection && serverConnection != null) {
             LOG.debug("Closing remote connection after writing to client");
             serverConnection.disconnect();
         }
@@ -865,7 +1162,9 @@ public class ClientToProxyConnection extends ProxyConnection<HttpRequest> {
 
     private void forceDisconnect(ProxyToServerConnection serverConnection) {
         LOG.debug("Forcing disconnect");
-        serverConnection.disconnect();
+        if (serverConnection != null) {
+            serverConnection.disconnect();
+        }
         disconnect();
     }
 
@@ -977,60 +1276,132 @@ public class ClientToProxyConnection extends ProxyConnection<HttpRequest> {
 
     /**
      * <p>
-     * Checks whether the given HttpRequest requires authentication.
+     * Checks the credentials of the given HttpRequest.
      * </p>
-     * 
+     *
      * <p>
-     * If the request contains credentials, these are checked.
+     * If the authenticator answers right away, the request is read as usual once the credentials have been accepted.
+     * Otherwise this connection stops reading until the authenticator answers, holding on to the request and to
+     * anything the client has already sent after it (see {@link #read(Object)}).
      * </p>
-     * 
+     *
      * <p>
      * If authentication is still required, either because no credentials were
      * provided or the credentials were wrong, this writes a 407 response to the
      * client.
      * </p>
-     * 
+     *
+     * @param authenticator
      * @param request
-     * @return
+     * @return the state to continue in
      */
-    private boolean authenticationRequired(HttpRequest request) {
+    private ConnectionState authenticate(final AsyncProxyAuthenticator authenticator, final HttpRequest request) {
+        RateLimiter rateLimiter = proxyServer.getRateLimiter();
 
-        if (authenticated.get()) {
-            return false;
+        if(rateLimiter.isAuthenticationOverLimit(request)) {
+            write(rateLimiter.limitReachedResponse(request));
+            return AWAITING_PROXY_AUTHENTICATION;
         }
 
-        final ProxyAuthenticator authenticator = proxyServer
-                .getProxyAuthenticator();
+        Future<Boolean> result = authenticator.authenticate(request, channel.eventLoop());
+        if (result.isDone()) {
+            return authenticationCompleted(authenticator, request, result);
+        }
 
-        if (authenticator == null) {
-            return false;
+        LOG.debug("Waiting for the authenticator, stopping reading");
+        ReferenceCountUtil.retain(request);
+        stopReading();
+        become(AUTHENTICATING);
+        result.addListener(new GenericFutureListener<Future<Boolean>>() {
+            @Override
+            public void operationComplete(final Future<Boolean> future) throws Exception {
+                if (channel.eventLoop().inEventLoop()) {
+                    resumeAfterAuthentication(authenticator, request, future);
+                } else {
+                    channel.eventLoop().execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            resumeAfterAuthentication(authenticator, request, future);
+                        }
+                    });
+                }
+            }
+        });
+
+        // the listener may already have run, if the authenticator completed on this event loop
+        return getCurrentState();
+    }
+
+    /**
+     * Continues reading from the client once the authenticator answered, starting with the request it verified and
+     * followed by the messages held back while it was verified.
+     */
+    private void resumeAfterAuthentication(AsyncProxyAuthenticator authenticator, HttpRequest request,
+            Future<Boolean> result) {
+        List<Object> held = heldWhileAuthenticating;
+        heldWhileAuthenticating = new ArrayList<Object>();
+
+        try {
+            if (getCurrentState() != AUTHENTICATING) {
+                LOG.debug("Client disconnected while authenticating");
+                for (Object msg : held) {
+                    ReferenceCountUtil.release(msg);
+                }
+                return;
+            }
+
+            resumeReading();
+            become(authenticationCompleted(authenticator, request, result));
+        } finally {
+            ReferenceCountUtil.release(request);
         }
 
-        RateLimiter rateLimiter = proxyServer.getRateLimiter();
+        for (Object msg : held) {
+            try {
+                read(msg);
+            } finally {
+                ReferenceCountUtil.release(msg);
+            }
+        }
+    }
 
-        if(rateLimiter.isAuthenticationOverLimit(request)) {
-            write(rateLimiter.limitReachedResponse(request));
-            return true;
+    /**
+     * Reads the request if the authenticator accepted its credentials, and writes a 407 response otherwise.
+     *
+     * @return the state to continue in
+     */
+    private ConnectionState authenticationCompleted(AsyncProxyAuthenticator authenticator, HttpRequest request,
+            Future<Boolean> result) {
+        if (!result.isSuccess()) {
+            LOG.warn("Unable to authenticate client", result.cause());
         }
 
-        if (!authenticator.authenticate(request)) {
+        if (!result.isSuccess() || !Boolean.TRUE.equals(result.getNow())) {
+            LOG.debug("Not authenticated!!");
+            RateLimiter rateLimiter = proxyServer.getRateLimiter();
             if(rateLimiter.isAuthenticationFailureOverLimit(request)) {
                 write(rateLimiter.limitReachedResponse(request));
-                return true;
+                return AWAITING_PROXY_AUTHENTICATION;
             }
 
             write(authenticator.authenticationFailureResponse(request));
-            return true;
+            return AWAITING_PROXY_AUTHENTICATION;
         }
 
         LOG.debug("Got proxy authorization!");
+        BasicCredentials credentials = ProxyUtils.getBasicCredentials(request);
+        if (credentials != null) {
+            authenticatedUser = credentials.getUsername();
+            flowContextChanged();
+        }
         // We need to remove the header before sending the request on.
         String authentication = request.headers().get(
                 HttpHeaders.Names.PROXY_AUTHORIZATION);
         LOG.debug(authentication);
         request.headers().remove(HttpHeaders.Names.PROXY_AUTHORIZATION);
         authenticated.set(true);
-        return false;
+
+        return readAuthenticatedHTTPInitial(request);
     }
 
     /***************************************************************************
@@ -1104,9 +1475,9 @@ public class ClientToProxyConnection extends ProxyConnection<HttpRequest> {
 
             // Remove sdch from encodings we accept since we can't decode it.
             ProxyUtils.removeSdchEncoding(headers);
-            switchProxyConnectionHeader(headers);
-            stripConnectionTokens(headers);
-            stripHopByHopHeaders(headers);
+            ProxyUtils.switchProxyConnectionHeader(headers);
+            ProxyUtils.stripConnectionTokens(headers);
+            ProxyUtils.stripHopByHopHeaders(headers);
             ProxyUtils.addVia(httpRequest, proxyServer.getProxyAlias());
         }
     }
@@ -1123,8 +1494,8 @@ public class ClientToProxyConnection extends ProxyConnection<HttpRequest> {
         if (!proxyServer.isTransparent()) {
             HttpHeaders headers = httpResponse.headers();
 
-            stripConnectionTokens(headers);
-            stripHopByHopHeaders(headers);
+            ProxyUtils.stripConnectionTokens(headers);
+            ProxyUtils.stripHopByHopHeaders(headers);
             ProxyUtils.addVia(httpResponse, proxyServer.getProxyAlias());
 
             /*
@@ -1140,64 +1511,6 @@ public class ClientToProxyConnection extends ProxyConnection<HttpRequest> {
         }
     }
 
-    /**
-     * Switch the de-facto standard "Proxy-Connection" header to "Connection"
-     * when we pass it along to the remote host. This is largely undocumented
-     * but seems to be what most browsers and servers expect.
-     * 
-     * @param headers
-     *            The headers to modify
-     */
-    private void switchProxyConnectionHeader(HttpHeaders headers) {
-        String proxyConnectionKey = "Proxy-Connection";
-        if (headers.contains(proxyConnectionKey)) {
-            String header = headers.get(proxyConnectionKey);
-            headers.remove(proxyConnectionKey);
-            headers.set(HttpHeaders.Names.CONNECTION, header);
-        }
-    }
-
-    /**
-     * RFC2616 Section 14.10
-     * 
-     * HTTP/1.1 proxies MUST parse the Connection header field before a message
-     * is forwarded and, for each connection-token in this field, remove any
-     * header field(s) from the message with the same name as the
-     * connection-token.
-     * 
-     * @param headers
-     *            The headers to modify
-     */
-    private void stripConnectionTokens(HttpHeaders headers) {
-        if (headers.contains(HttpHeaders.Names.CONNECTION)) {
-            for (String headerValue : headers.getAll(HttpHeaders.Names.CONNECTION)) {
-                for (String connectionToken : ProxyUtils.splitCommaSeparatedHeaderValues(headerValue)) {
-                    // do not strip out the Transfer-Encoding header if it is specified in the Connection header, since LittleProxy does not
-                    // normally modify the Transfer-Encoding of the message.
-                    if (!LOWERCASE_TRANSFER_ENCODING_HEADER.equals(connectionToken.toLowerCase(Locale.US))) {
-                        headers.remove(connectionToken);
-                    }
-                }
-            }
-        }
-    }
-
-    /**
-     * Removes all headers that should not be forwarded. See RFC 2616 13.5.1
-     * End-to-end and Hop-by-hop Headers.
-     * 
-     * @param headers
-     *            The headers to modify
-     */
-    private void stripHopByHopHeaders(HttpHeaders headers) {
-        Set<String> headerNames = headers.names();
-        for (String headerName : headerNames) {
-            if (ProxyUtils.shouldRemoveHopByHopHeader(headerName)) {
-                headers.remove(headerName);
-            }
-        }
-    }
-
     /***************************************************************************
      * Miscellaneous
      **************************************************************************/
@@ -1300,6 +1613,17 @@ public class ClientToProxyConnection extends ProxyConnection<HttpRequest> {
         return true;
     }
 
+    /**
+     * Ends the response cache's handling of the current request, if any, without storing a response.
+     */
+    private void releaseCacheExchange() {
+        ResponseCacheExchange exchange = cacheExchange;
+        if (exchange != null) {
+            cacheExchange = null;
+            exchange.release();
+        }
+    }
+
     /**
      * Identify the host and port for a request.
      * 
@@ -1352,7 +1676,7 @@ public class ClientToProxyConnection extends ProxyConnection<HttpRequest> {
      * We track statistics on bytes, requests and responses by adding handlers
      * at the appropriate parts of the pipeline (see initChannelPipeline()).
      **************************************************************************/
-    private final BytesReadMonitor bytesReadMonitor = new BytesReadMonitor() {
+    private final BytesMonitor bytesMonitor = new BytesMonitor() {
         @Override
         protected void bytesRead(int numberOfBytes) {
             FlowContext flowContext = flowContext();
@@ -1361,42 +1685,62 @@ public class ClientToProxyConnection extends ProxyConnection<HttpRequest> {
                 tracker.bytesReceivedFromClient(flowContext, numberOfBytes);
             }
         }
-    };
 
-    private RequestReadMonitor requestReadMonitor = new RequestReadMonitor() {
         @Override
-        protected void requestRead(HttpRequest httpRequest) {
+        protected void bytesWritten(int numberOfBytes) {
             FlowContext flowContext = flowContext();
             for (ActivityTracker tracker : proxyServer
                     .getActivityTrackers()) {
-                tracker.requestReceivedFromClient(flowContext, httpRequest);
+                tracker.bytesSentToClient(flowContext, numberOfBytes);
             }
         }
     };
 
-    private BytesWrittenMonitor bytesWrittenMonitor = new BytesWrittenMonitor() {
+    private final MessageMonitor messageMonitor = new MessageMonitor() {
         @Override
-        protected void bytesWritten(int numberOfBytes) {
+        protected void messageRead(HttpMessage httpMessage) {
+            if (!(httpMessage instanceof HttpRequest)) {
+                return;
+            }
+            requestRead();
             FlowContext flowContext = flowContext();
             for (ActivityTracker tracker : proxyServer
                     .getActivityTrackers()) {
-                tracker.bytesSentToClient(flowContext, numberOfBytes);
+                tracker.requestReceivedFromClient(flowContext, (HttpRequest) httpMessage);
             }
         }
-    };
 
-    private ResponseWrittenMonitor responseWrittenMonitor = new ResponseWrittenMonitor() {
         @Override
-        protected void responseWritten(HttpResponse httpResponse) {
-            FlowContext flowContext = flowContext();
-            for (ActivityTracker tracker : proxyServer
-                    .getActivityTrackers()) {
-                tracker.responseSentToClient(flowContext,
-                        httpResponse);
+        protected void messageWriting(HttpMessage httpMessage) {
+            if (!(httpMessage instanceof HttpResponse)) {
+                return;
+            }
+            try {
+                FlowContext flowContext = flowContext();
+                for (ActivityTracker tracker : proxyServer
+                        .getActivityTrackers()) {
+                    tracker.responseSentToClient(flowContext,
+                            (HttpResponse) httpMessage);
+                }
+            } catch (Throwable t) {
+                LOG.warn("Error while invoking responseWritten callback", t);
             }
         }
     };
 
+    /**
+     * Rebuilds the flow contexts when the first request is read, if a PROXY protocol header preceded it, so that they
+     * report the source IP of the original client.
+     */
+    private void requestRead() {
+        if (!firstRequestRead) {
+            firstRequestRead = true;
+            if (getSourceIp() != null) {
+                flowContextChanged();
+            }
+        }
+    }
+
     private void recordClientConnected() {
         try {
             InetSocketAddress clientAddress = getClientAddress();
@@ -1443,11 +1787,88 @@ public class ClientToProxyConnection extends ProxyConnection<HttpRequest> {
         return (InetSocketAddress) channel.remoteAddress();
     }
 
+    /**
+     * @return the IP address of the original client, as reported by a PROXY protocol header, or null if the
+     * connection did not start with one
+     */
+    public String getSourceIp() {
+        if (channel == null) {
+            return null;
+        }
+        return channel.attr(ProtocolHeadersRequestDecoder.SOURCE_IP_ATTRIBUTE).get();
+    }
+
+    /**
+     * @return the name of the user that authenticated on this connection, or null if the client has not authenticated
+     */
+    public String getAuthenticatedUser() {
+        return authenticatedUser;
+    }
+
+    /**
+     * Encrypts traffic from the client, and rebuilds the flow contexts once the client's {@link SSLSession} is known.
+     */
+    @Override
+    protected Future<Channel> encrypt(ChannelPipeline pipeline,
+            SSLEngine sslEngine,
+            boolean authenticateClients) {
+        Future<Channel> handshakeFuture = super.encrypt(pipeline, sslEngine, authenticateClients);
+        flowContextChanged();
+        handshakeFuture.addListener(new GenericFutureListener<Future<? super Channel>>() {
+            @Override
+            public void operationComplete(Future<? super Channel> future) throws Exception {
+                flowContextChanged();
+            }
+        });
+        return handshakeFuture;
+    }
+
+    /**
+     * Makes the flow contexts of this connection and of its server connections be rebuilt the next time they are
+     * reported, after something that they report about the client has changed.
+     */
+    void flowContextChanged() {
+        flowContextVersion.incrementAndGet();
+    }
+
+    int getFlowContextVersion() {
+        return flowContextVersion.get();
+    }
+
+    /**
+     * @return the context of the current server connection, or that of the client alone if there is none. Contexts are
+     *         cached, so that reporting activity does not allocate.
+     */
     private FlowContext flowContext() {
-        if (currentServerConnection != null) {
-            return new FullFlowContext(this, currentServerConnection);
+        ProxyToServerConnection serverConnection = currentServerConnection;
+        if (serverConnection != null) {
+            return serverConnection.flowContext();
         } else {
-            return new FlowContext(this);
+            return clientFlowContext();
+        }
+    }
+
+    private FlowContext clientFlowContext() {
+        // the version is read before the context is built, so that a change made while building it is not missed
+        int version = getFlowContextVersion();
+        VersionedFlowContext<FlowContext> cached = clientFlowContext;
+        if (cached == null || cached.version != version) {
+            cached = new VersionedFlowContext<FlowContext>(new FlowContext(this), version);
+            clientFlowContext = cached;
+        }
+        return cached.flowContext;
+    }
+
+    /**
+     * A flow context, and the {@link #getFlowContextVersion() version} of the client connection it was built at.
+     */
+    static final class VersionedFlowContext<T extends FlowContext> {
+        final T flowContext;
+        final int version;
+
+        VersionedFlowContext(T flowContext, int version) {
+            this.flowContext = flowContext;
+            this.version = version;
         }
     }
 
@@ -0,0 +1,214 @@
+package org.littleshoot.proxy.impl;
+
+import io.netty.channel.EventLoop;
+import io.netty.handler.codec.http.HttpContent;
+import io.netty.handler.codec.http.HttpObject;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.ScheduledFuture;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * A GET request forwarded to a server, and the concurrent requests for the same URI that were collapsed into it
+ * instead of being forwarded themselves (see {@link ResponseCacheConfiguration#withCollapsedForwarding(boolean)}).
+ * The leading request's {@link ResponseCacheExchange} passes the server's response through this object, which fans
+ * it out to the followers as it streams. Followers get retained duplicates of the response's buffers, not copies.
+ * </p>
+ *
+ * <p>
+ * Followers only join until the response starts. A follower receives the response only if it could have been stored
+ * in the cache, and if the follower's request matches it on the request headers named by its Vary header. Otherwise,
+ * and if the response does not start within the configured wait timeout, the follower forwards its own request.
+ * Everything is sent to a follower on the event loop of its {@link ClientToProxyConnection}.
+ * </p>
+ */
+class CollapsedForwarding {
+    private static final Logger LOG = LoggerFactory.getLogger(CollapsedForwarding.class);
+
+    private final HttpResponseCache cache;
+    private final String key;
+    private final ResponseCacheExchange leader;
+
+    // guarded by this
+    private final List<Follower> waiting = new ArrayList<Follower>();
+    private final List<Follower> receiving = new ArrayList<Follower>();
+    private boolean started;
+
+    CollapsedForwarding(HttpResponseCache cache, String key, ResponseCacheExchange leader) {
+        this.cache = cache;
+        this.key = key;
+        this.leader = leader;
+    }
+
+    /**
+     * A request waiting for, or receiving, the response to the leading request.
+     */
+    static class Follower {
+        private final ClientToProxyConnection connection;
+        private final ResponseCacheExchange exchange;
+        private final HttpRequest request;
+        private final String serverHostAndPort;
+        private ScheduledFuture<?> timeout;
+        private HttpResponse response;
+
+        /**
+         * @param connection        the client connection that sent the request
+         * @param exchange          the cache handling of the request
+         * @param request           a full copy of the request, forwarded if the follower has to give up waiting. Its
+         *                          body is empty, so it holds no buffer that needs releasing.
+         * @param serverHostAndPort the server the request is for
+         */
+        Follower(ClientToProxyConnection connection, ResponseCacheExchange exchange, HttpRequest request,
+                String serverHostAndPort) {
+            this.connection = connection;
+            this.exchange = exchange;
+            this.request = request;
+            this.serverHostAndPort = serverHostAndPort;
+        }
+
+        private EventLoop eventLoop() {
+            return connection.channel.eventLoop();
+        }
+    }
+
+    /**
+     * Adds a follower, unless the response has already started.
+     *
+     * @return true if the follower joined and will be sent the response, or be told to forward its request
+     */
+    synchronized boolean join(final Follower follower, long timeoutMillis) {
+        if (started) {
+            return false;
+        }
+        waiting.add(follower);
+        follower.timeout = follower.eventLoop().schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (leave(follower)) {
+                    LOG.debug("Timed out waiting for the in-flight request for {}", key);
+                    follower.connection.forwardCollapsed(follower.exchange, follower.request,
+                            follower.serverHostAndPort);
+                }
+            }
+        }, timeoutMillis, TimeUnit.MILLISECONDS);
+        return true;
+    }
+
+    /**
+     * Removes a follower, for instance because its client disconnected.
+     *
+     * @return true if the follower was still waiting for the response
+     */
+    synchronized boolean leave(Follower follower) {
+        follower.timeout.cancel(false);
+        receiving.remove(follower);
+        return waiting.remove(follower);
+    }
+
+    /**
+     * Called by the leader when the server's response starts. No follower can join after this.
+     *
+     * @param response the server's response, or null if the leading request was abandoned before it got one
+     * @param shared   true if the response may be sent to the followers
+     */
+    synchronized void start(HttpResponse response, boolean shared) {
+        started = true;
+        cache.removeInFlight(key, this);
+
+        for (Follower follower : waiting) {
+            follower.timeout.cancel(false);
+            if (shared && HttpResponseCache.varyValues(response.headers(), leader.getRequestHeaders())
+                    .equals(HttpResponseCache.varyValues(response.headers(), follower.exchange.getRequestHeaders()))) {
+                receiving.add(follower);
+                cache.recordCollapsed();
+            } else {
+                fallBack(follower);
+            }
+        }
+        waiting.clear();
+    }
+
+    /**
+     * Called by the leader with every part of the server's response, after {@link #start(HttpResponse, boolean)}.
+     * The caller keeps its reference to {@code httpObject}.
+     */
+    synchronized void forward(HttpObject httpObject) {
+        for (Follower follower : receiving) {
+            HttpObject duplicate;
+            if (httpObject instanceof HttpContent) {
+                // also covers FullHttpResponse, whose headers are copied along with the duplicated content
+                duplicate = ((HttpContent) httpObject).retainedDuplicate();
+            } else {
+                duplicate = ProxyUtils.duplicateHttpResponse((HttpResponse) httpObject);
+            }
+            if (duplicate instanceof HttpResponse) {
+                follower.response = (HttpResponse) duplicate;
+            }
+            deliver(follower, follower.response, duplicate);
+        }
+
+        if (ProxyUtils.isLastChunk(httpObject)) {
+            receiving.clear();
+        }
+    }
+
+    /**
+     * Called by the leader if it is abandoned. Followers that are still waiting forward their own requests, and those
+     * that are receiving the response are disconnected, since the rest of it will not come.
+     */
+    synchronized void abort() {
+        if (!started) {
+            start(null, false);
+            return;
+        }
+
+        for (final Follower follower : receiving) {
+            execute(follower, new Runnable() {
+                @Override
+                public void run() {
+                    follower.connection.abortCollapsed(follower.exchange);
+                }
+            }, null);
+        }
+        receiving.clear();
+    }
+
+    private void fallBack(final Follower follower) {
+        execute(follower, new Runnable() {
+            @Override
+            public void run() {
+                follower.connection.forwardCollapsed(follower.exchange, follower.request, follower.serverHostAndPort);
+            }
+        }, null);
+    }
+
+    private void deliver(final Follower follower, final HttpResponse response, final HttpObject httpObject) {
+        execute(follower, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    follower.connection.respondCollapsed(follower.exchange, follower.request, response, httpObject);
+                } finally {
+                    ReferenceCountUtil.release(httpObject);
+                }
+            }
+        }, httpObject);
+    }
+
+    private static void execute(Follower follower, Runnable task, HttpObject httpObject) {
+        try {
+            follower.eventLoop().execute(task);
+        } catch (RejectedExecutionException e) {
+            LOG.debug("Event loop of collapsed request is shutting down", e);
+            ReferenceCountUtil.release(httpObject);
+        }
+    }
+}
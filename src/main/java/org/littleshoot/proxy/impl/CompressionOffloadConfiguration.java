@@ -0,0 +1,53 @@
+package org.littleshoot.proxy.impl;
+
+/**
+ * Configuration object for compressing responses off the event loops (see
+ * {@link io.netty.handler.codec.compression.CompressionExecutor}).
+ */
+public class CompressionOffloadConfiguration {
+    /**
+     * The default number of compression threads.
+     */
+    public static final int DEFAULT_THREADS = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * The default number of waiting compression tasks above which connections stop reading from servers.
+     */
+    public static final int DEFAULT_MAX_QUEUED_TASKS = 256;
+
+    private int threads = DEFAULT_THREADS;
+    private int maxQueuedTasks = DEFAULT_MAX_QUEUED_TASKS;
+
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * Set the number of threads compressing responses. The default value is {@link #DEFAULT_THREADS}.
+     *
+     * @param threads number of compression threads
+     * @return this compression offload configuration instance, for chaining
+     */
+    public CompressionOffloadConfiguration withThreads(int threads) {
+        this.threads = threads;
+        return this;
+    }
+
+    public int getMaxQueuedTasks() {
+        return maxQueuedTasks;
+    }
+
+    /**
+     * Set the number of compression tasks that may wait for a thread. While more are waiting, the connections
+     * submitting them stop reading from their servers. Each connection has at most one task waiting or running. The
+     * default value is {@link #DEFAULT_MAX_QUEUED_TASKS}.
+     *
+     * @param maxQueuedTasks maximum number of waiting compression tasks
+     * @return this compression offload configuration instance, for chaining
+     */
+    public CompressionOffloadConfiguration withMaxQueuedTasks(int maxQueuedTasks) {
+        this.maxQueuedTasks = maxQueuedTasks;
+        return this;
+    }
+
+}
@@ -189,40 +189,51 @@ class ConnectionFlow {
     void fail(final Throwable cause) {
         final ConnectionState lastStateBeforeFailure = serverConnection
                 .getCurrentState();
-        serverConnection.disconnect().addListener(
+        Future<Void> disconnectFuture = serverConnection.disconnect();
+        if (disconnectFuture == null) {
+            // there is no channel to disconnect, for example because resolving
+            // the server's address failed
+            serverDisconnectedAfterFailure(lastStateBeforeFailure, cause);
+            return;
+        }
+        disconnectFuture.addListener(
                 new GenericFutureListener() {
                     @Override
                     public void operationComplete(Future future)
                             throws Exception {
-                        synchronized (connectLock) {
-
-                            boolean fallbackToAnotherChainedProxy = false;
-
-                            try {
-                                fallbackToAnotherChainedProxy = clientConnection.serverConnectionFailed(
-                                    serverConnection,
-                                    lastStateBeforeFailure,
-                                    cause);
-                            } finally {
-                                // Do not release when there is fallback chained proxy
-                                if (!fallbackToAnotherChainedProxy) {
-                                    if (serverConnection.getInitialRequest() instanceof ReferenceCounted) {
-                                        ((ReferenceCounted)serverConnection.getInitialRequest()).release();
-                                    }
-
-                                    // the connection to the server failed and we are not retrying, so transition to the
-                                    // DISCONNECTED state
-                                    serverConnection.become(ConnectionState.DISCONNECTED);
-
-                                    // We are not retrying our connection, let anyone waiting for a connection know that we're done
-                                    notifyThreadsWaitingForConnection();
-                                }
-                            }
-                        }
+                        serverDisconnectedAfterFailure(lastStateBeforeFailure, cause);
                     }
                 });
     }
 
+    private void serverDisconnectedAfterFailure(ConnectionState lastStateBeforeFailure, Throwable cause) {
+        synchronized (connectLock) {
+
+            boolean fallbackToAnotherChainedProxy = false;
+
+            try {
+                fallbackToAnotherChainedProxy = clientConnection.serverConnectionFailed(
+                    serverConnection,
+                    lastStateBeforeFailure,
+                    cause);
+            } finally {
+                // Do not release when there is fallback chained proxy
+                if (!fallbackToAnotherChainedProxy) {
+                    if (serverConnection.getInitialRequest() instanceof ReferenceCounted) {
+                        ((ReferenceCounted)serverConnection.getInitialRequest()).release();
+                    }
+
+                    // the connection to the server failed and we are not retrying, so transition to the
+                    // DISCONNECTED state
+                    serverConnection.become(ConnectionState.DISCONNECTED);
+
+                    // We are not retrying our connection, let anyone waiting for a connection know that we're done
+                    notifyThreadsWaitingForConnection();
+                }
+            }
+        }
+    }
+
     /**
      * Like {@link #fail(Throwable)} but with no cause.
      */
@@ -0,0 +1,77 @@
+package org.littleshoot.proxy.impl;
+
+/**
+ * Configuration object for the proxy-wide pool of idle upstream connections (see {@link UpstreamConnectionPool}).
+ * Controls how many idle connections are kept around and for how long.
+ */
+public class ConnectionPoolConfiguration {
+    /**
+     * The default number of idle connections kept per upstream host:port, transport and chained proxy.
+     */
+    public static final int DEFAULT_MAX_IDLE_PER_KEY = 8;
+
+    /**
+     * The default number of idle connections kept by the whole pool.
+     */
+    public static final int DEFAULT_MAX_IDLE_TOTAL = 512;
+
+    /**
+     * The default time after which an idle pooled connection is closed, in milliseconds.
+     */
+    public static final long DEFAULT_IDLE_TIMEOUT_MILLIS = 30000L;
+
+    private int maxIdlePerKey = DEFAULT_MAX_IDLE_PER_KEY;
+    private int maxIdleTotal = DEFAULT_MAX_IDLE_TOTAL;
+    private long idleTimeoutMillis = DEFAULT_IDLE_TIMEOUT_MILLIS;
+
+    public int getMaxIdlePerKey() {
+        return maxIdlePerKey;
+    }
+
+    /**
+     * Set the maximum number of idle connections to keep for a single upstream key (host:port, transport and chained
+     * proxy). When a key is full, its least recently used connection is closed. The default value is
+     * {@link #DEFAULT_MAX_IDLE_PER_KEY}.
+     *
+     * @param maxIdlePerKey maximum number of idle connections per key
+     * @return this connection pool configuration instance, for chaining
+     */
+    public ConnectionPoolConfiguration withMaxIdlePerKey(int maxIdlePerKey) {
+        this.maxIdlePerKey = maxIdlePerKey;
+        return this;
+    }
+
+    public int getMaxIdleTotal() {
+        return maxIdleTotal;
+    }
+
+    /**
+     * Set the maximum number of idle connections to keep in the whole pool. When the pool is full, the least recently
+     * used connection is closed, whichever event loop it is registered on. The default value is
+     * {@link #DEFAULT_MAX_IDLE_TOTAL}.
+     *
+     * @param maxIdleTotal maximum number of idle connections in the pool
+     * @return this connection pool configuration instance, for chaining
+     */
+    public ConnectionPoolConfiguration withMaxIdleTotal(int maxIdleTotal) {
+        this.maxIdleTotal = maxIdleTotal;
+        return this;
+    }
+
+    public long getIdleTimeoutMillis() {
+        return idleTimeoutMillis;
+    }
+
+    /**
+     * Set the time after which an idle pooled connection is closed, in milliseconds. The default value is
+     * {@link #DEFAULT_IDLE_TIMEOUT_MILLIS}.
+     *
+     * @param idleTimeoutMillis idle time to live of pooled connections
+     * @return this connection pool configuration instance, for chaining
+     */
+    public ConnectionPoolConfiguration withIdleTimeoutMillis(long idleTimeoutMillis) {
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        return this;
+    }
+
+}
@@ -1,6 +1,11 @@
 package org.littleshoot.proxy.impl;
 
 enum ConnectionState {
+    /**
+     * Waiting for the address of the server to be resolved before connecting.
+     */
+    RESOLVING(true),
+
     /**
      * Connection attempting to connect.
      */
@@ -22,6 +27,11 @@ enum ConnectionState {
      */
     AWAITING_CONNECT_OK(true),
 
+    /**
+     * Waiting for an {@link org.littleshoot.proxy.AsyncProxyAuthenticator} to verify the credentials of a request.
+     */
+    AUTHENTICATING,
+
     /**
      * Connected but waiting for proxy authentication.
      */
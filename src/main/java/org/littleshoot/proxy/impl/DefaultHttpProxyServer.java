@@ -7,24 +7,36 @@ import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoop;
 import io.netty.channel.EventLoopGroup;
 import io.netty.channel.ServerChannel;
 import io.netty.channel.group.ChannelGroup;
 import io.netty.channel.group.ChannelGroupFuture;
 import io.netty.channel.group.DefaultChannelGroup;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
 import io.netty.channel.udt.nio.NioUdtProvider;
+import io.netty.handler.codec.compression.CompressedResponseCache;
+import io.netty.handler.codec.compression.CompressionExecutor;
 import io.netty.handler.traffic.GlobalTrafficShapingHandler;
 import io.netty.util.concurrent.GlobalEventExecutor;
 import org.littleshoot.proxy.ActivityTracker;
+import org.littleshoot.proxy.AsyncHostResolver;
+import org.littleshoot.proxy.AsyncProxyAuthenticator;
+import org.littleshoot.proxy.BlockingProxyAuthenticatorAdapter;
+import org.littleshoot.proxy.BlockingHostResolverAdapter;
+import org.littleshoot.proxy.CachingHostResolver;
 import org.littleshoot.proxy.GlobalStateHandler;
 import org.littleshoot.proxy.DefaultFailureHttpResponseComposer;
+import org.littleshoot.proxy.monitoring.MetricsConfiguration;
+import org.littleshoot.proxy.monitoring.MetricsEndpoint;
 import org.littleshoot.proxy.monitoring.NoOpProxyThreadPoolsObserver;
+import org.littleshoot.proxy.monitoring.ProxyMetrics;
 import org.littleshoot.proxy.monitoring.ProxyThreadPoolsObserver;
 import org.littleshoot.proxy.ratelimit.NoOpRateLimiter;
 import org.littleshoot.proxy.ratelimit.RateLimiter;
+import org.littleshoot.proxy.ratelimit.TokenBucketRateLimiter;
 import org.littleshoot.proxy.ChainedProxyManager;
 import org.littleshoot.proxy.DefaultHostResolver;
+import org.littleshoot.proxy.DnsCacheConfiguration;
 import org.littleshoot.proxy.DnsSecServerResolver;
 import org.littleshoot.proxy.HostResolver;
 import org.littleshoot.proxy.HttpFilters;
@@ -35,6 +47,7 @@ import org.littleshoot.proxy.HttpProxyServerBootstrap;
 import org.littleshoot.proxy.FailureHttpResponseComposer;
 import org.littleshoot.proxy.MitmManager;
 import org.littleshoot.proxy.MitmManagerFactory;
+import org.littleshoot.proxy.NettyDnsHostResolver;
 import org.littleshoot.proxy.ProxyAuthenticator;
 import org.littleshoot.proxy.ExceptionHandler;
 import org.littleshoot.proxy.RequestTracer;
@@ -51,10 +64,13 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.InetSocketAddress;
 import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Map;
 import java.util.Properties;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * <p>
@@ -127,6 +143,24 @@ public class DefaultHttpProxyServer implements HttpProxyServer {
     private volatile int connectTimeout;
     private volatile int idleConnectionTimeout;
     private final HostResolver serverResolver;
+    private final AsyncHostResolver asyncServerResolver;
+    private final boolean spliceTunnels;
+    private final int connectionAttemptDelay;
+    private final PreconnectConfiguration preconnectConfiguration;
+    private final CompressionOffloadConfiguration compressionOffloadConfiguration;
+    private final long compressedResponseCacheBytes;
+    private final ResponseCacheConfiguration responseCacheConfiguration;
+    private final AsyncProxyAuthenticator asyncProxyAuthenticator;
+    private final MetricsConfiguration metricsConfiguration;
+    private final boolean acceptProxyProtocol;
+    private final boolean brotliCompression;
+    private final TlsSessionCacheConfiguration upstreamTlsSessionCacheConfiguration;
+    private final OwnedDnsResolver ownedDnsResolver;
+    private final UpstreamTlsSessionCache upstreamTlsSessionCache;
+    private final ProxyMetrics metrics;
+    private final HttpFiltersSource recordingFiltersSource;
+    private final MetricsEndpoint metricsEndpoint;
+    private final AddressPenaltyTracker addressPenaltyTracker = new AddressPenaltyTracker();
     private volatile GlobalTrafficShapingHandler globalTrafficShapingHandler;
     private final int maxInitialLineLength;
     private final int maxHeaderSize;
@@ -134,6 +168,19 @@ public class DefaultHttpProxyServer implements HttpProxyServer {
     private final boolean allowRequestsToOriginServer;
     private final RateLimiter rateLimiter;
 
+    /**
+     * Number of servers that use each {@link TokenBucketRateLimiter}, guarded by itself. The eviction thread of a rate
+     * limiter is stopped when the last server using it stops.
+     */
+    private static final Map<TokenBucketRateLimiter, Integer> RATE_LIMITER_USERS =
+            new IdentityHashMap<TokenBucketRateLimiter, Integer>();
+    private final ConnectionPoolConfiguration connectionPoolConfiguration;
+    private final UpstreamConnectionPool upstreamConnectionPool;
+    private final UpstreamPreconnector upstreamPreconnector;
+    private final CompressionExecutor compressionExecutor;
+    private final CompressedResponseCache compressedResponseCache;
+    private final HttpResponseCache httpResponseCache;
+
     /**
      * The alias or pseudonym for this proxy, used when adding the Via header.
      */
@@ -246,6 +293,37 @@ public class DefaultHttpProxyServer implements HttpProxyServer {
      * @param maxChunkSize
      * @param allowRequestsToOriginServer
      *            when true, allow the proxy to handle requests that contain an origin-form URI, as defined in RFC 7230 5.3.1
+     * @param rateLimiter
+     * @param connectionPoolConfiguration
+     *            configuration of the shared upstream connection pool, or null to disable pooling
+     * @param asyncServerResolver
+     *            resolves server addresses without blocking the event loops
+     * @param spliceTunnels
+     *            when true, CONNECT tunnels between two epoll channels are relayed with splice(2)
+     * @param connectionAttemptDelay
+     *            milliseconds to wait for a connection attempt before racing it against the next address of the server, or 0 to only try the first address
+     * @param preconnectConfiguration
+     *            keeps warm connections ready for hot origins, or null to disable pre-connecting
+     * @param compressionOffloadConfiguration
+     *            compresses responses on a dedicated executor instead of the event loops, or null to compress inline
+     * @param compressedResponseCacheBytes
+     *            total size of the compressed response bodies that are cached, or 0 to not cache them
+     * @param responseCacheConfiguration
+     *            configuration of the HTTP response cache, or null to not cache responses
+     * @param asyncProxyAuthenticator
+     *            (optional) authenticates requests to the proxy without blocking an event loop. Built from the
+     *            proxyAuthenticator if that is specified instead.
+     * @param metricsConfiguration
+     *            latency metrics to record, or null to not record them
+     * @param acceptProxyProtocol
+     *            whether connections from clients may start with a PROXY protocol header
+     * @param brotliCompression
+     *            whether responses are compressed with Brotli for clients that accept it
+     * @param upstreamTlsSessionCacheConfiguration
+     *            bounds of the TLS sessions cached for servers and chained proxies, or null to not bound them or count
+     *            handshakes
+     * @param ownedDnsResolver
+     *            the resolver that the bootstrap created, which is closed when the last server using it stops, or null if it was supplied by the caller
      */
     private DefaultHttpProxyServer(ServerGroup serverGroup,
             TransportProtocol transportProtocol,
@@ -274,7 +352,21 @@ public class DefaultHttpProxyServer implements HttpProxyServer {
             int maxHeaderSize,
             int maxChunkSize,
             boolean allowRequestsToOriginServer,
-            RateLimiter rateLimiter) {
+            RateLimiter rateLimiter,
+            ConnectionPoolConfiguration connectionPoolConfiguration,
+            AsyncHostResolver asyncServerResolver,
+            boolean spliceTunnels,
+            int connectionAttemptDelay,
+            PreconnectConfiguration preconnectConfiguration,
+            CompressionOffloadConfiguration compressionOffloadConfiguration,
+            long compressedResponseCacheBytes,
+            ResponseCacheConfiguration responseCacheConfiguration,
+            AsyncProxyAuthenticator asyncProxyAuthenticator,
+            MetricsConfiguration metricsConfiguration,
+            boolean acceptProxyProtocol,
+            boolean brotliCompression,
+            TlsSessionCacheConfiguration upstreamTlsSessionCacheConfiguration,
+            OwnedDnsResolver ownedDnsResolver) {
         this.serverGroup = serverGroup;
         this.transportProtocol = transportProtocol;
         this.requestedAddress = requestedAddress;
@@ -296,6 +388,22 @@ public class DefaultHttpProxyServer implements HttpProxyServer {
         }
         this.connectTimeout = connectTimeout;
         this.serverResolver = serverResolver;
+        this.asyncServerResolver = asyncServerResolver;
+        this.spliceTunnels = spliceTunnels;
+        this.connectionAttemptDelay = connectionAttemptDelay;
+        this.preconnectConfiguration = preconnectConfiguration;
+        this.compressionOffloadConfiguration = compressionOffloadConfiguration;
+        this.compressedResponseCacheBytes = compressedResponseCacheBytes;
+        this.responseCacheConfiguration = responseCacheConfiguration;
+        this.asyncProxyAuthenticator = asyncProxyAuthenticator;
+        this.metricsConfiguration = metricsConfiguration;
+        this.acceptProxyProtocol = acceptProxyProtocol;
+        this.brotliCompression = brotliCompression;
+        this.upstreamTlsSessionCacheConfiguration = upstreamTlsSessionCacheConfiguration;
+        this.ownedDnsResolver = ownedDnsResolver;
+        if (ownedDnsResolver != null) {
+            ownedDnsResolver.retain();
+        }
 
         if (writeThrottleBytesPerSecond > 0 || readThrottleBytesPerSecond > 0) {
             this.globalTrafficShapingHandler = createGlobalTrafficShapingHandler(transportProtocol, readThrottleBytesPerSecond, writeThrottleBytesPerSecond);
@@ -319,6 +427,55 @@ public class DefaultHttpProxyServer implements HttpProxyServer {
         this.maxChunkSize = maxChunkSize;
         this.allowRequestsToOriginServer = allowRequestsToOriginServer;
         this.rateLimiter = rateLimiter;
+        retainRateLimiter(rateLimiter);
+        this.connectionPoolConfiguration = connectionPoolConfiguration;
+        if (connectionPoolConfiguration != null) {
+            this.upstreamConnectionPool = new UpstreamConnectionPool(connectionPoolConfiguration);
+        } else {
+            this.upstreamConnectionPool = null;
+        }
+        if (preconnectConfiguration != null && upstreamConnectionPool != null && chainProxyManager == null) {
+            this.upstreamPreconnector = new UpstreamPreconnector(this, upstreamConnectionPool, preconnectConfiguration);
+        } else {
+            if (preconnectConfiguration != null) {
+                LOG.warn("Pre-connecting is only supported for direct connections to servers, and has been disabled");
+            }
+            this.upstreamPreconnector = null;
+        }
+        if (compressionOffloadConfiguration != null) {
+            this.compressionExecutor = new CompressionExecutor(compressionOffloadConfiguration.getThreads(),
+                    compressionOffloadConfiguration.getMaxQueuedTasks(),
+                    serverGroup.newThreadFactory("Compression"));
+        } else {
+            this.compressionExecutor = null;
+        }
+        if (compressedResponseCacheBytes > 0) {
+            this.compressedResponseCache = new CompressedResponseCache(compressedResponseCacheBytes,
+                    Math.max(1, compressedResponseCacheBytes / 16));
+        } else {
+            this.compressedResponseCache = null;
+        }
+        if (responseCacheConfiguration != null) {
+            this.httpResponseCache = new HttpResponseCache(responseCacheConfiguration);
+        } else {
+            this.httpResponseCache = null;
+        }
+        if (upstreamTlsSessionCacheConfiguration != null) {
+            this.upstreamTlsSessionCache = new UpstreamTlsSessionCache(upstreamTlsSessionCacheConfiguration);
+        } else {
+            this.upstreamTlsSessionCache = null;
+        }
+        if (metricsConfiguration != null) {
+            this.metrics = new ProxyMetrics(metricsConfiguration);
+            this.recordingFiltersSource = metrics.recordingFiltersSource(filtersSource);
+            this.metricsEndpoint = metricsConfiguration.getAdminAddress() != null
+                    ? new MetricsEndpoint(metrics, metricsConfiguration.getAdminAddress(), upstreamTlsSessionCache)
+                    : null;
+        } else {
+            this.metrics = null;
+            this.recordingFiltersSource = null;
+            this.metricsEndpoint = null;
+        }
     }
 
     /**
@@ -367,6 +524,22 @@ public class DefaultHttpProxyServer implements HttpProxyServer {
         return serverResolver;
     }
 
+    public AsyncHostResolver getAsyncServerResolver() {
+        return asyncServerResolver;
+    }
+
+    /**
+     * @return the cache in front of the server resolver, which exposes hit, miss and refresh counts, or null if server
+     *         addresses are not cached
+     */
+    public CachingHostResolver getServerResolverCache() {
+        if (asyncServerResolver instanceof CachingHostResolver) {
+            return (CachingHostResolver) asyncServerResolver;
+        } else {
+            return null;
+        }
+    }
+
     public InetSocketAddress getLocalAddress() {
         return localAddress;
     }
@@ -416,6 +589,84 @@ public class DefaultHttpProxyServer implements HttpProxyServer {
         return allowRequestsToOriginServer;
     }
 
+    /**
+     * @return the pool of idle upstream connections shared by all clients, or null if pooling is disabled
+     */
+    public UpstreamConnectionPool getUpstreamConnectionPool() {
+        return upstreamConnectionPool;
+    }
+
+    /**
+     * @return the pre-connector keeping warm connections ready for hot origins, or null if pre-connecting is disabled
+     */
+    public UpstreamPreconnector getUpstreamPreconnector() {
+        return upstreamPreconnector;
+    }
+
+    /**
+     * @return the executor compressing responses off the event loops, or null if responses are compressed inline
+     */
+    public CompressionExecutor getCompressionExecutor() {
+        return compressionExecutor;
+    }
+
+    /**
+     * @return the cache of compressed response bodies, or null if they are not cached
+     */
+    public CompressedResponseCache getCompressedResponseCache() {
+        return compressedResponseCache;
+    }
+
+    /**
+     * @return the HTTP response cache, or null if responses are not cached
+     */
+    public HttpResponseCache getResponseCache() {
+        return httpResponseCache;
+    }
+
+    /**
+     * @return the counts and bounds of the TLS sessions resumed with servers and chained proxies, or null if disabled
+     */
+    public UpstreamTlsSessionCache getUpstreamTlsSessionCache() {
+        return upstreamTlsSessionCache;
+    }
+
+    /**
+     * @return true if eligible CONNECT tunnels are relayed with splice(2)
+     */
+    public boolean isSpliceTunnels() {
+        return spliceTunnels;
+    }
+
+    /**
+     * @return true if connections from clients may start with a PROXY protocol header
+     */
+    public boolean isAcceptProxyProtocol() {
+        return acceptProxyProtocol;
+    }
+
+    /**
+     * @return true if responses are compressed with Brotli for clients that accept it
+     */
+    public boolean isBrotliCompression() {
+        return brotliCompression;
+    }
+
+    /**
+     * @return milliseconds to wait for a connection attempt before racing it against the next address of the server,
+     * or 0 or less if only the first address is tried
+     */
+    public int getConnectionAttemptDelay() {
+        return connectionAttemptDelay;
+    }
+
+    /**
+     * @return addresses of upstream servers that recently failed or lost a connection race
+     */
+    AddressPenaltyTracker getAddressPenaltyTracker() {
+        return addressPenaltyTracker;
+    }
+
     @Override
     public HttpProxyServerBootstrap clone() {
         return new DefaultHttpProxyServerBootstrap(serverGroup,
@@ -446,7 +697,21 @@ public class DefaultHttpProxyServer implements HttpProxyServer {
                     maxHeaderSize,
                     maxChunkSize,
                     allowRequestsToOriginServer,
-                    rateLimiter);
+                    rateLimiter,
+                    connectionPoolConfiguration,
+                    asyncServerResolver,
+                    spliceTunnels,
+                    connectionAttemptDelay,
+                    preconnectConfiguration,
+                    compressionOffloadConfiguration,
+                    compressedResponseCacheBytes,
+                    responseCacheConfiguration,
+                    asyncProxyAuthenticator,
+                    metricsConfiguration,
+                    acceptProxyProtocol,
+                    brotliCompression,
+                    upstreamTlsSessionCacheConfiguration,
+                    ownedDnsResolver);
     }
 
     @Override
@@ -474,8 +739,38 @@ public class DefaultHttpProxyServer implements HttpProxyServer {
                 LOG.info("Shutting down proxy server immediately (non-graceful)");
             }
 
+            if (upstreamPreconnector != null) {
+                upstreamPreconnector.stop();
+            }
+
+            if (upstreamConnectionPool != null) {
+                upstreamConnectionPool.close();
+            }
+
             closeAllChannels(graceful);
 
+            if (compressionExecutor != null) {
+                compressionExecutor.shutdown();
+            }
+
+            if (compressedResponseCache != null) {
+                compressedResponseCache.clear();
+            }
+
+            if (httpResponseCache != null) {
+                httpResponseCache.clear();
+            }
+
+            if (metricsEndpoint != null) {
+                metricsEndpoint.stop();
+            }
+
+            if (ownedDnsResolver != null) {
+                ownedDnsResolver.release();
+            }
+
+            releaseRateLimiter(rateLimiter);
+
             serverGroup.unregisterProxyServer(this, graceful);
 
             // remove the shutdown hook that was added when the proxy was started, since it has now been stopped
@@ -559,11 +854,12 @@ public class DefaultHttpProxyServer implements HttpProxyServer {
         };
         switch (transportProtocol) {
             case TCP:
-                LOG.info("Proxy listening with TCP transport");
+                final EventLoopTransport eventLoopTransport = serverGroup.getTransportForProtocol(transportProtocol);
+                LOG.info("Proxy listening with TCP transport ({})", eventLoopTransport);
                 serverBootstrap.channelFactory(new ChannelFactory<ServerChannel>() {
                     @Override
                     public ServerChannel newChannel() {
-                        return new NioServerSocketChannel();
+                        return eventLoopTransport.newServerSocketChannel();
                     }
                 });
                 break;
@@ -596,6 +892,19 @@ public class DefaultHttpProxyServer implements HttpProxyServer {
         this.boundAddress = ((InetSocketAddress) future.channel().localAddress());
         LOG.info("Proxy started at address: " + this.boundAddress);
 
+        if (upstreamPreconnector != null) {
+            upstreamPreconnector.start(getProxyToServerWorkerFor(TransportProtocol.TCP).next());
+        }
+
+        if (metricsEndpoint != null) {
+            try {
+                metricsEndpoint.start();
+            } catch (RuntimeException e) {
+                // the metrics are still available through getMetrics(), e.g. to a clone whose original holds the port
+                LOG.warn("Unable to serve metrics on {}", metricsConfiguration.getAdminAddress(), e);
+            }
+        }
+
         Runtime.getRuntime().addShutdownHook(jvmShutdownHook);
     }
 
@@ -634,8 +943,31 @@ public class DefaultHttpProxyServer implements HttpProxyServer {
         return proxyAuthenticator;
     }
 
+    /**
+     * @return the authenticator that client connections use, which adapts the {@link ProxyAuthenticator} if the
+     *         server was not given an {@link AsyncProxyAuthenticator}, or null if clients are not authenticated
+     */
+    protected AsyncProxyAuthenticator getAsyncProxyAuthenticator() {
+        return asyncProxyAuthenticator;
+    }
+
     public HttpFiltersSource getFiltersSource() {
-        return filtersSource;
+        // the filters of each request also record its latencies, if metrics are enabled
+        return recordingFiltersSource != null ? recordingFiltersSource : filtersSource;
+    }
+
+    /**
+     * @return the latency metrics of this server, or null if it does not record them
+     */
+    public ProxyMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return the address of the endpoint that serves the metrics, or null if they are not served
+     */
+    public InetSocketAddress getMetricsAddress() {
+        return metricsEndpoint != null ? metricsEndpoint.getAddress() : null;
     }
 
     public FailureHttpResponseComposer getUnrecoverableFailureHttpResponseComposer() {
@@ -655,6 +987,91 @@ public class DefaultHttpProxyServer implements HttpProxyServer {
         return serverGroup.getProxyToServerWorkerPoolForTransport(transportProtocol);
     }
 
+    /**
+     * Returns the event loop group on which a new upstream channel should be registered. With event loop affinity,
+     * this is the client channel's own event loop, provided that it belongs to the worker pool of the upstream
+     * transport protocol.
+     *
+     * @param transportProtocol transport protocol of the upstream connection
+     * @param clientEventLoop event loop of the client channel the upstream connection serves
+     * @return the client's event loop, or the proxy-to-server worker pool
+     */
+    protected EventLoopGroup getProxyToServerWorkerFor(TransportProtocol transportProtocol, EventLoop clientEventLoop) {
+        EventLoopGroup proxyToServerWorker = getProxyToServerWorkerFor(transportProtocol);
+        if (serverGroup.isEventLoopAffinity() && clientEventLoop.parent() == proxyToServerWorker) {
+            return clientEventLoop;
+        }
+        return proxyToServerWorker;
+    }
+
+    /**
+     * @return true if upstream channels are registered on the event loop of their client channel
+     */
+    protected boolean isEventLoopAffinity() {
+        return serverGroup.isEventLoopAffinity();
+    }
+
+    protected EventLoopTransport getEventLoopTransportFor(TransportProtocol transportProtocol) {
+        return serverGroup.getTransportForProtocol(transportProtocol);
+    }
+
+    /**
+     * Counts the servers using a {@link TokenBucketRateLimiter}, which clones of a server share with it.
+     */
+    private static void retainRateLimiter(RateLimiter rateLimiter) {
+        if (!(rateLimiter instanceof TokenBucketRateLimiter)) {
+            return;
+        }
+        synchronized (RATE_LIMITER_USERS) {
+            Integer users = RATE_LIMITER_USERS.get(rateLimiter);
+            RATE_LIMITER_USERS.put((TokenBucketRateLimiter) rateLimiter, users == null ? 1 : users + 1);
+        }
+    }
+
+    /**
+     * Stops the eviction thread of a {@link TokenBucketRateLimiter} when the last server using it stops.
+     */
+    private static void releaseRateLimiter(RateLimiter rateLimiter) {
+        if (!(rateLimiter instanceof TokenBucketRateLimiter)) {
+            return;
+        }
+        synchronized (RATE_LIMITER_USERS) {
+            Integer users = RATE_LIMITER_USERS.get(rateLimiter);
+            if (users == null) {
+                return;
+            }
+            if (users > 1) {
+                RATE_LIMITER_USERS.put((TokenBucketRateLimiter) rateLimiter, users - 1);
+                return;
+            }
+            RATE_LIMITER_USERS.remove(rateLimiter);
+        }
+        ((TokenBucketRateLimiter) rateLimiter).shutdown();
+    }
+
+    /**
+     * The DNS resolver that a bootstrap created for the server, rather than one supplied by the caller. Clones of the
+     * server share it, so its UDP channels are closed once the last of them stops.
+     */
+    private static class OwnedDnsResolver {
+        private final NettyDnsHostResolver resolver;
+        private final AtomicInteger users = new AtomicInteger();
+
+        OwnedDnsResolver(NettyDnsHostResolver resolver) {
+            this.resolver = resolver;
+        }
+
+        void retain() {
+            users.incrementAndGet();
+        }
+
+        void release() {
+            if (users.decrementAndGet() == 0) {
+                resolver.close();
+            }
+        }
+    }
+
     // TODO: refactor bootstrap into a separate class
     private static class DefaultHttpProxyServerBootstrap implements HttpProxyServerBootstrap {
         private String name = "LittleProxy";
@@ -679,6 +1096,20 @@ public class DefaultHttpProxyServer implements HttpProxyServer {
         private Collection<ActivityTracker> activityTrackers = new ConcurrentLinkedQueue<ActivityTracker>();
         private int connectTimeout = 40000;
         private HostResolver serverResolver = new DefaultHostResolver();
+        private AsyncHostResolver asyncServerResolver = null;
+        private boolean spliceTunnels = false;
+        private int connectionAttemptDelay = 0;
+        private PreconnectConfiguration preconnectConfiguration = null;
+        private CompressionOffloadConfiguration compressionOffloadConfiguration = null;
+        private long compressedResponseCacheBytes = 0;
+        private ResponseCacheConfiguration responseCacheConfiguration = null;
+        private AsyncProxyAuthenticator asyncProxyAuthenticator = null;
+        private MetricsConfiguration metricsConfiguration = null;
+        private boolean acceptProxyProtocol = true;
+        private boolean brotliCompression = true;
+        private TlsSessionCacheConfiguration upstreamTlsSessionCacheConfiguration = null;
+        private OwnedDnsResolver ownedDnsResolver = null;
+        private DnsCacheConfiguration dnsCacheConfiguration = null;
         private long readThrottleBytesPerSecond;
         private long writeThrottleBytesPerSecond;
         private InetSocketAddress localAddress;
@@ -686,11 +1117,14 @@ public class DefaultHttpProxyServer implements HttpProxyServer {
         private int clientToProxyAcceptorThreads = ServerGroup.DEFAULT_INCOMING_ACCEPTOR_THREADS;
         private int clientToProxyWorkerThreads = ServerGroup.DEFAULT_INCOMING_WORKER_THREADS;
         private int proxyToServerWorkerThreads = ServerGroup.DEFAULT_OUTGOING_WORKER_THREADS;
+        private EventLoopTransport eventLoopTransport = EventLoopTransport.NIO;
+        private boolean eventLoopAffinity = false;
         private int maxInitialLineLength = MAX_INITIAL_LINE_LENGTH_DEFAULT;
         private int maxHeaderSize = MAX_HEADER_SIZE_DEFAULT;
         private int maxChunkSize = MAX_CHUNK_SIZE_DEFAULT;
         private boolean allowRequestToOriginServer = false;
         private RateLimiter rateLimiter = new NoOpRateLimiter();
+        private ConnectionPoolConfiguration connectionPoolConfiguration = null;
         private ProxyThreadPoolsObserver threadPoolObserver = new NoOpProxyThreadPoolsObserver();
 
         private DefaultHttpProxyServerBootstrap() {
@@ -722,7 +1156,21 @@ public class DefaultHttpProxyServer implements HttpProxyServer {
                 int maxHeaderSize,
                 int maxChunkSize,
                 boolean allowRequestToOriginServer,
-                RateLimiter rateLimiter) {
+                RateLimiter rateLimiter,
+                ConnectionPoolConfiguration connectionPoolConfiguration,
+                AsyncHostResolver asyncServerResolver,
+                boolean spliceTunnels,
+                int connectionAttemptDelay,
+                PreconnectConfiguration preconnectConfiguration,
+                CompressionOffloadConfiguration compressionOffloadConfiguration,
+                long compressedResponseCacheBytes,
+                ResponseCacheConfiguration responseCacheConfiguration,
+                AsyncProxyAuthenticator asyncProxyAuthenticator,
+                MetricsConfiguration metricsConfiguration,
+                boolean acceptProxyProtocol,
+                boolean brotliCompression,
+                TlsSessionCacheConfiguration upstreamTlsSessionCacheConfiguration,
+                OwnedDnsResolver ownedDnsResolver) {
             this.serverGroup = serverGroup;
             this.transportProtocol = transportProtocol;
             this.requestedAddress = requestedAddress;
@@ -754,6 +1202,20 @@ public class DefaultHttpProxyServer implements HttpProxyServer {
         	this.maxChunkSize = maxChunkSize;
         	this.allowRequestToOriginServer = allowRequestToOriginServer;
           this.rateLimiter = rateLimiter;
+            this.connectionPoolConfiguration = connectionPoolConfiguration;
+            this.asyncServerResolver = asyncServerResolver;
+            this.spliceTunnels = spliceTunnels;
+            this.connectionAttemptDelay = connectionAttemptDelay;
+            this.preconnectConfiguration = preconnectConfiguration;
+            this.compressionOffloadConfiguration = compressionOffloadConfiguration;
+            this.compressedResponseCacheBytes = compressedResponseCacheBytes;
+            this.responseCacheConfiguration = responseCacheConfiguration;
+            this.asyncProxyAuthenticator = asyncProxyAuthenticator;
+            this.metricsConfiguration = metricsConfiguration;
+            this.acceptProxyProtocol = acceptProxyProtocol;
+            this.brotliCompression = brotliCompression;
+            this.upstreamTlsSessionCacheConfiguration = upstreamTlsSessionCacheConfiguration;
+            this.ownedDnsResolver = ownedDnsResolver;
         }
 
         private DefaultHttpProxyServerBootstrap(Properties props) {
@@ -949,6 +1411,21 @@ public class DefaultHttpProxyServer implements HttpProxyServer {
             return this;
         }
 
+        @Override
+        public HttpProxyServerBootstrap withAsyncServerResolver(
+                AsyncHostResolver asyncServerResolver) {
+            this.asyncServerResolver = asyncServerResolver;
+            this.ownedDnsResolver = null;
+            return this;
+        }
+
+        @Override
+        public HttpProxyServerBootstrap withServerResolverCache(
+                DnsCacheConfiguration dnsCacheConfiguration) {
+            this.dnsCacheConfiguration = dnsCacheConfiguration;
+            return this;
+        }
+
         @Override
         public HttpProxyServerBootstrap plusActivityTracker(
                 ActivityTracker activityTracker) {
@@ -997,6 +1474,8 @@ public class DefaultHttpProxyServer implements HttpProxyServer {
             this.clientToProxyAcceptorThreads = configuration.getAcceptorThreads();
             this.clientToProxyWorkerThreads = configuration.getClientToProxyWorkerThreads();
             this.proxyToServerWorkerThreads = configuration.getProxyToServerWorkerThreads();
+            this.eventLoopTransport = configuration.getTransport();
+            this.eventLoopAffinity = configuration.isEventLoopAffinity();
             return this;
         }
 
@@ -1012,6 +1491,79 @@ public class DefaultHttpProxyServer implements HttpProxyServer {
             return this;
         }
 
+        @Override
+        public HttpProxyServerBootstrap withUpstreamConnectionPool(ConnectionPoolConfiguration connectionPoolConfiguration) {
+            this.connectionPoolConfiguration = connectionPoolConfiguration;
+            return this;
+        }
+
+        @Override
+        public HttpProxyServerBootstrap withSpliceTunnels(boolean spliceTunnels) {
+            this.spliceTunnels = spliceTunnels;
+            return this;
+        }
+
+        @Override
+        public HttpProxyServerBootstrap withConnectionAttemptDelay(int connectionAttemptDelay) {
+            this.connectionAttemptDelay = connectionAttemptDelay;
+            return this;
+        }
+
+        @Override
+        public HttpProxyServerBootstrap withUpstreamPreconnect(PreconnectConfiguration preconnectConfiguration) {
+            this.preconnectConfiguration = preconnectConfiguration;
+            return this;
+        }
+
+        @Override
+        public HttpProxyServerBootstrap withCompressionOffload(CompressionOffloadConfiguration compressionOffloadConfiguration) {
+            this.compressionOffloadConfiguration = compressionOffloadConfiguration;
+            return this;
+        }
+
+        @Override
+        public HttpProxyServerBootstrap withCompressedResponseCache(long maxBytes) {
+            this.compressedResponseCacheBytes = maxBytes;
+            return this;
+        }
+
+        @Override
+        public HttpProxyServerBootstrap withResponseCache(ResponseCacheConfiguration responseCacheConfiguration) {
+            this.responseCacheConfiguration = responseCacheConfiguration;
+            return this;
+        }
+
+        @Override
+        public HttpProxyServerBootstrap withAsyncProxyAuthenticator(AsyncProxyAuthenticator asyncProxyAuthenticator) {
+            this.asyncProxyAuthenticator = asyncProxyAuthenticator;
+            return this;
+        }
+
+        @Override
+        public HttpProxyServerBootstrap withMetrics(MetricsConfiguration metricsConfiguration) {
+            this.metricsConfiguration = metricsConfiguration;
+            return this;
+        }
+
+        @Override
+        public HttpProxyServerBootstrap withAcceptProxyProtocol(boolean acceptProxyProtocol) {
+            this.acceptProxyProtocol = acceptProxyProtocol;
+            return this;
+        }
+
+        @Override
+        public HttpProxyServerBootstrap withBrotliCompression(boolean brotliCompression) {
+            this.brotliCompression = brotliCompression;
+            return this;
+        }
+
+        @Override
+        public HttpProxyServerBootstrap withUpstreamTlsSessionCache(
+                TlsSessionCacheConfiguration tlsSessionCacheConfiguration) {
+            this.upstreamTlsSessionCacheConfiguration = tlsSessionCacheConfiguration;
+            return this;
+        }
+
         private DefaultHttpProxyServer build() {
             final ServerGroup serverGroup;
 
@@ -1023,10 +1575,43 @@ public class DefaultHttpProxyServer implements HttpProxyServer {
                     clientToProxyAcceptorThreads,
                     clientToProxyWorkerThreads,
                     proxyToServerWorkerThreads,
-                    threadPoolObserver
+                    threadPoolObserver,
+                    eventLoopTransport,
+                    eventLoopAffinity
                 );
             }
 
+            AsyncHostResolver asyncServerResolver;
+            OwnedDnsResolver ownedDnsResolver = null;
+            if (this.asyncServerResolver != null) {
+                asyncServerResolver = this.asyncServerResolver;
+                ownedDnsResolver = this.ownedDnsResolver;
+            } else if (serverResolver.getClass() == DefaultHostResolver.class) {
+                // the platform resolver blocks, so query DNS directly instead
+                NettyDnsHostResolver dnsResolver = new NettyDnsHostResolver();
+                asyncServerResolver = dnsResolver;
+                ownedDnsResolver = new OwnedDnsResolver(dnsResolver);
+            } else {
+                asyncServerResolver = new BlockingHostResolverAdapter(serverResolver);
+            }
+
+            // a cloned server shares the cache of the original
+            if (dnsCacheConfiguration != null && !(asyncServerResolver instanceof CachingHostResolver)) {
+                asyncServerResolver = new CachingHostResolver(asyncServerResolver, dnsCacheConfiguration);
+            }
+
+            AsyncProxyAuthenticator asyncProxyAuthenticator = this.asyncProxyAuthenticator;
+            if (asyncProxyAuthenticator == null && proxyAuthenticator != null) {
+                // verified on the event loop, as synchronous authenticators always have been
+                asyncProxyAuthenticator = new BlockingProxyAuthenticatorAdapter(proxyAuthenticator);
+            }
+
+            // warm connections wait for clients in the upstream connection pool
+            ConnectionPoolConfiguration connectionPoolConfiguration = this.connectionPoolConfiguration;
+            if (preconnectConfiguration != null && connectionPoolConfiguration == null) {
+                connectionPoolConfiguration = new ConnectionPoolConfiguration();
+            }
+
             return new DefaultHttpProxyServer(serverGroup,
                     transportProtocol, determineListenAddress(),
                     sslEngineSource, authenticateSslClients,
@@ -1036,7 +1621,20 @@ public class DefaultHttpProxyServer implements HttpProxyServer {
                     idleConnectionTimeout, activityTrackers, connectTimeout,
                     serverResolver, readThrottleBytesPerSecond, writeThrottleBytesPerSecond,
                     localAddress, proxyAlias, maxInitialLineLength, maxHeaderSize, maxChunkSize,
-                    allowRequestToOriginServer, rateLimiter);
+                    allowRequestToOriginServer, rateLimiter, connectionPoolConfiguration,
+                    asyncServerResolver,
+                    spliceTunnels,
+                    connectionAttemptDelay,
+                    preconnectConfiguration,
+                    compressionOffloadConfiguration,
+                    compressedResponseCacheBytes,
+                    responseCacheConfiguration,
+                    asyncProxyAuthenticator,
+                    metricsConfiguration,
+                    acceptProxyProtocol,
+                    brotliCompression,
+                    upstreamTlsSessionCacheConfiguration,
+                    ownedDnsResolver);
         }
 
         private InetSocketAddress determineListenAddress() {
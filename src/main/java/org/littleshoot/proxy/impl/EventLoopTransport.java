@@ -0,0 +1,153 @@
+package org.littleshoot.proxy.impl;
+
+import io.netty.channel.Channel;
+import io.netty.channel.EventLoop;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.ServerChannel;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollDatagramChannel;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.DatagramChannel;
+import io.netty.channel.socket.nio.NioDatagramChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.channels.spi.SelectorProvider;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * The Netty transport used for the proxy's TCP event loops and channels. Event loop groups and channels are always
+ * created by the same transport, since channels can only be registered with event loops of their own transport.
+ */
+public enum EventLoopTransport {
+    /**
+     * Java NIO, available on all platforms.
+     */
+    NIO,
+
+    /**
+     * Netty's native epoll transport, available on Linux. Falls back to {@link #NIO} if the native library cannot be
+     * loaded.
+     */
+    EPOLL,
+
+    /**
+     * Uses {@link #EPOLL} if it is available on this platform, and {@link #NIO} otherwise.
+     */
+    AUTO;
+
+    private static final Logger log = LoggerFactory.getLogger(EventLoopTransport.class);
+
+    /**
+     * Determines the transport that is actually used for this setting on this platform.
+     *
+     * @return {@link #NIO} or {@link #EPOLL}
+     */
+    public EventLoopTransport resolve() {
+        switch (this) {
+            case EPOLL:
+                if (isEpollAvailable()) {
+                    return EPOLL;
+                }
+                log.warn("Native epoll transport requested but not available, falling back to NIO", epollUnavailabilityCause());
+                return NIO;
+            case AUTO:
+                return isEpollAvailable() ? EPOLL : NIO;
+            default:
+                return NIO;
+        }
+    }
+
+    /**
+     * Creates an event loop group for this transport.
+     *
+     * @param threads number of event loops
+     * @param threadFactory factory for the event loop threads
+     * @param selectorProvider selector provider for NIO event loops
+     * @param ioRatio percentage of time spent on I/O, or 0 to use Netty's default
+     * @return a new event loop group
+     */
+    EventLoopGroup newEventLoopGroup(int threads, ThreadFactory threadFactory, SelectorProvider selectorProvider, int ioRatio) {
+        if (resolve() == EPOLL) {
+            EpollEventLoopGroup group = new EpollEventLoopGroup(threads, threadFactory);
+            if (ioRatio > 0) {
+                group.setIoRatio(ioRatio);
+            }
+            return group;
+        } else {
+            NioEventLoopGroup group = new NioEventLoopGroup(threads, threadFactory, selectorProvider);
+            if (ioRatio > 0) {
+                group.setIoRatio(ioRatio);
+            }
+            return group;
+        }
+    }
+
+    /**
+     * @return a new, unregistered server channel for listening on TCP
+     */
+    ServerChannel newServerSocketChannel() {
+        if (resolve() == EPOLL) {
+            return new EpollServerSocketChannel();
+        } else {
+            return new NioServerSocketChannel();
+        }
+    }
+
+    /**
+     * @return a new, unregistered channel for connecting over TCP
+     */
+    Channel newSocketChannel() {
+        if (resolve() == EPOLL) {
+            return new EpollSocketChannel();
+        } else {
+            return new NioSocketChannel();
+        }
+    }
+
+    /**
+     * @return the class of UDP channels, for example for DNS queries
+     */
+    public Class<? extends DatagramChannel> datagramChannelClass() {
+        if (resolve() == EPOLL) {
+            return EpollDatagramChannel.class;
+        } else {
+            return NioDatagramChannel.class;
+        }
+    }
+
+    /**
+     * Determines the transport of an existing event loop, so that channels compatible with it can be created.
+     *
+     * @param eventLoop event loop to determine the transport for
+     * @return {@link #NIO} or {@link #EPOLL}
+     */
+    public static EventLoopTransport of(EventLoop eventLoop) {
+        if (eventLoop.parent() instanceof EpollEventLoopGroup) {
+            return EPOLL;
+        } else {
+            return NIO;
+        }
+    }
+
+    private static boolean isEpollAvailable() {
+        try {
+            return Epoll.isAvailable();
+        } catch (NoClassDefFoundError e) {
+            return false;
+        }
+    }
+
+    private static Throwable epollUnavailabilityCause() {
+        try {
+            return Epoll.unavailabilityCause();
+        } catch (NoClassDefFoundError e) {
+            return e;
+        }
+    }
+}
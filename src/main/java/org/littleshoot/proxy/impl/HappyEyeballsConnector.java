@@ -0,0 +1,233 @@
+package org.littleshoot.proxy.impl;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.EventLoop;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.Promise;
+import io.netty.util.concurrent.ScheduledFuture;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.Inet6Address;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * Connects to one of several addresses of a server by racing staggered connection attempts, as described in RFC 8305
+ * ("Happy Eyeballs"). Addresses are tried alternating between IPv6 and IPv4, starting with the family of the first
+ * address, and addresses known to the {@link AddressPenaltyTracker} are tried last. A new attempt is started whenever
+ * the previous one fails, or has not succeeded within the connection attempt delay. The first channel to connect wins;
+ * the channels of all other attempts are closed.
+ * </p>
+ *
+ * <p>
+ * Addresses whose attempt failed, or was still pending when another address won, are penalized. The winning address
+ * is cleared of any penalty.
+ * </p>
+ */
+class HappyEyeballsConnector {
+    private static final Logger LOG = LoggerFactory.getLogger(HappyEyeballsConnector.class);
+
+    private final Bootstrap bootstrap;
+    private final List<InetSocketAddress> addresses;
+    private final InetSocketAddress localAddress;
+    private final long connectionAttemptDelayMillis;
+    private final AddressPenaltyTracker penalties;
+    private final EventLoop scheduler;
+    private final Promise<Channel> promise;
+
+    /**
+     * All attempts started so far, guarded by this connector.
+     */
+    private final Map<ChannelFuture, InetSocketAddress> attempts = new LinkedHashMap<ChannelFuture, InetSocketAddress>();
+    private int nextAddress;
+    private int failedAttempts;
+    private boolean connected;
+    private ScheduledFuture<?> nextAttemptTimer;
+
+    /**
+     * @param bootstrap bootstrap for the connection attempts. Its handler must be sharable, since it is added to the
+     *                  channel of every attempt.
+     * @param addresses addresses to connect to, in the order the resolver prefers them
+     * @param localAddress local address to bind to, or null
+     * @param connectionAttemptDelayMillis time to wait for an attempt before starting the next one
+     * @param penalties tracker of slow and unreachable addresses
+     * @param scheduler event loop on which the next attempts are scheduled, and listeners of the result are notified
+     */
+    HappyEyeballsConnector(Bootstrap bootstrap,
+                           List<InetSocketAddress> addresses,
+                           InetSocketAddress localAddress,
+                           long connectionAttemptDelayMillis,
+                           AddressPenaltyTracker penalties,
+                           EventLoop scheduler) {
+        this.bootstrap = bootstrap;
+        this.localAddress = localAddress;
+        this.connectionAttemptDelayMillis = connectionAttemptDelayMillis;
+        this.penalties = penalties;
+        this.scheduler = scheduler;
+        this.promise = scheduler.newPromise();
+        this.addresses = penalties.deprioritizePenalized(interleave(usableAddresses(addresses, localAddress)));
+    }
+
+    /**
+     * Starts connecting.
+     *
+     * @return future for the first channel to connect. It fails with the cause of the last failed attempt if no
+     * address could be connected to.
+     */
+    Future<Channel> connect() {
+        startNextAttempt();
+        return promise;
+    }
+
+    /**
+     * Orders the given addresses so that IPv6 and IPv4 addresses alternate, starting with the family of the first
+     * address. The relative order of addresses of the same family is kept.
+     */
+    static List<InetSocketAddress> interleave(List<InetSocketAddress> addresses) {
+        if (addresses.size() < 2) {
+            return addresses;
+        }
+
+        boolean firstIsIpv6 = addresses.get(0).getAddress() instanceof Inet6Address;
+        List<InetSocketAddress> first = new ArrayList<InetSocketAddress>();
+        List<InetSocketAddress> second = new ArrayList<InetSocketAddress>();
+        for (InetSocketAddress address : addresses) {
+            if ((address.getAddress() instanceof Inet6Address) == firstIsIpv6) {
+                first.add(address);
+            } else {
+                second.add(address);
+            }
+        }
+
+        List<InetSocketAddress> interleaved = new ArrayList<InetSocketAddress>(addresses.size());
+        for (int i = 0; i < Math.max(first.size(), second.size()); i++) {
+            if (i < first.size()) {
+                interleaved.add(first.get(i));
+            }
+            if (i < second.size()) {
+                interleaved.add(second.get(i));
+            }
+        }
+        return interleaved;
+    }
+
+    /**
+     * A socket bound to a specific local address can only connect to addresses of the same family.
+     */
+    private static List<InetSocketAddress> usableAddresses(List<InetSocketAddress> addresses, InetSocketAddress localAddress) {
+        if (localAddress == null || localAddress.getAddress() == null || localAddress.getAddress().isAnyLocalAddress()) {
+            return addresses;
+        }
+
+        boolean localIsIpv6 = localAddress.getAddress() instanceof Inet6Address;
+        List<InetSocketAddress> usable = new ArrayList<InetSocketAddress>(addresses.size());
+        for (InetSocketAddress address : addresses) {
+            if ((address.getAddress() instanceof Inet6Address) == localIsIpv6) {
+                usable.add(address);
+            }
+        }
+        // if no address matches, let the connection attempts report the error
+        return usable.isEmpty() ? addresses : usable;
+    }
+
+    private void startNextAttempt() {
+        final InetSocketAddress address;
+        synchronized (this) {
+            if (connected || promise.isDone() || nextAddress >= addresses.size()) {
+                return;
+            }
+            if (nextAttemptTimer != null) {
+                nextAttemptTimer.cancel(false);
+                nextAttemptTimer = null;
+            }
+
+            address = addresses.get(nextAddress++);
+            if (nextAddress < addresses.size()) {
+                nextAttemptTimer = scheduler.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        startNextAttempt();
+                    }
+                }, connectionAttemptDelayMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        LOG.debug("Connecting to {}", address);
+        ChannelFuture attempt = localAddress != null ? bootstrap.connect(address, localAddress) : bootstrap.connect(address);
+        synchronized (this) {
+            attempts.put(attempt, address);
+        }
+        attempt.addListener(new ChannelFutureListener() {
+            @Override
+            public void operationComplete(ChannelFuture future) throws Exception {
+                attemptCompleted(address, future);
+            }
+        });
+    }
+
+    private void attemptCompleted(InetSocketAddress address, ChannelFuture attempt) {
+        if (attempt.isSuccess()) {
+            Map<ChannelFuture, InetSocketAddress> losers;
+            synchronized (this) {
+                if (connected || promise.isDone()) {
+                    LOG.debug("Connected to {} after another address won, closing", address);
+                    attempt.channel().close();
+                    return;
+                }
+
+                if (nextAttemptTimer != null) {
+                    nextAttemptTimer.cancel(false);
+                    nextAttemptTimer = null;
+                }
+                connected = true;
+                losers = new LinkedHashMap<ChannelFuture, InetSocketAddress>(attempts);
+                losers.remove(attempt);
+            }
+
+            LOG.debug("Connected to {}", address);
+            penalties.succeeded(address);
+
+            for (Map.Entry<ChannelFuture, InetSocketAddress> loser : losers.entrySet()) {
+                if (!loser.getKey().isDone()) {
+                    // the winner was faster, so this address is slow or unreachable. closing the channel fails the
+                    // attempt, even if it hasn't started connecting yet.
+                    penalties.penalize(loser.getValue());
+                    loser.getKey().channel().close();
+                }
+                // an attempt that connects after the winner closes its own channel
+            }
+
+            promise.trySuccess(attempt.channel());
+            return;
+        }
+
+        boolean allFailed;
+        synchronized (this) {
+            if (connected || promise.isDone()) {
+                // closed after another address won, or failed after the connector was given up on
+                return;
+            }
+            failedAttempts++;
+            allFailed = failedAttempts >= addresses.size();
+        }
+
+        LOG.debug("Unable to connect to {}", address, attempt.cause());
+        penalties.penalize(address);
+
+        if (allFailed) {
+            promise.tryFailure(attempt.cause());
+        } else {
+            // don't wait for the attempt delay to try the next address
+            startNextAttempt();
+        }
+    }
+}
@@ -0,0 +1,440 @@
+package org.littleshoot.proxy.impl;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import io.netty.buffer.UnpooledDirectByteBuf;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.util.internal.PlatformDependent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>
+ * A proxy-wide shared HTTP cache, as described by RFC 7234. {@link ClientToProxyConnection} consults it before it
+ * picks a {@link ProxyToServerConnection} for a request: fresh responses are served without contacting the server,
+ * stale responses with validators are revalidated with a conditional request, and cacheable responses from the server
+ * are stored on their way to the client. See {@link ResponseCacheExchange} for the handling of a single request.
+ * </p>
+ *
+ * <p>
+ * The index of the cache, with the response headers, lives on the heap. It maps the server's host:port and the request
+ * URI to the variants of the response selected by its Vary header. Bodies are kept off the heap, in direct buffers or
+ * memory-mapped files (see {@link ResponseCacheConfiguration.Storage}). The total size of the cached responses is
+ * bounded; the least recently used URIs are evicted first.
+ * </p>
+ *
+ * <p>
+ * Only responses to GET requests are stored, and never responses marked no-store or private, responses that set
+ * cookies, or responses to requests with credentials. Unsafe requests, such as POST, invalidate the responses cached for
+ * their URI.
+ * </p>
+ */
+public class HttpResponseCache {
+    private static final Logger LOG = LoggerFactory.getLogger(HttpResponseCache.class);
+
+    private final ResponseCacheConfiguration configuration;
+
+    // access ordered, so iteration starts at the least recently used URI; guarded by this
+    private final LinkedHashMap<String, List<CachedResponse>> entries =
+            new LinkedHashMap<String, List<CachedResponse>>(16, 0.75f, true);
+    private long bytes;
+
+    // GET requests forwarded to servers that concurrent requests for the same URI can be collapsed into
+    private final ConcurrentMap<String, CollapsedForwarding> inFlight =
+            new ConcurrentHashMap<String, CollapsedForwarding>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder revalidations = new LongAdder();
+    private final LongAdder revalidatedHits = new LongAdder();
+    private final LongAdder stores = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder collapsed = new LongAdder();
+
+    public HttpResponseCache(ResponseCacheConfiguration configuration) {
+        if (configuration.getMaxBytes() <= 0) {
+            throw new IllegalArgumentException("maxBytes: " + configuration.getMaxBytes() + " (expected: > 0)");
+        }
+        if (configuration.getMaxEntryBytes() <= 0 || configuration.getMaxEntryBytes() > configuration.getMaxBytes()) {
+            throw new IllegalArgumentException("maxEntryBytes: " + configuration.getMaxEntryBytes()
+                    + " (expected: 1-" + configuration.getMaxBytes() + ")");
+        }
+        this.configuration = configuration;
+    }
+
+    ResponseCacheConfiguration getConfiguration() {
+        return configuration;
+    }
+
+    /**
+     * Starts the cache handling of a request. Unsafe requests invalidate the responses cached for their URI.
+     *
+     * @param hostAndPort the server the request is for
+     * @param request     the request, before it is modified for proxying
+     * @return the exchange that serves, revalidates or stores the response, or null if the cache is not involved
+     */
+    ResponseCacheExchange begin(String hostAndPort, HttpRequest request) {
+        String key = hostAndPort + ' ' + ProxyUtils.stripHost(request.uri());
+
+        HttpMethod method = request.method();
+        boolean get = HttpMethod.GET.equals(method);
+        if (!get && !HttpMethod.HEAD.equals(method)) {
+            if (!HttpMethod.OPTIONS.equals(method) && !HttpMethod.TRACE.equals(method)
+                    && !HttpMethod.CONNECT.equals(method)) {
+                invalidate(key);
+            }
+            return null;
+        }
+        if (HttpUtil.isTransferEncodingChunked(request) || HttpUtil.getContentLength(request, 0L) > 0) {
+            // the body would have to be forwarded after the request
+            return null;
+        }
+
+        return new ResponseCacheExchange(this, key, request, select(key, request));
+    }
+
+    /**
+     * @return the current time, in milliseconds since the epoch
+     */
+    long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * @return the variant cached for the given URI whose Vary request headers match the request, or null
+     */
+    private CachedResponse select(String key, HttpRequest request) {
+        synchronized (this) {
+            List<CachedResponse> variants = entries.get(key);
+            if (variants != null) {
+                for (CachedResponse variant : variants) {
+                    if (variant.getVaryValues().equals(varyValues(variant.getHeaders(), request.headers()))) {
+                        // retained for the exchange while locked, so that a concurrent eviction can not free it first
+                        variant.getBody().retain();
+                        return variant;
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Stores a complete response, replacing the variant with the same Vary request headers.
+     */
+    void store(String key, CachedResponse response) {
+        long size = response.size();
+        if (size > configuration.getMaxBytes()) {
+            response.release();
+            return;
+        }
+
+        stores.increment();
+        synchronized (this) {
+            List<CachedResponse> variants = entries.get(key);
+            if (variants == null) {
+                variants = new ArrayList<CachedResponse>(1);
+                entries.put(key, variants);
+            }
+            Iterator<CachedResponse> it = variants.iterator();
+            while (it.hasNext()) {
+                CachedResponse variant = it.next();
+                if (variant.getVaryValues().equals(response.getVaryValues())) {
+                    it.remove();
+                    bytes -= variant.size();
+                    variant.release();
+                }
+            }
+            variants.add(response);
+            bytes += size;
+
+            Iterator<List<CachedResponse>> lru = entries.values().iterator();
+            while (bytes > configuration.getMaxBytes() && lru.hasNext()) {
+                for (CachedResponse evicted : lru.next()) {
+                    bytes -= evicted.size();
+                    evicted.release();
+                    evictions.increment();
+                }
+                lru.remove();
+            }
+        }
+    }
+
+    private synchronized void invalidate(String key) {
+        List<CachedResponse> variants = entries.remove(key);
+        if (variants != null) {
+            for (CachedResponse variant : variants) {
+                bytes -= variant.size();
+                variant.release();
+            }
+        }
+    }
+
+    /**
+     * Evicts all responses.
+     */
+    public synchronized void clear() {
+        for (List<CachedResponse> variants : entries.values()) {
+            for (CachedResponse variant : variants) {
+                variant.release();
+            }
+        }
+        entries.clear();
+        bytes = 0;
+    }
+
+    /**
+     * Registers a request as in flight to the server, unless one for the same URI already is.
+     *
+     * @return the request already in flight, or null if the given one was registered
+     */
+    CollapsedForwarding putInFlightIfAbsent(String key, CollapsedForwarding collapsedForwarding) {
+        return inFlight.putIfAbsent(key, collapsedForwarding);
+    }
+
+    void removeInFlight(String key, CollapsedForwarding collapsedForwarding) {
+        inFlight.remove(key, collapsedForwarding);
+    }
+
+    /**
+     * Moves a recorded body to the configured storage.
+     *
+     * @param body the recorded body, which is released
+     * @return the stored body, or null if it could not be stored
+     */
+    ByteBuf storeBody(ByteBuf body) {
+        if (configuration.getStorage() != ResponseCacheConfiguration.Storage.MAPPED || !body.isReadable()) {
+            return body;
+        }
+
+        try {
+            File file = File.createTempFile("littleproxy-cache", ".body", configuration.getStorageDirectory());
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                FileChannel channel = raf.getChannel();
+                int size = body.readableBytes();
+                body.getBytes(body.readerIndex(), channel, 0L, size);
+                // the mapping stays valid after the file is deleted, and is unmapped when the body is released
+                return new MappedBody(channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+            } finally {
+                if (!file.delete()) {
+                    file.deleteOnExit();
+                }
+            }
+        } catch (IOException e) {
+            LOG.warn("Unable to store cached response body in {}", configuration.getStorageDirectory(), e);
+            return null;
+        } finally {
+            body.release();
+        }
+    }
+
+    void recordHit() {
+        hits.increment();
+    }
+
+    void recordMiss() {
+        misses.increment();
+    }
+
+    void recordRevalidation() {
+        revalidations.increment();
+    }
+
+    void recordRevalidatedHit() {
+        revalidatedHits.increment();
+    }
+
+    void recordCollapsed() {
+        collapsed.increment();
+    }
+
+    /**
+     * @return number of requests answered from the cache without contacting the server
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return number of requests the cache could not answer, including those it revalidated
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return number of conditional requests sent to revalidate stale responses
+     */
+    public long getRevalidations() {
+        return revalidations.sum();
+    }
+
+    /**
+     * @return number of revalidations the server answered with 304 (Not Modified), so that the cached response was used
+     */
+    public long getRevalidatedHits() {
+        return revalidatedHits.sum();
+    }
+
+    /**
+     * @return number of requests answered with the response to another client's request for the same URI
+     */
+    public long getCollapsedRequests() {
+        return collapsed.sum();
+    }
+
+    /**
+     * @return number of responses stored
+     */
+    public long getStores() {
+        return stores.sum();
+    }
+
+    /**
+     * @return number of responses evicted to make room
+     */
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * @return total size of the cached responses
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return number of URIs with cached responses
+     */
+    public synchronized int getEntries() {
+        return entries.size();
+    }
+
+    /**
+     * Collects the values of the request headers named by a response's Vary header, so that a later request can be
+     * matched against them. Values are normalized by dropping the whitespace around list elements.
+     *
+     * @return the values keyed by lower case header name; absent headers map to the empty string
+     */
+    static Map<String, String> varyValues(HttpHeaders responseHeaders, HttpHeaders requestHeaders) {
+        List<String> vary = headerValues(responseHeaders, HttpHeaderNames.VARY.toString());
+        if (vary.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        Map<String, String> values = new HashMap<String, String>();
+        for (String name : vary) {
+            StringBuilder value = new StringBuilder();
+            for (String element : headerValues(requestHeaders, name)) {
+                if (value.length() > 0) {
+                    value.append(',');
+                }
+                value.append(element);
+            }
+            values.put(name.toLowerCase(Locale.US), value.toString());
+        }
+        return values;
+    }
+
+    private static List<String> headerValues(HttpHeaders headers, String name) {
+        List<String> all = headers.getAll(name);
+        if (all.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<String> values = new ArrayList<String>();
+        for (String header : all) {
+            values.addAll(ProxyUtils.splitCommaSeparatedHeaderValues(header));
+        }
+        return values;
+    }
+
+    /**
+     * Parses the Cache-Control header(s) into their directives.
+     *
+     * @return the directives keyed by lower case name, with unquoted arguments; directives without an argument map to
+     * the empty string
+     */
+    static Map<String, String> parseCacheControl(HttpHeaders headers) {
+        List<String> directives = headerValues(headers, HttpHeaderNames.CACHE_CONTROL.toString());
+        if (directives.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        Map<String, String> cacheControl = new HashMap<String, String>();
+        for (String directive : directives) {
+            int equals = directive.indexOf('=');
+            if (equals < 0) {
+                cacheControl.put(directive.toLowerCase(Locale.US), "");
+            } else {
+                String value = directive.substring(equals + 1).trim();
+                if (value.length() >= 2 && value.charAt(0) == '"' && value.charAt(value.length() - 1) == '"') {
+                    value = value.substring(1, value.length() - 1);
+                }
+                cacheControl.put(directive.substring(0, equals).trim().toLowerCase(Locale.US), value);
+            }
+        }
+        return cacheControl;
+    }
+
+    /**
+     * Parses a delta-seconds value (RFC 7234, section 1.2.1).
+     *
+     * @return the number of seconds, or -1 if the value is absent or invalid
+     */
+    static long parseDeltaSeconds(String value) {
+        if (value == null || value.isEmpty()) {
+            return -1;
+        }
+        long seconds = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            // values that overflow are treated as the largest value
+            seconds = seconds > Integer.MAX_VALUE ? seconds : seconds * 10 + (c - '0');
+        }
+        return Math.min(seconds, Integer.MAX_VALUE);
+    }
+
+    /**
+     * A body stored in a memory-mapped file. The file is unmapped as soon as the body is released for the last time,
+     * rather than when the mapping is garbage collected, so that neither the disk space of the deleted file nor the
+     * address space outlive the cache entry. The mapping is writable only because Netty does not wrap read-only
+     * buffers in a subclassable buffer; the body is never written to.
+     */
+    private static final class MappedBody extends UnpooledDirectByteBuf {
+        private final MappedByteBuffer mapping;
+
+        private MappedBody(MappedByteBuffer mapping) {
+            super(UnpooledByteBufAllocator.DEFAULT, mapping, mapping.capacity());
+            this.mapping = mapping;
+        }
+
+        @Override
+        protected void deallocate() {
+            super.deallocate();
+            PlatformDependent.freeDirectBuffer(mapping);
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package org.littleshoot.proxy.impl;
+
+/**
+ * Configuration object for predictive pre-connecting to upstream servers (see {@link UpstreamPreconnector}). Controls
+ * which origins count as hot, and how many warm connections are kept ready for them.
+ */
+public class PreconnectConfiguration {
+    /**
+     * The default number of warm connections kept ready for all origins together.
+     */
+    public static final int DEFAULT_MAX_WARM_CONNECTIONS = 64;
+
+    /**
+     * The default number of warm connections kept ready for a single origin.
+     */
+    public static final int DEFAULT_MAX_WARM_PER_ORIGIN = 4;
+
+    /**
+     * The default rate of new upstream connections, per second, above which an origin is pre-connected to.
+     */
+    public static final double DEFAULT_MIN_CONNECTION_RATE = 0.1;
+
+    /**
+     * The default half-life of the per-origin connection rates, in milliseconds.
+     */
+    public static final long DEFAULT_RATE_HALF_LIFE_MILLIS = 60000L;
+
+    /**
+     * The default interval at which warm connections are replenished, in milliseconds.
+     */
+    public static final long DEFAULT_REFRESH_INTERVAL_MILLIS = 1000L;
+
+    /**
+     * The default number of origins whose connection rate is tracked.
+     */
+    public static final int DEFAULT_MAX_TRACKED_ORIGINS = 4096;
+
+    private int maxWarmConnections = DEFAULT_MAX_WARM_CONNECTIONS;
+    private int maxWarmPerOrigin = DEFAULT_MAX_WARM_PER_ORIGIN;
+    private double minConnectionRate = DEFAULT_MIN_CONNECTION_RATE;
+    private long rateHalfLifeMillis = DEFAULT_RATE_HALF_LIFE_MILLIS;
+    private long refreshIntervalMillis = DEFAULT_REFRESH_INTERVAL_MILLIS;
+    private int maxTrackedOrigins = DEFAULT_MAX_TRACKED_ORIGINS;
+
+    public int getMaxWarmConnections() {
+        return maxWarmConnections;
+    }
+
+    /**
+     * Set the global budget of warm connections. Origins are served hottest first until the budget is used up. Idle
+     * connections released to the pool by clients count against the budget as well. The default value is
+     * {@link #DEFAULT_MAX_WARM_CONNECTIONS}.
+     *
+     * @param maxWarmConnections maximum number of warm connections for all origins
+     * @return this pre-connect configuration instance, for chaining
+     */
+    public PreconnectConfiguration withMaxWarmConnections(int maxWarmConnections) {
+        this.maxWarmConnections = maxWarmConnections;
+        return this;
+    }
+
+    public int getMaxWarmPerOrigin() {
+        return maxWarmPerOrigin;
+    }
+
+    /**
+     * Set the maximum number of warm connections for a single origin. The number of warm connections an origin gets
+     * follows its rate of new connections, up to this maximum and to the pool's maximum number of idle connections per
+     * upstream. The default value is {@link #DEFAULT_MAX_WARM_PER_ORIGIN}.
+     *
+     * @param maxWarmPerOrigin maximum number of warm connections per origin
+     * @return this pre-connect configuration instance, for chaining
+     */
+    public PreconnectConfiguration withMaxWarmPerOrigin(int maxWarmPerOrigin) {
+        this.maxWarmPerOrigin = maxWarmPerOrigin;
+        return this;
+    }
+
+    public double getMinConnectionRate() {
+        return minConnectionRate;
+    }
+
+    /**
+     * Set the rate of new upstream connections, per second, an origin needs before it is pre-connected to. The
+     * default value is {@link #DEFAULT_MIN_CONNECTION_RATE}.
+     *
+     * @param minConnectionRate minimum connection rate of a hot origin, per second
+     * @return this pre-connect configuration instance, for chaining
+     */
+    public PreconnectConfiguration withMinConnectionRate(double minConnectionRate) {
+        this.minConnectionRate = minConnectionRate;
+        return this;
+    }
+
+    public long getRateHalfLifeMillis() {
+        return rateHalfLifeMillis;
+    }
+
+    /**
+     * Set the half-life of the decaying per-origin connection counters, in milliseconds. Shorter half-lives react
+     * faster to changing traffic, longer ones are steadier. The default value is
+     * {@link #DEFAULT_RATE_HALF_LIFE_MILLIS}.
+     *
+     * @param rateHalfLifeMillis half-life of the connection rates
+     * @return this pre-connect configuration instance, for chaining
+     */
+    public PreconnectConfiguration withRateHalfLifeMillis(long rateHalfLifeMillis) {
+        this.rateHalfLifeMillis = rateHalfLifeMillis;
+        return this;
+    }
+
+    public long getRefreshIntervalMillis() {
+        return refreshIntervalMillis;
+    }
+
+    /**
+     * Set the interval at which warm connections are replenished, in milliseconds. Each origin gets enough warm
+     * connections for the new connections it is expected to need until the next refresh. The default value is
+     * {@link #DEFAULT_REFRESH_INTERVAL_MILLIS}.
+     *
+     * @param refreshIntervalMillis refresh interval
+     * @return this pre-connect configuration instance, for chaining
+     */
+    public PreconnectConfiguration withRefreshIntervalMillis(long refreshIntervalMillis) {
+        this.refreshIntervalMillis = refreshIntervalMillis;
+        return this;
+    }
+
+    public int getMaxTrackedOrigins() {
+        return maxTrackedOrigins;
+    }
+
+    /**
+     * Set the maximum number of origins whose connection rate is tracked. When more origins are seen, the coldest ones
+     * are forgotten. The default value is {@link #DEFAULT_MAX_TRACKED_ORIGINS}.
+     *
+     * @param maxTrackedOrigins maximum number of tracked origins
+     * @return this pre-connect configuration instance, for chaining
+     */
+    public PreconnectConfiguration withMaxTrackedOrigins(int maxTrackedOrigins) {
+        this.maxTrackedOrigins = maxTrackedOrigins;
+        return this;
+    }
+
+}
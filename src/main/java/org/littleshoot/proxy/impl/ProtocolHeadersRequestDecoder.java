@@ -2,29 +2,68 @@ package org.littleshoot.proxy.impl;
 
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
-import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.handler.codec.ByteToMessageDecoder;
 import io.netty.util.AttributeKey;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import io.netty.util.CharsetUtil;
+import io.netty.util.NetUtil;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
-public class ProtocolHeadersRequestDecoder extends ChannelInboundHandlerAdapter {
+/**
+ * Reads the PROXY protocol header (text version 1 or binary version 2) and the optional {@code TRACE} line that a load
+ * balancer puts in front of the first request of a connection, and stores what they carry as channel attributes.
+ * <p>
+ * The header is parsed byte by byte straight from the inbound buffers, without copying them. Headers split across
+ * several reads are buffered until they are complete. Once the header has been read, or the first bytes turn out not to
+ * be a header, the decoder removes itself from the pipeline and passes all following bytes on untouched. Bytes that do
+ * not form a valid header are passed on unchanged, so that they are handled as (most likely malformed) HTTP.
+ * <p>
+ * Sources:
+ * <ul>
+ *   <li>https://www.haproxy.org/download/1.8/doc/proxy-protocol.txt</li>
+ *   <li>https://docs.aws.amazon.com/elasticloadbalancing/latest/classic/enable-proxy-protocol.html</li>
+ *   <li>https://github.com/verygoodsecurity/nginx/pull/1</li>
+ * </ul>
+ */
+public class ProtocolHeadersRequestDecoder extends ByteToMessageDecoder {
 
   public static final AttributeKey<String> SOURCE_IP_ATTRIBUTE = AttributeKey.valueOf("sourceIp");
   public static final AttributeKey<String> CONNECTION_ID_ATTRIBUTE = AttributeKey.valueOf("connectionId");
 
-  // Pattern:
+  /**
+   * The type-length-value fields of a version 2 header, by type. Only set when the header has any.
+   */
+  public static final AttributeKey<Map<Integer, byte[]>> PROXY_TLVS_ATTRIBUTE = AttributeKey.valueOf("proxyTlvs");
+
+  // Version 1:
   //   PROXY_STRING + single space + INET_PROTOCOL + single space + CLIENT_IP + single space + PROXY_IP + single space + CLIENT_PORT + single space + PROXY_PORT + "\r\n"
   // Example:
   //   PROXY TCP4 198.51.100.22 203.0.113.7 35646 80\r\n
   //   or
-  //   PROXY TCP6 2001:DB8::21f:5bff:febf:ce22:8a2e 2001:DB8::12f:8baa:eafc:ce29:6b2e 35646 80
-  // Source:
-  //   https://docs.aws.amazon.com/elasticloadbalancing/latest/classic/enable-proxy-protocol.html
-  private static final Pattern TCP4_PROXY_PROTOCOL_HEADER_PATTERN =
-      Pattern.compile("^PROXY TCP4 (((25[0-5]|2[0-4][0-9]|[01]?[0-9][0-9]?)(\\.)?){4}) ((25[0-5]|2[0-4][0-9]|[01]?[0-9][0-9]?)(\\.)?){4} \\d+ \\d+\\r\\n");
+  //   PROXY TCP6 2001:0DB8:0000:021f:5bff:febf:ce22:8a2e 2001:0DB8:0000:012f:8baa:eafc:ce29:6b2e 35646 80\r\n
+  // Only TCP4 and TCP6 with fully written out addresses are supported.
+  private static final byte[] V1_PREFIX = ascii("PROXY ");
+  private static final byte[] V1_TCP4 = ascii("TCP4 ");
+  private static final byte[] V1_TCP6 = ascii("TCP6 ");
 
-  private static final Pattern TCP6_PROXY_PROTOCOL_HEADER_PATTERN =
-      Pattern.compile("^PROXY TCP6 (([0-9a-f]{1,4}:){7}([0-9a-f]){1,4}) ([0-9a-f]{1,4}:){7}([0-9a-f]){1,4} \\d+ \\d+\\r\\n", Pattern.CASE_INSENSITIVE);
+  // Version 2:
+  //   12 byte signature, version and command, address family and transport, 2 byte length of the rest, addresses, TLVs
+  private static final byte[] V2_SIGNATURE = {
+      0x0D, 0x0A, 0x0D, 0x0A, 0x00, 0x0D, 0x0A, 0x51, 0x55, 0x49, 0x54, 0x0A
+  };
+  private static final int V2_FIXED_LENGTH = 16;
+  private static final int V2_VERSION = 0x20;
+  private static final int V2_COMMAND_LOCAL = 0x00;
+  private static final int V2_COMMAND_PROXY = 0x01;
+  private static final int V2_FAMILY_UNSPEC = 0x00;
+  private static final int V2_FAMILY_INET = 0x10;
+  private static final int V2_FAMILY_INET6 = 0x20;
+  private static final int V2_FAMILY_UNIX = 0x30;
+  private static final int V2_INET_ADDRESSES_LENGTH = 12;
+  private static final int V2_INET6_ADDRESSES_LENGTH = 36;
+  private static final int V2_UNIX_ADDRESSES_LENGTH = 216;
 
   // Pattern:
   //   TRACE <32HEX>\r\n
@@ -33,57 +72,375 @@ public class ProtocolHeadersRequestDecoder extends ChannelInboundHandlerAdapter
   // Source:
   //   https://github.com/verygoodsecurity/nginx/pull/1
   //   https://github.com/opentracing/specification/issues/150
-  private static final Pattern TRACE_HEADER_PATTERN = Pattern.compile("^TRACE ([0-9a-f]{32})\\r\\n");
+  private static final byte[] TRACE_PREFIX = ascii("TRACE ");
+  private static final int TRACE_ID_LENGTH = 32;
+
+  // results of the parse methods that are not an index
+  private static final int NEED_MORE = -1;
+  private static final int INVALID = -2;
+
+  // where the source address of the last parsed header is; nothing is allocated until the header is complete
+  private static final int SOURCE_NONE = 0;
+  private static final int SOURCE_TEXT = 1;
+  private static final int SOURCE_INET = 2;
+  private static final int SOURCE_INET6 = 3;
+
+  private int sourceType;
+  private int sourceIndex;
+  private int sourceLength;
+  private int tlvIndex;
+  private int tlvEnd;
 
   @Override
-  public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
-    ByteBuf buf = ((ByteBuf) msg);
+  protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) throws Exception {
+    sourceType = SOURCE_NONE;
+    tlvIndex = tlvEnd = 0;
 
-    String body = bufToString(buf);
+    int start = in.readerIndex();
+    int headerEnd = parseHeader(in, start);
+    if (headerEnd == NEED_MORE) {
+      return;
+    }
+    if (headerEnd == INVALID) {
+      // no proxy protocol header found, pass everything on as it is
+      ctx.pipeline().remove(this);
+      return;
+    }
 
-    Matcher tcp4Matcher = TCP4_PROXY_PROTOCOL_HEADER_PATTERN.matcher(body);
-    Matcher tcp6Matcher = TCP6_PROXY_PROTOCOL_HEADER_PATTERN.matcher(body);
+    int traceEnd = parseTrace(in, headerEnd);
+    if (traceEnd == NEED_MORE) {
+      return;
+    }
 
-    String sourceIp;
+    String sourceIp = sourceIp(in);
+    if (sourceIp != null) {
+      ctx.channel().attr(SOURCE_IP_ATTRIBUTE).set(sourceIp);
+    }
+    if (tlvEnd > tlvIndex) {
+      ctx.channel().attr(PROXY_TLVS_ATTRIBUTE).set(tlvs(in));
+    }
 
-    if (tcp4Matcher.find()) {
-      sourceIp = tcp4Matcher.group(1);
-    } else if (tcp6Matcher.find()) {
-      sourceIp = tcp6Matcher.group(1);
+    if (traceEnd != INVALID) {
+      ctx.channel().attr(CONNECTION_ID_ATTRIBUTE).set(
+          in.toString(traceEnd - 2 - TRACE_ID_LENGTH, TRACE_ID_LENGTH, CharsetUtil.US_ASCII));
+      in.readerIndex(traceEnd);
     } else {
-      ctx.fireChannelRead(msg);
-      return; // no proxy protocol header found, proceed
+      in.readerIndex(headerEnd);
     }
 
-    ctx.channel().attr(SOURCE_IP_ATTRIBUTE).set(sourceIp);
+    // the rest of the buffer is passed on when this decoder is removed
+    ctx.pipeline().remove(this);
+  }
 
-    int proxyProtocolHeaderIndex = body.indexOf("\r\n");
-    String stripped = body.substring(proxyProtocolHeaderIndex + 2); // +2 for \r\n
+  /**
+   * Parses a version 1 or version 2 header starting at {@code index}.
+   *
+   * @return the index right after the header, {@link #NEED_MORE} or {@link #INVALID}
+   */
+  private int parseHeader(ByteBuf in, int index) {
+    if (!in.isReadable()) {
+      return NEED_MORE;
+    }
+    if (in.getByte(index) == V2_SIGNATURE[0]) {
+      return parseV2(in, index);
+    }
+    return parseV1(in, index);
+  }
 
-    String traceId;
+  private int parseV1(ByteBuf in, int index) {
+    index = expect(in, index, V1_PREFIX);
+    if (index < 0) {
+      return index;
+    }
 
-    Matcher traceHeaderMatcher = TRACE_HEADER_PATTERN.matcher(stripped);
-    if (traceHeaderMatcher.find()) {
-      traceId = traceHeaderMatcher.group(1);
-    } else {
-      buf.clear().writeBytes(stripped.getBytes());
-      ctx.fireChannelRead(buf);
-      return;
+    int tcp4 = expect(in, index, V1_TCP4);
+    boolean ipv6 = tcp4 == INVALID;
+    index = ipv6 ? expect(in, index, V1_TCP6) : tcp4;
+    if (index < 0) {
+      return index;
+    }
+
+    int sourceEnd = ipv6 ? ipv6Address(in, index) : ipv4Address(in, index);
+    if (sourceEnd < 0) {
+      return sourceEnd;
+    }
+    sourceType = SOURCE_TEXT;
+    sourceIndex = index;
+    sourceLength = sourceEnd - index;
+
+    index = expect(in, sourceEnd, ' ');
+    if (index < 0) {
+      return index;
+    }
+    index = ipv6 ? ipv6Address(in, index) : ipv4Address(in, index);
+    if (index < 0) {
+      return index;
+    }
+    index = expect(in, index, ' ');
+    if (index < 0) {
+      return index;
+    }
+    index = port(in, index);
+    if (index < 0) {
+      return index;
+    }
+    index = expect(in, index, ' ');
+    if (index < 0) {
+      return index;
+    }
+    index = port(in, index);
+    if (index < 0) {
+      return index;
+    }
+    index = expect(in, index, '\r');
+    if (index < 0) {
+      return index;
+    }
+    return expect(in, index, '\n');
+  }
+
+  private int parseV2(ByteBuf in, int index) {
+    index = expect(in, index, V2_SIGNATURE);
+    if (index < 0) {
+      return index;
+    }
+    if (in.writerIndex() - index < V2_FIXED_LENGTH - V2_SIGNATURE.length) {
+      return NEED_MORE;
     }
 
-    ctx.channel().attr(CONNECTION_ID_ATTRIBUTE).set(traceId);
+    int versionAndCommand = in.getUnsignedByte(index);
+    int familyAndTransport = in.getUnsignedByte(index + 1);
+    int length = in.getUnsignedShort(index + 2);
+    index += 4;
 
-    stripped = stripped.substring(6 + 32 + 2); // TRACE 32HEX\r\n
-    buf.clear().writeBytes(stripped.getBytes());
+    if ((versionAndCommand & 0xF0) != V2_VERSION) {
+      return INVALID;
+    }
+    int command = versionAndCommand & 0x0F;
+    if (command != V2_COMMAND_LOCAL && command != V2_COMMAND_PROXY) {
+      return INVALID;
+    }
+    if (in.writerIndex() - index < length) {
+      return NEED_MORE;
+    }
+    int end = index + length;
+
+    int addressesLength;
+    switch (familyAndTransport & 0xF0) {
+      case V2_FAMILY_UNSPEC:
+        addressesLength = 0;
+        break;
+      case V2_FAMILY_INET:
+        addressesLength = V2_INET_ADDRESSES_LENGTH;
+        break;
+      case V2_FAMILY_INET6:
+        addressesLength = V2_INET6_ADDRESSES_LENGTH;
+        break;
+      case V2_FAMILY_UNIX:
+        addressesLength = V2_UNIX_ADDRESSES_LENGTH;
+        break;
+      default:
+        return INVALID;
+    }
+    if (length < addressesLength) {
+      return INVALID;
+    }
+
+    // with LOCAL, the connection was opened by the load balancer itself and the addresses are to be ignored
+    if (command == V2_COMMAND_PROXY) {
+      if (addressesLength == V2_INET_ADDRESSES_LENGTH) {
+        sourceType = SOURCE_INET;
+        sourceIndex = index;
+      } else if (addressesLength == V2_INET6_ADDRESSES_LENGTH) {
+        sourceType = SOURCE_INET6;
+        sourceIndex = index;
+      }
+    }
+
+    // each TLV is a 1 byte type, a 2 byte length and the value, and they have to fill the rest of the header exactly
+    int tlv = index + addressesLength;
+    while (tlv < end) {
+      if (end - tlv < 3) {
+        return INVALID;
+      }
+      tlv += 3 + in.getUnsignedShort(tlv + 1);
+    }
+    if (tlv != end) {
+      return INVALID;
+    }
+    tlvIndex = index + addressesLength;
+    tlvEnd = end;
 
-    ctx.fireChannelRead(buf);
+    return end;
   }
 
-  private String bufToString(ByteBuf content) {
-    final byte[] bytes = new byte[content.readableBytes()];
+  /**
+   * Parses the optional {@code TRACE} line starting at {@code index}.
+   *
+   * @return the index right after the line, {@link #NEED_MORE}, or {@link #INVALID} when there is no valid line
+   */
+  private static int parseTrace(ByteBuf in, int index) {
+    index = expect(in, index, TRACE_PREFIX);
+    if (index < 0) {
+      return index;
+    }
+    for (int i = 0; i < TRACE_ID_LENGTH; i++, index++) {
+      if (index == in.writerIndex()) {
+        return NEED_MORE;
+      }
+      byte b = in.getByte(index);
+      if (!(b >= '0' && b <= '9' || b >= 'a' && b <= 'f')) {
+        return INVALID;
+      }
+    }
+    index = expect(in, index, '\r');
+    if (index < 0) {
+      return index;
+    }
+    return expect(in, index, '\n');
+  }
+
+  /**
+   * Parses a dotted quad, with octets of 1 to 3 digits up to 255.
+   *
+   * @return the index right after the address, {@link #NEED_MORE} or {@link #INVALID}
+   */
+  private static int ipv4Address(ByteBuf in, int index) {
+    for (int octet = 0; octet < 4; octet++) {
+      if (octet > 0) {
+        index = expect(in, index, '.');
+        if (index < 0) {
+          return index;
+        }
+      }
+      int value = 0;
+      int digits = 0;
+      while (true) {
+        if (index == in.writerIndex()) {
+          return NEED_MORE;
+        }
+        byte b = in.getByte(index);
+        if (b < '0' || b > '9') {
+          break;
+        }
+        value = value * 10 + b - '0';
+        if (++digits > 3 || value > 255) {
+          return INVALID;
+        }
+        index++;
+      }
+      if (digits == 0) {
+        return INVALID;
+      }
+    }
+    return index;
+  }
 
-    content.getBytes(content.readerIndex(), bytes);
+  /**
+   * Parses an IPv6 address written out in full, as 8 groups of 1 to 4 hex digits.
+   *
+   * @return the index right after the address, {@link #NEED_MORE} or {@link #INVALID}
+   */
+  private static int ipv6Address(ByteBuf in, int index) {
+    for (int group = 0; group < 8; group++) {
+      if (group > 0) {
+        index = expect(in, index, ':');
+        if (index < 0) {
+          return index;
+        }
+      }
+      int digits = 0;
+      while (true) {
+        if (index == in.writerIndex()) {
+          return NEED_MORE;
+        }
+        byte b = in.getByte(index);
+        if (!(b >= '0' && b <= '9' || b >= 'a' && b <= 'f' || b >= 'A' && b <= 'F')) {
+          break;
+        }
+        if (++digits > 4) {
+          return INVALID;
+        }
+        index++;
+      }
+      if (digits == 0) {
+        return INVALID;
+      }
+    }
+    return index;
+  }
+
+  /**
+   * Parses a port of 1 to 5 digits.
+   *
+   * @return the index right after the port, {@link #NEED_MORE} or {@link #INVALID}
+   */
+  private static int port(ByteBuf in, int index) {
+    int value = 0;
+    int digits = 0;
+    while (true) {
+      if (index == in.writerIndex()) {
+        return NEED_MORE;
+      }
+      byte b = in.getByte(index);
+      if (b < '0' || b > '9') {
+        break;
+      }
+      value = value * 10 + b - '0';
+      if (++digits > 5 || value > 65535) {
+        return INVALID;
+      }
+      index++;
+    }
+    return digits == 0 ? INVALID : index;
+  }
+
+  private static int expect(ByteBuf in, int index, byte[] expected) {
+    for (byte b : expected) {
+      index = expect(in, index, b);
+      if (index < 0) {
+        return index;
+      }
+    }
+    return index;
+  }
+
+  private static int expect(ByteBuf in, int index, int expected) {
+    if (index == in.writerIndex()) {
+      return NEED_MORE;
+    }
+    return in.getByte(index) == expected ? index + 1 : INVALID;
+  }
+
+  private String sourceIp(ByteBuf in) {
+    switch (sourceType) {
+      case SOURCE_TEXT:
+        return in.toString(sourceIndex, sourceLength, CharsetUtil.US_ASCII);
+      case SOURCE_INET:
+        return NetUtil.intToIpAddress(in.getInt(sourceIndex));
+      case SOURCE_INET6:
+        byte[] address = new byte[16];
+        in.getBytes(sourceIndex, address);
+        return NetUtil.bytesToIpAddress(address);
+      default:
+        return null;
+    }
+  }
+
+  private Map<Integer, byte[]> tlvs(ByteBuf in) {
+    Map<Integer, byte[]> tlvs = new LinkedHashMap<>();
+    int index = tlvIndex;
+    while (index < tlvEnd) {
+      int type = in.getUnsignedByte(index);
+      byte[] value = new byte[in.getUnsignedShort(index + 1)];
+      in.getBytes(index + 3, value);
+      tlvs.put(type, value);
+      index += 3 + value.length;
+    }
+    return Collections.unmodifiableMap(tlvs);
+  }
 
-    return new String(bytes);
+  private static byte[] ascii(String value) {
+    return value.getBytes(CharsetUtil.US_ASCII);
   }
 }
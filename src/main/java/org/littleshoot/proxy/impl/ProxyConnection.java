@@ -161,6 +161,10 @@ abstract class ProxyConnection<I extends HttpObject> extends
                 // to require authentication.
             }
             break;
+        case AUTHENTICATING:
+            LOG.warn("AUTHENTICATING should have been handled by ClientToProxyConnection.read()");
+            break;
+        case RESOLVING:
         case CONNECTING:
             LOG.warn("Attempted to read from connection that's in the process of connecting.  This shouldn't happen.");
             break;
@@ -325,14 +329,11 @@ abstract class ProxyConnection<I extends HttpObject> extends
                 if (pipeline.get("encoder") != null) {
                     pipeline.remove("encoder");
                 }
-                if (pipeline.get("responseWrittenMonitor") != null) {
-                    pipeline.remove("responseWrittenMonitor");
-                }
                 if (pipeline.get("decoder") != null) {
                     pipeline.remove("decoder");
                 }
-                if (pipeline.get("requestReadMonitor") != null) {
-                    pipeline.remove("requestReadMonitor");
+                if (pipeline.get("messageMonitor") != null) {
+                    pipeline.remove("messageMonitor");
                 }
                 tunneling = true;
                 return channel.newSucceededFuture();
@@ -675,75 +676,6 @@ abstract class ProxyConnection<I extends HttpObject> extends
      * Activity Tracking/Statistics
      **************************************************************************/
 
-    /**
-     * Utility handler for monitoring bytes read on this connection.
-     */
-    @Sharable
-    protected abstract class BytesReadMonitor extends
-            ChannelInboundHandlerAdapter {
-        @Override
-        public void channelRead(ChannelHandlerContext ctx, Object msg)
-                throws Exception {
-            try {
-                if (msg instanceof ByteBuf) {
-                    bytesRead(((ByteBuf) msg).readableBytes());
-                }
-            } catch (Throwable t) {
-                LOG.warn("Unable to record bytesRead", t);
-            } finally {
-                super.channelRead(ctx, msg);
-            }
-        }
-
-        protected abstract void bytesRead(int numberOfBytes);
-    }
-
-    /**
-     * Utility handler for monitoring requests read on this connection.
-     */
-    @Sharable
-    protected abstract class RequestReadMonitor extends
-            ChannelInboundHandlerAdapter {
-        @Override
-        public void channelRead(ChannelHandlerContext ctx, Object msg)
-                throws Exception {
-            try {
-                if (msg instanceof HttpRequest) {
-                    requestRead((HttpRequest) msg);
-                }
-            } catch (Throwable t) {
-                LOG.warn("Unable to record bytesRead", t);
-            } finally {
-                super.channelRead(ctx, msg);
-            }
-        }
-
-        protected abstract void requestRead(HttpRequest httpRequest);
-    }
-
-    /**
-     * Utility handler for monitoring responses read on this connection.
-     */
-    @Sharable
-    protected abstract class ResponseReadMonitor extends
-            ChannelInboundHandlerAdapter {
-        @Override
-        public void channelRead(ChannelHandlerContext ctx, Object msg)
-                throws Exception {
-            try {
-                if (msg instanceof HttpResponse) {
-                    responseRead((HttpResponse) msg);
-                }
-            } catch (Throwable t) {
-                LOG.warn("Unable to record bytesRead", t);
-            } finally {
-                super.channelRead(ctx, msg);
-            }
-        }
-
-        protected abstract void responseRead(HttpResponse httpResponse);
-    }
-
     @Sharable
     protected class RequestTracerHandler extends ChannelDuplexHandler {
 
@@ -846,97 +778,138 @@ abstract class ProxyConnection<I extends HttpObject> extends
 
 
     /**
-     * Utility handler for monitoring bytes written on this connection.
+     * Utility handler for monitoring the bytes read and written on this
+     * connection, placed where the pipeline carries raw {@link ByteBuf}s. The
+     * bytes read are counted per read and reported once per read batch, and the
+     * bytes written are counted per write and reported once per flush, so bytes
+     * that are never flushed are not reported.
      */
     @Sharable
-    protected abstract class BytesWrittenMonitor extends
-            ChannelOutboundHandlerAdapter {
+    protected abstract class BytesMonitor extends ChannelDuplexHandler {
+        /**
+         * Only accessed on the event loop of the connection's current channel.
+         * The handler is sharable because a connection that retries adds it to
+         * the pipeline of each new channel.
+         */
+        private int unreportedBytesRead;
+        private int unreportedBytesWritten;
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg)
+                throws Exception {
+            if (msg instanceof ByteBuf) {
+                unreportedBytesRead += ((ByteBuf) msg).readableBytes();
+            }
+            super.channelRead(ctx, msg);
+        }
+
+        @Override
+        public void channelReadComplete(ChannelHandlerContext ctx)
+                throws Exception {
+            reportBytesRead();
+            super.channelReadComplete(ctx);
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx)
+                throws Exception {
+            reportBytesRead();
+            super.channelInactive(ctx);
+        }
+
         @Override
         public void write(ChannelHandlerContext ctx,
                 Object msg, ChannelPromise promise)
                 throws Exception {
-            try {
-                if (msg instanceof ByteBuf) {
-                    bytesWritten(((ByteBuf) msg).readableBytes());
+            if (msg instanceof ByteBuf) {
+                unreportedBytesWritten += ((ByteBuf) msg).readableBytes();
+            }
+            super.write(ctx, msg, promise);
+        }
+
+        @Override
+        public void flush(ChannelHandlerContext ctx) throws Exception {
+            int numberOfBytes = unreportedBytesWritten;
+            if (numberOfBytes != 0) {
+                unreportedBytesWritten = 0;
+                try {
+                    bytesWritten(numberOfBytes);
+                } catch (Throwable t) {
+                    LOG.warn("Unable to record bytesWritten", t);
                 }
+            }
+            super.flush(ctx);
+        }
+
+        private void reportBytesRead() {
+            int numberOfBytes = unreportedBytesRead;
+            if (numberOfBytes == 0) {
+                return;
+            }
+            unreportedBytesRead = 0;
+            try {
+                bytesRead(numberOfBytes);
             } catch (Throwable t) {
                 LOG.warn("Unable to record bytesRead", t);
-            } finally {
-                super.write(ctx, msg, promise);
             }
         }
 
+        protected abstract void bytesRead(int numberOfBytes);
+
         protected abstract void bytesWritten(int numberOfBytes);
     }
 
     /**
-     * Utility handler for monitoring requests written on this connection.
+     * Utility handler for monitoring the HTTP messages read and written on
+     * this connection, placed where the pipeline carries decoded
+     * {@link HttpObject}s.
      */
     @Sharable
-    protected abstract class RequestWrittenMonitor extends
-            ChannelOutboundHandlerAdapter {
+    protected abstract class MessageMonitor extends ChannelDuplexHandler {
         @Override
-        public void write(ChannelHandlerContext ctx,
-                Object msg, ChannelPromise promise)
+        public void channelRead(ChannelHandlerContext ctx, Object msg)
                 throws Exception {
-            HttpRequest originalRequest = null;
-            if (msg instanceof HttpRequest) {
-                originalRequest = (HttpRequest) msg;
+            try {
+                if (msg instanceof HttpMessage) {
+                    messageRead((HttpMessage) msg);
+                }
+            } catch (Throwable t) {
+                LOG.warn("Unable to record messageRead", t);
+            } finally {
+                super.channelRead(ctx, msg);
             }
+        }
 
-            if (null != originalRequest) {
-                requestWriting(originalRequest);
+        @Override
+        public void write(ChannelHandlerContext ctx,
+                Object msg, ChannelPromise promise)
+                throws Exception {
+            if (msg instanceof HttpMessage) {
+                messageWriting((HttpMessage) msg);
             }
 
             super.write(ctx, msg, promise);
 
-            if (null != originalRequest) {
-                requestWritten(originalRequest);
-            }
-
             if (msg instanceof HttpContent) {
                 contentWritten((HttpContent) msg);
             }
         }
 
         /**
-         * Invoked immediately before an HttpRequest is written.
+         * Invoked when an HttpMessage has been read.
          */
-        protected abstract void requestWriting(HttpRequest httpRequest);
+        protected abstract void messageRead(HttpMessage httpMessage);
 
         /**
-         * Invoked immediately after an HttpRequest has been sent.
+         * Invoked immediately before an HttpMessage is written.
          */
-        protected abstract void requestWritten(HttpRequest httpRequest);
+        protected abstract void messageWriting(HttpMessage httpMessage);
 
         /**
-         * Invoked immediately after an HttpContent has been sent.
+         * Invoked immediately after an HttpContent has been written.
          */
-        protected abstract void contentWritten(HttpContent httpContent);
-    }
-
-    /**
-     * Utility handler for monitoring responses written on this connection.
-     */
-    @Sharable
-    protected abstract class ResponseWrittenMonitor extends
-            ChannelOutboundHandlerAdapter {
-        @Override
-        public void write(ChannelHandlerContext ctx,
-                Object msg, ChannelPromise promise)
-                throws Exception {
-            try {
-                if (msg instanceof HttpResponse) {
-                    responseWritten(((HttpResponse) msg));
-                }
-            } catch (Throwable t) {
-                LOG.warn("Error while invoking responseWritten callback", t);
-            } finally {
-                super.write(ctx, msg, promise);
-            }
+        protected void contentWritten(HttpContent httpContent) {
         }
-
-        protected abstract void responseWritten(HttpResponse httpResponse);
     }
 
 }
@@ -3,14 +3,15 @@ package org.littleshoot.proxy.impl;
 import com.google.common.collect.ImmutableList;
 import io.netty.channel.EventLoopGroup;
 import io.netty.channel.nio.NioEventLoopGroup;
-
 import io.netty.util.concurrent.EventExecutor;
 import java.nio.channels.spi.SelectorProvider;
 import java.util.List;
 
 /**
  * Encapsulates the thread pools used by the proxy. Contains the acceptor thread pool as well as the client-to-proxy and
- * proxy-to-server thread pools.
+ * proxy-to-server thread pools. The pools are created by the configured {@link EventLoopTransport}, so they are
+ * {@link NioEventLoopGroup}s only with the NIO transport; {@link #getClientToProxyAcceptorEventLoopGroup()} and the other
+ * {@code EventLoopGroup} getters work with every transport.
  */
 public class ProxyThreadPools {
     /**
@@ -18,48 +19,137 @@ public class ProxyThreadPools {
      * proxies. A different EventLoopGroup is used for each
      * TransportProtocol, since these have to be configured differently.
      */
-    private final NioEventLoopGroup clientToProxyAcceptorPool;
+    private final EventLoopGroup clientToProxyAcceptorPool;
 
     /**
      * These {@link EventLoopGroup}s process incoming requests to the
      * proxies. A different EventLoopGroup is used for each
      * TransportProtocol, since these have to be configured differently.
      */
-    private final NioEventLoopGroup clientToProxyWorkerPool;
+    private final EventLoopGroup clientToProxyWorkerPool;
 
     /**
      * These {@link EventLoopGroup}s are used for making outgoing
      * connections to servers. A different EventLoopGroup is used for each
      * TransportProtocol, since these have to be configured differently.
      */
-    private final NioEventLoopGroup proxyToServerWorkerPool;
+    private final EventLoopGroup proxyToServerWorkerPool;
+
+    /**
+     * The transport the event loops were created for. Channels registered with these event loops must be created by
+     * the same transport.
+     */
+    private final EventLoopTransport transport;
 
     public ProxyThreadPools(SelectorProvider selectorProvider, int incomingAcceptorThreads, int incomingWorkerThreads, int outgoingWorkerThreads, String serverGroupName, int serverGroupId) {
-        clientToProxyAcceptorPool = new NioEventLoopGroup(incomingAcceptorThreads, new CategorizedThreadFactory(serverGroupName, "ClientToProxyAcceptor", serverGroupId), selectorProvider);
+        this(EventLoopTransport.NIO, selectorProvider, incomingAcceptorThreads, incomingWorkerThreads, outgoingWorkerThreads, serverGroupName, serverGroupId);
+    }
+
+    public ProxyThreadPools(EventLoopTransport transport, SelectorProvider selectorProvider, int incomingAcceptorThreads, int incomingWorkerThreads, int outgoingWorkerThreads, String serverGroupName, int serverGroupId) {
+        this(transport, selectorProvider, incomingAcceptorThreads, incomingWorkerThreads, outgoingWorkerThreads, serverGroupName, serverGroupId, false);
+    }
+
+    /**
+     * Creates the thread pools, optionally with a single worker pool for both client-to-proxy and proxy-to-server
+     * connections. When the worker pool is shared, the number of outgoing worker threads is ignored.
+     */
+    public ProxyThreadPools(EventLoopTransport transport, SelectorProvider selectorProvider, int incomingAcceptorThreads, int incomingWorkerThreads, int outgoingWorkerThreads, String serverGroupName, int serverGroupId, boolean sharedWorkerPool) {
+        this.transport = transport.resolve();
+
+        clientToProxyAcceptorPool = this.transport.newEventLoopGroup(incomingAcceptorThreads, new CategorizedThreadFactory(serverGroupName, "ClientToProxyAcceptor", serverGroupId), selectorProvider, 0);
 
-        clientToProxyWorkerPool = new NioEventLoopGroup(incomingWorkerThreads, new CategorizedThreadFactory(serverGroupName, "ClientToProxyWorker", serverGroupId), selectorProvider);
-        clientToProxyWorkerPool.setIoRatio(90);
+        if (sharedWorkerPool) {
+            clientToProxyWorkerPool = this.transport.newEventLoopGroup(incomingWorkerThreads, new CategorizedThreadFactory(serverGroupName, "SharedWorker", serverGroupId), selectorProvider, 90);
+            proxyToServerWorkerPool = clientToProxyWorkerPool;
+        } else {
+            clientToProxyWorkerPool = this.transport.newEventLoopGroup(incomingWorkerThreads, new CategorizedThreadFactory(serverGroupName, "ClientToProxyWorker", serverGroupId), selectorProvider, 90);
 
-        proxyToServerWorkerPool = new NioEventLoopGroup(outgoingWorkerThreads, new CategorizedThreadFactory(serverGroupName, "ProxyToServerWorker", serverGroupId), selectorProvider);
-        proxyToServerWorkerPool.setIoRatio(90);
+            proxyToServerWorkerPool = this.transport.newEventLoopGroup(outgoingWorkerThreads, new CategorizedThreadFactory(serverGroupName, "ProxyToServerWorker", serverGroupId), selectorProvider, 90);
+        }
     }
 
     /**
      * Returns all event loops (acceptor and worker thread pools) in this pool.
      */
     public List<EventLoopGroup> getAllEventLoops() {
+        if (isWorkerPoolShared()) {
+            return ImmutableList.<EventLoopGroup>of(clientToProxyAcceptorPool, clientToProxyWorkerPool);
+        }
         return ImmutableList.<EventLoopGroup>of(clientToProxyAcceptorPool, clientToProxyWorkerPool, proxyToServerWorkerPool);
     }
 
-    public NioEventLoopGroup getClientToProxyAcceptorPool() {
+    /**
+     * @return true if client-to-proxy and proxy-to-server connections share a single worker pool
+     */
+    public boolean isWorkerPoolShared() {
+        return clientToProxyWorkerPool == proxyToServerWorkerPool;
+    }
+
+    /**
+     * @return the event loops that accept incoming connections
+     */
+    public EventLoopGroup getClientToProxyAcceptorEventLoopGroup() {
         return clientToProxyAcceptorPool;
     }
 
-    public NioEventLoopGroup getClientToProxyWorkerPool() {
+    /**
+     * @return the event loops that process incoming requests
+     */
+    public EventLoopGroup getClientToProxyWorkerEventLoopGroup() {
         return clientToProxyWorkerPool;
     }
 
-    public NioEventLoopGroup getProxyToServerWorkerPool() {
+    /**
+     * @return the event loops that make outgoing connections to servers
+     */
+    public EventLoopGroup getProxyToServerWorkerEventLoopGroup() {
         return proxyToServerWorkerPool;
     }
+
+    /**
+     * @return the event loops that accept incoming connections
+     * @throws IllegalStateException if the pools use the epoll transport
+     * @deprecated the pools are only {@link NioEventLoopGroup}s with the default {@link EventLoopTransport#NIO}
+     * transport; use {@link #getClientToProxyAcceptorEventLoopGroup()}
+     */
+    @Deprecated
+    public NioEventLoopGroup getClientToProxyAcceptorPool() {
+        return nio(clientToProxyAcceptorPool);
+    }
+
+    /**
+     * @return the event loops that process incoming requests
+     * @throws IllegalStateException if the pools use the epoll transport
+     * @deprecated the pools are only {@link NioEventLoopGroup}s with the default {@link EventLoopTransport#NIO}
+     * transport; use {@link #getClientToProxyWorkerEventLoopGroup()}
+     */
+    @Deprecated
+    public NioEventLoopGroup getClientToProxyWorkerPool() {
+        return nio(clientToProxyWorkerPool);
+    }
+
+    /**
+     * @return the event loops that make outgoing connections to servers
+     * @throws IllegalStateException if the pools use the epoll transport
+     * @deprecated the pools are only {@link NioEventLoopGroup}s with the default {@link EventLoopTransport#NIO}
+     * transport; use {@link #getProxyToServerWorkerEventLoopGroup()}
+     */
+    @Deprecated
+    public NioEventLoopGroup getProxyToServerWorkerPool() {
+        return nio(proxyToServerWorkerPool);
+    }
+
+    /**
+     * @return the transport used by these thread pools, either {@link EventLoopTransport#NIO} or {@link EventLoopTransport#EPOLL}
+     */
+    public EventLoopTransport getTransport() {
+        return transport;
+    }
+
+    private NioEventLoopGroup nio(EventLoopGroup eventLoopGroup) {
+        if (!(eventLoopGroup instanceof NioEventLoopGroup)) {
+            throw new IllegalStateException("Thread pools use the " + transport + " transport, not NIO");
+        }
+        return (NioEventLoopGroup) eventLoopGroup;
+    }
 }
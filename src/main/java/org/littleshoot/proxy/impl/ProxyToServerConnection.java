@@ -11,11 +11,12 @@ import io.netty.channel.ChannelHandler.Sharable;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelOption;
 import io.netty.channel.ChannelPipeline;
-import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.channel.EventLoop;
 import io.netty.channel.udt.nio.NioUdtProvider;
 import io.netty.handler.codec.http.FullHttpResponse;
 import io.netty.handler.codec.http.HttpContent;
 import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpMethod;
 import io.netty.handler.codec.http.HttpMessage;
 import io.netty.handler.codec.http.HttpObject;
 import io.netty.handler.codec.http.HttpObjectAggregator;
@@ -25,24 +26,30 @@ import io.netty.handler.codec.http.HttpResponse;
 import io.netty.handler.codec.http.HttpResponseDecoder;
 import io.netty.handler.codec.http.HttpResponseEncoder;
 import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpUtil;
 import io.netty.handler.codec.http.HttpVersion;
 import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.handler.ssl.SslHandler;
 import io.netty.handler.timeout.IdleStateHandler;
 import io.netty.handler.traffic.GlobalTrafficShapingHandler;
 import io.netty.util.AttributeKey;
 import io.netty.util.ReferenceCounted;
 import io.netty.util.concurrent.Future;
 import io.netty.util.concurrent.GenericFutureListener;
+import io.netty.util.concurrent.Promise;
 import org.littleshoot.proxy.ActivityTracker;
+import org.littleshoot.proxy.AsyncHostResolver;
 import org.littleshoot.proxy.ChainedProxy;
 import org.littleshoot.proxy.ChainedProxyAdapter;
 import org.littleshoot.proxy.ChainedProxyManager;
 import org.littleshoot.proxy.FullFlowContext;
 import org.littleshoot.proxy.HttpFilters;
 import org.littleshoot.proxy.MitmManager;
+import org.littleshoot.proxy.MultiAddressHostResolver;
 import org.littleshoot.proxy.ExceptionHandler;
 import org.littleshoot.proxy.TransportProtocol;
 import org.littleshoot.proxy.UnknownTransportProtocolException;
+import org.littleshoot.proxy.impl.ClientToProxyConnection.VersionedFlowContext;
 
 import javax.net.ssl.SSLEngine;
 import javax.net.ssl.SSLProtocolException;
@@ -50,6 +57,9 @@ import javax.net.ssl.SSLSession;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
+import java.nio.channels.ClosedChannelException;
+import java.util.Collections;
+import java.util.List;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.RejectedExecutionException;
@@ -60,6 +70,7 @@ import static org.littleshoot.proxy.impl.ConnectionState.AWAITING_INITIAL;
 import static org.littleshoot.proxy.impl.ConnectionState.CONNECTING;
 import static org.littleshoot.proxy.impl.ConnectionState.DISCONNECTED;
 import static org.littleshoot.proxy.impl.ConnectionState.HANDSHAKING;
+import static org.littleshoot.proxy.impl.ConnectionState.RESOLVING;
 
 /**
  * <p>
@@ -74,7 +85,7 @@ import static org.littleshoot.proxy.impl.ConnectionState.HANDSHAKING;
  * use encryption (i.e. TLS) and it may also establish an HTTP CONNECT tunnel.
  * The various steps involved in fully establishing a connection are
  * encapsulated in the property {@link #connectionFlow}, which is initialized in
- * {@link #initializeConnectionFlow()}.
+ * {@link #initializeConnectionFlow(boolean)}.
  * </p>
  */
 @Sharable
@@ -88,6 +99,11 @@ public class ProxyToServerConnection extends ProxyConnection<HttpResponse> {
     private volatile ChainedProxy chainedProxy;
     private final Queue<ChainedProxy> availableChainedProxies;
 
+    /**
+     * The context reported to {@link ActivityTracker}s, rebuilt when the client connection's version changes.
+     */
+    private volatile VersionedFlowContext<FullFlowContext> flowContext;
+
     /**
      * The filters to apply to response/chunks received from server.
      */
@@ -100,7 +116,7 @@ public class ProxyToServerConnection extends ProxyConnection<HttpResponse> {
     private volatile ConnectionFlow connectionFlow;
 
     /**
-     * Disables SNI when initializing connection flow in {@link #initializeConnectionFlow()}. This value is set to true
+     * Disables SNI when initializing connection flow in {@link #initializeConnectionFlow(boolean)}. This value is set to true
      * when retrying a connection without SNI to work around Java's SNI handling issue (see
      * {@link #connectionFailed(Throwable)}).
      */
@@ -141,6 +157,66 @@ public class ProxyToServerConnection extends ProxyConnection<HttpResponse> {
      */
     private static final int MINIMUM_RECV_BUFFER_SIZE_BYTES = 64;
 
+    /**
+     * Idle channel taken from the {@link UpstreamConnectionPool} that the next connection flow should adopt instead of
+     * opening a new connection.
+     */
+    private volatile Channel pooledChannel;
+
+    /**
+     * True while the current connection flow is running on a channel adopted from the {@link UpstreamConnectionPool}.
+     * If such a flow fails, the connection is retried once with a freshly opened channel.
+     */
+    private volatile boolean adoptedPooledChannel = false;
+
+    /**
+     * Whether this connection's channel may be handed to the {@link UpstreamConnectionPool} once the client goes away.
+     * CONNECT tunnels are never pooled.
+     */
+    private volatile boolean poolable = false;
+
+    /**
+     * True between writing a request to the server and reading the end of its response.
+     */
+    private volatile boolean awaitingResponse = false;
+
+    /**
+     * True once the whole of the current request, including its last content, has been written to the server.
+     */
+    private volatile boolean requestComplete = false;
+
+    /**
+     * True from writing the first request on a channel adopted from the {@link UpstreamConnectionPool} until the first
+     * message of its response is read. If the channel closes in between, the server most likely closed it as idle just
+     * as the request was sent, so an idempotent request is retried once on a fresh connection.
+     */
+    private volatile boolean awaitingFirstResponseOnPooledChannel = false;
+
+    /**
+     * True while the current connection flow retries a request whose pooled channel was closed by the server after the
+     * request had been written in full. The client's last content went to the closed channel, so an empty one is
+     * written again after connecting. If the request was not complete, the rest of it is still to come from the client.
+     */
+    private volatile boolean retryingCompleteRequest = false;
+
+    /**
+     * Set once the channel has been handed to the {@link UpstreamConnectionPool}, after which this connection no longer
+     * reacts to events on it.
+     */
+    private volatile boolean releasedToPool = false;
+
+    /**
+     * While the server's address has yet to be resolved, the host and port being resolved, as reported to the
+     * {@link HttpFilters}. Null once the address is known.
+     */
+    private volatile String resolvingHostAndPort;
+
+    /**
+     * All addresses the server's host resolved to, in the order the resolver prefers them, or null if the address was
+     * not resolved by this connection. When there are several, {@link #ConnectChannel} races them.
+     */
+    private volatile List<InetSocketAddress> resolvedAddresses;
+
     public static final AttributeKey<InetSocketAddress> REMOTE_ADDRESS_ATTR_KEY = AttributeKey.valueOf("remoteAddressAttrKey");
 
     /**
@@ -210,6 +286,7 @@ public class ProxyToServerConnection extends ProxyConnection<HttpResponse> {
 
     @Override
     protected void read(Object msg) {
+        awaitingFirstResponseOnPooledChannel = false;
         if (isConnecting()) {
             LOG.debug(
                     "In the middle of connecting, forwarding message to connection flow: {}",
@@ -245,6 +322,9 @@ public class ProxyToServerConnection extends ProxyConnection<HttpResponse> {
         if (ProxyUtils.isChunked(httpResponse)) {
             return AWAITING_CHUNK;
         } else {
+            if (httpResponse.getStatus().code() >= 200) {
+                awaitingResponse = false;
+            }
             currentFilters.serverToProxyResponseReceived();
 
             return AWAITING_INITIAL;
@@ -253,6 +333,9 @@ public class ProxyToServerConnection extends ProxyConnection<HttpResponse> {
 
     @Override
     protected void readHTTPChunk(HttpContent chunk) {
+        if (ProxyUtils.isLastChunk(chunk)) {
+            awaitingResponse = false;
+        }
         respondWith(chunk);
     }
 
@@ -370,6 +453,11 @@ public class ProxyToServerConnection extends ProxyConnection<HttpResponse> {
             HttpRequest httpRequest = (HttpRequest) httpObject;
             // Remember that we issued this HttpRequest for later
             currentHttpRequest = httpRequest;
+            awaitingResponse = true;
+            requestComplete = false;
+        }
+        if (httpObject instanceof LastHttpContent) {
+            requestComplete = true;
         }
         super.writeHttp(httpObject);
     }
@@ -381,7 +469,7 @@ public class ProxyToServerConnection extends ProxyConnection<HttpResponse> {
     @Override
     protected void become(ConnectionState newState) {
         // Report connection status to HttpFilters
-        if (getCurrentState() == DISCONNECTED && newState == CONNECTING) {
+        if ((getCurrentState() == DISCONNECTED || getCurrentState() == RESOLVING) && newState == CONNECTING) {
             currentFilters.proxyToServerConnectionStarted();
         } else if (getCurrentState() == CONNECTING) {
             if (newState == HANDSHAKING) {
@@ -425,6 +513,13 @@ public class ProxyToServerConnection extends ProxyConnection<HttpResponse> {
 
     @Override
     protected void disconnected() {
+        if (releasedToPool) {
+            // the channel now belongs to the upstream connection pool
+            return;
+        }
+        if (retryOnFreshConnection()) {
+            return;
+        }
         super.disconnected();
         if (this.chainedProxy != null) {
             // Let the ChainedProxy know that we disconnected
@@ -470,6 +565,65 @@ public class ProxyToServerConnection extends ProxyConnection<HttpResponse> {
         // connection, so there should not be any further action to take here.
     }
 
+    /**
+     * Retries the current request on a fresh connection if the server closed a channel adopted from the
+     * {@link UpstreamConnectionPool} after the request was written but before any of the response was read. Only
+     * idempotent requests without a body are retried, and only once.
+     *
+     * @return true if the request is being retried, false if the connection should be treated as disconnected
+     */
+    private boolean retryOnFreshConnection() {
+        if (!awaitingFirstResponseOnPooledChannel
+                || currentHttpRequest != initialRequest
+                || !isRetryable(initialRequest)) {
+            return false;
+        }
+        awaitingFirstResponseOnPooledChannel = false;
+
+        LOG.debug("Pooled connection closed before responding. Retrying with a new connection.");
+        try {
+            retryingCompleteRequest = requestComplete;
+            resetConnectionForRetry();
+            connectAndWrite(initialRequest, false);
+            return true;
+        } catch (UnknownHostException e) {
+            retryingCompleteRequest = false;
+            LOG.info("Unable to retry request on a new connection", e);
+            return false;
+        }
+    }
+
+    private static boolean isRetryable(HttpRequest request) {
+        HttpMethod method = request.getMethod();
+        boolean idempotent = HttpMethod.GET.equals(method)
+                || HttpMethod.HEAD.equals(method)
+                || HttpMethod.OPTIONS.equals(method)
+                || HttpMethod.TRACE.equals(method);
+        if (!idempotent
+                || HttpUtil.isTransferEncodingChunked(request)
+                || HttpUtil.getContentLength(request, 0L) > 0) {
+            return false;
+        }
+        // the request is written again, so it must not have been released yet
+        return !(request instanceof ReferenceCounted) || ((ReferenceCounted) request).refCnt() > 0;
+    }
+
+    /**
+     * Encrypts traffic with the server or chained proxy, and lets the proxy's {@link UpstreamTlsSessionCache} count
+     * the handshake, if it has one.
+     */
+    @Override
+    protected Future<Channel> encrypt(ChannelPipeline pipeline,
+            SSLEngine sslEngine,
+            boolean authenticateClients) {
+        Future<Channel> handshakeFuture = super.encrypt(pipeline, sslEngine, authenticateClients);
+        UpstreamTlsSessionCache tlsSessionCache = proxyServer.getUpstreamTlsSessionCache();
+        if (tlsSessionCache != null) {
+            tlsSessionCache.track(handshakeFuture, sslEngine);
+        }
+        return handshakeFuture;
+    }
+
     /***************************************************************************
      * State Management
      **************************************************************************/
@@ -543,13 +697,30 @@ public class ProxyToServerConnection extends ProxyConnection<HttpResponse> {
      * @param initialRequest the current HTTP request being handled
      */
     private void connectAndWrite(HttpRequest initialRequest) {
-        LOG.debug("Starting new connection to: {}", remoteAddress);
-
-        this.clientConnection.channel.attr(REMOTE_ADDRESS_ATTR_KEY).set(remoteAddress);
+        connectAndWrite(initialRequest, true);
+    }
 
+    /**
+     * Configures the connection to the upstream server and begins the {@link ConnectionFlow}.
+     *
+     * @param initialRequest the current HTTP request being handled
+     * @param usePool whether an idle channel from the {@link UpstreamConnectionPool} may be used
+     */
+    private void connectAndWrite(HttpRequest initialRequest, boolean usePool) {
         // Remember our initial request so that we can write it after connecting
         this.initialRequest = initialRequest;
-        initializeConnectionFlow();
+        this.poolable = !ProxyUtils.isCONNECT(initialRequest);
+
+        this.connectionFlow = new ConnectionFlow(clientConnection, this,
+                connectLock);
+
+        if (resolvingHostAndPort != null) {
+            // the rest of the flow is set up once the server's address is known
+            connectionFlow.then(ResolveServerAddress(usePool));
+        } else {
+            initializeConnectionFlow(usePool);
+        }
+
         connectionFlow.start();
     }
 
@@ -557,11 +728,28 @@ public class ProxyToServerConnection extends ProxyConnection<HttpResponse> {
      * This method initializes our {@link ConnectionFlow} based on however this connection has been configured. If
      * the {@link #disableSni} value is true, this method will not pass peer information to the MitmManager when
      * handling CONNECTs.
+     *
+     * @param usePool whether an idle channel from the {@link UpstreamConnectionPool} may be used
      */
-    private void initializeConnectionFlow() {
-        this.connectionFlow = new ConnectionFlow(clientConnection, this,
-                connectLock)
-                .then(ConnectChannel);
+    private void initializeConnectionFlow(boolean usePool) {
+        LOG.debug("Starting new connection to: {}", remoteAddress);
+
+        this.clientConnection.channel.attr(REMOTE_ADDRESS_ATTR_KEY).set(remoteAddress);
+
+        UpstreamConnectionPool pool = proxyServer.getUpstreamConnectionPool();
+        if (pool != null && poolable && usePool) {
+            // with event loop affinity, only channels on the client's own event loop may be adopted
+            this.pooledChannel = pool.acquire(poolKey(), clientConnection.channel.eventLoop(),
+                    proxyServer.isEventLoopAffinity());
+        }
+
+        if (pooledChannel != null) {
+            // a pooled channel is already connected and, if needed, encrypted with the chained proxy
+            connectionFlow.then(AdoptPooledChannel);
+            return;
+        }
+
+        connectionFlow.then(ConnectChannel);
 
         if (chainedProxy != null && chainedProxy.requiresEncryption()) {
             InetSocketAddress proxyAddress = chainedProxy.getChainedProxyAddress();
@@ -603,11 +791,94 @@ public class ProxyToServerConnection extends ProxyConnection<HttpResponse> {
             } else {
                 connectionFlow.then(serverConnection.StartTunneling)
                         .then(clientConnection.RespondCONNECTSuccessful)
-                        .then(clientConnection.StartTunneling);
+                        .then(clientConnection.StartTunneling)
+                        .then(serverConnection.StartTunnelRelay);
             }
         }
     }
 
+    /**
+     * Resolves the server's address with the proxy's {@link AsyncHostResolver}. The client stops reading until the
+     * address is known, but no thread is blocked while waiting for it. Once resolved, the remaining steps of the
+     * connection flow are added.
+     *
+     * @param usePool whether an idle channel from the {@link UpstreamConnectionPool} may be used
+     */
+    private ConnectionFlowStep ResolveServerAddress(final boolean usePool) {
+        return new ConnectionFlowStep(this, RESOLVING) {
+            @Override
+            boolean shouldExecuteOnEventLoop() {
+                return false;
+            }
+
+            @Override
+            protected Future<?> execute() {
+                final String hostAndPort = resolvingHostAndPort;
+                return resolveServerAddresses(proxyServer, remoteAddress, transportProtocol,
+                        clientConnection.channel.eventLoop())
+                        .addListener(new GenericFutureListener<Future<List<InetSocketAddress>>>() {
+                            @Override
+                            public void operationComplete(Future<List<InetSocketAddress>> future) throws Exception {
+                                if (future.isSuccess()) {
+                                    resolvedAddresses = future.getNow();
+                                    remoteAddress = resolvedAddresses.get(0);
+                                    resolvingHostAndPort = null;
+                                    currentFilters.proxyToServerResolutionSucceeded(serverHostAndPort, remoteAddress);
+                                } else {
+                                    LOG.debug("Unable to resolve {}", hostAndPort, future.cause());
+                                    currentFilters.proxyToServerResolutionFailed(hostAndPort);
+                                }
+                            }
+                        });
+            }
+
+            @Override
+            void onSuccess(ConnectionFlow flow) {
+                initializeConnectionFlow(usePool);
+                flow.advance();
+            }
+        };
+    }
+
+    /**
+     * Resolves all addresses of a server if they may be raced by {@link #ConnectChannel}, and only the preferred
+     * address otherwise. The first address of the result identifies the server's connections in the
+     * {@link UpstreamConnectionPool}.
+     *
+     * @param proxyServer the proxy whose resolver to use
+     * @param unresolvedAddress host and port of the server
+     * @param transportProtocol protocol used to connect to the server
+     * @param eventLoop event loop on which listeners of the returned future are notified
+     * @return future for the server's addresses, the preferred one first
+     */
+    static Future<List<InetSocketAddress>> resolveServerAddresses(DefaultHttpProxyServer proxyServer,
+                                                                  InetSocketAddress unresolvedAddress,
+                                                                  TransportProtocol transportProtocol,
+                                                                  EventLoop eventLoop) {
+        AsyncHostResolver resolver = proxyServer.getAsyncServerResolver();
+
+        if (resolver instanceof MultiAddressHostResolver
+                && transportProtocol == TransportProtocol.TCP
+                && proxyServer.getConnectionAttemptDelay() > 0) {
+            return ((MultiAddressHostResolver) resolver).resolveAll(unresolvedAddress.getHostString(),
+                    unresolvedAddress.getPort(), eventLoop);
+        }
+
+        final Promise<List<InetSocketAddress>> promise = eventLoop.newPromise();
+        resolver.resolve(unresolvedAddress.getHostString(), unresolvedAddress.getPort(), eventLoop)
+                .addListener(new GenericFutureListener<Future<InetSocketAddress>>() {
+                    @Override
+                    public void operationComplete(Future<InetSocketAddress> future) throws Exception {
+                        if (future.isSuccess()) {
+                            promise.trySuccess(Collections.singletonList(future.getNow()));
+                        } else {
+                            promise.tryFailure(future.cause());
+                        }
+                    }
+                });
+        return promise;
+    }
+
     /**
      * Opens the socket connection.
      */
@@ -620,15 +891,17 @@ public class ProxyToServerConnection extends ProxyConnection<HttpResponse> {
 
         @Override
         protected Future<?> execute() {
-            Bootstrap cb = new Bootstrap().group(proxyServer.getProxyToServerWorkerFor(transportProtocol));
+            Bootstrap cb = new Bootstrap().group(
+                    proxyServer.getProxyToServerWorkerFor(transportProtocol, clientConnection.channel.eventLoop()));
 
             switch (transportProtocol) {
             case TCP:
                 LOG.debug("Connecting to server with TCP");
+                final EventLoopTransport eventLoopTransport = proxyServer.getEventLoopTransportFor(transportProtocol);
                 cb.channelFactory(new ChannelFactory<Channel>() {
                     @Override
                     public Channel newChannel() {
-                        return new NioSocketChannel();
+                        return eventLoopTransport.newSocketChannel();
                     }
                 });
                 break;
@@ -641,13 +914,20 @@ public class ProxyToServerConnection extends ProxyConnection<HttpResponse> {
                 throw new UnknownTransportProtocolException(transportProtocol);
             }
 
+            cb.option(ChannelOption.CONNECT_TIMEOUT_MILLIS,
+                    proxyServer.getConnectTimeout());
+
+            if (transportProtocol == TransportProtocol.TCP
+                    && resolvedAddresses != null && resolvedAddresses.size() > 1
+                    && proxyServer.getConnectionAttemptDelay() > 0) {
+                return connectToFirstAvailableAddress(cb);
+            }
+
             cb.handler(new ChannelInitializer<Channel>() {
                 protected void initChannel(Channel ch) throws Exception {
                     initChannelPipeline(ch.pipeline(), initialRequest);
                 };
             });
-            cb.option(ChannelOption.CONNECT_TIMEOUT_MILLIS,
-                    proxyServer.getConnectTimeout());
 
             if (localAddress != null) {
                 return cb.connect(remoteAddress, localAddress);
@@ -657,6 +937,136 @@ public class ProxyToServerConnection extends ProxyConnection<HttpResponse> {
         }
     };
 
+    /**
+     * Races connection attempts to all resolved addresses of the server with a {@link HappyEyeballsConnector}. The
+     * attempts' pipelines stay empty until one of them wins, and only the winner's pipeline is initialized.
+     */
+    private Future<?> connectToFirstAvailableAddress(Bootstrap cb) {
+        cb.handler(new ChannelInitializer<Channel>() {
+            @Override
+            protected void initChannel(Channel ch) throws Exception {
+                // the pipeline is initialized once the channel has won the race
+            }
+        });
+
+        final Promise<Void> promise = clientConnection.channel.eventLoop().newPromise();
+        new HappyEyeballsConnector(cb,
+                resolvedAddresses,
+                localAddress,
+                proxyServer.getConnectionAttemptDelay(),
+                proxyServer.getAddressPenaltyTracker(),
+                clientConnection.channel.eventLoop())
+                .connect()
+                .addListener(new GenericFutureListener<Future<Channel>>() {
+                    @Override
+                    public void operationComplete(Future<Channel> future) throws Exception {
+                        if (!future.isSuccess()) {
+                            promise.tryFailure(future.cause());
+                            return;
+                        }
+
+                        final Channel winner = future.getNow();
+                        // set the channel right away, so that a failed flow is able to close it
+                        channel = winner;
+                        InetSocketAddress connectedAddress = (InetSocketAddress) winner.remoteAddress();
+                        if (connectedAddress != null) {
+                            remoteAddress = connectedAddress;
+                        }
+                        clientConnection.channel.attr(REMOTE_ADDRESS_ATTR_KEY).set(remoteAddress);
+
+                        winner.eventLoop().execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                try {
+                                    proxyServer.registerChannel(winner);
+                                    initChannelPipeline(winner.pipeline(), initialRequest);
+                                    ctx = winner.pipeline().context(serverConnection);
+
+                                    if (winner.isActive()) {
+                                        promise.setSuccess(null);
+                                    } else {
+                                        promise.setFailure(new ClosedChannelException());
+                                    }
+                                } catch (Exception e) {
+                                    promise.setFailure(e);
+                                }
+                            }
+                        });
+                    }
+                });
+        return promise;
+    }
+
+    /**
+     * Takes over an idle channel from the {@link UpstreamConnectionPool}, replacing the pool's watcher with this
+     * connection's pipeline.
+     */
+    private ConnectionFlowStep AdoptPooledChannel = new ConnectionFlowStep(this,
+            CONNECTING) {
+        @Override
+        boolean shouldExecuteOnEventLoop() {
+            return false;
+        }
+
+        @Override
+        protected Future<?> execute() {
+            final Channel adopted = pooledChannel;
+            pooledChannel = null;
+            adoptedPooledChannel = true;
+
+            // set the channel right away, so that a failed flow is able to close it
+            channel = adopted;
+
+            final Promise<Void> promise = adopted.newPromise();
+            adopted.eventLoop().execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        ChannelPipeline pipeline = adopted.pipeline();
+                        proxyServer.getUpstreamConnectionPool().detach(pipeline);
+                        initChannelPipeline(pipeline, initialRequest);
+                        ctx = pipeline.context(serverConnection);
+
+                        SslHandler sslHandler = pipeline.get(SslHandler.class);
+                        if (sslHandler != null) {
+                            sslEngine = sslHandler.engine();
+                        }
+
+                        if (adopted.isActive()) {
+                            promise.setSuccess(null);
+                        } else {
+                            promise.setFailure(new ClosedChannelException());
+                        }
+                    } catch (Exception e) {
+                        promise.setFailure(e);
+                    }
+                }
+            });
+            return promise;
+        }
+    };
+
+    /**
+     * Once both connections are tunneling, hands the relaying of raw bytes between their channels to a
+     * {@link TunnelRelay}.
+     */
+    private ConnectionFlowStep StartTunnelRelay = new ConnectionFlowStep(
+            this, NEGOTIATING_CONNECT) {
+        @Override
+        boolean shouldSuppressInitialRequest() {
+            return true;
+        }
+
+        protected Future<?> execute() {
+            try {
+                TunnelRelay.start(clientConnection, ProxyToServerConnection.this);
+                return channel.newSucceededFuture();
+            } catch (Throwable t) {
+                return channel.newFailedFuture(t);
+            }
+        }
+    };
+
     /**
      * Writes the HTTP CONNECT to the server and waits for a 200 response.
      */
@@ -774,6 +1184,18 @@ public class ProxyToServerConnection extends ProxyConnection<HttpResponse> {
      */
     protected boolean connectionFailed(Throwable cause)
             throws UnknownHostException {
+        // a pooled channel may have gone stale while it sat idle. in that case, open a fresh connection to the same
+        // upstream.
+        if (adoptedPooledChannel) {
+            LOG.debug("Failed to reuse pooled connection. Retrying with a new connection.", cause);
+
+            adoptedPooledChannel = false;
+            resetConnectionForRetry();
+            connectAndWrite(initialRequest, false);
+
+            return true;
+        }
+
         // unlike a browser, java throws an exception when receiving an unrecognized_name TLS warning, even if the server
         // sends back a valid certificate for the expected host. we can retry the connection without SNI to allow the proxy
         // to connect to these misconfigured hosts. we should only retry the connection without SNI if the connection
@@ -807,6 +1229,7 @@ public class ProxyToServerConnection extends ProxyConnection<HttpResponse> {
 
         // attempt to connect using a chained proxy, if available
         chainedProxy = availableChainedProxies.poll();
+        clientConnection.flowContextChanged();
         if (chainedProxy != null) {
             LOG.info("Retrying connecting using the next available chained proxy");
 
@@ -824,24 +1247,31 @@ public class ProxyToServerConnection extends ProxyConnection<HttpResponse> {
      * Convenience method to prepare to retry this connection. Closes the connection's channel and sets up
      * the connection again using {@link #setupConnectionParameters()}.
      *
-     * @throws UnknownHostException when {@link #setupConnectionParameters()} is unable to resolve the hostname
+     * @throws UnknownHostException when {@link #setupConnectionParameters()} is unable to parse the hostname
      */
     private void resetConnectionForRetry() throws UnknownHostException {
         // Remove ourselves as handler on the old context
-        this.ctx.pipeline().remove(this);
-        this.ctx.close();
-        this.ctx = null;
+        if (this.ctx != null) {
+            this.ctx.pipeline().remove(this);
+            this.ctx.close();
+            this.ctx = null;
+        }
 
         this.setupConnectionParameters();
     }
 
     /**
      * Set up our connection parameters based on server address and chained
-     * proxies.
+     * proxies. If the server's address still needs to be resolved, it is left
+     * unresolved and {@link #resolvingHostAndPort} is set, so that the
+     * connection flow resolves it before connecting.
      * 
-     * @throws UnknownHostException when unable to resolve the hostname to an IP address
+     * @throws UnknownHostException when unable to parse the server's host and port
      */
     private void setupConnectionParameters() throws UnknownHostException {
+        this.resolvingHostAndPort = null;
+        this.resolvedAddresses = null;
+
         if (chainedProxy != null
                 && chainedProxy != ChainedProxyAdapter.FALLBACK_TO_DIRECT_CONNECTION) {
             this.transportProtocol = chainedProxy.getTransportProtocol();
@@ -858,23 +1288,25 @@ public class ProxyToServerConnection extends ProxyConnection<HttpResponse> {
             try {
                 if (this.remoteAddress == null) {
                     hostAndPort = serverHostAndPort;
-                    this.remoteAddress = addressFor(serverHostAndPort, proxyServer);
+                    this.remoteAddress = unresolvedAddressFor(serverHostAndPort);
                 } else if (this.remoteAddress.isUnresolved()) {
                     // filter returned an unresolved address, so resolve it using the proxy server's resolver
                     hostAndPort = HostAndPort.fromParts(this.remoteAddress.getHostName(), this.remoteAddress.getPort()).toString();
-                    this.remoteAddress = proxyServer.getServerResolver().resolve(this.remoteAddress.getHostName(),
-                            this.remoteAddress.getPort());
                 }
             } catch (UnknownHostException e) {
-                // unable to resolve the hostname to an IP address. notify the filters of the failure before allowing the
+                // unable to parse the hostname and port. notify the filters of the failure before allowing the
                 // exception to bubble up.
                 this.currentFilters.proxyToServerResolutionFailed(hostAndPort);
 
                 throw e;
             }
 
-            this.currentFilters.proxyToServerResolutionSucceeded(serverHostAndPort, this.remoteAddress);
-
+            if (this.remoteAddress.isUnresolved()) {
+                // resolved without blocking by the ResolveServerAddress step of the connection flow
+                this.resolvingHostAndPort = hostAndPort;
+            } else {
+                this.currentFilters.proxyToServerResolutionSucceeded(serverHostAndPort, this.remoteAddress);
+            }
 
             this.localAddress = proxyServer.getLocalAddress();
         }
@@ -906,8 +1338,9 @@ public class ProxyToServerConnection extends ProxyConnection<HttpResponse> {
             pipeline.addLast("global-traffic-shaping", trafficHandler);
         }
 
-        pipeline.addLast("bytesReadMonitor", bytesReadMonitor);
-        pipeline.addLast("bytesWrittenMonitor", bytesWrittenMonitor);
+        if (!proxyServer.getActivityTrackers().isEmpty()) {
+            pipeline.addLast("bytesMonitor", bytesMonitor);
+        }
 
         pipeline.addLast("encoder", new TracingAwareHttpRequestEncoder());
         pipeline.addLast("decoder", new HeadAwareHttpResponseDecoder(
@@ -922,14 +1355,16 @@ public class ProxyToServerConnection extends ProxyConnection<HttpResponse> {
             aggregateContentForFiltering(pipeline, numberOfBytesToBuffer);
         }
 
-        pipeline.addLast("responseReadMonitor", responseReadMonitor);
-        pipeline.addLast("requestWrittenMonitor", requestWrittenMonitor);
+        // always added, since it also tells the filters when the request has been sent
+        pipeline.addLast("messageMonitor", messageMonitor);
 
         // Set idle timeout
-        pipeline.addLast(
-                "idle",
-                new IdleStateHandler(0, 0, proxyServer
-                        .getIdleConnectionTimeout()));
+        if (proxyServer.getIdleConnectionTimeout() > 0) {
+            pipeline.addLast(
+                    "idle",
+                    new IdleStateHandler(0, 0, proxyServer
+                            .getIdleConnectionTimeout()));
+        }
 
         if (proxyServer.getGlobalStateHandler() != null) {
             pipeline.addLast("outboundGlobalStateHandler", new OutboundGlobalStateHandler(clientConnection));
@@ -949,6 +1384,11 @@ public class ProxyToServerConnection extends ProxyConnection<HttpResponse> {
      *            the server after the connection has been established.
      */
     void connectionSucceeded(boolean shouldForwardInitialRequest) {
+        boolean adopted = adoptedPooledChannel;
+        boolean retriedCompleteRequest = retryingCompleteRequest;
+        adoptedPooledChannel = false;
+        retryingCompleteRequest = false;
+        awaitingFirstResponseOnPooledChannel = adopted && shouldForwardInitialRequest;
         become(AWAITING_INITIAL);
         if (this.chainedProxy != null) {
             // Notify the ChainedProxy that we successfully connected
@@ -964,12 +1404,58 @@ public class ProxyToServerConnection extends ProxyConnection<HttpResponse> {
         if (shouldForwardInitialRequest) {
             LOG.debug("Writing initial request: {}", initialRequest);
             write(initialRequest);
+            if (retriedCompleteRequest && !(initialRequest instanceof LastHttpContent)) {
+                // the client's last content went to the closed channel along with the request
+                write(LastHttpContent.EMPTY_LAST_CONTENT);
+            }
         } else {
             LOG.debug("Dropping initial request: {}", initialRequest);
         }
 
     }
 
+    /**
+     * Hands this connection's channel to the proxy's {@link UpstreamConnectionPool}, if there is one and the connection
+     * is idle and reusable. After a successful release, this connection is disconnected without closing the channel.
+     *
+     * @return true if the channel was released to the pool, false if the caller should disconnect as usual
+     */
+    boolean releaseToPool() {
+        UpstreamConnectionPool pool = proxyServer.getUpstreamConnectionPool();
+        Channel pooled = channel;
+        if (pool == null
+                || !poolable
+                || pooled == null
+                || !pooled.isActive()
+                || !is(AWAITING_INITIAL)
+                || awaitingResponse
+                || isTunneling()
+                || clientConnection.isMitming()
+                || (currentHttpResponse != null && !HttpHeaders.isKeepAlive(currentHttpResponse))) {
+            return false;
+        }
+
+        releasedToPool = true;
+        if (!pool.release(poolKey(), pooled)) {
+            releasedToPool = false;
+            return false;
+        }
+
+        LOG.debug("Released connection to pool: {}", pooled);
+        super.become(DISCONNECTED);
+        ctx = null;
+        channel = null;
+        clientConnection.serverDisconnected(this);
+        return true;
+    }
+
+    private UpstreamConnectionPool.PoolKey poolKey() {
+        // connections to any address of a raced host are pooled under its preferred address, which both acquire and
+        // release see
+        InetSocketAddress address = resolvedAddresses != null ? resolvedAddresses.get(0) : remoteAddress;
+        return new UpstreamConnectionPool.PoolKey(serverHostAndPort, transportProtocol, address);
+    }
+
     /**
      * Build an {@link InetSocketAddress} for the given hostAndPort.
      * 
@@ -981,6 +1467,19 @@ public class ProxyToServerConnection extends ProxyConnection<HttpResponse> {
      */
     public static InetSocketAddress addressFor(String hostAndPort, DefaultHttpProxyServer proxyServer)
             throws UnknownHostException {
+        InetSocketAddress unresolvedAddress = unresolvedAddressFor(hostAndPort);
+
+        return proxyServer.getServerResolver().resolve(unresolvedAddress.getHostString(), unresolvedAddress.getPort());
+    }
+
+    /**
+     * Build an unresolved {@link InetSocketAddress} for the given hostAndPort.
+     *
+     * @param hostAndPort String representation of the host and port
+     * @return an unresolved InetSocketAddress for the specified hostAndPort, with the port defaulting to 80
+     * @throws UnknownHostException if the input string could not be parsed into a host and port
+     */
+    static InetSocketAddress unresolvedAddressFor(String hostAndPort) throws UnknownHostException {
         HostAndPort parsedHostAndPort;
         try {
             parsedHostAndPort = HostAndPort.fromString(hostAndPort);
@@ -992,7 +1491,7 @@ public class ProxyToServerConnection extends ProxyConnection<HttpResponse> {
         String host = parsedHostAndPort.getHost();
         int port = parsedHostAndPort.getPortOrDefault(80);
 
-        return proxyServer.getServerResolver().resolve(host, port);
+        return InetSocketAddress.createUnresolved(host, port);
     }
 
     /***************************************************************************
@@ -1001,51 +1500,64 @@ public class ProxyToServerConnection extends ProxyConnection<HttpResponse> {
      * We track statistics on bytes, requests and responses by adding handlers
      * at the appropriate parts of the pipeline (see initChannelPipeline()).
      **************************************************************************/
-    private final BytesReadMonitor bytesReadMonitor = new BytesReadMonitor() {
+
+    /**
+     * @return the context of this connection, cached so that reporting activity does not allocate
+     */
+    FullFlowContext flowContext() {
+        // the version is read before the context is built, so that a change made while building it is not missed
+        int version = clientConnection.getFlowContextVersion();
+        VersionedFlowContext<FullFlowContext> cached = flowContext;
+        if (cached == null || cached.version != version) {
+            cached = new VersionedFlowContext<FullFlowContext>(new FullFlowContext(clientConnection, this), version);
+            flowContext = cached;
+        }
+        return cached.flowContext;
+    }
+
+    private final BytesMonitor bytesMonitor = new BytesMonitor() {
         @Override
         protected void bytesRead(int numberOfBytes) {
-            FullFlowContext flowContext = new FullFlowContext(clientConnection,
-                    ProxyToServerConnection.this);
+            FullFlowContext flowContext = flowContext();
             for (ActivityTracker tracker : proxyServer
                     .getActivityTrackers()) {
                 tracker.bytesReceivedFromServer(flowContext, numberOfBytes);
             }
         }
-    };
 
-    private ResponseReadMonitor responseReadMonitor = new ResponseReadMonitor() {
         @Override
-        protected void responseRead(HttpResponse httpResponse) {
-            FullFlowContext flowContext = new FullFlowContext(clientConnection,
-                    ProxyToServerConnection.this);
+        protected void bytesWritten(int numberOfBytes) {
+            FullFlowContext flowContext = flowContext();
             for (ActivityTracker tracker : proxyServer
                     .getActivityTrackers()) {
-                tracker.responseReceivedFromServer(flowContext, httpResponse);
+                tracker.bytesSentToServer(flowContext, numberOfBytes);
             }
         }
     };
 
-    private BytesWrittenMonitor bytesWrittenMonitor = new BytesWrittenMonitor() {
+    private final MessageMonitor messageMonitor = new MessageMonitor() {
         @Override
-        protected void bytesWritten(int numberOfBytes) {
-            FullFlowContext flowContext = new FullFlowContext(clientConnection,
-                    ProxyToServerConnection.this);
+        protected void messageRead(HttpMessage httpMessage) {
+            if (!(httpMessage instanceof HttpResponse)) {
+                return;
+            }
+            FullFlowContext flowContext = flowContext();
             for (ActivityTracker tracker : proxyServer
                     .getActivityTrackers()) {
-                tracker.bytesSentToServer(flowContext, numberOfBytes);
+                tracker.responseReceivedFromServer(flowContext, (HttpResponse) httpMessage);
             }
         }
-    };
 
-    private RequestWrittenMonitor requestWrittenMonitor = new RequestWrittenMonitor() {
         @Override
-        protected void requestWriting(HttpRequest httpRequest) {
-            FullFlowContext flowContext = new FullFlowContext(clientConnection,
-                    ProxyToServerConnection.this);
+        protected void messageWriting(HttpMessage httpMessage) {
+            if (!(httpMessage instanceof HttpRequest)) {
+                return;
+            }
             try {
+                FullFlowContext flowContext = flowContext();
                 for (ActivityTracker tracker : proxyServer
                         .getActivityTrackers()) {
-                    tracker.requestSentToServer(flowContext, httpRequest);
+                    tracker.requestSentToServer(flowContext, (HttpRequest) httpMessage);
                 }
             } catch (Throwable t) {
                 LOG.warn("Error while invoking ActivityTracker on request", t);
@@ -1054,10 +1566,6 @@ public class ProxyToServerConnection extends ProxyConnection<HttpResponse> {
             currentFilters.proxyToServerRequestSending();
         }
 
-        @Override
-        protected void requestWritten(HttpRequest httpRequest) {
-        }
-
         @Override
         protected void contentWritten(HttpContent httpContent) {
             if (httpContent instanceof LastHttpContent) {
@@ -67,6 +67,8 @@ public class ProxyUtils {
 
     private static final Logger LOG = LoggerFactory.getLogger(ProxyUtils.class);
 
+    private static final String LOWERCASE_TRANSFER_ENCODING_HEADER = HttpHeaders.Names.TRANSFER_ENCODING.toLowerCase(Locale.US);
+
     private static final TimeZone GMT = TimeZone.getTimeZone("GMT");
 
     /**
@@ -642,6 +644,64 @@ public class ProxyUtils {
         return response;
     }
 
+    /**
+     * Switch the de-facto standard "Proxy-Connection" header to "Connection"
+     * when we pass it along to the remote host. This is largely undocumented
+     * but seems to be what most browsers and servers expect.
+     * 
+     * @param headers
+     *            The headers to modify
+     */
+    public static void switchProxyConnectionHeader(HttpHeaders headers) {
+        String proxyConnectionKey = "Proxy-Connection";
+        if (headers.contains(proxyConnectionKey)) {
+            String header = headers.get(proxyConnectionKey);
+            headers.remove(proxyConnectionKey);
+            headers.set(HttpHeaders.Names.CONNECTION, header);
+        }
+    }
+
+    /**
+     * RFC2616 Section 14.10
+     * 
+     * HTTP/1.1 proxies MUST parse the Connection header field before a message
+     * is forwarded and, for each connection-token in this field, remove any
+     * header field(s) from the message with the same name as the
+     * connection-token.
+     * 
+     * @param headers
+     *            The headers to modify
+     */
+    public static void stripConnectionTokens(HttpHeaders headers) {
+        if (headers.contains(HttpHeaders.Names.CONNECTION)) {
+            for (String headerValue : headers.getAll(HttpHeaders.Names.CONNECTION)) {
+                for (String connectionToken : splitCommaSeparatedHeaderValues(headerValue)) {
+                    // do not strip out the Transfer-Encoding header if it is specified in the Connection header, since LittleProxy does not
+                    // normally modify the Transfer-Encoding of the message.
+                    if (!LOWERCASE_TRANSFER_ENCODING_HEADER.equals(connectionToken.toLowerCase(Locale.US))) {
+                        headers.remove(connectionToken);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes all headers that should not be forwarded. See RFC 2616 13.5.1
+     * End-to-end and Hop-by-hop Headers.
+     * 
+     * @param headers
+     *            The headers to modify
+     */
+    public static void stripHopByHopHeaders(HttpHeaders headers) {
+        Set<String> headerNames = headers.names();
+        for (String headerName : headerNames) {
+            if (shouldRemoveHopByHopHeader(headerName)) {
+                headers.remove(headerName);
+            }
+        }
+    }
+
     /**
      * Given an HttpHeaders instance, removes 'sdch' from the 'Accept-Encoding'
      * header list (if it exists) and returns the modified instance.
@@ -0,0 +1,171 @@
+package org.littleshoot.proxy.impl;
+
+import java.io.File;
+
+/**
+ * Configuration object for the proxy-wide HTTP response cache (see {@link HttpResponseCache}). Controls how much
+ * memory the cached responses may take and where their bodies are kept.
+ */
+public class ResponseCacheConfiguration {
+    /**
+     * Where the bodies of cached responses are stored. The index of the cache, including the response headers, is
+     * always kept on the heap.
+     */
+    public enum Storage {
+        /**
+         * Bodies are kept in direct (off-heap) buffers.
+         */
+        DIRECT,
+
+        /**
+         * Bodies are written to files in the storage directory and memory-mapped, so that the operating system can
+         * page them out. The files are deleted as soon as they are mapped.
+         */
+        MAPPED
+    }
+
+    /**
+     * The default total size of the cached responses, in bytes.
+     */
+    public static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+
+    /**
+     * The default size of the largest response body that is cached, in bytes.
+     */
+    public static final long DEFAULT_MAX_ENTRY_BYTES = 1024L * 1024;
+
+    /**
+     * The default maximum heuristic freshness lifetime, in milliseconds.
+     */
+    public static final long DEFAULT_MAX_HEURISTIC_FRESHNESS_MILLIS = 24L * 60 * 60 * 1000;
+
+    /**
+     * The default time a collapsed request waits for the response to the request it was collapsed into, in
+     * milliseconds.
+     */
+    public static final long DEFAULT_COLLAPSED_FORWARDING_TIMEOUT_MILLIS = 5000;
+
+    private long maxBytes = DEFAULT_MAX_BYTES;
+    private long maxEntryBytes = DEFAULT_MAX_ENTRY_BYTES;
+    private long maxHeuristicFreshnessMillis = DEFAULT_MAX_HEURISTIC_FRESHNESS_MILLIS;
+    private boolean collapsedForwarding = false;
+    private long collapsedForwardingTimeoutMillis = DEFAULT_COLLAPSED_FORWARDING_TIMEOUT_MILLIS;
+    private Storage storage = Storage.DIRECT;
+    private File storageDirectory = new File(System.getProperty("java.io.tmpdir"));
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Set the total size of the cached responses, headers and bodies. When the cache is full, the least recently used
+     * responses are evicted. The default value is {@link #DEFAULT_MAX_BYTES}.
+     *
+     * @param maxBytes maximum size of the cache
+     * @return this response cache configuration instance, for chaining
+     */
+    public ResponseCacheConfiguration withMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+        return this;
+    }
+
+    public long getMaxEntryBytes() {
+        return maxEntryBytes;
+    }
+
+    /**
+     * Set the size of the largest response body that is cached. Larger responses are passed through without being
+     * stored. The default value is {@link #DEFAULT_MAX_ENTRY_BYTES}.
+     *
+     * @param maxEntryBytes maximum size of a cached body
+     * @return this response cache configuration instance, for chaining
+     */
+    public ResponseCacheConfiguration withMaxEntryBytes(long maxEntryBytes) {
+        this.maxEntryBytes = maxEntryBytes;
+        return this;
+    }
+
+    public long getMaxHeuristicFreshnessMillis() {
+        return maxHeuristicFreshnessMillis;
+    }
+
+    /**
+     * Set the upper bound of the freshness lifetime the cache assigns to responses that carry a Last-Modified header
+     * but no explicit expiration time (RFC 7234, section 4.2.2). The heuristic lifetime is 10% of the time since the
+     * response was last modified. 0 disables heuristic freshness. The default value is
+     * {@link #DEFAULT_MAX_HEURISTIC_FRESHNESS_MILLIS}.
+     *
+     * @param maxHeuristicFreshnessMillis maximum heuristic freshness lifetime, in milliseconds
+     * @return this response cache configuration instance, for chaining
+     */
+    public ResponseCacheConfiguration withMaxHeuristicFreshnessMillis(long maxHeuristicFreshnessMillis) {
+        this.maxHeuristicFreshnessMillis = maxHeuristicFreshnessMillis;
+        return this;
+    }
+
+    public Storage getStorage() {
+        return storage;
+    }
+
+    /**
+     * Set where the bodies of cached responses are stored. The default value is {@link Storage#DIRECT}.
+     *
+     * @param storage body storage
+     * @return this response cache configuration instance, for chaining
+     */
+    public ResponseCacheConfiguration withStorage(Storage storage) {
+        this.storage = storage;
+        return this;
+    }
+
+    public File getStorageDirectory() {
+        return storageDirectory;
+    }
+
+    /**
+     * Set the directory that holds the files of memory-mapped bodies, when the storage is {@link Storage#MAPPED}. The
+     * default value is the directory named by the {@code java.io.tmpdir} system property.
+     *
+     * @param storageDirectory directory for memory-mapped bodies
+     * @return this response cache configuration instance, for chaining
+     */
+    public ResponseCacheConfiguration withStorageDirectory(File storageDirectory) {
+        this.storageDirectory = storageDirectory;
+        return this;
+    }
+
+    public boolean isCollapsedForwarding() {
+        return collapsedForwarding;
+    }
+
+    /**
+     * Enable collapsed forwarding. A GET request that misses the cache while another client's GET for the same URI
+     * is in flight to the server waits for that request's response instead of being forwarded itself. The response
+     * is sent to all waiting clients as it streams in, provided it is cacheable and matches their requests on the
+     * headers named by its Vary header; otherwise they forward their own requests. The default value is false.
+     *
+     * @param collapsedForwarding true to collapse concurrent requests for the same URI
+     * @return this response cache configuration instance, for chaining
+     */
+    public ResponseCacheConfiguration withCollapsedForwarding(boolean collapsedForwarding) {
+        this.collapsedForwarding = collapsedForwarding;
+        return this;
+    }
+
+    public long getCollapsedForwardingTimeoutMillis() {
+        return collapsedForwardingTimeoutMillis;
+    }
+
+    /**
+     * Set how long a collapsed request waits for the response to start before it is forwarded to the server after
+     * all. The default value is {@link #DEFAULT_COLLAPSED_FORWARDING_TIMEOUT_MILLIS}.
+     *
+     * @param collapsedForwardingTimeoutMillis wait timeout, in milliseconds
+     * @return this response cache configuration instance, for chaining
+     */
+    public ResponseCacheConfiguration withCollapsedForwardingTimeoutMillis(long collapsedForwardingTimeoutMillis) {
+        this.collapsedForwardingTimeoutMillis = collapsedForwardingTimeoutMillis;
+        return this;
+    }
+
+}
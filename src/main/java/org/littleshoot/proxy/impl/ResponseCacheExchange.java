@@ -0,0 +1,446 @@
+package org.littleshoot.proxy.impl;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.DefaultHttpHeaders;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpContent;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpObject;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.LastHttpContent;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <p>
+ * The {@link HttpResponseCache} handling of a single GET or HEAD request. The {@link ClientToProxyConnection} first
+ * asks for a {@link #cachedResponse() cached response}. If there is none, it tries to
+ * {@link #collapse(ClientToProxyConnection, HttpRequest, String) collapse} the request into another client's request
+ * for the same URI. Otherwise it lets the exchange {@link #prepareRequest(HttpRequest) add validators} to the request
+ * it forwards, and passes every part of the server's response through {@link #serverResponse(HttpObject)}, which
+ * stores cacheable responses, replaces a 304 (Not Modified) answering a revalidation with the cached response, and
+ * sends the response on to the collapsed requests.
+ * </p>
+ *
+ * <p>
+ * An exchange holds a reference to the cached response it selected and to the body it is recording, so it must be
+ * {@link #release() released} if it is abandoned before the response completes.
+ * </p>
+ */
+class ResponseCacheExchange {
+    /**
+     * Status codes that are cacheable by default (RFC 7231, section 6.1).
+     */
+    private static final int[] CACHEABLE_BY_DEFAULT = {200, 203, 204, 300, 301, 404, 405, 410, 414, 501};
+
+    private final HttpResponseCache cache;
+    private final String key;
+    private final HttpHeaders requestHeaders;
+    private final Map<String, String> requestCacheControl;
+    private final boolean head;
+    private final long requestTime;
+
+    // the cached response for the request, retained until it is no longer needed
+    private CachedResponse cached;
+    private boolean revalidating;
+
+    // the response being recorded for the cache, if it is cacheable; the headers are copied before they are modified
+    // for proxying
+    private HttpResponseStatus responseStatus;
+    private HttpHeaders responseHeaders;
+    private long responseTime;
+    private ByteBuf body;
+
+    // true while the body of a 304 that was replaced with the cached response is dropped
+    private boolean discardingBody;
+
+    // the collapsed requests this exchange leads, or follows
+    private volatile CollapsedForwarding collapsed;
+    private volatile CollapsedForwarding.Follower follower;
+
+    ResponseCacheExchange(HttpResponseCache cache, String key, HttpRequest request, CachedResponse cached) {
+        this.cache = cache;
+        this.key = key;
+        this.requestHeaders = new DefaultHttpHeaders().set(request.headers());
+        this.head = HttpMethod.HEAD.equals(request.method());
+        this.requestTime = cache.currentTimeMillis();
+        this.cached = cached;
+
+        Map<String, String> requestCacheControl = HttpResponseCache.parseCacheControl(request.headers());
+        if (requestCacheControl.isEmpty()
+                && request.headers().containsValue(HttpHeaderNames.PRAGMA, "no-cache", true)) {
+            // RFC 7234, section 5.4: Pragma: no-cache is only honored without Cache-Control
+            requestCacheControl = new HashMap<String, String>();
+            requestCacheControl.put("no-cache", "");
+        }
+        this.requestCacheControl = requestCacheControl;
+    }
+
+    /**
+     * Returns the response to send without contacting the server: the cached response if it is fresh enough for the
+     * request, a 304 (Not Modified) if the client's own validators match it, or a 504 (Gateway Timeout) if the client
+     * only accepts cached responses and there is none. The caller must release the response. The exchange is done if
+     * a response is returned.
+     *
+     * @return the response to send, or null if the request must be forwarded
+     */
+    FullHttpResponse cachedResponse() {
+        long now = cache.currentTimeMillis();
+        if (cached != null && isFresh(now)) {
+            cache.recordHit();
+            FullHttpResponse response = clientValidatorsMatch()
+                    ? cached.toResponse(HttpResponseStatus.NOT_MODIFIED, now, false)
+                    : cached.toResponse(cached.getStatus(), now, !head);
+            release();
+            return response;
+        }
+
+        cache.recordMiss();
+        if (requestCacheControl.containsKey("only-if-cached")) {
+            release();
+            return ProxyUtils.createFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.GATEWAY_TIMEOUT,
+                    "Gateway Timeout");
+        }
+        return null;
+    }
+
+    private boolean isFresh(long now) {
+        if (cached.noCache() || requestCacheControl.containsKey("no-cache")) {
+            return false;
+        }
+
+        long age = cached.currentAge(now);
+        long maxAge = HttpResponseCache.parseDeltaSeconds(requestCacheControl.get("max-age"));
+        if (maxAge >= 0 && age > maxAge * 1000) {
+            return false;
+        }
+
+        long freshnessLifetime = cached.freshnessLifetime();
+        long minFresh = HttpResponseCache.parseDeltaSeconds(requestCacheControl.get("min-fresh"));
+        if (minFresh >= 0) {
+            freshnessLifetime -= minFresh * 1000;
+        }
+        if (freshnessLifetime > age) {
+            return true;
+        }
+
+        // RFC 7234, section 4.2.4: a stale response may be served if the client accepts it
+        String maxStale = requestCacheControl.get("max-stale");
+        if (maxStale == null || cached.mustRevalidate()) {
+            return false;
+        }
+        return maxStale.isEmpty() || age - freshnessLifetime <= HttpResponseCache.parseDeltaSeconds(maxStale) * 1000;
+    }
+
+    /**
+     * @return true if the client's If-None-Match or If-Modified-Since header matches the cached response
+     */
+    private boolean clientValidatorsMatch() {
+        String ifNoneMatch = requestHeaders.get(HttpHeaderNames.IF_NONE_MATCH);
+        if (ifNoneMatch != null) {
+            String etag = cached.getHeaders().get(HttpHeaderNames.ETAG);
+            if (etag == null) {
+                return false;
+            }
+            for (String candidate : ProxyUtils.splitCommaSeparatedHeaderValues(ifNoneMatch)) {
+                // weak comparison (RFC 7232, section 2.3.2)
+                if ("*".equals(candidate) || weak(candidate).equals(weak(etag))) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        long ifModifiedSince = requestHeaders.getTimeMillis(HttpHeaderNames.IF_MODIFIED_SINCE, -1);
+        long lastModified = cached.getHeaders().getTimeMillis(HttpHeaderNames.LAST_MODIFIED, -1);
+        return ifModifiedSince >= 0 && lastModified >= 0 && lastModified <= ifModifiedSince;
+    }
+
+    HttpHeaders getRequestHeaders() {
+        return requestHeaders;
+    }
+
+    /**
+     * Collapses the request into the in-flight request for the same URI, if collapsed forwarding is enabled. If there
+     * is no such request, this exchange's request becomes the one later requests are collapsed into. Only called after
+     * {@link #cachedResponse()} returned null.
+     *
+     * @param connection        the client connection that sent the request
+     * @param request           the request
+     * @param serverHostAndPort the server the request is for
+     * @return true if the request was collapsed and must not be forwarded: the connection will be sent the response
+     * to the in-flight request, or be told to forward the request after all
+     */
+    boolean collapse(ClientToProxyConnection connection, HttpRequest request, String serverHostAndPort) {
+        ResponseCacheConfiguration configuration = cache.getConfiguration();
+        if (!configuration.isCollapsedForwarding() || head) {
+            return false;
+        }
+
+        CollapsedForwarding leading = new CollapsedForwarding(cache, key, this);
+        CollapsedForwarding.Follower following = null;
+        while (true) {
+            CollapsedForwarding inFlight = cache.putInFlightIfAbsent(key, leading);
+            if (inFlight == null) {
+                collapsed = leading;
+                return false;
+            }
+
+            if (following == null) {
+                FullHttpRequest copy = new DefaultFullHttpRequest(request.protocolVersion(), request.method(),
+                        request.uri(), Unpooled.EMPTY_BUFFER);
+                copy.headers().set(request.headers());
+                following = new CollapsedForwarding.Follower(connection, this, copy, serverHostAndPort);
+            }
+            if (inFlight.join(following, configuration.getCollapsedForwardingTimeoutMillis())) {
+                releaseCached();
+                collapsed = inFlight;
+                follower = following;
+                return true;
+            }
+            // the in-flight request's response already started, and it is about to be removed
+            cache.removeInFlight(key, inFlight);
+        }
+    }
+
+    /**
+     * @return true while the request waits for, or receives, the response to the request it was collapsed into
+     */
+    boolean isCollapsed() {
+        return follower != null;
+    }
+
+    /**
+     * Turns a collapsed request back into an ordinary one, when it is forwarded to the server after all.
+     */
+    void uncollapse() {
+        collapsed = null;
+        follower = null;
+    }
+
+    private static String weak(String etag) {
+        return etag.startsWith("W/") ? etag.substring(2) : etag;
+    }
+
+    /**
+     * Turns the request into a conditional request if the cached response is stale but has validators, and the client
+     * did not send validators of its own.
+     *
+     * @param request the request about to be forwarded to the server
+     */
+    void prepareRequest(HttpRequest request) {
+        if (cached != null && cached.hasValidators() && !head && !hasConditionalHeaders(request.headers())) {
+            HttpHeaders cachedHeaders = cached.getHeaders();
+            if (cachedHeaders.contains(HttpHeaderNames.ETAG)) {
+                request.headers().set(HttpHeaderNames.IF_NONE_MATCH, cachedHeaders.get(HttpHeaderNames.ETAG));
+            }
+            if (cachedHeaders.contains(HttpHeaderNames.LAST_MODIFIED)) {
+                request.headers().set(HttpHeaderNames.IF_MODIFIED_SINCE,
+                        cachedHeaders.get(HttpHeaderNames.LAST_MODIFIED));
+            }
+            revalidating = true;
+            cache.recordRevalidation();
+        } else {
+            releaseCached();
+        }
+    }
+
+    private static boolean hasConditionalHeaders(HttpHeaders headers) {
+        return headers.contains(HttpHeaderNames.IF_NONE_MATCH)
+                || headers.contains(HttpHeaderNames.IF_MODIFIED_SINCE)
+                || headers.contains(HttpHeaderNames.IF_MATCH)
+                || headers.contains(HttpHeaderNames.IF_UNMODIFIED_SINCE)
+                || headers.contains(HttpHeaderNames.IF_RANGE);
+    }
+
+    /**
+     * Processes a part of the server's response before it is sent to the client.
+     *
+     * @param httpObject the response, or a part of its body
+     * @return the object to send to the client instead: {@code httpObject} itself, the cached response (a new object,
+     * which the caller must release) if {@code httpObject} is a 304 (Not Modified) that answers a revalidation, or null
+     * if it must be dropped because it is part of the body of such a 304
+     */
+    HttpObject serverResponse(HttpObject httpObject) {
+        if (discardingBody) {
+            return null;
+        }
+
+        if (httpObject instanceof HttpResponse) {
+            HttpResponse serverResponse = (HttpResponse) httpObject;
+            long now = cache.currentTimeMillis();
+
+            if (revalidating && serverResponse.status().code() == HttpResponseStatus.NOT_MODIFIED.code()) {
+                cache.recordRevalidatedHit();
+                CachedResponse freshened = cached.freshen(serverResponse.headers(), requestTime, now,
+                        cache.getConfiguration().getMaxHeuristicFreshnessMillis());
+                // the response is created before the freshened entry is stored, since it may be evicted right away
+                FullHttpResponse fromCache = freshened.toResponse(freshened.getStatus(), now, true);
+                cache.store(key, freshened);
+                releaseCached();
+                discardingBody = !(httpObject instanceof LastHttpContent);
+                forwardToCollapsed(fromCache, fromCache, true);
+                return fromCache;
+            }
+
+            releaseCached();
+            boolean cacheable = !head && isCacheable(serverResponse);
+            if (cacheable
+                    && HttpUtil.getContentLength(serverResponse, 0L) <= cache.getConfiguration().getMaxEntryBytes()) {
+                responseStatus = serverResponse.status();
+                responseHeaders = new DefaultHttpHeaders().set(serverResponse.headers());
+                responseTime = now;
+                body = Unpooled.directBuffer(256);
+            }
+            forwardToCollapsed(serverResponse, httpObject, cacheable);
+        } else {
+            forwardToCollapsed(null, httpObject, false);
+        }
+
+        if (body != null && httpObject instanceof HttpContent) {
+            ByteBuf content = ((HttpContent) httpObject).content();
+            if (body.readableBytes() + content.readableBytes() > cache.getConfiguration().getMaxEntryBytes()) {
+                body.release();
+                body = null;
+                responseHeaders = null;
+            } else {
+                body.writeBytes(content, content.readerIndex(), content.readableBytes());
+                if (httpObject instanceof LastHttpContent) {
+                    commit();
+                }
+            }
+        }
+        return httpObject;
+    }
+
+    /**
+     * Sends a part of the server's response to the requests collapsed into this exchange's request, if it leads any.
+     *
+     * @param response   the response, if {@code httpObject} starts it
+     * @param httpObject the part of the response
+     * @param shared     true if the response may be sent to other clients
+     */
+    private void forwardToCollapsed(HttpResponse response, HttpObject httpObject, boolean shared) {
+        CollapsedForwarding leading = collapsed;
+        if (leading == null || follower != null) {
+            return;
+        }
+        if (response != null) {
+            leading.start(response, shared);
+            if (!shared) {
+                collapsed = null;
+                return;
+            }
+        }
+        leading.forward(httpObject);
+        if (ProxyUtils.isLastChunk(httpObject)) {
+            collapsed = null;
+        }
+    }
+
+    /**
+     * Decides whether a response may be stored, following RFC 7234, section 3. The size of its body is not checked.
+     */
+    private boolean isCacheable(HttpResponse response) {
+        HttpHeaders headers = response.headers();
+        Map<String, String> cacheControl = HttpResponseCache.parseCacheControl(headers);
+        if (requestCacheControl.containsKey("no-store")
+                || cacheControl.containsKey("no-store")
+                || cacheControl.containsKey("private")
+                || headers.contains(HttpHeaderNames.SET_COOKIE)
+                || headers.contains(HttpHeaderNames.VARY, "*", false)) {
+            return false;
+        }
+
+        boolean explicitFreshness = cacheControl.containsKey("max-age") || cacheControl.containsKey("s-maxage")
+                || headers.contains(HttpHeaderNames.EXPIRES);
+        if (requestHeaders.contains(HttpHeaderNames.AUTHORIZATION)
+                && !cacheControl.containsKey("public") && !cacheControl.containsKey("s-maxage")
+                && !cacheControl.containsKey("must-revalidate")) {
+            // RFC 7234, section 3.2
+            return false;
+        }
+
+        int status = response.status().code();
+        boolean cacheableByDefault = false;
+        for (int code : CACHEABLE_BY_DEFAULT) {
+            cacheableByDefault |= code == status;
+        }
+        if (!cacheableByDefault && !(explicitFreshness && status != HttpResponseStatus.PARTIAL_CONTENT.code())) {
+            return false;
+        }
+        if (!explicitFreshness && !headers.contains(HttpHeaderNames.ETAG)
+                && !headers.contains(HttpHeaderNames.LAST_MODIFIED)) {
+            // it would be stale right away, and could not be revalidated
+            return false;
+        }
+        return true;
+    }
+
+    private void commit() {
+        HttpHeaders headers = responseHeaders;
+        for (String connectionToken : headers.getAll(HttpHeaderNames.CONNECTION)) {
+            for (String name : ProxyUtils.splitCommaSeparatedHeaderValues(connectionToken)) {
+                headers.remove(name);
+            }
+        }
+        for (String name : new ArrayList<String>(headers.names())) {
+            if (ProxyUtils.shouldRemoveHopByHopHeader(name)) {
+                headers.remove(name);
+            }
+        }
+        headers.remove(HttpHeaderNames.TRANSFER_ENCODING);
+        headers.set(HttpHeaderNames.CONTENT_LENGTH, body.readableBytes());
+
+        ByteBuf stored = cache.storeBody(body);
+        body = null;
+        if (stored == null) {
+            return;
+        }
+        cache.store(key, new CachedResponse(responseStatus, headers, stored,
+                HttpResponseCache.varyValues(headers, requestHeaders), requestTime, responseTime,
+                cache.getConfiguration().getMaxHeuristicFreshnessMillis()));
+        responseHeaders = null;
+    }
+
+    private void releaseCached() {
+        if (cached != null) {
+            cached.release();
+            cached = null;
+        }
+    }
+
+    /**
+     * Releases the cached response and the recorded body, if the exchange still holds them. If the exchange leads
+     * collapsed requests, they are told to forward their own requests, or disconnected if they are already receiving
+     * the response; if it follows an in-flight request, it stops waiting for it.
+     */
+    void release() {
+        CollapsedForwarding collapsedForwarding = collapsed;
+        if (collapsedForwarding != null) {
+            collapsed = null;
+            if (follower != null) {
+                collapsedForwarding.leave(follower);
+            } else {
+                collapsedForwarding.abort();
+            }
+        }
+        releaseCached();
+        if (body != null) {
+            body.release();
+            body = null;
+        }
+        responseHeaders = null;
+    }
+}
@@ -13,6 +13,7 @@ import java.nio.channels.spi.SelectorProvider;
 import java.util.ArrayList;
 import java.util.EnumMap;
 import java.util.List;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -62,6 +63,17 @@ public class ServerGroup {
     private final int incomingWorkerThreads;
     private final int outgoingWorkerThreads;
 
+    /**
+     * The transport used for TCP. UDT always uses NIO, since it is implemented on top of a NIO selector provider.
+     */
+    private final EventLoopTransport tcpTransport;
+
+    /**
+     * When true, client-to-proxy and proxy-to-server connections share a single worker pool, and upstream channels are
+     * registered on the event loop of their client channel.
+     */
+    private final boolean eventLoopAffinity;
+
     /**
      * List of all servers registered to use this ServerGroup. Any access to this list should be synchronized using the
      * {@link #SERVER_REGISTRATION_LOCK}.
@@ -109,12 +121,48 @@ public class ServerGroup {
      */
     public ServerGroup(String name, int incomingAcceptorThreads, int incomingWorkerThreads, int outgoingWorkerThreads,
         ProxyThreadPoolsObserver proxyThreadPoolsObserver) {
+        this(name, incomingAcceptorThreads, incomingWorkerThreads, outgoingWorkerThreads, proxyThreadPoolsObserver, EventLoopTransport.NIO);
+    }
+
+    /**
+     * Creates a new ServerGroup instance for a proxy, using the specified transport for TCP event loops and channels.
+     * If the transport is not available on this platform, NIO is used instead.
+     *
+     * @param name ServerGroup name to include in thread names
+     * @param incomingAcceptorThreads number of acceptor threads per protocol
+     * @param incomingWorkerThreads number of client-to-proxy worker threads per protocol
+     * @param outgoingWorkerThreads number of proxy-to-server worker threads per protocol
+     * @param proxyThreadPoolsObserver monitoring instance for thread pools
+     * @param transport transport to use for TCP
+     */
+    public ServerGroup(String name, int incomingAcceptorThreads, int incomingWorkerThreads, int outgoingWorkerThreads,
+        ProxyThreadPoolsObserver proxyThreadPoolsObserver, EventLoopTransport transport) {
+        this(name, incomingAcceptorThreads, incomingWorkerThreads, outgoingWorkerThreads, proxyThreadPoolsObserver, transport, false);
+    }
+
+    /**
+     * Creates a new ServerGroup instance for a proxy, optionally with event loop affinity. With event loop affinity,
+     * each protocol has a single worker pool of <code>incomingWorkerThreads</code> threads, shared by client-to-proxy
+     * and proxy-to-server connections, and <code>outgoingWorkerThreads</code> is ignored.
+     *
+     * @param name ServerGroup name to include in thread names
+     * @param incomingAcceptorThreads number of acceptor threads per protocol
+     * @param incomingWorkerThreads number of client-to-proxy worker threads per protocol
+     * @param outgoingWorkerThreads number of proxy-to-server worker threads per protocol
+     * @param proxyThreadPoolsObserver monitoring instance for thread pools
+     * @param transport transport to use for TCP
+     * @param eventLoopAffinity when true, use a single shared worker pool per protocol
+     */
+    public ServerGroup(String name, int incomingAcceptorThreads, int incomingWorkerThreads, int outgoingWorkerThreads,
+        ProxyThreadPoolsObserver proxyThreadPoolsObserver, EventLoopTransport transport, boolean eventLoopAffinity) {
         this.name = name;
         this.serverGroupId = serverGroupCount.getAndIncrement();
         this.incomingAcceptorThreads = incomingAcceptorThreads;
         this.incomingWorkerThreads = incomingWorkerThreads;
         this.outgoingWorkerThreads = outgoingWorkerThreads;
         this.proxyThreadPoolsObserver = proxyThreadPoolsObserver;
+        this.tcpTransport = transport.resolve();
+        this.eventLoopAffinity = eventLoopAffinity;
     }
 
     /**
@@ -138,20 +186,22 @@ public class ServerGroup {
         if (protocolThreadPools.get(protocol) == null) {
             synchronized (THREAD_POOL_INIT_LOCK) {
                 if (protocolThreadPools.get(protocol) == null) {
-                    log.debug("Initializing thread pools for {} with {} acceptor threads, {} incoming worker threads, and {} outgoing worker threads",
-                            protocol, incomingAcceptorThreads, incomingWorkerThreads, outgoingWorkerThreads);
+                    log.debug("Initializing {} thread pools for {} with {} acceptor threads, {} incoming worker threads, and {} outgoing worker threads",
+                            getTransportForProtocol(protocol), protocol, incomingAcceptorThreads, incomingWorkerThreads, outgoingWorkerThreads);
 
                     SelectorProvider selectorProvider = TRANSPORT_PROTOCOL_SELECTOR_PROVIDERS.get(protocol);
                     if (selectorProvider == null) {
                         throw new UnknownTransportProtocolException(protocol);
                     }
 
-                    ProxyThreadPools threadPools = new ProxyThreadPools(selectorProvider,
+                    ProxyThreadPools threadPools = new ProxyThreadPools(getTransportForProtocol(protocol),
+                            selectorProvider,
                             incomingAcceptorThreads,
                             incomingWorkerThreads,
                             outgoingWorkerThreads,
                             name,
-                            serverGroupId);
+                            serverGroupId,
+                            eventLoopAffinity);
                     proxyThreadPoolsObserver.observe(protocol, threadPools);
                     protocolThreadPools.put(protocol, threadPools);
                 }
@@ -161,6 +211,15 @@ public class ServerGroup {
         return protocolThreadPools.get(protocol);
     }
 
+    /**
+     * Creates a factory for threads of the given category, named like the event loop threads of this server group.
+     *
+     * @param category the type of threads the factory creates
+     */
+    ThreadFactory newThreadFactory(String category) {
+        return new CategorizedThreadFactory(name, category, serverGroupId);
+    }
+
     /**
      * Lock controlling access to the {@link #registerProxyServer(HttpProxyServer)} and {@link #unregisterProxyServer(HttpProxyServer, boolean)}
      * methods.
@@ -258,7 +317,7 @@ public class ServerGroup {
      * @return the client-to-proxy acceptor thread pool
      */
     public EventLoopGroup getClientToProxyAcceptorPoolForTransport(TransportProtocol protocol) {
-        return getThreadPoolsForProtocol(protocol).getClientToProxyAcceptorPool();
+        return getThreadPoolsForProtocol(protocol).getClientToProxyAcceptorEventLoopGroup();
     }
 
     /**
@@ -271,7 +330,7 @@ public class ServerGroup {
      * @return the client-to-proxy worker thread pool
      */
     public EventLoopGroup getClientToProxyWorkerPoolForTransport(TransportProtocol protocol) {
-        return getThreadPoolsForProtocol(protocol).getClientToProxyWorkerPool();
+        return getThreadPoolsForProtocol(protocol).getClientToProxyWorkerEventLoopGroup();
     }
 
     /**
@@ -284,7 +343,29 @@ public class ServerGroup {
      * @return the proxy-to-server worker thread pool
      */
     public EventLoopGroup getProxyToServerWorkerPoolForTransport(TransportProtocol protocol) {
-        return getThreadPoolsForProtocol(protocol).getProxyToServerWorkerPool();
+        return getThreadPoolsForProtocol(protocol).getProxyToServerWorkerEventLoopGroup();
+    }
+
+    /**
+     * Retrieves the transport used for event loops and channels of the specified protocol. Channels must be created
+     * by this transport in order to be registered with the thread pools for the protocol.
+     *
+     * @param protocol transport protocol to retrieve the transport for
+     * @return {@link EventLoopTransport#NIO} or {@link EventLoopTransport#EPOLL}
+     */
+    public EventLoopTransport getTransportForProtocol(TransportProtocol protocol) {
+        if (protocol == TransportProtocol.TCP) {
+            return tcpTransport;
+        }
+        return EventLoopTransport.NIO;
+    }
+
+    /**
+     * @return true if client-to-proxy and proxy-to-server connections share a worker pool, so that upstream channels
+     * can be registered on the event loop of their client channel
+     */
+    public boolean isEventLoopAffinity() {
+        return eventLoopAffinity;
     }
 
     /**
@@ -8,6 +8,8 @@ public class ThreadPoolConfiguration {
     private int acceptorThreads = ServerGroup.DEFAULT_INCOMING_ACCEPTOR_THREADS;
     private int clientToProxyWorkerThreads = ServerGroup.DEFAULT_INCOMING_WORKER_THREADS;
     private int proxyToServerWorkerThreads = ServerGroup.DEFAULT_OUTGOING_WORKER_THREADS;
+    private EventLoopTransport transport = EventLoopTransport.NIO;
+    private boolean eventLoopAffinity = false;
 
     public int getClientToProxyWorkerThreads() {
         return clientToProxyWorkerThreads;
@@ -59,4 +61,41 @@ public class ThreadPoolConfiguration {
         return this;
     }
 
+    public EventLoopTransport getTransport() {
+        return transport;
+    }
+
+    /**
+     * Set the Netty transport used for TCP event loops and channels. {@link EventLoopTransport#EPOLL} uses the native
+     * epoll transport on Linux, and {@link EventLoopTransport#AUTO} uses it whenever it is available. When the native
+     * library cannot be loaded, the proxy falls back to NIO. UDT always uses NIO. The default value is
+     * {@link EventLoopTransport#NIO}. With the epoll transport, the deprecated {@code NioEventLoopGroup} getters of the
+     * {@link ProxyThreadPools} passed to a thread pool observer throw; use their {@code EventLoopGroup} counterparts.
+     *
+     * @param transport transport to use for TCP event loops and channels
+     * @return this thread pool configuration instance, for chaining
+     */
+    public ThreadPoolConfiguration withTransport(EventLoopTransport transport) {
+        this.transport = transport;
+        return this;
+    }
+
+    public boolean isEventLoopAffinity() {
+        return eventLoopAffinity;
+    }
+
+    /**
+     * Enable event loop affinity. Client-to-proxy and proxy-to-server connections then share a single pool of
+     * {@link #getClientToProxyWorkerThreads()} worker threads, and each upstream channel is registered on the same
+     * event loop as the client channel it serves, so requests and responses never cross threads. The number of
+     * proxy-to-server worker threads is ignored. The default value is false.
+     *
+     * @param eventLoopAffinity true to register upstream channels on the event loop of their client channel
+     * @return this thread pool configuration instance, for chaining
+     */
+    public ThreadPoolConfiguration withEventLoopAffinity(boolean eventLoopAffinity) {
+        this.eventLoopAffinity = eventLoopAffinity;
+        return this;
+    }
+
 }
@@ -0,0 +1,54 @@
+package org.littleshoot.proxy.impl;
+
+/**
+ * Configuration object for the resumption of TLS sessions with servers and chained proxies (see
+ * {@link UpstreamTlsSessionCache}). Controls how many sessions are kept around, and for how long.
+ */
+public class TlsSessionCacheConfiguration {
+    /**
+     * The default number of sessions kept by the client session cache of each SSLContext.
+     */
+    public static final int DEFAULT_MAX_SESSIONS = 10000;
+
+    /**
+     * The default time after which a cached session is no longer resumed, in seconds.
+     */
+    public static final int DEFAULT_SESSION_LIFETIME_SECONDS = 3600;
+
+    private int maxSessions = DEFAULT_MAX_SESSIONS;
+    private int sessionLifetimeSeconds = DEFAULT_SESSION_LIFETIME_SECONDS;
+
+    public int getMaxSessions() {
+        return maxSessions;
+    }
+
+    /**
+     * Set the maximum number of sessions to keep in the client session cache of each SSLContext that upstream
+     * connections are encrypted with. When a cache is full, its least recently used session is dropped. The default
+     * value is {@link #DEFAULT_MAX_SESSIONS}.
+     *
+     * @param maxSessions maximum number of cached sessions, or 0 for no limit
+     * @return this TLS session cache configuration instance, for chaining
+     */
+    public TlsSessionCacheConfiguration withMaxSessions(int maxSessions) {
+        this.maxSessions = maxSessions;
+        return this;
+    }
+
+    public int getSessionLifetimeSeconds() {
+        return sessionLifetimeSeconds;
+    }
+
+    /**
+     * Set the time after which a cached session is no longer resumed, in seconds, counted from the full handshake that
+     * created it. The default value is {@link #DEFAULT_SESSION_LIFETIME_SECONDS}.
+     *
+     * @param sessionLifetimeSeconds lifetime of cached sessions, or 0 for no limit
+     * @return this TLS session cache configuration instance, for chaining
+     */
+    public TlsSessionCacheConfiguration withSessionLifetimeSeconds(int sessionLifetimeSeconds) {
+        this.sessionLifetimeSeconds = sessionLifetimeSeconds;
+        return this;
+    }
+
+}
@@ -0,0 +1,281 @@
+package org.littleshoot.proxy.impl;
+
+import com.google.common.collect.ImmutableSet;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.epoll.EpollMode;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.GenericFutureListener;
+import org.littleshoot.proxy.ActivityTracker;
+import org.littleshoot.proxy.FullFlowContext;
+import org.littleshoot.proxy.GlobalStateHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * <p>
+ * Relays the raw bytes of an established CONNECT tunnel between a client channel and a server channel. When the relay
+ * starts, everything but the SSL, traffic shaping and idle handlers is stripped from both pipelines, and each
+ * {@link ByteBuf} read on one channel is written straight to the other, without passing through the
+ * {@link ProxyConnection}s. Writes are flushed once per read batch, and reading from a channel stops while its peer
+ * is not writable.
+ * </p>
+ *
+ * <p>
+ * Bytes are counted per read and reported to the {@link ActivityTracker}s once per read batch. Lifecycle events still
+ * reach the {@link ProxyConnection}s, so disconnects and idle timeouts are handled as before.
+ * </p>
+ *
+ * <p>
+ * If {@link DefaultHttpProxyServer#isSpliceTunnels()} is enabled and both channels are epoll channels on the same event
+ * loop with nothing in between that needs to see the bytes, the tunnel is spliced in the kernel instead.
+ * </p>
+ */
+class TunnelRelay extends ChannelInboundHandlerAdapter {
+    private static final Logger LOG = LoggerFactory.getLogger(TunnelRelay.class);
+
+    static final String HANDLER_NAME = "tunnelRelay";
+
+    /**
+     * Handlers that are kept in the pipelines of a relayed tunnel.
+     */
+    private static final Set<String> RETAINED_HANDLERS = ImmutableSet.of(
+            "ssl", "sslWithServer", "global-traffic-shaping", "idle", "handler");
+
+    private final ClientToProxyConnection clientConnection;
+    private final ProxyToServerConnection serverConnection;
+
+    /**
+     * True if this relay reads from the client channel and writes to the server channel.
+     */
+    private final boolean fromClient;
+    private final ProxyConnection<?> source;
+    private final Channel destination;
+
+    /**
+     * Only accessed on the source channel's event loop.
+     */
+    private int unreportedBytes;
+    private boolean readInBatch;
+
+    private TunnelRelay(ClientToProxyConnection clientConnection, ProxyToServerConnection serverConnection, boolean fromClient) {
+        this.clientConnection = clientConnection;
+        this.serverConnection = serverConnection;
+        this.fromClient = fromClient;
+        this.source = fromClient ? clientConnection : serverConnection;
+        this.destination = fromClient ? serverConnection.channel : clientConnection.channel;
+    }
+
+    /**
+     * Starts relaying between the channels of the given connections. Must be called on the event loop of one of the
+     * two channels; the other channel's pipeline is modified on its own event loop.
+     */
+    static void start(final ClientToProxyConnection clientConnection, final ProxyToServerConnection serverConnection) {
+        final Channel clientChannel = clientConnection.channel;
+        final Channel serverChannel = serverConnection.channel;
+
+        if (clientChannel.eventLoop() == serverChannel.eventLoop()) {
+            new TunnelRelay(clientConnection, serverConnection, true).install(clientChannel.pipeline());
+            new TunnelRelay(clientConnection, serverConnection, false).install(serverChannel.pipeline());
+
+            if (clientConnection.proxyServer.isSpliceTunnels()) {
+                trySplice(clientConnection, serverConnection);
+            }
+            return;
+        }
+
+        runOnEventLoop(clientChannel, new Runnable() {
+            @Override
+            public void run() {
+                new TunnelRelay(clientConnection, serverConnection, true).install(clientChannel.pipeline());
+            }
+        });
+        runOnEventLoop(serverChannel, new Runnable() {
+            @Override
+            public void run() {
+                new TunnelRelay(clientConnection, serverConnection, false).install(serverChannel.pipeline());
+            }
+        });
+    }
+
+    private void install(ChannelPipeline pipeline) {
+        if (pipeline.get("handler") == null) {
+            // the channel has already been closed and torn down
+            return;
+        }
+
+        List<String> names = new ArrayList<String>(pipeline.toMap().keySet());
+        for (String name : names) {
+            if (!RETAINED_HANDLERS.contains(name) && pipeline.get(name) != null) {
+                pipeline.remove(name);
+            }
+        }
+        pipeline.addBefore("handler", HANDLER_NAME, this);
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (!(msg instanceof ByteBuf)) {
+            ctx.fireChannelRead(msg);
+            return;
+        }
+
+        unreportedBytes += ((ByteBuf) msg).readableBytes();
+        readInBatch = true;
+        destination.write(msg, destination.voidPromise());
+
+        if (!destination.isWritable()) {
+            // stop reading until the destination drains; see channelWritabilityChanged() on the destination's relay
+            destination.flush();
+            ctx.channel().config().setAutoRead(false);
+        }
+    }
+
+    @Override
+    public void channelReadComplete(ChannelHandlerContext ctx) throws Exception {
+        if (readInBatch) {
+            readInBatch = false;
+            destination.flush();
+            source.lastReadTime = System.currentTimeMillis();
+            reportBytes();
+        }
+        ctx.fireChannelReadComplete();
+    }
+
+    /**
+     * This channel is the destination of the opposite relay, so its writability controls reading from the peer.
+     */
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        destination.config().setAutoRead(ctx.channel().isWritable());
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        reportBytes();
+
+        GlobalStateHandler globalStateHandler = clientConnection.proxyServer.getGlobalStateHandler();
+        if (globalStateHandler == null) {
+            ctx.fireChannelInactive();
+            return;
+        }
+
+        try {
+            globalStateHandler.restoreFromChannel(clientConnection.channel);
+            ctx.fireChannelInactive();
+        } finally {
+            globalStateHandler.clear();
+        }
+    }
+
+    private void reportBytes() {
+        int numberOfBytes = unreportedBytes;
+        if (numberOfBytes == 0) {
+            return;
+        }
+        unreportedBytes = 0;
+
+        Collection<ActivityTracker> activityTrackers = clientConnection.proxyServer.getActivityTrackers();
+        if (activityTrackers.isEmpty()) {
+            return;
+        }
+
+        GlobalStateHandler globalStateHandler = clientConnection.proxyServer.getGlobalStateHandler();
+        try {
+            if (globalStateHandler != null) {
+                globalStateHandler.restoreFromChannel(clientConnection.channel);
+            }
+
+            FullFlowContext flowContext = serverConnection.flowContext();
+            for (ActivityTracker tracker : activityTrackers) {
+                if (fromClient) {
+                    tracker.bytesReceivedFromClient(flowContext, numberOfBytes);
+                    tracker.bytesSentToServer(flowContext, numberOfBytes);
+                } else {
+                    tracker.bytesReceivedFromServer(flowContext, numberOfBytes);
+                    tracker.bytesSentToClient(flowContext, numberOfBytes);
+                }
+            }
+        } catch (Throwable t) {
+            LOG.warn("Unable to report tunneled bytes to activity trackers", t);
+        } finally {
+            if (globalStateHandler != null) {
+                globalStateHandler.clear();
+            }
+        }
+    }
+
+    /**
+     * Splices both directions of the tunnel in the kernel, if both channels are epoll channels on the same event loop
+     * and no handler or tracker needs to see the bytes.
+     *
+     * @return true if the tunnel is being spliced
+     */
+    private static boolean trySplice(ClientToProxyConnection clientConnection, ProxyToServerConnection serverConnection) {
+        if (!(clientConnection.channel instanceof EpollSocketChannel)
+                || !(serverConnection.channel instanceof EpollSocketChannel)
+                || !clientConnection.proxyServer.getActivityTrackers().isEmpty()) {
+            return false;
+        }
+
+        final EpollSocketChannel clientChannel = (EpollSocketChannel) clientConnection.channel;
+        final EpollSocketChannel serverChannel = (EpollSocketChannel) serverConnection.channel;
+        for (ChannelPipeline pipeline : new ChannelPipeline[]{clientChannel.pipeline(), serverChannel.pipeline()}) {
+            if (pipeline.get("ssl") != null
+                    || pipeline.get("sslWithServer") != null
+                    || pipeline.get("global-traffic-shaping") != null) {
+                return false;
+            }
+        }
+
+        try {
+            clientChannel.config().setEpollMode(EpollMode.LEVEL_TRIGGERED);
+            serverChannel.config().setEpollMode(EpollMode.LEVEL_TRIGGERED);
+
+            GenericFutureListener<Future<? super Void>> closeOnFailure = new GenericFutureListener<Future<? super Void>>() {
+                @Override
+                public void operationComplete(Future<? super Void> future) throws Exception {
+                    if (!future.isSuccess()) {
+                        LOG.debug("Splicing ended", future.cause());
+                        clientChannel.close();
+                        serverChannel.close();
+                    }
+                }
+            };
+            clientChannel.spliceTo(serverChannel, Integer.MAX_VALUE).addListener(closeOnFailure);
+            serverChannel.spliceTo(clientChannel, Integer.MAX_VALUE).addListener(closeOnFailure);
+        } catch (RuntimeException e) {
+            LOG.warn("Unable to splice tunnel, closing it", e);
+            clientChannel.close();
+            serverChannel.close();
+            return false;
+        }
+
+        // spliced bytes bypass the pipeline, so the idle handlers would consider an active tunnel idle
+        for (ChannelPipeline pipeline : new ChannelPipeline[]{clientChannel.pipeline(), serverChannel.pipeline()}) {
+            if (pipeline.get("idle") != null) {
+                pipeline.remove("idle");
+            }
+        }
+
+        LOG.debug("Splicing tunnel between {} and {}", clientChannel, serverChannel);
+        return true;
+    }
+
+    private static void runOnEventLoop(Channel channel, Runnable task) {
+        if (channel.eventLoop().inEventLoop()) {
+            task.run();
+        } else {
+            channel.eventLoop().execute(task);
+        }
+    }
+}
@@ -0,0 +1,497 @@
+package org.littleshoot.proxy.impl;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.EventLoop;
+import io.netty.handler.timeout.IdleStateEvent;
+import io.netty.handler.timeout.IdleStateHandler;
+import io.netty.util.ReferenceCountUtil;
+import org.littleshoot.proxy.TransportProtocol;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>
+ * A proxy-wide pool of idle upstream {@link Channel}s. When a {@link ClientToProxyConnection} goes away, its idle
+ * {@link ProxyToServerConnection}s hand their channels to this pool instead of closing them, so that the next client
+ * talking to the same upstream can skip the TCP (and TLS) connect.
+ * </p>
+ *
+ * <p>
+ * Channels are keyed by upstream host:port, transport protocol and remote address (the chained proxy's address when
+ * chaining), and partitioned by the {@link EventLoop} they are registered on. While a channel sits in the pool, all
+ * HTTP-level handlers are stripped from its pipeline and a watcher closes it if the upstream sends anything, hangs up,
+ * or the channel stays idle for longer than the configured timeout.
+ * </p>
+ */
+public class UpstreamConnectionPool {
+    private static final Logger LOG = LoggerFactory.getLogger(UpstreamConnectionPool.class);
+
+    private static final String IDLE_HANDLER_NAME = "pooledConnectionIdle";
+    private static final String WATCHER_HANDLER_NAME = "pooledConnectionWatcher";
+
+    private final ConnectionPoolConfiguration configuration;
+
+    private final ConcurrentMap<EventLoop, Partition> partitions = new ConcurrentHashMap<EventLoop, Partition>();
+
+    private final AtomicInteger idleConnections = new AtomicInteger(0);
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public UpstreamConnectionPool(ConnectionPoolConfiguration configuration) {
+        this.configuration = configuration;
+    }
+
+    ConnectionPoolConfiguration getConfiguration() {
+        return configuration;
+    }
+
+    /**
+     * Takes an idle channel for the given key out of the pool. The partition of the preferred event loop is searched
+     * first, followed by all other partitions. Channels that are no longer usable are closed and skipped.
+     *
+     * @param key the upstream the channel must be connected to
+     * @param preferredEventLoop the event loop whose partition should be searched first (may be null)
+     * @return an open channel still carrying the pool's watcher handlers, or null if there was none
+     */
+    Channel acquire(PoolKey key, EventLoop preferredEventLoop) {
+        return acquire(key, preferredEventLoop, false);
+    }
+
+    /**
+     * Takes an idle channel for the given key out of the pool, optionally only from the partition of the preferred
+     * event loop.
+     *
+     * @param key the upstream the channel must be connected to
+     * @param preferredEventLoop the event loop whose partition should be searched first (may be null)
+     * @param preferredEventLoopOnly when true, channels registered on other event loops are not returned
+     * @return an open channel still carrying the pool's watcher handlers, or null if there was none
+     */
+    Channel acquire(PoolKey key, EventLoop preferredEventLoop, boolean preferredEventLoopOnly) {
+        Partition preferred = preferredEventLoop != null ? partitions.get(preferredEventLoop) : null;
+        PooledChannel pooled = null;
+        if (preferred != null) {
+            pooled = pollLive(preferred, key);
+        }
+        if (pooled == null && !preferredEventLoopOnly) {
+            for (Partition partition : partitions.values()) {
+                if (partition != preferred) {
+                    pooled = pollLive(partition, key);
+                    if (pooled != null) {
+                        break;
+                    }
+                }
+            }
+        }
+
+        if (pooled == null) {
+            misses.increment();
+            LOG.debug("No pooled connection available for {}", key);
+            return null;
+        }
+
+        hits.increment();
+        LOG.debug("Reusing pooled connection {} for {}", pooled.channel, key);
+        return pooled.channel;
+    }
+
+    /**
+     * Hands an upstream channel to the pool. The pipeline is stripped of everything but its SSL handlers on the
+     * channel's own event loop, after which the channel becomes available to {@link #acquire(PoolKey, EventLoop)}.
+     *
+     * @param key the upstream the channel is connected to
+     * @param channel an idle channel with no request in flight
+     * @return true if the pool took ownership of the channel, false if the caller should close it itself
+     */
+    boolean release(final PoolKey key, final Channel channel) {
+        if (!channel.isActive()) {
+            return false;
+        }
+
+        channel.eventLoop().execute(new Runnable() {
+            @Override
+            public void run() {
+                doRelease(key, channel);
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Removes the pool's watcher handlers from an acquired channel, so that the adopting connection can set up its own
+     * pipeline.
+     *
+     * @param pipeline pipeline of a channel obtained from {@link #acquire(PoolKey, EventLoop)}
+     */
+    void detach(ChannelPipeline pipeline) {
+        if (pipeline.get(WATCHER_HANDLER_NAME) != null) {
+            pipeline.remove(WATCHER_HANDLER_NAME);
+        }
+        if (pipeline.get(IDLE_HANDLER_NAME) != null) {
+            pipeline.remove(IDLE_HANDLER_NAME);
+        }
+    }
+
+    /**
+     * Closes all idle channels and empties the pool.
+     */
+    void close() {
+        for (Partition partition : partitions.values()) {
+            for (PooledChannel pooled : partition.drain()) {
+                idleConnections.decrementAndGet();
+                pooled.channel.close();
+            }
+        }
+    }
+
+    /**
+     * @return number of times a pooled connection was reused instead of opening a new one
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return number of times no pooled connection was available and a new one had to be opened
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return number of pooled connections closed because they expired, went bad or were evicted to make room
+     */
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * @return number of connections currently idle in the pool
+     */
+    public int getIdleConnections() {
+        return idleConnections.get();
+    }
+
+    /**
+     * @param key an upstream
+     * @return number of connections to the given upstream currently idle in the pool, on any event loop
+     */
+    int getIdleConnections(PoolKey key) {
+        int idle = 0;
+        for (Partition partition : partitions.values()) {
+            idle += partition.count(key);
+        }
+        return idle;
+    }
+
+    /**
+     * @param key an upstream
+     * @param eventLoop an event loop
+     * @return number of connections to the given upstream currently idle in the pool on the given event loop
+     */
+    int getIdleConnections(PoolKey key, EventLoop eventLoop) {
+        Partition partition = partitions.get(eventLoop);
+        return partition != null ? partition.count(key) : 0;
+    }
+
+    private void doRelease(PoolKey key, Channel channel) {
+        if (!channel.isActive()) {
+            return;
+        }
+
+        // drop all HTTP-level handlers, which belong to the connection that is giving up the channel. the SSL handlers
+        // stay, since the encrypted session with the server or chained proxy remains valid.
+        ChannelPipeline pipeline = channel.pipeline();
+        for (String name : pipeline.toMap().keySet()) {
+            if (!"ssl".equals(name) && !"sslWithServer".equals(name)) {
+                pipeline.remove(name);
+            }
+        }
+
+        PooledChannel pooled = new PooledChannel(key, channel);
+        pipeline.addLast(IDLE_HANDLER_NAME, new IdleStateHandler(0, 0,
+                configuration.getIdleTimeoutMillis(), TimeUnit.MILLISECONDS));
+        pipeline.addLast(WATCHER_HANDLER_NAME, new PooledChannelWatcher(pooled));
+
+        Partition partition = partitions.get(channel.eventLoop());
+        if (partition == null) {
+            Partition newPartition = new Partition();
+            partition = partitions.putIfAbsent(channel.eventLoop(), newPartition);
+            if (partition == null) {
+                partition = newPartition;
+            }
+        }
+
+        List<PooledChannel> evicted = partition.add(pooled, configuration.getMaxIdlePerKey());
+        idleConnections.addAndGet(1 - evicted.size());
+
+        while (idleConnections.get() > configuration.getMaxIdleTotal()) {
+            PooledChannel eldest = pollEldest();
+            if (eldest == null) {
+                break;
+            }
+            idleConnections.decrementAndGet();
+            evicted.add(eldest);
+        }
+
+        for (PooledChannel eviction : evicted) {
+            LOG.debug("Evicting pooled connection {} for {}", eviction.channel, eviction.key);
+            evictions.increment();
+            eviction.channel.close();
+        }
+
+        LOG.debug("Released connection {} to pool for {}", channel, key);
+    }
+
+    /**
+     * Takes the least recently released channel out of the pool, whichever event loop it is registered on.
+     *
+     * @return the eldest idle channel, or null if the pool is empty
+     */
+    private PooledChannel pollEldest() {
+        while (true) {
+            Partition eldestPartition = null;
+            PooledChannel eldest = null;
+            for (Partition partition : partitions.values()) {
+                PooledChannel candidate = partition.peekEldest();
+                if (candidate != null && (eldest == null || candidate.releasedAtNanos - eldest.releasedAtNanos < 0)) {
+                    eldestPartition = partition;
+                    eldest = candidate;
+                }
+            }
+            if (eldest == null) {
+                return null;
+            }
+            if (eldestPartition.remove(eldest)) {
+                return eldest;
+            }
+            // acquired or evicted on its own event loop in the meantime, look again
+        }
+    }
+
+    private PooledChannel pollLive(Partition partition, PoolKey key) {
+        PooledChannel pooled;
+        while ((pooled = partition.poll(key)) != null) {
+            idleConnections.decrementAndGet();
+            if (isLive(pooled)) {
+                return pooled;
+            }
+            evictions.increment();
+            pooled.channel.close();
+        }
+        return null;
+    }
+
+    private boolean isLive(PooledChannel pooled) {
+        long idleMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - pooled.releasedAtNanos);
+        return pooled.channel.isActive()
+                && pooled.channel.isWritable()
+                && idleMillis < configuration.getIdleTimeoutMillis();
+    }
+
+    /**
+     * Takes a channel out of the pool when its watcher sees it go bad. A channel that is no longer in the pool has
+     * already been handed to a connection by {@link #acquire(PoolKey, EventLoop)}, and is left to that connection even
+     * though the watcher is still in its pipeline until {@link #detach(ChannelPipeline)} runs.
+     */
+    private void remove(PooledChannel pooled, boolean close) {
+        Partition partition = partitions.get(pooled.channel.eventLoop());
+        if (partition == null || !partition.remove(pooled)) {
+            LOG.debug("Pooled connection {} was already handed out, leaving it to its new owner", pooled.channel);
+            return;
+        }
+        idleConnections.decrementAndGet();
+        evictions.increment();
+        if (close) {
+            pooled.channel.close();
+        }
+    }
+
+    /**
+     * Identifies the upstream a pooled channel is connected to.
+     */
+    static final class PoolKey {
+        private final String serverHostAndPort;
+        private final TransportProtocol transportProtocol;
+        private final InetSocketAddress remoteAddress;
+
+        PoolKey(String serverHostAndPort, TransportProtocol transportProtocol, InetSocketAddress remoteAddress) {
+            this.serverHostAndPort = serverHostAndPort;
+            this.transportProtocol = transportProtocol;
+            this.remoteAddress = remoteAddress;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof PoolKey)) {
+                return false;
+            }
+            PoolKey other = (PoolKey) o;
+            return Objects.equals(serverHostAndPort, other.serverHostAndPort)
+                    && transportProtocol == other.transportProtocol
+                    && Objects.equals(remoteAddress, other.remoteAddress);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(serverHostAndPort, transportProtocol, remoteAddress);
+        }
+
+        @Override
+        public String toString() {
+            return serverHostAndPort + " via " + transportProtocol + " " + remoteAddress;
+        }
+    }
+
+    private static final class PooledChannel {
+        private final PoolKey key;
+        private final Channel channel;
+        private final long releasedAtNanos = System.nanoTime();
+
+        private PooledChannel(PoolKey key, Channel channel) {
+            this.key = key;
+            this.channel = channel;
+        }
+    }
+
+    /**
+     * The idle channels registered on a single event loop. Per key, channels are handed out most recently released
+     * first and evicted least recently released first.
+     */
+    private static final class Partition {
+        private final Map<PoolKey, Deque<PooledChannel>> idleByKey = new HashMap<PoolKey, Deque<PooledChannel>>();
+        private final LinkedHashSet<PooledChannel> releaseOrder = new LinkedHashSet<PooledChannel>();
+
+        synchronized List<PooledChannel> add(PooledChannel pooled, int maxIdlePerKey) {
+            List<PooledChannel> evicted = new ArrayList<PooledChannel>(1);
+            Deque<PooledChannel> idle = idleByKey.get(pooled.key);
+            if (idle == null) {
+                idle = new ArrayDeque<PooledChannel>();
+                idleByKey.put(pooled.key, idle);
+            }
+            while (!idle.isEmpty() && idle.size() >= maxIdlePerKey) {
+                PooledChannel eldest = idle.pollFirst();
+                releaseOrder.remove(eldest);
+                evicted.add(eldest);
+            }
+            idle.addLast(pooled);
+            releaseOrder.add(pooled);
+            return evicted;
+        }
+
+        synchronized PooledChannel poll(PoolKey key) {
+            Deque<PooledChannel> idle = idleByKey.get(key);
+            if (idle == null) {
+                return null;
+            }
+            PooledChannel pooled = idle.pollLast();
+            if (idle.isEmpty()) {
+                idleByKey.remove(key);
+            }
+            if (pooled != null) {
+                releaseOrder.remove(pooled);
+            }
+            return pooled;
+        }
+
+        synchronized int count(PoolKey key) {
+            Deque<PooledChannel> idle = idleByKey.get(key);
+            return idle == null ? 0 : idle.size();
+        }
+
+        synchronized PooledChannel peekEldest() {
+            Iterator<PooledChannel> it = releaseOrder.iterator();
+            return it.hasNext() ? it.next() : null;
+        }
+
+        synchronized boolean remove(PooledChannel pooled) {
+            if (!releaseOrder.remove(pooled)) {
+                return false;
+            }
+            removeFromKey(pooled);
+            return true;
+        }
+
+        synchronized List<PooledChannel> drain() {
+            List<PooledChannel> all = new ArrayList<PooledChannel>(releaseOrder);
+            releaseOrder.clear();
+            idleByKey.clear();
+            return all;
+        }
+
+        private void removeFromKey(PooledChannel pooled) {
+            Deque<PooledChannel> idle = idleByKey.get(pooled.key);
+            if (idle != null) {
+                idle.remove(pooled);
+                if (idle.isEmpty()) {
+                    idleByKey.remove(pooled.key);
+                }
+            }
+        }
+    }
+
+    /**
+     * Sits at the end of an idle channel's pipeline. Any traffic, hang-up or idle timeout takes the channel out of the
+     * pool; the upstream must not send anything while no request is outstanding.
+     */
+    private class PooledChannelWatcher extends ChannelInboundHandlerAdapter {
+        private final PooledChannel pooled;
+
+        PooledChannelWatcher(PooledChannel pooled) {
+            this.pooled = pooled;
+        }
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+            ReferenceCountUtil.release(msg);
+            LOG.debug("Pooled connection {} received unexpected data, closing it", ctx.channel());
+            remove(pooled, true);
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+            remove(pooled, false);
+            super.channelInactive(ctx);
+        }
+
+        @Override
+        public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+            if (evt instanceof IdleStateEvent) {
+                LOG.debug("Pooled connection {} expired", ctx.channel());
+                remove(pooled, true);
+            } else {
+                super.userEventTriggered(ctx, evt);
+            }
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
+            LOG.debug("Exception on pooled connection {}, closing it", ctx.channel(), cause);
+            remove(pooled, true);
+        }
+    }
+
+}
@@ -0,0 +1,460 @@
+package org.littleshoot.proxy.impl;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ChannelFactory;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoop;
+import io.netty.channel.EventLoopGroup;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.GenericFutureListener;
+import io.netty.util.concurrent.Promise;
+import io.netty.util.concurrent.ScheduledFuture;
+import org.littleshoot.proxy.TransportProtocol;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>
+ * Keeps warm upstream connections ready for the origins that clients connect to most often, so that their requests
+ * skip DNS resolution and the TCP connect. Every time a {@link ClientToProxyConnection} needs a new connection to an
+ * origin, the origin's decaying connection counter is bumped. At a fixed interval, the hottest origins are given as
+ * many warm connections as they are expected to need until the next refresh, hottest first and within a global budget.
+ * </p>
+ *
+ * <p>
+ * Warm connections are opened exactly like the connections of a {@link ProxyToServerConnection} and then handed to the
+ * {@link UpstreamConnectionPool}, from which the next {@link ProxyToServerConnection} for the origin takes them. Idle
+ * connections released to the pool by clients count as warm connections as well.
+ * </p>
+ *
+ * <p>
+ * With event loop affinity, a client only takes pooled connections registered on its own event loop. Each event loop
+ * is then given its share of an origin's warm connections, rounded up, so that clients on every loop find one.
+ * </p>
+ *
+ * <p>
+ * Only direct connections to origins are pre-connected. Origins whose address is overridden by
+ * {@link org.littleshoot.proxy.HttpFilters#proxyToServerResolutionStarted(String)} won't find the warm connections,
+ * which then expire from the pool unused.
+ * </p>
+ */
+public class UpstreamPreconnector {
+    private static final Logger LOG = LoggerFactory.getLogger(UpstreamPreconnector.class);
+
+    private final DefaultHttpProxyServer proxyServer;
+    private final UpstreamConnectionPool pool;
+    private final PreconnectConfiguration configuration;
+
+    /**
+     * Decay rate of the connection counters, per nanosecond.
+     */
+    private final double decayPerNano;
+
+    private final ConcurrentMap<String, Origin> origins = new ConcurrentHashMap<String, Origin>();
+
+    private final LongAdder preconnects = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+
+    private volatile ScheduledFuture<?> refreshTask;
+    private volatile boolean stopped;
+
+    UpstreamPreconnector(DefaultHttpProxyServer proxyServer, UpstreamConnectionPool pool,
+                         PreconnectConfiguration configuration) {
+        this.proxyServer = proxyServer;
+        this.pool = pool;
+        this.configuration = configuration;
+        this.decayPerNano = Math.log(2) / TimeUnit.MILLISECONDS.toNanos(configuration.getRateHalfLifeMillis());
+    }
+
+    /**
+     * Records that a client needed a new connection to the given origin.
+     *
+     * @param serverHostAndPort the origin, as identified by the {@link ClientToProxyConnection}
+     */
+    void recordConnection(String serverHostAndPort) {
+        Origin origin = origins.get(serverHostAndPort);
+        if (origin == null) {
+            Origin newOrigin = new Origin(serverHostAndPort);
+            origin = origins.putIfAbsent(serverHostAndPort, newOrigin);
+            if (origin == null) {
+                origin = newOrigin;
+            }
+        }
+        origin.record(System.nanoTime(), decayPerNano);
+    }
+
+    /**
+     * Starts replenishing warm connections at the configured interval.
+     *
+     * @param eventLoop event loop that runs the refreshes
+     */
+    void start(EventLoop eventLoop) {
+        long interval = configuration.getRefreshIntervalMillis();
+        refreshTask = eventLoop.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    refresh();
+                } catch (Exception e) {
+                    LOG.warn("Unable to replenish warm upstream connections", e);
+                }
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops replenishing warm connections. Connections still being opened are closed once connected.
+     */
+    void stop() {
+        stopped = true;
+        ScheduledFuture<?> task = refreshTask;
+        if (task != null) {
+            task.cancel(false);
+        }
+    }
+
+    /**
+     * @return number of warm connections opened and handed to the pool
+     */
+    public long getPreconnects() {
+        return preconnects.sum();
+    }
+
+    /**
+     * @return number of warm connections that could not be opened
+     */
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    /**
+     * @return number of origins whose connection rate is currently tracked
+     */
+    public int getTrackedOrigins() {
+        return origins.size();
+    }
+
+    /**
+     * @param serverHostAndPort an origin, as identified by the {@link ClientToProxyConnection}
+     * @return the origin's current rate of new connections per second, or 0 if it isn't tracked
+     */
+    public double getConnectionRate(String serverHostAndPort) {
+        Origin origin = origins.get(serverHostAndPort);
+        return origin == null ? 0 : origin.rate(System.nanoTime(), decayPerNano);
+    }
+
+    /**
+     * Tops up the warm connections of the hottest origins, and forgets origins that have gone cold.
+     */
+    void refresh() {
+        if (stopped) {
+            return;
+        }
+
+        long now = System.nanoTime();
+        double minRate = configuration.getMinConnectionRate();
+        List<Origin> hot = new ArrayList<Origin>();
+        for (Map.Entry<String, Origin> entry : origins.entrySet()) {
+            Origin origin = entry.getValue();
+            double rate = origin.rate(now, decayPerNano);
+            origin.rateSnapshot = rate;
+            if (rate >= minRate) {
+                hot.add(origin);
+            } else if (rate < minRate / 100 && origin.pending.get() == 0) {
+                origins.remove(entry.getKey(), origin);
+            }
+        }
+
+        Collections.sort(hot, HOTTEST_FIRST);
+
+        if (origins.size() > configuration.getMaxTrackedOrigins()) {
+            forgetColdest(now);
+        }
+
+        double refreshIntervalSeconds = configuration.getRefreshIntervalMillis() / 1000d;
+        int maxPerOrigin = Math.min(configuration.getMaxWarmPerOrigin(), pool.getConfiguration().getMaxIdlePerKey());
+        int budget = configuration.getMaxWarmConnections();
+        List<EventLoop> eventLoops = eventLoopsForAffinity();
+        for (Origin origin : hot) {
+            if (budget <= 0) {
+                break;
+            }
+
+            // enough connections for the new connections expected until the next refresh
+            int target = (int) Math.ceil(origin.rateSnapshot * refreshIntervalSeconds);
+            target = Math.min(target, Math.min(maxPerOrigin, budget));
+
+            UpstreamConnectionPool.PoolKey key = origin.key;
+            if (eventLoops == null) {
+                int warm = origin.pending.get() + (key != null ? pool.getIdleConnections(key) : 0);
+                if (warm < target) {
+                    preconnect(origin, target - warm, null);
+                }
+                budget -= Math.max(warm, target);
+            } else {
+                int perEventLoop = (target + eventLoops.size() - 1) / eventLoops.size();
+                for (EventLoop eventLoop : eventLoops) {
+                    if (budget <= 0) {
+                        break;
+                    }
+                    int warm = origin.pendingOn(eventLoop).get()
+                            + (key != null ? pool.getIdleConnections(key, eventLoop) : 0);
+                    if (warm < perEventLoop) {
+                        preconnect(origin, perEventLoop - warm, eventLoop);
+                    }
+                    budget -= Math.max(warm, perEventLoop);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the event loops that warm connections must be spread over evenly, or null if any client may take a warm
+     * connection from any event loop
+     */
+    private List<EventLoop> eventLoopsForAffinity() {
+        if (!proxyServer.isEventLoopAffinity()) {
+            return null;
+        }
+        List<EventLoop> eventLoops = new ArrayList<EventLoop>();
+        for (EventExecutor executor : proxyServer.getProxyToServerWorkerFor(TransportProtocol.TCP)) {
+            eventLoops.add((EventLoop) executor);
+        }
+        return eventLoops;
+    }
+
+    private void forgetColdest(long now) {
+        List<Origin> all = new ArrayList<Origin>(origins.values());
+        for (Origin origin : all) {
+            origin.rateSnapshot = origin.rate(now, decayPerNano);
+        }
+        Collections.sort(all, HOTTEST_FIRST);
+        for (int i = configuration.getMaxTrackedOrigins(); i < all.size(); i++) {
+            origins.remove(all.get(i).serverHostAndPort, all.get(i));
+        }
+    }
+
+    /**
+     * @param eventLoop the event loop to open the connections on, or null to spread them over all event loops
+     */
+    private void preconnect(final Origin origin, final int count, final EventLoop eventLoop) {
+        InetSocketAddress unresolvedAddress;
+        try {
+            unresolvedAddress = ProxyToServerConnection.unresolvedAddressFor(origin.serverHostAndPort);
+        } catch (UnknownHostException e) {
+            // clients can't connect to it either, so stop tracking it
+            origins.remove(origin.serverHostAndPort, origin);
+            return;
+        }
+
+        LOG.debug("Opening {} warm connections to {}", count, origin.serverHostAndPort);
+        origin.addPending(eventLoop, count);
+
+        final EventLoopGroup group = proxyServer.getProxyToServerWorkerFor(TransportProtocol.TCP);
+        ProxyToServerConnection.resolveServerAddresses(proxyServer, unresolvedAddress, TransportProtocol.TCP, group.next())
+                .addListener(new GenericFutureListener<Future<List<InetSocketAddress>>>() {
+                    @Override
+                    public void operationComplete(Future<List<InetSocketAddress>> future) throws Exception {
+                        if (!future.isSuccess()) {
+                            LOG.debug("Unable to resolve {}", origin.serverHostAndPort, future.cause());
+                            failures.add(count);
+                            origin.addPending(eventLoop, -count);
+                            return;
+                        }
+
+                        // the same key a ProxyToServerConnection uses for this origin
+                        List<InetSocketAddress> addresses = future.getNow();
+                        UpstreamConnectionPool.PoolKey key = new UpstreamConnectionPool.PoolKey(
+                                origin.serverHostAndPort, TransportProtocol.TCP, addresses.get(0));
+                        origin.key = key;
+
+                        for (int i = 0; i < count; i++) {
+                            // unless pinned, spread the warm connections over the event loops, like client connections
+                            connect(origin, key, addresses, eventLoop, eventLoop != null ? eventLoop : group.next());
+                        }
+                    }
+                });
+    }
+
+    /**
+     * @param pinnedEventLoop the event loop the connection was requested for, or null if it was not pinned to one
+     */
+    private void connect(final Origin origin, final UpstreamConnectionPool.PoolKey key,
+                         List<InetSocketAddress> addresses, final EventLoop pinnedEventLoop, EventLoop eventLoop) {
+        final EventLoopTransport eventLoopTransport = proxyServer.getEventLoopTransportFor(TransportProtocol.TCP);
+        Bootstrap cb = new Bootstrap()
+                .group(eventLoop)
+                .channelFactory(new ChannelFactory<Channel>() {
+                    @Override
+                    public Channel newChannel() {
+                        return eventLoopTransport.newSocketChannel();
+                    }
+                })
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, proxyServer.getConnectTimeout())
+                .handler(new ChannelInitializer<Channel>() {
+                    @Override
+                    protected void initChannel(Channel ch) throws Exception {
+                        // the pool sets up the pipeline of idle channels
+                    }
+                });
+
+        InetSocketAddress localAddress = proxyServer.getLocalAddress();
+        Future<Channel> connected;
+        if (addresses.size() > 1 && proxyServer.getConnectionAttemptDelay() > 0) {
+            connected = new HappyEyeballsConnector(cb,
+                    addresses,
+                    localAddress,
+                    proxyServer.getConnectionAttemptDelay(),
+                    proxyServer.getAddressPenaltyTracker(),
+                    eventLoop)
+                    .connect();
+        } else {
+            final Promise<Channel> promise = eventLoop.newPromise();
+            ChannelFuture connect = localAddress != null
+                    ? cb.connect(addresses.get(0), localAddress)
+                    : cb.connect(addresses.get(0));
+            connect.addListener(new ChannelFutureListener() {
+                @Override
+                public void operationComplete(ChannelFuture future) throws Exception {
+                    if (future.isSuccess()) {
+                        promise.trySuccess(future.channel());
+                    } else {
+                        promise.tryFailure(future.cause());
+                    }
+                }
+            });
+            connected = promise;
+        }
+
+        connected.addListener(new GenericFutureListener<Future<Channel>>() {
+            @Override
+            public void operationComplete(Future<Channel> future) throws Exception {
+                origin.addPending(pinnedEventLoop, -1);
+
+                if (!future.isSuccess()) {
+                    LOG.debug("Unable to open warm connection to {}", key, future.cause());
+                    failures.increment();
+                    return;
+                }
+
+                Channel channel = future.getNow();
+                if (stopped) {
+                    channel.close();
+                    return;
+                }
+
+                proxyServer.registerChannel(channel);
+                if (pool.release(key, channel)) {
+                    preconnects.increment();
+                } else {
+                    channel.close();
+                }
+            }
+        });
+    }
+
+    private static final Comparator<Origin> HOTTEST_FIRST = new Comparator<Origin>() {
+        @Override
+        public int compare(Origin o1, Origin o2) {
+            return Double.compare(o2.rateSnapshot, o1.rateSnapshot);
+        }
+    };
+
+    /**
+     * An origin's decaying connection counter and its warm connections.
+     */
+    private static final class Origin {
+        private final String serverHostAndPort;
+
+        /**
+         * Warm connections being opened.
+         */
+        private final AtomicInteger pending = new AtomicInteger();
+
+        /**
+         * Warm connections being opened on a given event loop, counted only for connections pinned to their loop.
+         */
+        private final ConcurrentMap<EventLoop, AtomicInteger> pendingByEventLoop =
+                new ConcurrentHashMap<EventLoop, AtomicInteger>();
+
+        /**
+         * Pool key of the warm connections, known once the origin has been resolved.
+         */
+        private volatile UpstreamConnectionPool.PoolKey key;
+
+        /**
+         * Rate at the time of the last refresh, for sorting.
+         */
+        private volatile double rateSnapshot;
+
+        private double count;
+        private long updatedAtNanos = System.nanoTime();
+
+        private Origin(String serverHostAndPort) {
+            this.serverHostAndPort = serverHostAndPort;
+        }
+
+        AtomicInteger pendingOn(EventLoop eventLoop) {
+            AtomicInteger pendingOnLoop = pendingByEventLoop.get(eventLoop);
+            if (pendingOnLoop == null) {
+                AtomicInteger newPending = new AtomicInteger();
+                pendingOnLoop = pendingByEventLoop.putIfAbsent(eventLoop, newPending);
+                if (pendingOnLoop == null) {
+                    pendingOnLoop = newPending;
+                }
+            }
+            return pendingOnLoop;
+        }
+
+        /**
+         * @param eventLoop the event loop the connections are pinned to, or null if they are not
+         */
+        void addPending(EventLoop eventLoop, int delta) {
+            pending.addAndGet(delta);
+            if (eventLoop != null) {
+                pendingOn(eventLoop).addAndGet(delta);
+            }
+        }
+
+        synchronized void record(long now, double decayPerNano) {
+            decay(now, decayPerNano);
+            count += 1;
+        }
+
+        /**
+         * For a steady rate, the decayed count converges to rate / decay, so the rate is estimated as count * decay.
+         *
+         * @return the estimated rate of new connections per second
+         */
+        synchronized double rate(long now, double decayPerNano) {
+            decay(now, decayPerNano);
+            return count * decayPerNano * TimeUnit.SECONDS.toNanos(1);
+        }
+
+        private void decay(long now, double decayPerNano) {
+            long elapsed = now - updatedAtNanos;
+            if (elapsed > 0) {
+                count *= Math.exp(-elapsed * decayPerNano);
+                updatedAtNanos = now;
+            }
+        }
+    }
+}
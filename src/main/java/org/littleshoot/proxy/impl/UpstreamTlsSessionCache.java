@@ -0,0 +1,108 @@
+package org.littleshoot.proxy.impl;
+
+import io.netty.channel.Channel;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.GenericFutureListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSessionContext;
+import java.util.Collections;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>
+ * Resumption of TLS sessions with servers and chained proxies, shared by all {@link ProxyToServerConnection}s of a
+ * proxy. A resumed handshake skips the certificate exchange and the key agreement of a full one, which is most of its
+ * CPU cost.
+ * </p>
+ *
+ * <p>
+ * The sessions themselves are kept by the client session cache of the SSLContext that an upstream {@link SSLEngine}
+ * was created from, keyed by the peer host and port the engine was created with. This class bounds the size and
+ * lifetime of each such cache once it first sees it, and counts full and resumed handshakes. Sessions are therefore
+ * only resumed if the {@link org.littleshoot.proxy.MitmManager} or {@link org.littleshoot.proxy.ChainedProxy} creates
+ * its engines from one SSLContext for all connections, and passes the peer host and port to it.
+ * </p>
+ *
+ * <p>
+ * Session tickets are not enabled by this class, as the JDK only does so through a JVM-wide system property. On JDK 13
+ * and later, {@code -Djdk.tls.client.enableSessionTicketExtension=true} offers them to servers; earlier JDKs,
+ * including Java 8, only resume sessions that the server keeps in its own session cache.
+ * </p>
+ */
+public class UpstreamTlsSessionCache {
+    private static final Logger LOG = LoggerFactory.getLogger(UpstreamTlsSessionCache.class);
+
+    private final TlsSessionCacheConfiguration configuration;
+
+    /**
+     * The session contexts whose bounds are already set. Weak, so that contexts of discarded SSLContexts are dropped.
+     */
+    private final Set<SSLSessionContext> boundedContexts =
+            Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<SSLSessionContext, Boolean>()));
+
+    private final LongAdder fullHandshakes = new LongAdder();
+    private final LongAdder resumedHandshakes = new LongAdder();
+
+    public UpstreamTlsSessionCache(TlsSessionCacheConfiguration configuration) {
+        this.configuration = configuration;
+    }
+
+    TlsSessionCacheConfiguration getConfiguration() {
+        return configuration;
+    }
+
+    /**
+     * Counts the handshake of an upstream connection once it completes, and bounds the session cache it used.
+     *
+     * @param handshakeFuture the future of the handshake
+     * @param sslEngine the client-mode engine doing the handshake
+     */
+    void track(Future<Channel> handshakeFuture, final SSLEngine sslEngine) {
+        final long startedAt = System.currentTimeMillis();
+        handshakeFuture.addListener(new GenericFutureListener<Future<Channel>>() {
+            @Override
+            public void operationComplete(Future<Channel> future) throws Exception {
+                if (future.isSuccess()) {
+                    handshakeCompleted(sslEngine.getSession(), startedAt);
+                }
+            }
+        });
+    }
+
+    private void handshakeCompleted(SSLSession session, long startedAt) {
+        // a resumed session keeps the creation time of the full handshake that established it
+        if (session.getCreationTime() < startedAt) {
+            resumedHandshakes.increment();
+        } else {
+            fullHandshakes.increment();
+        }
+
+        SSLSessionContext sessionContext = session.getSessionContext();
+        if (sessionContext != null && boundedContexts.add(sessionContext)) {
+            LOG.debug("Limiting TLS session cache {} to {} sessions for {} seconds", sessionContext,
+                    configuration.getMaxSessions(), configuration.getSessionLifetimeSeconds());
+            sessionContext.setSessionCacheSize(configuration.getMaxSessions());
+            sessionContext.setSessionTimeout(configuration.getSessionLifetimeSeconds());
+        }
+    }
+
+    /**
+     * @return the number of completed upstream handshakes that established a new session
+     */
+    public long getFullHandshakes() {
+        return fullHandshakes.sum();
+    }
+
+    /**
+     * @return the number of completed upstream handshakes that resumed a cached session
+     */
+    public long getResumedHandshakes() {
+        return resumedHandshakes.sum();
+    }
+}
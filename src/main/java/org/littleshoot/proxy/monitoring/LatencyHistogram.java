@@ -0,0 +1,126 @@
+package org.littleshoot.proxy.monitoring;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>
+ * Histogram of latencies with a fixed relative precision, recorded without locking. Like an HdrHistogram, values are
+ * counted in buckets that double in width with every power of two, each split into {@value #SUB_BUCKETS} / 2 linear
+ * sub-buckets, so that a reported value is off by less than 2 / {@value #SUB_BUCKETS} (about 6%) wherever it falls.
+ * </p>
+ *
+ * <p>
+ * Latencies are recorded in microseconds, from 0 up to about 19 hours; longer ones are counted as the maximum. Recording
+ * a value is one increment of an {@link AtomicLongArray} element and of two {@link LongAdder}s. Reads are not atomic
+ * with respect to concurrent recording, so a percentile may miss the values recorded while it is computed.
+ * </p>
+ */
+public class LatencyHistogram {
+
+  static final int SUB_BUCKETS = 32;
+  private static final int SUB_BUCKET_BITS = 5;
+  private static final int HALF_SUB_BUCKETS = SUB_BUCKETS / 2;
+
+  /**
+   * The largest value that can be recorded, in microseconds.
+   */
+  public static final long MAX_VALUE_MICROS = (1L << 36) - 1;
+
+  private final AtomicLongArray counts = new AtomicLongArray(indexOf(MAX_VALUE_MICROS) + 1);
+  private final LongAdder count = new LongAdder();
+  private final LongAdder sum = new LongAdder();
+  private final AtomicLong max = new AtomicLong();
+
+  /**
+   * Records a latency.
+   *
+   * @param nanos the latency, in nanoseconds. Negative values are counted as 0.
+   */
+  public void recordNanos(long nanos) {
+    long micros = Math.min(MAX_VALUE_MICROS, Math.max(0, TimeUnit.NANOSECONDS.toMicros(nanos)));
+    counts.incrementAndGet(indexOf(micros));
+    count.increment();
+    sum.add(micros);
+
+    long currentMax = max.get();
+    while (micros > currentMax && !max.compareAndSet(currentMax, micros)) {
+      currentMax = max.get();
+    }
+  }
+
+  /**
+   * @return number of recorded latencies
+   */
+  public long getCount() {
+    return count.sum();
+  }
+
+  /**
+   * @return mean of the recorded latencies in microseconds, or 0 if none were recorded
+   */
+  public double getMeanMicros() {
+    long count = getCount();
+    return count == 0 ? 0 : (double) sum.sum() / count;
+  }
+
+  /**
+   * @return largest recorded latency in microseconds
+   */
+  public long getMaxMicros() {
+    return max.get();
+  }
+
+  /**
+   * @param percentile percentile between 0 and 100
+   * @return latency in microseconds at or below which the given percentage of the recorded latencies lie, rounded up
+   *         to the upper end of its bucket, or 0 if none were recorded
+   */
+  public long getValueAtPercentileMicros(double percentile) {
+    long total = 0;
+    long[] snapshot = new long[counts.length()];
+    for (int i = 0; i < snapshot.length; i++) {
+      snapshot[i] = counts.get(i);
+      total += snapshot[i];
+    }
+    if (total == 0) {
+      return 0;
+    }
+
+    long rank = Math.max(1, (long) Math.ceil(Math.min(100, Math.max(0, percentile)) / 100 * total));
+    long seen = 0;
+    for (int i = 0; i < snapshot.length; i++) {
+      seen += snapshot[i];
+      if (seen >= rank) {
+        return Math.min(highestValueAt(i), getMaxMicros());
+      }
+    }
+    return getMaxMicros();
+  }
+
+  /**
+   * Values below {@link #SUB_BUCKETS} get a bucket each. Larger values are shifted right until they fall between
+   * {@link #HALF_SUB_BUCKETS} and {@link #SUB_BUCKETS}, and every shift adds {@link #HALF_SUB_BUCKETS} buckets.
+   */
+  static int indexOf(long micros) {
+    if (micros < SUB_BUCKETS) {
+      return (int) micros;
+    }
+    int shift = 63 - Long.numberOfLeadingZeros(micros) - (SUB_BUCKET_BITS - 1);
+    return shift * HALF_SUB_BUCKETS + (int) (micros >>> shift);
+  }
+
+  /**
+   * @return the largest value that falls into the bucket at the given index
+   */
+  static long highestValueAt(int index) {
+    if (index < SUB_BUCKETS) {
+      return index;
+    }
+    int shift = index / HALF_SUB_BUCKETS - 1;
+    long lowest = (long) (index % HALF_SUB_BUCKETS + HALF_SUB_BUCKETS) << shift;
+    return lowest + (1L << shift) - 1;
+  }
+}
@@ -0,0 +1,164 @@
+package org.littleshoot.proxy.monitoring;
+
+import org.littleshoot.proxy.HttpFilters;
+import org.littleshoot.proxy.impl.ProxyUtils;
+import org.littleshoot.proxy.monitoring.PhaseMetrics.Phase;
+
+import java.net.InetSocketAddress;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.HttpObject;
+import io.netty.handler.codec.http.HttpResponse;
+
+/**
+ * Filters that time the steps of a request as they are reported, and otherwise pass everything on to the filters
+ * they wrap. Steps are reported on the event loops of both the client and the server connection, so the times at
+ * which they started are volatile.
+ */
+class LatencyRecordingFilters implements HttpFilters {
+
+  private final HttpFilters delegate;
+  private final PhaseMetrics totals;
+  private final PhaseMetrics origin;
+
+  private final long receivedAt = System.nanoTime();
+  private volatile long resolutionStartedAt;
+  private volatile long connectionStartedAt;
+  private volatile long handshakeStartedAt;
+  private volatile long requestSentAt;
+  private volatile boolean completed;
+
+  LatencyRecordingFilters(HttpFilters delegate, PhaseMetrics totals, PhaseMetrics origin) {
+    this.delegate = delegate;
+    this.totals = totals;
+    this.origin = origin;
+
+    totals.recordRequest();
+    origin.recordRequest();
+  }
+
+  private void record(Phase phase, long startedAt) {
+    if (startedAt != 0) {
+      long nanos = System.nanoTime() - startedAt;
+      totals.record(phase, nanos);
+      origin.record(phase, nanos);
+    }
+  }
+
+  private void recordFailure() {
+    totals.recordFailure();
+    origin.recordFailure();
+  }
+
+  @Override
+  public HttpResponse clientToProxyRequest(HttpObject httpObject) {
+    return delegate.clientToProxyRequest(httpObject);
+  }
+
+  @Override
+  public HttpResponse proxyToServerRequest(HttpObject httpObject) {
+    return delegate.proxyToServerRequest(httpObject);
+  }
+
+  @Override
+  public void proxyToServerRequestSending() {
+    delegate.proxyToServerRequestSending();
+  }
+
+  @Override
+  public void proxyToServerRequestSent() {
+    requestSentAt = System.nanoTime();
+    delegate.proxyToServerRequestSent();
+  }
+
+  @Override
+  public HttpObject serverToProxyResponse(HttpObject httpObject) {
+    return delegate.serverToProxyResponse(httpObject);
+  }
+
+  @Override
+  public void serverToProxyResponseTimedOut() {
+    recordFailure();
+    delegate.serverToProxyResponseTimedOut();
+  }
+
+  @Override
+  public void serverToProxyResponseReceiving() {
+    record(Phase.TIME_TO_FIRST_BYTE, requestSentAt);
+    requestSentAt = 0;
+    delegate.serverToProxyResponseReceiving();
+  }
+
+  @Override
+  public void serverToProxyResponseReceived() {
+    delegate.serverToProxyResponseReceived();
+  }
+
+  @Override
+  public HttpObject proxyToClientResponse(HttpObject httpObject) {
+    HttpObject filtered = delegate.proxyToClientResponse(httpObject);
+    // the filters of the previous request also see short-circuit responses written before the next one is filtered,
+    // so only the first response is timed
+    if (filtered != null && ProxyUtils.isLastChunk(filtered) && !completed) {
+      completed = true;
+      record(Phase.TOTAL, receivedAt);
+    }
+    return filtered;
+  }
+
+  @Override
+  public void proxyToServerConnectionQueued() {
+    delegate.proxyToServerConnectionQueued();
+  }
+
+  @Override
+  public InetSocketAddress proxyToServerResolutionStarted(String resolvingServerHostAndPort) {
+    resolutionStartedAt = System.nanoTime();
+    return delegate.proxyToServerResolutionStarted(resolvingServerHostAndPort);
+  }
+
+  @Override
+  public void proxyToServerResolutionFailed(String hostAndPort) {
+    resolutionStartedAt = 0;
+    recordFailure();
+    delegate.proxyToServerResolutionFailed(hostAndPort);
+  }
+
+  @Override
+  public void proxyToServerResolutionSucceeded(String serverHostAndPort, InetSocketAddress resolvedRemoteAddress) {
+    record(Phase.DNS, resolutionStartedAt);
+    resolutionStartedAt = 0;
+    delegate.proxyToServerResolutionSucceeded(serverHostAndPort, resolvedRemoteAddress);
+  }
+
+  @Override
+  public void proxyToServerConnectionStarted() {
+    connectionStartedAt = System.nanoTime();
+    delegate.proxyToServerConnectionStarted();
+  }
+
+  @Override
+  public void proxyToServerConnectionSSLHandshakeStarted() {
+    record(Phase.CONNECT, connectionStartedAt);
+    connectionStartedAt = 0;
+    handshakeStartedAt = System.nanoTime();
+    delegate.proxyToServerConnectionSSLHandshakeStarted();
+  }
+
+  @Override
+  public void proxyToServerConnectionFailed() {
+    connectionStartedAt = 0;
+    handshakeStartedAt = 0;
+    recordFailure();
+    delegate.proxyToServerConnectionFailed();
+  }
+
+  @Override
+  public void proxyToServerConnectionSucceeded(ChannelHandlerContext serverCtx) {
+    record(Phase.CONNECT, connectionStartedAt);
+    record(Phase.TLS_HANDSHAKE, handshakeStartedAt);
+    connectionStartedAt = 0;
+    handshakeStartedAt = 0;
+    delegate.proxyToServerConnectionSucceeded(serverCtx);
+  }
+}
@@ -0,0 +1,47 @@
+package org.littleshoot.proxy.monitoring;
+
+import org.littleshoot.proxy.HttpFilters;
+import org.littleshoot.proxy.HttpFiltersAdapter;
+import org.littleshoot.proxy.HttpFiltersSource;
+import org.littleshoot.proxy.impl.ProxyUtils;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpRequest;
+
+/**
+ * Filters source that wraps the filters of every request in {@link LatencyRecordingFilters}, including the requests
+ * that the wrapped source does not filter.
+ */
+class LatencyRecordingFiltersSource implements HttpFiltersSource {
+
+  private final HttpFiltersSource delegate;
+  private final ProxyMetrics metrics;
+
+  LatencyRecordingFiltersSource(HttpFiltersSource delegate, ProxyMetrics metrics) {
+    this.delegate = delegate;
+    this.metrics = metrics;
+  }
+
+  @Override
+  public HttpFilters filterRequest(HttpRequest originalRequest, ChannelHandlerContext ctx) {
+    HttpFilters filters = delegate.filterRequest(originalRequest, ctx);
+
+    String origin = ProxyUtils.parseHostAndPort(originalRequest);
+    if (origin == null || origin.isEmpty()) {
+      origin = originalRequest.headers().get(HttpHeaderNames.HOST);
+    }
+    return new LatencyRecordingFilters(filters != null ? filters : HttpFiltersAdapter.NOOP_FILTER,
+        metrics.getTotals(), metrics.forOrigin(origin));
+  }
+
+  @Override
+  public int getMaximumRequestBufferSizeInBytes() {
+    return delegate.getMaximumRequestBufferSizeInBytes();
+  }
+
+  @Override
+  public int getMaximumResponseBufferSizeInBytes() {
+    return delegate.getMaximumResponseBufferSizeInBytes();
+  }
+}
@@ -0,0 +1,60 @@
+package org.littleshoot.proxy.monitoring;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+
+/**
+ * Configuration object for the latency metrics of a proxy server. Controls how many origins are broken down
+ * separately, and where the metrics are served over HTTP.
+ */
+public class MetricsConfiguration {
+  /**
+   * The default maximum number of origins whose latencies are recorded separately.
+   */
+  public static final int DEFAULT_MAX_ORIGINS = 100;
+
+  private int maxOrigins = DEFAULT_MAX_ORIGINS;
+  private InetSocketAddress adminAddress;
+
+  public int getMaxOrigins() {
+    return maxOrigins;
+  }
+
+  /**
+   * Set the maximum number of origins whose latencies are recorded separately. Requests to origins beyond this number
+   * are recorded under {@link ProxyMetrics#OTHER_ORIGINS}. A value of 0 disables the per-origin breakdown. The default
+   * value is {@link #DEFAULT_MAX_ORIGINS}.
+   *
+   * @param maxOrigins maximum number of origins
+   * @return this metrics configuration instance, for chaining
+   */
+  public MetricsConfiguration withMaxOrigins(int maxOrigins) {
+    this.maxOrigins = maxOrigins;
+    return this;
+  }
+
+  public InetSocketAddress getAdminAddress() {
+    return adminAddress;
+  }
+
+  /**
+   * Serve the metrics as JSON on the given address, see {@link MetricsEndpoint}. By default they are not served.
+   *
+   * @param adminAddress address of the admin endpoint
+   * @return this metrics configuration instance, for chaining
+   */
+  public MetricsConfiguration withAdminAddress(InetSocketAddress adminAddress) {
+    this.adminAddress = adminAddress;
+    return this;
+  }
+
+  /**
+   * Serve the metrics as JSON on the given port of the loopback interface, see {@link MetricsEndpoint}.
+   *
+   * @param adminPort port of the admin endpoint, or 0 for an ephemeral port
+   * @return this metrics configuration instance, for chaining
+   */
+  public MetricsConfiguration withAdminPort(int adminPort) {
+    return withAdminAddress(new InetSocketAddress(InetAddress.getLoopbackAddress(), adminPort));
+  }
+}
@@ -0,0 +1,222 @@
+package org.littleshoot.proxy.monitoring;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.littleshoot.proxy.impl.ProxyUtils;
+import org.littleshoot.proxy.impl.UpstreamTlsSessionCache;
+import org.littleshoot.proxy.monitoring.PhaseMetrics.Phase;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetSocketAddress;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpServerCodec;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.codec.http.HttpVersion;
+
+/**
+ * <p>
+ * Local admin endpoint that serves {@link ProxyMetrics} as JSON in response to {@code GET /metrics}. It runs on a
+ * single thread of its own, so a slow reader of the metrics never holds up the proxy's event loops.
+ * </p>
+ *
+ * <p>
+ * For the totals and for each origin, the report holds the request and failure counts, and for each
+ * {@link Phase} the number of recorded latencies and their mean, percentiles and maximum, in microseconds. If the
+ * proxy resumes TLS sessions with servers, the report also holds the counts of full and resumed upstream handshakes.
+ * </p>
+ */
+public class MetricsEndpoint {
+  private static final Logger LOG = LoggerFactory.getLogger(MetricsEndpoint.class);
+
+  /**
+   * The path the metrics are served on.
+   */
+  public static final String PATH = "/metrics";
+
+  private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+  private static final String[] PERCENTILE_NAMES = {"p50", "p90", "p99", "p999"};
+
+  private final ProxyMetrics metrics;
+  private final InetSocketAddress requestedAddress;
+  private final UpstreamTlsSessionCache tlsSessionCache;
+  private EventLoopGroup eventLoopGroup;
+  private Channel channel;
+
+  public MetricsEndpoint(ProxyMetrics metrics, InetSocketAddress requestedAddress) {
+    this(metrics, requestedAddress, null);
+  }
+
+  /**
+   * @param tlsSessionCache the proxy's upstream TLS session cache, whose handshake counts are reported, or null
+   */
+  public MetricsEndpoint(ProxyMetrics metrics, InetSocketAddress requestedAddress,
+      UpstreamTlsSessionCache tlsSessionCache) {
+    this.metrics = metrics;
+    this.requestedAddress = requestedAddress;
+    this.tlsSessionCache = tlsSessionCache;
+  }
+
+  /**
+   * Binds the endpoint to its address.
+   *
+   * @return this endpoint
+   */
+  public synchronized MetricsEndpoint start() {
+    if (channel != null) {
+      return this;
+    }
+
+    eventLoopGroup = new NioEventLoopGroup(1, new ThreadFactoryBuilder()
+        .setNameFormat("LittleProxy-Metrics-%d")
+        .setDaemon(true)
+        .build());
+    try {
+      channel = new ServerBootstrap()
+          .group(eventLoopGroup)
+          .channel(NioServerSocketChannel.class)
+          .childHandler(new ChannelInitializer<Channel>() {
+            @Override
+            protected void initChannel(Channel ch) throws Exception {
+              ch.pipeline().addLast("codec", new HttpServerCodec());
+              ch.pipeline().addLast("aggregator", new HttpObjectAggregator(8192));
+              ch.pipeline().addLast("handler", new MetricsHandler());
+            }
+          })
+          .bind(requestedAddress)
+          .syncUninterruptibly()
+          .channel();
+    } catch (RuntimeException e) {
+      eventLoopGroup.shutdownGracefully(0, 0, TimeUnit.SECONDS);
+      eventLoopGroup = null;
+      throw e;
+    }
+    LOG.info("Serving metrics on http://{}:{}{}", getAddress().getHostString(), getAddress().getPort(), PATH);
+    return this;
+  }
+
+  /**
+   * Closes the endpoint.
+   */
+  public synchronized void stop() {
+    if (channel != null) {
+      channel.close().syncUninterruptibly();
+      eventLoopGroup.shutdownGracefully(0, 0, TimeUnit.SECONDS);
+      channel = null;
+      eventLoopGroup = null;
+    }
+  }
+
+  /**
+   * @return the address the endpoint is bound to, or null if it is not started
+   */
+  public synchronized InetSocketAddress getAddress() {
+    return channel != null ? (InetSocketAddress) channel.localAddress() : null;
+  }
+
+  /**
+   * @return the metrics as a JSON object
+   */
+  String toJson() {
+    StringBuilder json = new StringBuilder(1024);
+    json.append("{\"totals\":");
+    appendPhaseMetrics(json, metrics.getTotals());
+    json.append(",\"origins\":{");
+    boolean first = true;
+    for (Map.Entry<String, PhaseMetrics> origin : metrics.getOrigins().entrySet()) {
+      if (!first) {
+        json.append(',');
+      }
+      first = false;
+      appendString(json, origin.getKey());
+      json.append(':');
+      appendPhaseMetrics(json, origin.getValue());
+    }
+    json.append('}');
+    if (tlsSessionCache != null) {
+      json.append(",\"upstreamTls\":{\"fullHandshakes\":").append(tlsSessionCache.getFullHandshakes())
+          .append(",\"resumedHandshakes\":").append(tlsSessionCache.getResumedHandshakes()).append('}');
+    }
+    return json.append('}').toString();
+  }
+
+  private static void appendPhaseMetrics(StringBuilder json, PhaseMetrics phaseMetrics) {
+    json.append("{\"requests\":").append(phaseMetrics.getRequests())
+        .append(",\"failures\":").append(phaseMetrics.getFailures());
+    for (Phase phase : Phase.values()) {
+      LatencyHistogram histogram = phaseMetrics.getHistogram(phase);
+      json.append(",\"").append(phase.name().toLowerCase(Locale.US)).append("\":{")
+          .append("\"count\":").append(histogram.getCount())
+          .append(",\"meanMicros\":").append(String.format(Locale.US, "%.1f", histogram.getMeanMicros()));
+      for (int i = 0; i < PERCENTILES.length; i++) {
+        json.append(",\"").append(PERCENTILE_NAMES[i]).append("Micros\":")
+            .append(histogram.getValueAtPercentileMicros(PERCENTILES[i]));
+      }
+      json.append(",\"maxMicros\":").append(histogram.getMaxMicros()).append('}');
+    }
+    json.append('}');
+  }
+
+  private static void appendString(StringBuilder json, String value) {
+    json.append('"');
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c == '"' || c == '\\') {
+        json.append('\\').append(c);
+      } else if (c < 0x20) {
+        json.append(String.format("\\u%04x", (int) c));
+      } else {
+        json.append(c);
+      }
+    }
+    json.append('"');
+  }
+
+  private class MetricsHandler extends SimpleChannelInboundHandler<FullHttpRequest> {
+    @Override
+    protected void channelRead0(ChannelHandlerContext ctx, FullHttpRequest request) throws Exception {
+      FullHttpResponse response;
+      if (!HttpMethod.GET.equals(request.method())) {
+        response = ProxyUtils.createFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.METHOD_NOT_ALLOWED,
+            "Method not allowed");
+      } else if (!PATH.equals(request.uri()) && !request.uri().startsWith(PATH + "?")) {
+        response = ProxyUtils.createFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.NOT_FOUND,
+            "Not found");
+      } else {
+        response = ProxyUtils.createFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK, toJson());
+        response.headers().set(HttpHeaderNames.CONTENT_TYPE, "application/json; charset=UTF-8");
+      }
+
+      boolean keepAlive = HttpUtil.isKeepAlive(request);
+      HttpUtil.setKeepAlive(response, keepAlive);
+      if (keepAlive) {
+        ctx.writeAndFlush(response);
+      } else {
+        ctx.writeAndFlush(response).addListener(ChannelFutureListener.CLOSE);
+      }
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
+      LOG.debug("Error serving metrics", cause);
+      ctx.close();
+    }
+  }
+}
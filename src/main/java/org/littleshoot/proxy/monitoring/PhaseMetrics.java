@@ -0,0 +1,85 @@
+package org.littleshoot.proxy.monitoring;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency histograms for each {@link Phase} of the requests to one origin, or to all of them, along with request and
+ * failure counts.
+ */
+public class PhaseMetrics {
+
+  /**
+   * The steps of proxying a request whose latency is recorded.
+   */
+  public enum Phase {
+    /**
+     * Resolving the server's address.
+     */
+    DNS,
+
+    /**
+     * Establishing the TCP connection to the server.
+     */
+    CONNECT,
+
+    /**
+     * The TLS handshake with the server.
+     */
+    TLS_HANDSHAKE,
+
+    /**
+     * From the request being sent to the server until the server's response starts.
+     */
+    TIME_TO_FIRST_BYTE,
+
+    /**
+     * From the request being received from the client until the end of the response is written to the client.
+     */
+    TOTAL
+  }
+
+  private final Map<Phase, LatencyHistogram> histograms = new EnumMap<Phase, LatencyHistogram>(Phase.class);
+  private final LongAdder requests = new LongAdder();
+  private final LongAdder failures = new LongAdder();
+
+  PhaseMetrics() {
+    for (Phase phase : Phase.values()) {
+      histograms.put(phase, new LatencyHistogram());
+    }
+  }
+
+  void recordRequest() {
+    requests.increment();
+  }
+
+  void recordFailure() {
+    failures.increment();
+  }
+
+  void record(Phase phase, long nanos) {
+    histograms.get(phase).recordNanos(nanos);
+  }
+
+  /**
+   * @return the latencies of the given phase
+   */
+  public LatencyHistogram getHistogram(Phase phase) {
+    return histograms.get(phase);
+  }
+
+  /**
+   * @return number of requests received from clients
+   */
+  public long getRequests() {
+    return requests.sum();
+  }
+
+  /**
+   * @return number of requests whose server could not be resolved, connected to, or did not respond in time
+   */
+  public long getFailures() {
+    return failures.sum();
+  }
+}
@@ -0,0 +1,95 @@
+package org.littleshoot.proxy.monitoring;
+
+import org.littleshoot.proxy.HttpFiltersSource;
+
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * <p>
+ * Latency metrics of a proxy server, recorded from the steps that its {@link org.littleshoot.proxy.HttpFilters} are
+ * informed of: DNS resolution, connecting, the TLS handshake, the time to the first byte of the server's response and
+ * the total time of each request (see {@link PhaseMetrics.Phase}).
+ * </p>
+ *
+ * <p>
+ * Latencies are recorded for all requests together, and for each origin ("host:port") separately. To bound the memory
+ * and the size of the report, only the first {@link MetricsConfiguration#getMaxOrigins()} origins are broken down, and
+ * requests to any other origin are recorded under {@link #OTHER_ORIGINS}.
+ * </p>
+ */
+public class ProxyMetrics {
+
+  /**
+   * The origin under which requests are recorded once the maximum number of origins has been reached.
+   */
+  public static final String OTHER_ORIGINS = "other";
+
+  private final MetricsConfiguration configuration;
+  private final PhaseMetrics totals = new PhaseMetrics();
+  private final ConcurrentMap<String, PhaseMetrics> origins = new ConcurrentHashMap<String, PhaseMetrics>();
+  private final PhaseMetrics otherOrigins = new PhaseMetrics();
+
+  public ProxyMetrics(MetricsConfiguration configuration) {
+    this.configuration = configuration;
+  }
+
+  public MetricsConfiguration getConfiguration() {
+    return configuration;
+  }
+
+  /**
+   * Wraps a filters source, so that the filters of every request record their latencies in these metrics.
+   *
+   * @param filtersSource the proxy's filters source
+   * @return filters source that records latencies and otherwise behaves like the given one
+   */
+  public HttpFiltersSource recordingFiltersSource(HttpFiltersSource filtersSource) {
+    return new LatencyRecordingFiltersSource(filtersSource, this);
+  }
+
+  /**
+   * @return the latencies of all requests
+   */
+  public PhaseMetrics getTotals() {
+    return totals;
+  }
+
+  /**
+   * @return the latencies of the requests to each origin that is broken down, and those of the requests to all other
+   *         origins under {@link #OTHER_ORIGINS} if there are any
+   */
+  public Map<String, PhaseMetrics> getOrigins() {
+    Map<String, PhaseMetrics> origins = new TreeMap<String, PhaseMetrics>(this.origins);
+    if (otherOrigins.getRequests() > 0) {
+      origins.put(OTHER_ORIGINS, otherOrigins);
+    }
+    return Collections.unmodifiableMap(origins);
+  }
+
+  /**
+   * @return the metrics that requests to the given origin are recorded in
+   */
+  PhaseMetrics forOrigin(String origin) {
+    if (origin == null) {
+      return otherOrigins;
+    }
+
+    String key = origin.toLowerCase(Locale.US);
+    PhaseMetrics metrics = origins.get(key);
+    if (metrics != null) {
+      return metrics;
+    }
+    // the bound may be overshot by a few origins that are added concurrently
+    if (origins.size() >= configuration.getMaxOrigins()) {
+      return otherOrigins;
+    }
+    PhaseMetrics created = new PhaseMetrics();
+    metrics = origins.putIfAbsent(key, created);
+    return metrics != null ? metrics : created;
+  }
+}
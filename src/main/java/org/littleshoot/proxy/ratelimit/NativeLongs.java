@@ -0,0 +1,88 @@
+package org.littleshoot.proxy.ratelimit;
+
+import io.netty.util.internal.PlatformDependent;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+
+/**
+ * Volatile reads and compare-and-set of longs in native memory, such as that of a memory-mapped file. Java 8 only
+ * offers these through {@code sun.misc.Unsafe}, which is looked up at runtime, and only used if Netty found it usable
+ * as well. When it is not, {@link #isAvailable()} returns false and the other methods must not be called.
+ */
+final class NativeLongs {
+  private static final MethodHandle GET_LONG_VOLATILE;
+  private static final MethodHandle COMPARE_AND_SWAP_LONG;
+  private static final Throwable UNAVAILABILITY_CAUSE;
+
+  static {
+    MethodHandle getLongVolatile = null;
+    MethodHandle compareAndSwapLong = null;
+    Throwable cause = null;
+    if (PlatformDependent.hasUnsafe()) {
+      try {
+        Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+        Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+        theUnsafe.setAccessible(true);
+        Object unsafe = theUnsafe.get(null);
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        getLongVolatile = lookup.findVirtual(unsafeClass, "getLongVolatile",
+            MethodType.methodType(long.class, Object.class, long.class)).bindTo(unsafe);
+        compareAndSwapLong = lookup.findVirtual(unsafeClass, "compareAndSwapLong",
+            MethodType.methodType(boolean.class, Object.class, long.class, long.class, long.class)).bindTo(unsafe);
+      } catch (Throwable t) {
+        getLongVolatile = null;
+        compareAndSwapLong = null;
+        cause = t;
+      }
+    } else {
+      cause = PlatformDependent.getUnsafeUnavailabilityCause();
+    }
+    GET_LONG_VOLATILE = getLongVolatile;
+    COMPARE_AND_SWAP_LONG = compareAndSwapLong;
+    UNAVAILABILITY_CAUSE = cause;
+  }
+
+  private NativeLongs() {
+  }
+
+  /**
+   * @return true if native memory can be accessed on this platform
+   */
+  static boolean isAvailable() {
+    return UNAVAILABILITY_CAUSE == null;
+  }
+
+  /**
+   * @return why native memory can not be accessed on this platform, or null if it can
+   */
+  static Throwable unavailabilityCause() {
+    return UNAVAILABILITY_CAUSE;
+  }
+
+  /**
+   * @return the address of the first byte of a direct buffer
+   */
+  static long address(ByteBuffer buffer) {
+    return PlatformDependent.directBufferAddress(buffer);
+  }
+
+  static long getVolatile(long address) {
+    try {
+      return (long) GET_LONG_VOLATILE.invokeExact((Object) null, address);
+    } catch (Throwable t) {
+      throw new IllegalStateException(t);
+    }
+  }
+
+  static boolean compareAndSet(long address, long expected, long value) {
+    try {
+      return (boolean) COMPARE_AND_SWAP_LONG.invokeExact((Object) null, address, expected, value);
+    } catch (Throwable t) {
+      throw new IllegalStateException(t);
+    }
+  }
+}
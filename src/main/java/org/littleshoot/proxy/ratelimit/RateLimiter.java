@@ -1,5 +1,7 @@
 package org.littleshoot.proxy.ratelimit;
 
+import org.littleshoot.proxy.FlowContext;
+
 import io.netty.handler.codec.http.FullHttpResponse;
 import io.netty.handler.codec.http.HttpRequest;
 
@@ -17,6 +19,20 @@ public interface RateLimiter {
    */
   boolean isOverLimit(HttpRequest request);
 
+  /**
+   * Rate Limiting general http requests, with the context of the client connection they arrive on. The proxy calls
+   * this for every request, after authentication and before it does any other work for the request. The default
+   * implementation ignores the context.
+   *
+   * @param request
+   * @param flowContext the client connection's address, PROXY protocol source IP and authenticated user
+   * @return <code>true</code> if http request hit rate limit
+   * <code>false</code>.
+   */
+  default boolean isOverLimit(HttpRequest request, FlowContext flowContext) {
+    return isOverLimit(request);
+  }
+
   /**
    * Rate Limiting user authentication requests
    *
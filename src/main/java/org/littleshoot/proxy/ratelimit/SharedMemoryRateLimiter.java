@@ -0,0 +1,315 @@
+package org.littleshoot.proxy.ratelimit;
+
+import org.littleshoot.proxy.FlowContext;
+import org.littleshoot.proxy.authenticator.BasicCredentials;
+import org.littleshoot.proxy.impl.ProxyUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+
+/**
+ * <p>
+ * Token bucket rate limiter whose buckets live in a memory-mapped file, so that all proxy processes on a host that
+ * map the same file enforce one shared limit per client, without a network round trip. The limits work like those of
+ * {@link TokenBucketRateLimiter}, and every process must be configured with the same rates.
+ * </p>
+ *
+ * <p>
+ * The file holds a fixed number of 16-byte slots in an open-addressed table. A slot holds a 64-bit hash of the
+ * client's key and the time at which its bucket is full again, in nanoseconds of wall-clock time, since
+ * {@link System#nanoTime()} is not comparable between processes. Both are updated with compare-and-set directly on the
+ * mapped memory. A client's slot is found by probing up to {@value #MAX_PROBES} slots from the one its hash selects.
+ * A slot whose bucket is full again can be taken over by another client; if none of the probed slots is free or full,
+ * the request is let through and counted by {@link #getOverflows()}.
+ * </p>
+ *
+ * <p>
+ * Compare-and-set on mapped memory needs {@code sun.misc.Unsafe}, as Netty uses it. On platforms where Netty can not use
+ * it, the constructor throws an {@link UnsupportedOperationException}, and {@link TokenBucketRateLimiter} can be used
+ * instead, with a separate limit per process.
+ * </p>
+ */
+public class SharedMemoryRateLimiter implements RateLimiter {
+
+  /**
+   * The default number of slots, which makes a 1 MB file.
+   */
+  public static final int DEFAULT_SLOTS = 65536;
+
+  static final int MAX_PROBES = 8;
+
+  private static final long MAGIC = 0x4c50524c494d4954L;
+  private static final int HEADER_BYTES = 64;
+  private static final int SLOT_BYTES = 16;
+
+  private final TokenBucketRateLimiter.KeyType keyType;
+  private final long emissionIntervalNanos;
+  private final long burstNanos;
+  private volatile long authenticationIntervalNanos;
+  private volatile long authenticationBurstNanos;
+  private volatile long authenticationFailureIntervalNanos;
+  private volatile long authenticationFailureBurstNanos;
+
+  // the mapping must stay reachable while its memory is used, since it is unmapped when the buffer is collected
+  private final MappedByteBuffer mapped;
+  private final long slotsAddress;
+  private final int slotMask;
+
+  private final LongAdder limitedRequests = new LongAdder();
+  private final LongAdder overflows = new LongAdder();
+
+  /**
+   * How long the client of the request this thread last rejected has to wait, for the Retry-After header of
+   * {@link #limitReachedResponse(HttpRequest)}.
+   */
+  private final ThreadLocal<Long> rejectedWaitNanos = new ThreadLocal<Long>();
+
+  public SharedMemoryRateLimiter(File file, TokenBucketRateLimiter.KeyType keyType, double requestsPerSecond,
+      int burst) throws IOException {
+    this(file, keyType, requestsPerSecond, burst, DEFAULT_SLOTS);
+  }
+
+  /**
+   * Maps the file, creating it if it does not exist yet.
+   *
+   * @param file              the file shared by the proxy processes
+   * @param keyType           how clients are identified
+   * @param requestsPerSecond sustained number of requests a client may send per second
+   * @param burst             number of requests a client may send at once
+   * @param slots             number of slots in the table, a power of two. Processes sharing the file must use the
+   *                          same number.
+   * @throws IOException if the file can not be created or mapped
+   * @throws UnsupportedOperationException if the platform does not allow compare-and-set on mapped memory
+   */
+  public SharedMemoryRateLimiter(File file, TokenBucketRateLimiter.KeyType keyType, double requestsPerSecond,
+      int burst, int slots) throws IOException {
+    if (slots <= 0 || Integer.bitCount(slots) != 1) {
+      throw new IllegalArgumentException("slots: " + slots + " (expected: a power of two)");
+    }
+    if (!NativeLongs.isAvailable()) {
+      throw new UnsupportedOperationException(
+          "Shared memory rate limiting needs sun.misc.Unsafe, which is not available on this platform",
+          NativeLongs.unavailabilityCause());
+    }
+    this.keyType = keyType;
+    this.emissionIntervalNanos = emissionIntervalNanos(requestsPerSecond, burst);
+    this.burstNanos = emissionIntervalNanos * burst;
+    this.slotMask = slots - 1;
+
+    long size = HEADER_BYTES + (long) slots * SLOT_BYTES;
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+      if (raf.length() < size) {
+        // extending the file fills it with zeros, which are empty slots
+        raf.setLength(size);
+      }
+      this.mapped = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+    }
+    long address = NativeLongs.address(mapped);
+    this.slotsAddress = address + HEADER_BYTES;
+
+    if (!NativeLongs.compareAndSet(address, 0, MAGIC) && NativeLongs.getVolatile(address) != MAGIC) {
+      throw new IllegalArgumentException(file + " is not a rate limit file");
+    }
+    if (!NativeLongs.compareAndSet(address + 8, 0, slots)
+        && NativeLongs.getVolatile(address + 8) != slots) {
+      throw new IllegalArgumentException(file + " was created with " + NativeLongs.getVolatile(address + 8)
+          + " slots, not " + slots);
+    }
+  }
+
+  private static long emissionIntervalNanos(double perSecond, int burst) {
+    if (perSecond <= 0) {
+      throw new IllegalArgumentException("perSecond: " + perSecond + " (expected: > 0)");
+    }
+    if (burst < 1) {
+      throw new IllegalArgumentException("burst: " + burst + " (expected: >= 1)");
+    }
+    return Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / perSecond));
+  }
+
+  /**
+   * Limits the authentication attempts of each user name, in the same file.
+   *
+   * @param attemptsPerSecond sustained number of attempts per second
+   * @param burst             number of attempts at once
+   * @return this rate limiter, for chaining
+   */
+  public SharedMemoryRateLimiter withAuthenticationLimit(double attemptsPerSecond, int burst) {
+    this.authenticationIntervalNanos = emissionIntervalNanos(attemptsPerSecond, burst);
+    this.authenticationBurstNanos = authenticationIntervalNanos * burst;
+    return this;
+  }
+
+  /**
+   * Limits the failed authentication attempts of each user name, in the same file.
+   *
+   * @param failuresPerSecond sustained number of failures per second
+   * @param burst             number of failures at once
+   * @return this rate limiter, for chaining
+   */
+  public SharedMemoryRateLimiter withAuthenticationFailureLimit(double failuresPerSecond, int burst) {
+    this.authenticationFailureIntervalNanos = emissionIntervalNanos(failuresPerSecond, burst);
+    this.authenticationFailureBurstNanos = authenticationFailureIntervalNanos * burst;
+    return this;
+  }
+
+  /**
+   * Without the context of the client connection, a request can not be attributed to a client, so it is never
+   * limited. The proxy calls {@link #isOverLimit(HttpRequest, FlowContext)} instead.
+   */
+  @Override
+  public boolean isOverLimit(HttpRequest request) {
+    return false;
+  }
+
+  @Override
+  public boolean isOverLimit(HttpRequest request, FlowContext flowContext) {
+    String key = TokenBucketRateLimiter.clientKey(keyType, flowContext);
+    if (key == null || !rejected(tryAcquire(key, emissionIntervalNanos, burstNanos))) {
+      return false;
+    }
+    limitedRequests.increment();
+    return true;
+  }
+
+  @Override
+  public boolean isAuthenticationOverLimit(HttpRequest request) {
+    return isUserOverLimit("auth:", authenticationIntervalNanos, authenticationBurstNanos, request);
+  }
+
+  @Override
+  public boolean isAuthenticationFailureOverLimit(HttpRequest request) {
+    return isUserOverLimit("auth-failure:", authenticationFailureIntervalNanos, authenticationFailureBurstNanos,
+        request);
+  }
+
+  private boolean isUserOverLimit(String prefix, long intervalNanos, long burstNanos, HttpRequest request) {
+    if (intervalNanos == 0) {
+      return false;
+    }
+    BasicCredentials credentials = ProxyUtils.getBasicCredentials(request);
+    return credentials != null && rejected(tryAcquire(prefix + credentials.getUsername(), intervalNanos, burstNanos));
+  }
+
+  /**
+   * @param waitNanos the result of taking a token from a bucket
+   * @return true if the bucket was empty, in which case the wait is remembered for the Retry-After header
+   */
+  private boolean rejected(long waitNanos) {
+    if (waitNanos == 0) {
+      return false;
+    }
+    rejectedWaitNanos.set(waitNanos);
+    return true;
+  }
+
+  @Override
+  public FullHttpResponse limitReachedResponse(HttpRequest request) {
+    FullHttpResponse response = ProxyUtils.createFullHttpResponse(
+        HttpVersion.HTTP_1_1,
+        HttpResponseStatus.TOO_MANY_REQUESTS,
+        "429 Too Many Requests");
+    Long waitNanos = rejectedWaitNanos.get();
+    rejectedWaitNanos.remove();
+    response.headers().set(HttpHeaderNames.RETRY_AFTER,
+        TokenBucketRateLimiter.retryAfterSeconds(waitNanos != null ? waitNanos : emissionIntervalNanos));
+    return response;
+  }
+
+  /**
+   * Takes a token from the bucket of the given key.
+   *
+   * @return 0 if a token was taken, or the time until the bucket holds a token again if it is empty
+   */
+  private long tryAcquire(String key, long intervalNanos, long burstNanos) {
+    long hash = hash(key);
+    long now = currentTimeNanos();
+
+    int start = (int) (hash ^ (hash >>> 32));
+    long reusable = 0;
+    long reusableHash = 0;
+    for (int probe = 0; probe < MAX_PROBES; probe++) {
+      long slot = slotsAddress + (long) ((start + probe) & slotMask) * SLOT_BYTES;
+      long slotHash = NativeLongs.getVolatile(slot);
+      if (slotHash == hash) {
+        return take(slot + 8, now, intervalNanos, burstNanos);
+      }
+      if (slotHash == 0) {
+        if (NativeLongs.compareAndSet(slot, 0, hash) || NativeLongs.getVolatile(slot) == hash) {
+          return take(slot + 8, now, intervalNanos, burstNanos);
+        }
+      } else if (reusable == 0 && NativeLongs.getVolatile(slot + 8) - now <= 0) {
+        reusable = slot;
+        reusableHash = slotHash;
+      }
+    }
+
+    // a full bucket is no different from a new one, so another client's slot can be taken over. A process that still
+    // holds on to it may take a token from the new client's bucket, which is at most one token too many.
+    if (reusable != 0 && NativeLongs.compareAndSet(reusable, reusableHash, hash)) {
+      return take(reusable + 8, now, intervalNanos, burstNanos);
+    }
+
+    overflows.increment();
+    return 0;
+  }
+
+  private static long take(long fullAtAddress, long now, long intervalNanos, long burstNanos) {
+    while (true) {
+      long fullAt = NativeLongs.getVolatile(fullAtAddress);
+      long newFullAt = Math.max(fullAt, now) + intervalNanos;
+      if (newFullAt - now > burstNanos) {
+        // a token is available once the theoretical arrival time is within one burst of the current time
+        return newFullAt - burstNanos - now;
+      }
+      if (NativeLongs.compareAndSet(fullAtAddress, fullAt, newFullAt)) {
+        return 0;
+      }
+    }
+  }
+
+  /**
+   * 64-bit FNV-1a hash of the key, which every process computes the same way. 0 marks an empty slot, so it is never
+   * returned.
+   */
+  static long hash(String key) {
+    long hash = 0xcbf29ce484222325L;
+    for (int i = 0; i < key.length(); i++) {
+      hash ^= key.charAt(i);
+      hash *= 0x100000001b3L;
+    }
+    return hash == 0 ? 1 : hash;
+  }
+
+  /**
+   * @return the current wall-clock time, in nanoseconds since the epoch
+   */
+  protected long currentTimeNanos() {
+    return TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis());
+  }
+
+  /**
+   * @return number of requests this process rejected because their client was over the limit
+   */
+  public long getLimitedRequests() {
+    return limitedRequests.sum();
+  }
+
+  /**
+   * @return number of requests this process let through because no slot was free for their client
+   */
+  public long getOverflows() {
+    return overflows.sum();
+  }
+}
@@ -0,0 +1,348 @@
+package org.littleshoot.proxy.ratelimit;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.littleshoot.proxy.FlowContext;
+import org.littleshoot.proxy.authenticator.BasicCredentials;
+import org.littleshoot.proxy.impl.ProxyUtils;
+
+import java.net.InetSocketAddress;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+
+/**
+ * <p>
+ * Rate limiter that gives every client a token bucket: a client may send {@code burst} requests at once, and one more
+ * request every {@code 1 / requestsPerSecond} seconds after that. Clients are identified by their IP address, by the
+ * source IP address reported by a PROXY protocol header, or by the user they authenticated as (see {@link KeyType}).
+ * </p>
+ *
+ * <p>
+ * Each bucket is a single {@link AtomicLong} holding the time at which it will be full again (the "theoretical arrival
+ * time" of the generic cell rate algorithm), so taking a token is one compare-and-set and never blocks. Buckets live
+ * in a {@link ConcurrentHashMap}, whose bins spread the contention between clients. A full bucket is no different from
+ * a new one, so a background thread periodically evicts buckets that have filled up.
+ * </p>
+ *
+ * <p>
+ * Authentication attempts and failures can be limited per user name as well, see
+ * {@link #withAuthenticationLimit(double, int)} and {@link #withAuthenticationFailureLimit(double, int)}.
+ * </p>
+ */
+public class TokenBucketRateLimiter implements RateLimiter {
+
+  /**
+   * How clients are identified.
+   */
+  public enum KeyType {
+    /**
+     * The IP address of the client connection.
+     */
+    CLIENT_IP,
+
+    /**
+     * The source IP address from the connection's PROXY protocol header, or the IP address of the client connection
+     * if it did not start with one.
+     */
+    SOURCE_IP,
+
+    /**
+     * The user the client authenticated as, or the IP address of the client connection if it has not authenticated.
+     */
+    USER
+  }
+
+  /**
+   * The default interval between evictions of idle buckets, in milliseconds.
+   */
+  public static final long DEFAULT_EVICTION_INTERVAL_MILLIS = 60000;
+
+  private final KeyType keyType;
+  private final TokenBuckets requests;
+  private volatile TokenBuckets authentications;
+  private volatile TokenBuckets authenticationFailures;
+  private final ScheduledExecutorService evictor;
+
+  private final LongAdder limitedRequests = new LongAdder();
+
+  /**
+   * How long the client of the request this thread last rejected has to wait, for the Retry-After header of
+   * {@link #limitReachedResponse(HttpRequest)}, which the proxy calls right after the rejection on the same thread.
+   */
+  private final ThreadLocal<Long> rejectedWaitNanos = new ThreadLocal<Long>();
+
+  public TokenBucketRateLimiter(KeyType keyType, double requestsPerSecond, int burst) {
+    this(keyType, requestsPerSecond, burst, DEFAULT_EVICTION_INTERVAL_MILLIS);
+  }
+
+  /**
+   * @param keyType               how clients are identified
+   * @param requestsPerSecond     sustained number of requests a client may send per second
+   * @param burst                 number of requests a client may send at once
+   * @param evictionIntervalMillis interval between evictions of idle buckets
+   */
+  public TokenBucketRateLimiter(KeyType keyType, double requestsPerSecond, int burst, long evictionIntervalMillis) {
+    this.keyType = keyType;
+    this.requests = new TokenBuckets(requestsPerSecond, burst);
+
+    this.evictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+        .setNameFormat("LittleProxy-RateLimiter-%d")
+        .setDaemon(true)
+        .build());
+    evictor.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        evictIdleBuckets();
+      }
+    }, evictionIntervalMillis, evictionIntervalMillis, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Limits the authentication attempts of each user name.
+   *
+   * @param attemptsPerSecond sustained number of attempts per second
+   * @param burst             number of attempts at once
+   * @return this rate limiter, for chaining
+   */
+  public TokenBucketRateLimiter withAuthenticationLimit(double attemptsPerSecond, int burst) {
+    this.authentications = new TokenBuckets(attemptsPerSecond, burst);
+    return this;
+  }
+
+  /**
+   * Limits the failed authentication attempts of each user name.
+   *
+   * @param failuresPerSecond sustained number of failures per second
+   * @param burst             number of failures at once
+   * @return this rate limiter, for chaining
+   */
+  public TokenBucketRateLimiter withAuthenticationFailureLimit(double failuresPerSecond, int burst) {
+    this.authenticationFailures = new TokenBuckets(failuresPerSecond, burst);
+    return this;
+  }
+
+  /**
+   * Without the context of the client connection, a request can not be attributed to a client, so it is never
+   * limited. The proxy calls {@link #isOverLimit(HttpRequest, FlowContext)} instead.
+   */
+  @Override
+  public boolean isOverLimit(HttpRequest request) {
+    return false;
+  }
+
+  @Override
+  public boolean isOverLimit(HttpRequest request, FlowContext flowContext) {
+    String key = clientKey(keyType, flowContext);
+    if (key == null || !rejected(requests.tryAcquire(key, nanoTime()))) {
+      return false;
+    }
+    limitedRequests.increment();
+    return true;
+  }
+
+  @Override
+  public boolean isAuthenticationOverLimit(HttpRequest request) {
+    return isUserOverLimit(authentications, request);
+  }
+
+  @Override
+  public boolean isAuthenticationFailureOverLimit(HttpRequest request) {
+    return isUserOverLimit(authenticationFailures, request);
+  }
+
+  private boolean isUserOverLimit(TokenBuckets buckets, HttpRequest request) {
+    if (buckets == null) {
+      return false;
+    }
+    BasicCredentials credentials = ProxyUtils.getBasicCredentials(request);
+    return credentials != null && rejected(buckets.tryAcquire(credentials.getUsername(), nanoTime()));
+  }
+
+  /**
+   * @param waitNanos the result of taking a token from a bucket
+   * @return true if the bucket was empty, in which case the wait is remembered for the Retry-After header
+   */
+  private boolean rejected(long waitNanos) {
+    if (waitNanos == 0) {
+      return false;
+    }
+    rejectedWaitNanos.set(waitNanos);
+    return true;
+  }
+
+  @Override
+  public FullHttpResponse limitReachedResponse(HttpRequest request) {
+    FullHttpResponse response = ProxyUtils.createFullHttpResponse(
+        HttpVersion.HTTP_1_1,
+        HttpResponseStatus.TOO_MANY_REQUESTS,
+        "429 Too Many Requests");
+    Long waitNanos = rejectedWaitNanos.get();
+    rejectedWaitNanos.remove();
+    response.headers().set(HttpHeaderNames.RETRY_AFTER,
+        retryAfterSeconds(waitNanos != null ? waitNanos : requests.emissionIntervalNanos));
+    return response;
+  }
+
+  /**
+   * @return the given wait in whole seconds, rounded up, and at least 1
+   */
+  static long retryAfterSeconds(long waitNanos) {
+    return Math.max(1, TimeUnit.NANOSECONDS.toSeconds(waitNanos + TimeUnit.SECONDS.toNanos(1) - 1));
+  }
+
+  /**
+   * @return the key that identifies the client of a request, or null if the client's address is not known
+   */
+  static String clientKey(KeyType keyType, FlowContext flowContext) {
+    switch (keyType) {
+      case USER:
+        String user = flowContext.getAuthenticatedUser();
+        if (user != null) {
+          return "user:" + user;
+        }
+        break;
+      case SOURCE_IP:
+        String sourceIp = flowContext.getSourceIp();
+        if (sourceIp != null) {
+          return sourceIp;
+        }
+        break;
+      default:
+        break;
+    }
+
+    InetSocketAddress clientAddress = flowContext.getClientAddress();
+    if (clientAddress == null) {
+      return null;
+    }
+    return clientAddress.getAddress() != null
+        ? clientAddress.getAddress().getHostAddress()
+        : clientAddress.getHostString();
+  }
+
+  /**
+   * Removes the buckets that have filled up since the client's last request.
+   */
+  protected void evictIdleBuckets() {
+    long now = nanoTime();
+    requests.evictIdle(now);
+    TokenBuckets authentications = this.authentications;
+    if (authentications != null) {
+      authentications.evictIdle(now);
+    }
+    TokenBuckets authenticationFailures = this.authenticationFailures;
+    if (authenticationFailures != null) {
+      authenticationFailures.evictIdle(now);
+    }
+  }
+
+  /**
+   * @return the current time, in nanoseconds from an arbitrary origin
+   */
+  protected long nanoTime() {
+    return System.nanoTime();
+  }
+
+  /**
+   * @return number of requests rejected because their client was over the limit
+   */
+  public long getLimitedRequests() {
+    return limitedRequests.sum();
+  }
+
+  /**
+   * @return number of clients with a bucket that is not full
+   */
+  public int getBuckets() {
+    return requests.buckets.size();
+  }
+
+  /**
+   * Stops the thread that evicts idle buckets. A proxy server calls this when the last server using this rate limiter
+   * stops.
+   */
+  public void shutdown() {
+    evictor.shutdownNow();
+  }
+
+  /**
+   * @return true once the thread that evicts idle buckets has been stopped
+   */
+  public boolean isShutdown() {
+    return evictor.isShutdown();
+  }
+
+  /**
+   * Token buckets with the same rate and size, keyed by client.
+   */
+  private static class TokenBuckets {
+    private final long emissionIntervalNanos;
+    private final long burstNanos;
+    private final ConcurrentMap<String, AtomicLong> buckets = new ConcurrentHashMap<String, AtomicLong>();
+
+    TokenBuckets(double perSecond, int burst) {
+      if (perSecond <= 0) {
+        throw new IllegalArgumentException("perSecond: " + perSecond + " (expected: > 0)");
+      }
+      if (burst < 1) {
+        throw new IllegalArgumentException("burst: " + burst + " (expected: >= 1)");
+      }
+      this.emissionIntervalNanos = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / perSecond));
+      this.burstNanos = emissionIntervalNanos * burst;
+    }
+
+    /**
+     * Takes a token from the client's bucket.
+     *
+     * @return 0 if a token was taken, or the time until the bucket holds a token again if it is empty
+     */
+    long tryAcquire(String key, long now) {
+      AtomicLong bucket = buckets.get(key);
+      if (bucket == null) {
+        // a bucket that is full at the current time
+        AtomicLong created = new AtomicLong(now);
+        bucket = buckets.putIfAbsent(key, created);
+        if (bucket == null) {
+          bucket = created;
+        }
+      }
+
+      while (true) {
+        long fullAt = bucket.get();
+        long newFullAt = Math.max(fullAt, now) + emissionIntervalNanos;
+        if (newFullAt - now > burstNanos) {
+          // a token is available once the theoretical arrival time is within one burst of the current time
+          return newFullAt - burstNanos - now;
+        }
+        if (bucket.compareAndSet(fullAt, newFullAt)) {
+          return 0;
+        }
+      }
+    }
+
+    /**
+     * Removes full buckets. A request that races with the eviction may take its token from the evicted bucket, which
+     * at most lets its client send one extra request.
+     */
+    void evictIdle(long now) {
+      Iterator<Map.Entry<String, AtomicLong>> it = buckets.entrySet().iterator();
+      while (it.hasNext()) {
+        if (it.next().getValue().get() - now <= 0) {
+          it.remove();
+        }
+      }
+    }
+  }
+}
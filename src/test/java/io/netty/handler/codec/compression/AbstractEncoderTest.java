@@ -84,9 +84,6 @@ public abstract class AbstractEncoderTest extends AbstractCompressionTest {
         testCompression(data);
     }
 
-/*
-    // TODO: Until I have some time to figure out how to batch compress, I will ignore this since
-    //       brotli is faster on decompression and is CPU-intensive for compression.
     @Theory
     public void testCompressionOfBatchedFlowOfData(@FromDataPoints("largeData") ByteBuf data) throws Exception {
         testCompressionOfBatchedFlow(data);
@@ -111,7 +108,6 @@ public abstract class AbstractEncoderTest extends AbstractCompressionTest {
         decompressed.release();
         data.release();
     }
-*/
 
     protected void testCompression(final ByteBuf data) throws Exception {
         final int dataLength = data.readableBytes();
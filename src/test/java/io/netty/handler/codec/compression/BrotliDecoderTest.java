@@ -112,6 +112,37 @@ public class BrotliDecoderTest extends AbstractCompressionTest {
     decompressed.release();
   }
 
+  @Test
+  public void testDecompressionOfSmallChunksIsStreamed() throws Exception {
+    // smaller than the buffers of the native decoder, so output only shows up early if it is pushed eagerly
+    byte[] original = Arrays.copyOf(BYTES_LARGE, 4096);
+    byte[] compressed = compress(original);
+    int chunkSize = 64;
+    int chunks = (compressed.length + chunkSize - 1) / chunkSize;
+    int firstOutputChunk = -1;
+    CompositeByteBuf decompressed = ByteBufAllocator.DEFAULT.compositeBuffer(Integer.MAX_VALUE);
+    for (int chunk = 0; chunk < chunks; chunk++) {
+      int start = chunk * chunkSize;
+      int end = Math.min(start + chunkSize, compressed.length);
+      channel.writeInbound(Unpooled.wrappedBuffer(Arrays.copyOfRange(compressed, start, end)));
+
+      ByteBuf msg;
+      while ((msg = channel.readInbound()) != null) {
+        if (firstOutputChunk < 0) {
+          firstOutputChunk = chunk;
+        }
+        decompressed.addComponent(true, msg);
+      }
+    }
+
+    Assert.assertTrue("Expected more than one compressed chunk", chunks > 1);
+    Assert.assertTrue("Expected decoded data before the last compressed chunk arrived",
+        firstOutputChunk >= 0 && firstOutputChunk < chunks - 1);
+    assertEquals(0, ByteBufUtil.compare(Unpooled.wrappedBuffer(original), decompressed));
+
+    decompressed.release();
+  }
+
   private static ByteBuf[] randomChunks(byte[] source) {
     List<byte[]> chunks = new ArrayList<>();
     int start = 0;
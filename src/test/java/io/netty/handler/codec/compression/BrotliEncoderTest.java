@@ -0,0 +1,70 @@
+package io.netty.handler.codec.compression;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.nixxcode.jvmbrotli.common.BrotliLoader;
+import com.nixxcode.jvmbrotli.dec.BrotliInputStream;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import java.io.InputStream;
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+public class BrotliEncoderTest extends AbstractEncoderTest {
+
+  static {
+    BrotliLoader.isBrotliAvailable();
+  }
+
+  @Override
+  public void initChannel() {
+    channel = new EmbeddedChannel(new BrotliEncoder());
+  }
+
+  @Override
+  protected ByteBuf decompress(ByteBuf compressed, int originalLength) throws Exception {
+    try (InputStream is = new BrotliInputStream(new ByteBufInputStream(compressed, true))) {
+      byte[] decompressed = IOUtils.toByteArray(is);
+      assertEquals(originalLength, decompressed.length);
+      return Unpooled.wrappedBuffer(decompressed);
+    }
+  }
+
+  @Test
+  public void testChunksAreFlushedBeforeTheStreamIsFinished() throws Exception {
+    assertTrue(channel.writeOutbound(Unpooled.wrappedBuffer(BYTES_SMALL)));
+    ByteBuf flushed = channel.readOutbound();
+    assertTrue("Expected the compressed chunk to be written out right away", flushed.isReadable());
+
+    assertTrue(channel.writeOutbound(Unpooled.wrappedBuffer(BYTES_SMALL)));
+    assertTrue(channel.finish());
+
+    CompositeByteBuf compressed = Unpooled.compositeBuffer();
+    compressed.addComponent(true, flushed);
+    ByteBuf msg;
+    while ((msg = channel.readOutbound()) != null) {
+      compressed.addComponent(true, msg);
+    }
+    ByteBuf decompressed = decompress(compressed, BYTES_SMALL.length * 2);
+    assertEquals(Unpooled.wrappedBuffer(BYTES_SMALL, BYTES_SMALL), decompressed);
+    decompressed.release();
+  }
+
+  @Test
+  public void testLaterChunksUseEarlierContext() throws Exception {
+    // the same chunk twice compresses to much less the second time, as it can refer back to the first one
+    assertTrue(channel.writeOutbound(Unpooled.wrappedBuffer(BYTES_LARGE)));
+    ByteBuf first = channel.readOutbound();
+    assertTrue(channel.writeOutbound(Unpooled.wrappedBuffer(BYTES_LARGE)));
+    ByteBuf second = channel.readOutbound();
+
+    assertTrue("Expected " + second.readableBytes() + " to be much smaller than " + first.readableBytes(),
+        second.readableBytes() * 10 < first.readableBytes());
+    first.release();
+    second.release();
+  }
+}
@@ -3,14 +3,21 @@ package io.netty.handler.codec.compression;
 import com.tngtech.java.junit.dataprovider.DataProvider;
 import com.tngtech.java.junit.dataprovider.DataProviderRunner;
 import com.tngtech.java.junit.dataprovider.UseDataProvider;
+import io.netty.buffer.Unpooled;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
 import io.netty.handler.codec.http.DefaultHttpHeaders;
+import io.netty.handler.codec.http.DefaultHttpResponse;
+import io.netty.handler.codec.http.FullHttpResponse;
 import io.netty.handler.codec.http.HttpContentEncoder.Result;
 import io.netty.handler.codec.http.HttpHeaderNames;
 import io.netty.handler.codec.http.HttpHeaders;
 import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.codec.http.HttpVersion;
 import org.hamcrest.Matcher;
 import org.junit.Before;
 import org.junit.Test;
@@ -94,4 +101,40 @@ public class BrotliHttpContentCompressorTest {
     assertNotNull(result);
     assertThat(result.contentEncoder().pipeline().get(BrotliEncoder.class), brotli);
   }
+
+  @Test
+  public void testResponseBelowContentSizeThresholdIsNotCompressed() throws Exception {
+    compressor = new BrotliHttpContentCompressor(BrotliEncoder.DEFAULT_COMPRESSION_QUALITY, 20, 1024);
+    ChannelHandlerContext ctx = mock(ChannelHandlerContext.class);
+    when(ctx.channel()).thenReturn(channel);
+    compressor.handlerAdded(ctx);
+    channel.attr(CONTENT_COMPRESSION_ATTRIBUTE).set("br");
+
+    HttpResponse small = new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
+    HttpUtil.setContentLength(small, 1023);
+    assertNull(compressor.beginEncode(small, "br"));
+
+    HttpResponse large = new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
+    HttpUtil.setContentLength(large, 1024);
+    assertNotNull(compressor.beginEncode(large, "br"));
+
+    HttpResponse chunked = new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
+    HttpUtil.setTransferEncodingChunked(chunked, true);
+    assertNotNull("Expected responses of unknown length to be compressed", compressor.beginEncode(chunked, "br"));
+
+    FullHttpResponse full = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK,
+        Unpooled.wrappedBuffer(new byte[100]));
+    assertNull(compressor.beginEncode(full, "br"));
+    full.release();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidQuality() {
+    new BrotliHttpContentCompressor(12, BrotliEncoder.DEFAULT_WINDOW_SIZE, 0);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidWindowSize() {
+    new BrotliHttpContentCompressor(BrotliEncoder.DEFAULT_COMPRESSION_QUALITY, 25, 0);
+  }
 }
@@ -0,0 +1,269 @@
+package io.netty.handler.codec.compression;
+
+import static io.netty.handler.codec.compression.BrotliHttpContentCompressor.CONTENT_COMPRESSION_ATTRIBUTE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import com.nixxcode.jvmbrotli.common.BrotliLoader;
+import com.nixxcode.jvmbrotli.dec.BrotliInputStream;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.DefaultHttpContent;
+import io.netty.handler.codec.http.DefaultHttpResponse;
+import io.netty.handler.codec.http.DefaultLastHttpContent;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpContent;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import java.io.InputStream;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CompressedResponseCacheTest extends AbstractCompressionTest {
+
+  private CompressedResponseCache cache;
+
+  @Before
+  public void setUp() {
+    BrotliLoader.isBrotliAvailable();
+    cache = new CompressedResponseCache(4 * 1024 * 1024, 1024 * 1024);
+  }
+
+  @After
+  public void tearDown() {
+    cache.clear();
+  }
+
+  @Test
+  public void testRepeatedResponseIsServedFromCache() throws Exception {
+    EmbeddedChannel channel = newChannel();
+
+    ByteBuf first = exchange(channel, "\"v1\"", BYTES_LARGE);
+    assertEquals(Unpooled.wrappedBuffer(BYTES_LARGE), decompress(first));
+    assertEquals(0, cache.getHits());
+    assertEquals(1, cache.getEntries());
+
+    // the server sends the same representation again, so its body is not compressed again
+    ByteBuf second = exchange(channel, "\"v1\"", BYTES_LARGE);
+    assertEquals(Unpooled.wrappedBuffer(BYTES_LARGE), decompress(second));
+    assertEquals(1, cache.getHits());
+    assertEquals(1, cache.getEntries());
+
+    // a new representation is compressed and cached next to the old one
+    ByteBuf third = exchange(channel, "\"v2\"", BYTES_SMALL);
+    assertEquals(Unpooled.wrappedBuffer(BYTES_SMALL), decompress(third));
+    assertEquals(1, cache.getHits());
+    assertEquals(2, cache.getEntries());
+
+    channel.finishAndReleaseAll();
+  }
+
+  @Test
+  public void testFullResponseIsServedFromCache() throws Exception {
+    EmbeddedChannel channel = newChannel();
+
+    for (int i = 0; i < 2; i++) {
+      channel.writeInbound(request(HttpMethod.GET));
+      ((DefaultFullHttpRequest) channel.readInbound()).release();
+      FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK,
+          Unpooled.wrappedBuffer(BYTES_SMALL));
+      response.headers().set(HttpHeaderNames.ETAG, "\"v1\"");
+      channel.writeOutbound(response);
+
+      ByteBuf body = readBody(channel);
+      assertEquals(Unpooled.wrappedBuffer(BYTES_SMALL), decompress(body));
+    }
+    assertEquals(1, cache.getHits());
+
+    channel.finishAndReleaseAll();
+  }
+
+  @Test
+  public void testResponsesWithoutValidatorAreNotCached() throws Exception {
+    EmbeddedChannel channel = newChannel();
+
+    decompress(exchange(channel, null, BYTES_SMALL)).release();
+    decompress(exchange(channel, null, BYTES_SMALL)).release();
+
+    assertEquals(0, cache.getEntries());
+    assertEquals(0, cache.getHits());
+    channel.finishAndReleaseAll();
+  }
+
+  @Test
+  public void testUncacheableRequestsAndResponses() {
+    assertNull(CompressedResponseCache.requestKey(request(HttpMethod.HEAD)));
+    HttpRequest range = request(HttpMethod.GET);
+    range.headers().set(HttpHeaderNames.RANGE, "bytes=0-99");
+    assertNull(CompressedResponseCache.requestKey(range));
+
+    String requestKey = CompressedResponseCache.requestKey(request(HttpMethod.GET));
+    assertNotNull(requestKey);
+
+    HttpResponse noStore = response("\"v1\"");
+    noStore.headers().set(HttpHeaderNames.CACHE_CONTROL, "max-age=60, " + HttpHeaderValues.NO_STORE);
+    assertNull(CompressedResponseCache.key(requestKey, noStore, "br"));
+
+    HttpResponse notFound = new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.NOT_FOUND);
+    notFound.headers().set(HttpHeaderNames.ETAG, "\"v1\"");
+    assertNull(CompressedResponseCache.key(requestKey, notFound, "br"));
+
+    HttpResponse weak = response("W/\"v1\"");
+    assertNull("Expected a weak ETag not to identify the bytes", CompressedResponseCache.key(requestKey, weak, "br"));
+
+    HttpResponse lastModifiedOnly = response(null);
+    lastModifiedOnly.headers().set(HttpHeaderNames.LAST_MODIFIED, "Wed, 21 Oct 2015 07:28:00 GMT");
+    assertNull(CompressedResponseCache.key(requestKey, lastModifiedOnly, "br"));
+
+    HttpResponse setCookie = response("\"v1\"");
+    setCookie.headers().set(HttpHeaderNames.SET_COOKIE, "session=1");
+    assertNull(CompressedResponseCache.key(requestKey, setCookie, "br"));
+
+    HttpResponse varyCookie = response("\"v1\"");
+    varyCookie.headers().set(HttpHeaderNames.VARY, "Accept-Encoding, Cookie");
+    assertNull(CompressedResponseCache.key(requestKey, varyCookie, "br"));
+
+    HttpResponse varyEncoding = response("\"v1\"");
+    varyEncoding.headers().set(HttpHeaderNames.VARY, "accept-encoding");
+    assertNotNull(CompressedResponseCache.key(requestKey, varyEncoding, "br"));
+
+    assertNotNull(CompressedResponseCache.key(requestKey, response("\"v1\""), "br"));
+  }
+
+  @Test
+  public void testResponsesVaryingByRequestHeaderAreNotShared() throws Exception {
+    EmbeddedChannel channel = newChannel();
+
+    // the server picks the body by language, and tags both with the same ETag
+    ByteBuf english = exchange(channel, "\"v1\"", "Accept-Language", BYTES_LARGE);
+    ByteBuf german = exchange(channel, "\"v1\"", "Accept-Language", BYTES_SMALL);
+
+    assertEquals(Unpooled.wrappedBuffer(BYTES_LARGE), decompress(english));
+    assertEquals("Expected the second client to receive its own body", Unpooled.wrappedBuffer(BYTES_SMALL),
+        decompress(german));
+    assertEquals(0, cache.getEntries());
+    assertEquals(0, cache.getHits());
+
+    channel.finishAndReleaseAll();
+  }
+
+  @Test
+  public void testLeastRecentlyUsedEntriesAreEvicted() {
+    cache = new CompressedResponseCache(300, 200);
+    CompressedResponseCache.Key a = new CompressedResponseCache.Key("host /a", "\"a\"", "br");
+    CompressedResponseCache.Key b = new CompressedResponseCache.Key("host /b", "\"b\"", "br");
+    CompressedResponseCache.Key c = new CompressedResponseCache.Key("host /c", "\"c\"", "br");
+
+    put(a, 100);
+    put(b, 100);
+    cache.get(a).release();
+    put(c, 150);
+
+    assertEquals(2, cache.getEntries());
+    assertEquals(250, cache.getBytes());
+    assertEquals(1, cache.getEvictions());
+    assertNull("Expected the least recently used entry to be evicted", cache.get(b));
+    cache.get(a).release();
+    cache.get(c).release();
+  }
+
+  @Test
+  public void testBodiesAboveMaxEntrySizeAreNotCached() {
+    cache = new CompressedResponseCache(300, 200);
+    CompressedResponseCache.Key key = new CompressedResponseCache.Key("host /a", "\"a\"", "br");
+
+    CompressedResponseCache.Recorder recorder = cache.record(key);
+    recorder.append(Unpooled.wrappedBuffer(new byte[150]));
+    recorder.append(Unpooled.wrappedBuffer(new byte[150]));
+    recorder.commit();
+
+    assertEquals(0, cache.getEntries());
+    assertEquals(0, cache.getBytes());
+  }
+
+  private void put(CompressedResponseCache.Key key, int size) {
+    CompressedResponseCache.Recorder recorder = cache.record(key);
+    recorder.append(Unpooled.wrappedBuffer(new byte[size]));
+    recorder.commit();
+  }
+
+  private EmbeddedChannel newChannel() {
+    EmbeddedChannel channel = new EmbeddedChannel(new BrotliHttpContentCompressor(
+        BrotliEncoder.DEFAULT_COMPRESSION_QUALITY, BrotliEncoder.DEFAULT_WINDOW_SIZE, 0, null, cache));
+    channel.attr(CONTENT_COMPRESSION_ATTRIBUTE).set("br");
+    return channel;
+  }
+
+  private static HttpRequest request(HttpMethod method) {
+    HttpRequest request = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, method, "/static/app.js");
+    request.headers().set(HttpHeaderNames.HOST, "example.com");
+    request.headers().set(HttpHeaderNames.ACCEPT_ENCODING, "gzip, br");
+    return request;
+  }
+
+  private static HttpResponse response(String etag) {
+    HttpResponse response = new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
+    if (etag != null) {
+      response.headers().set(HttpHeaderNames.ETAG, etag);
+    }
+    return response;
+  }
+
+  /**
+   * Sends a request through the compressor and answers it with a chunked response, returning the compressed body.
+   */
+  private static ByteBuf exchange(EmbeddedChannel channel, String etag, byte[] body) {
+    return exchange(channel, etag, null, body);
+  }
+
+  /**
+   * Like {@link #exchange(EmbeddedChannel, String, byte[])}, with a response that varies by the given request header.
+   */
+  private static ByteBuf exchange(EmbeddedChannel channel, String etag, String vary, byte[] body) {
+    channel.writeInbound(request(HttpMethod.GET));
+    ((DefaultFullHttpRequest) channel.readInbound()).release();
+
+    HttpResponse response = response(etag);
+    if (vary != null) {
+      response.headers().set(HttpHeaderNames.VARY, vary);
+    }
+    channel.writeOutbound(response);
+    int half = body.length / 2;
+    channel.writeOutbound(new DefaultHttpContent(Unpooled.wrappedBuffer(body, 0, half)));
+    channel.writeOutbound(new DefaultLastHttpContent(Unpooled.wrappedBuffer(body, half, body.length - half)));
+
+    HttpResponse sent = channel.readOutbound();
+    assertEquals("br", sent.headers().get(HttpHeaderNames.CONTENT_ENCODING));
+    return readBody(channel);
+  }
+
+  private static ByteBuf readBody(EmbeddedChannel channel) {
+    CompositeByteBuf compressed = Unpooled.compositeBuffer();
+    Object msg;
+    while ((msg = channel.readOutbound()) != null) {
+      if (msg instanceof HttpContent) {
+        compressed.addComponent(true, ((HttpContent) msg).content());
+      }
+    }
+    return compressed;
+  }
+
+  private static ByteBuf decompress(ByteBuf compressed) throws Exception {
+    try (InputStream is = new BrotliInputStream(new ByteBufInputStream(compressed, true))) {
+      return Unpooled.wrappedBuffer(IOUtils.toByteArray(is));
+    }
+  }
+}
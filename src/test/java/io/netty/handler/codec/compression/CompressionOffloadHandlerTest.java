@@ -0,0 +1,181 @@
+package io.netty.handler.codec.compression;
+
+import static io.netty.handler.codec.compression.BrotliHttpContentCompressor.CONTENT_COMPRESSION_ATTRIBUTE;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import com.nixxcode.jvmbrotli.common.BrotliLoader;
+import com.nixxcode.jvmbrotli.dec.BrotliInputStream;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.DefaultHttpContent;
+import io.netty.handler.codec.http.DefaultHttpResponse;
+import io.netty.handler.codec.http.DefaultLastHttpContent;
+import io.netty.handler.codec.http.HttpContent;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.LastHttpContent;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CompressionOffloadHandlerTest extends AbstractCompressionTest {
+
+  private CompressionExecutor executor;
+
+  @Before
+  public void setUp() {
+    BrotliLoader.isBrotliAvailable();
+    executor = new CompressionExecutor(1, 1, Executors.defaultThreadFactory());
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdown();
+  }
+
+  @Test
+  public void testChunksAreCompressedOffTheEventLoopInOrder() throws Exception {
+    EmbeddedChannel channel = newChannel();
+
+    channel.writeOutbound(new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK));
+    channel.writeOutbound(new DefaultHttpContent(Unpooled.wrappedBuffer(BYTES_LARGE)));
+    channel.writeOutbound(new DefaultHttpContent(Unpooled.wrappedBuffer(BYTES_SMALL)));
+    channel.writeOutbound(LastHttpContent.EMPTY_LAST_CONTENT);
+
+    List<Object> written = readOutbound(channel, 4);
+    assertThat(written.get(0), instanceOf(HttpResponse.class));
+    assertEquals("br", ((HttpResponse) written.get(0)).headers().get(HttpHeaderNames.CONTENT_ENCODING));
+    assertThat(written.get(3), instanceOf(LastHttpContent.class));
+
+    CompositeByteBuf compressed = Unpooled.compositeBuffer();
+    for (Object msg : written.subList(1, 4)) {
+      compressed.addComponent(true, ((HttpContent) msg).content().retain());
+      ((HttpContent) msg).release();
+    }
+    assertEquals(Unpooled.wrappedBuffer(BYTES_LARGE, BYTES_SMALL), decompress(compressed));
+
+    assertThat(executor.getCompletedTasks(), greaterThan(0L));
+    assertThat(executor.getTotalCompressionTimeNanos(), greaterThan(0L));
+    channel.finishAndReleaseAll();
+  }
+
+  @Test
+  public void testUncompressedResponseWaitsForCompressedOne() throws Exception {
+    EmbeddedChannel channel = newChannel();
+    writeRequest(channel);
+
+    channel.writeOutbound(new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK));
+    channel.writeOutbound(new DefaultLastHttpContent(Unpooled.wrappedBuffer(BYTES_LARGE)));
+
+    // already encoded, so passed through by the compressor, but it must not overtake the body above
+    HttpResponse encoded = new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
+    encoded.headers().set(HttpHeaderNames.CONTENT_ENCODING, "gzip");
+    channel.writeOutbound(encoded);
+
+    List<Object> written = readOutbound(channel, 4);
+    assertThat(written.get(0), instanceOf(HttpResponse.class));
+    assertThat(written.get(1), instanceOf(HttpContent.class));
+    assertThat(written.get(2), instanceOf(LastHttpContent.class));
+    assertEquals("gzip", ((HttpResponse) written.get(3)).headers().get(HttpHeaderNames.CONTENT_ENCODING));
+
+    for (Object msg : written) {
+      if (msg instanceof HttpContent) {
+        ((HttpContent) msg).release();
+      }
+    }
+    channel.finishAndReleaseAll();
+  }
+
+  @Test
+  public void testChannelUnwritableWhileExecutorIsFull() throws Exception {
+    final CountDownLatch blocked = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    Runnable blocker = new Runnable() {
+      @Override
+      public void run() {
+        blocked.countDown();
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    };
+    executor.execute(blocker);
+    assertTrue(blocked.await(5, TimeUnit.SECONDS));
+
+    EmbeddedChannel channel = newChannel();
+    channel.writeOutbound(new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK));
+    channel.writeOutbound(new DefaultHttpContent(Unpooled.wrappedBuffer(BYTES_SMALL)));
+
+    assertEquals(1, executor.getQueueDepth());
+    assertFalse("Expected the channel to stop accepting data while the executor is full", channel.isWritable());
+
+    release.countDown();
+    List<Object> written = readOutbound(channel, 2);
+    assertTrue("Expected the channel to be writable once the compression ran", channel.isWritable());
+
+    ((HttpContent) written.get(1)).release();
+    channel.finishAndReleaseAll();
+  }
+
+  private EmbeddedChannel newChannel() {
+    CompressionOffloadHandler offloadHandler = new CompressionOffloadHandler(executor);
+    EmbeddedChannel channel = new EmbeddedChannel(offloadHandler, new BrotliHttpContentCompressor(
+        BrotliEncoder.DEFAULT_COMPRESSION_QUALITY, BrotliEncoder.DEFAULT_WINDOW_SIZE, 0, offloadHandler));
+    channel.attr(CONTENT_COMPRESSION_ATTRIBUTE).set("br");
+    writeRequest(channel);
+    return channel;
+  }
+
+  private static void writeRequest(EmbeddedChannel channel) {
+    DefaultFullHttpRequest request = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/");
+    request.headers().set(HttpHeaderNames.ACCEPT_ENCODING, "br");
+    channel.writeInbound(request);
+    ((DefaultFullHttpRequest) channel.readInbound()).release();
+  }
+
+  private List<Object> readOutbound(EmbeddedChannel channel, int expected) throws Exception {
+    List<Object> written = new ArrayList<>();
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (written.size() < expected && System.nanoTime() < deadline) {
+      // completed compressions are handed back to the channel's event loop as tasks, which an embedded channel only
+      // runs on request, and only safely once the executor no longer adds to them
+      while ((executor.getQueueDepth() > 0 || executor.getActiveTasks() > 0) && System.nanoTime() < deadline) {
+        Thread.sleep(1);
+      }
+      channel.runPendingTasks();
+      Object msg;
+      while ((msg = channel.readOutbound()) != null) {
+        written.add(msg);
+      }
+    }
+    assertEquals(expected, written.size());
+    return written;
+  }
+
+  private static ByteBuf decompress(ByteBuf compressed) throws Exception {
+    try (InputStream is = new BrotliInputStream(new ByteBufInputStream(compressed, true))) {
+      return Unpooled.wrappedBuffer(IOUtils.toByteArray(is));
+    }
+  }
+}
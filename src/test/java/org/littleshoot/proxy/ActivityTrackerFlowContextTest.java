@@ -0,0 +1,164 @@
+package org.littleshoot.proxy;
+
+import com.google.common.io.BaseEncoding;
+import org.apache.http.HttpHost;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.util.EntityUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.littleshoot.proxy.impl.DefaultHttpProxyServer;
+import org.mockserver.integration.ClientAndServer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.mockserver.model.HttpRequest.request;
+import static org.mockserver.model.HttpResponse.response;
+
+/**
+ * Tests that the flow contexts reported to {@link ActivityTracker}s are reused for the activity of a connection, and
+ * rebuilt when what they report about the client changes.
+ */
+public class ActivityTrackerFlowContextTest {
+    private ClientAndServer mockServer;
+    private int mockServerPort;
+
+    private HttpProxyServer proxyServer;
+
+    private final Queue<FlowContext> serverFlowContexts = new ConcurrentLinkedQueue<FlowContext>();
+    private final Queue<FlowContext> responseFlowContexts = new ConcurrentLinkedQueue<FlowContext>();
+
+    @Before
+    public void setUp() {
+        mockServer = new ClientAndServer(0);
+        mockServerPort = mockServer.getPort();
+
+        mockServer.when(request()
+                        .withMethod("GET")
+                        .withPath("/tracked"))
+                .respond(response()
+                        .withStatusCode(200)
+                        .withBody("tracked"));
+    }
+
+    @After
+    public void tearDown() {
+        try {
+            if (mockServer != null) {
+                mockServer.stop();
+            }
+        } finally {
+            if (proxyServer != null) {
+                proxyServer.abort();
+            }
+        }
+    }
+
+    @Test
+    public void testFlowContextReusedForConnection() throws Exception {
+        proxyServer = bootstrapProxy().start();
+
+        CloseableHttpClient httpClient = buildHttpClient();
+        try {
+            for (int i = 0; i < 3; i++) {
+                performGet(httpClient, new HttpGet("http://localhost:" + mockServerPort + "/tracked"));
+            }
+        } finally {
+            httpClient.close();
+        }
+
+        assertFalse("Expected activity on the server connection to be tracked", serverFlowContexts.isEmpty());
+        assertEquals("Expected all activity on the server connection to be reported with the same context", 1,
+                distinct(serverFlowContexts).size());
+        assertEquals("Expected all responses on the connection to be reported with the same context", 1,
+                distinct(responseFlowContexts).size());
+    }
+
+    @Test
+    public void testFlowContextRebuiltAfterAuthentication() throws Exception {
+        proxyServer = bootstrapProxy()
+                .withProxyAuthenticator(new UsernamePasswordAuthenticatingProxyTest.TestBasicProxyAuthenticator(
+                        "user1", "password"))
+                .start();
+
+        CloseableHttpClient httpClient = buildHttpClient();
+        try {
+            // the first request is refused, and the second authenticates on the same connection
+            performGet(httpClient, new HttpGet("http://localhost:" + mockServerPort + "/tracked"));
+            HttpGet authenticatedGet = new HttpGet("http://localhost:" + mockServerPort + "/tracked");
+            authenticatedGet.setHeader("Proxy-Authorization", "Basic "
+                    + BaseEncoding.base64().encode("user1:password".getBytes(StandardCharsets.UTF_8)));
+            performGet(httpClient, authenticatedGet);
+        } finally {
+            httpClient.close();
+        }
+
+        assertEquals(2, responseFlowContexts.size());
+        FlowContext refused = responseFlowContexts.poll();
+        FlowContext authenticated = responseFlowContexts.poll();
+        assertNull(refused.getAuthenticatedUser());
+        assertEquals("Expected the context to be rebuilt once the client authenticated", "user1",
+                authenticated.getAuthenticatedUser());
+    }
+
+    private HttpProxyServerBootstrap bootstrapProxy() {
+        return DefaultHttpProxyServer.bootstrap()
+                .withPort(0)
+                .plusActivityTracker(new ActivityTrackerAdapter() {
+                    @Override
+                    public void bytesSentToServer(FullFlowContext flowContext, int numberOfBytes) {
+                        serverFlowContexts.add(flowContext);
+                    }
+
+                    @Override
+                    public void requestSentToServer(FullFlowContext flowContext, HttpRequest httpRequest) {
+                        serverFlowContexts.add(flowContext);
+                    }
+
+                    @Override
+                    public void bytesReceivedFromServer(FullFlowContext flowContext, int numberOfBytes) {
+                        serverFlowContexts.add(flowContext);
+                    }
+
+                    @Override
+                    public void responseSentToClient(FlowContext flowContext, HttpResponse httpResponse) {
+                        responseFlowContexts.add(flowContext);
+                    }
+                });
+    }
+
+    private CloseableHttpClient buildHttpClient() {
+        return HttpClients.custom()
+                .setProxy(new HttpHost("127.0.0.1", proxyServer.getListenAddress().getPort()))
+                .build();
+    }
+
+    private static void performGet(CloseableHttpClient httpClient, HttpGet get) throws Exception {
+        CloseableHttpResponse response = httpClient.execute(get);
+        try {
+            EntityUtils.consume(response.getEntity());
+        } finally {
+            response.close();
+        }
+    }
+
+    private static Set<FlowContext> distinct(Queue<FlowContext> flowContexts) {
+        Set<FlowContext> distinct = Collections.newSetFromMap(new IdentityHashMap<FlowContext, Boolean>());
+        distinct.addAll(flowContexts);
+        return distinct;
+    }
+}
@@ -0,0 +1,172 @@
+package org.littleshoot.proxy;
+
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.resolver.dns.SingletonDnsServerAddressStreamProvider;
+import io.netty.util.concurrent.Future;
+import org.apache.http.HttpResponse;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.littleshoot.proxy.impl.DefaultHttpProxyServer;
+import org.littleshoot.proxy.impl.ThreadPoolConfiguration;
+import org.littleshoot.proxy.test.HttpClientUtil;
+import org.littleshoot.proxy.test.StandInDnsServer;
+import org.mockserver.integration.ClientAndServer;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.mockserver.model.HttpRequest.request;
+import static org.mockserver.model.HttpResponse.response;
+
+/**
+ * Tests resolution of server addresses through {@link AsyncHostResolver}s, against an in-process DNS server.
+ */
+public class AsyncHostResolutionTest {
+    private ClientAndServer mockServer;
+    private int mockServerPort;
+
+    private StandInDnsServer dnsServer;
+    private EventLoopGroup eventLoopGroup;
+
+    private HttpProxyServer proxyServer;
+
+    @Before
+    public void setUp() throws Exception {
+        mockServer = new ClientAndServer(0);
+        mockServerPort = mockServer.getPort();
+
+        mockServer.when(request()
+                        .withMethod("GET")
+                        .withPath("/resolved"))
+                .respond(response()
+                        .withStatusCode(200)
+                        .withBody("resolved"));
+
+        dnsServer = new StandInDnsServer().start();
+        dnsServer.addHost("origin.test", InetAddress.getByName("127.0.0.1"), 60);
+
+        eventLoopGroup = new NioEventLoopGroup(1);
+    }
+
+    @After
+    public void tearDown() {
+        try {
+            if (mockServer != null) {
+                mockServer.stop();
+            }
+        } finally {
+            try {
+                if (proxyServer != null) {
+                    proxyServer.abort();
+                }
+            } finally {
+                dnsServer.stop();
+                eventLoopGroup.shutdownGracefully();
+            }
+        }
+    }
+
+    @Test
+    public void testNettyDnsHostResolverResolvesKnownHost() throws Exception {
+        NettyDnsHostResolver resolver = new NettyDnsHostResolver(new SingletonDnsServerAddressStreamProvider(dnsServer.getAddress()));
+
+        Future<InetSocketAddress> future = resolver.resolve("origin.test", 8080, eventLoopGroup.next()).await();
+
+        assertTrue("Expected resolution to succeed", future.isSuccess());
+        assertEquals(InetAddress.getByName("127.0.0.1"), future.getNow().getAddress());
+        assertEquals(8080, future.getNow().getPort());
+
+        resolver.close();
+    }
+
+    @Test
+    public void testNettyDnsHostResolverFailsForUnknownHost() throws Exception {
+        NettyDnsHostResolver resolver = new NettyDnsHostResolver(new SingletonDnsServerAddressStreamProvider(dnsServer.getAddress()));
+
+        Future<InetSocketAddress> future = resolver.resolve("unknown.test", 80, eventLoopGroup.next()).await();
+
+        assertFalse("Expected resolution to fail", future.isSuccess());
+        assertThat(future.cause(), instanceOf(UnknownHostException.class));
+
+        resolver.close();
+    }
+
+    @Test
+    public void testProxyResolvesWithAsyncResolver() {
+        proxyServer = DefaultHttpProxyServer.bootstrap()
+                .withPort(0)
+                .withAsyncServerResolver(new NettyDnsHostResolver(new SingletonDnsServerAddressStreamProvider(dnsServer.getAddress())))
+                .start();
+
+        HttpResponse response = HttpClientUtil.performHttpGet("http://origin.test:" + mockServerPort + "/resolved", proxyServer);
+        assertEquals("Expected to receive a 200 from the server", 200, response.getStatusLine().getStatusCode());
+
+        HttpResponse badGateway = HttpClientUtil.performHttpGet("http://unknown.test:" + mockServerPort + "/resolved", proxyServer);
+        assertEquals("Expected a 502 for a host that cannot be resolved", 502, badGateway.getStatusLine().getStatusCode());
+    }
+
+    @Test
+    public void testSlowResolutionDoesNotBlockEventLoop() throws Exception {
+        HostResolver slowResolver = new HostResolver() {
+            @Override
+            public InetSocketAddress resolve(String host, int port) throws UnknownHostException {
+                if ("slow.test".equals(host)) {
+                    try {
+                        Thread.sleep(3000);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return new InetSocketAddress(InetAddress.getByName("127.0.0.1"), port);
+            }
+        };
+
+        // with a single client worker thread, a lookup blocking the event loop would also hold up the second client
+        proxyServer = DefaultHttpProxyServer.bootstrap()
+                .withPort(0)
+                .withServerResolver(slowResolver)
+                .withThreadPoolConfiguration(new ThreadPoolConfiguration()
+                        .withAcceptorThreads(1)
+                        .withClientToProxyWorkerThreads(1)
+                        .withProxyToServerWorkerThreads(1))
+                .start();
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            java.util.concurrent.Future<HttpResponse> slowResponse = executor.submit(new Callable<HttpResponse>() {
+                @Override
+                public HttpResponse call() throws Exception {
+                    return HttpClientUtil.performHttpGet("http://slow.test:" + mockServerPort + "/resolved", proxyServer);
+                }
+            });
+
+            // give the slow request time to reach the resolver
+            Thread.sleep(500);
+
+            long start = System.nanoTime();
+            HttpResponse fastResponse = HttpClientUtil.performHttpGet("http://fast.test:" + mockServerPort + "/resolved", proxyServer);
+            long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+            assertEquals("Expected to receive a 200 from the server", 200, fastResponse.getStatusLine().getStatusCode());
+            assertFalse("Expected the slow request to still be resolving", slowResponse.isDone());
+            assertThat("Expected the fast request not to wait for the slow lookup", elapsedMillis, lessThan(2000L));
+
+            assertEquals("Expected to receive a 200 from the server", 200, slowResponse.get(10, TimeUnit.SECONDS).getStatusLine().getStatusCode());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
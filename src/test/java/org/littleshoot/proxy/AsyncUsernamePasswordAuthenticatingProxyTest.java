@@ -0,0 +1,174 @@
+package org.littleshoot.proxy;
+
+import io.netty.channel.EventLoop;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.Promise;
+import org.junit.Test;
+import org.littleshoot.proxy.test.SocketClientUtil;
+import org.mockserver.integration.ClientAndServer;
+import org.mockserver.verify.VerificationTimes;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.startsWith;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertThat;
+import static org.mockserver.model.HttpRequest.request;
+import static org.mockserver.model.HttpResponse.response;
+
+/**
+ * Tests a single proxy that requires username/password authentication, with credentials verified off the event loop
+ * by an {@link AsyncProxyAuthenticator}.
+ */
+public class AsyncUsernamePasswordAuthenticatingProxyTest extends
+        UsernamePasswordAuthenticatingProxyTest {
+    private ClientAndServer mockServer;
+
+    /**
+     * Proxy whose authenticator only answers when a test completes the pending result.
+     */
+    private HttpProxyServer pendingProxyServer;
+    private PendingProxyAuthenticator pendingAuthenticator;
+
+    @Override
+    protected void setUp() {
+        this.proxyServer = bootstrapProxy()
+                .withPort(0)
+                .withAsyncProxyAuthenticator(new BlockingProxyAuthenticatorAdapter(
+                        new TestBasicProxyAuthenticator(USERNAME, PASSWORD), 2))
+                .start();
+
+        mockServer = new ClientAndServer(0);
+        mockServer.when(request()
+                        .withPath("/held"))
+                .respond(response()
+                        .withStatusCode(200)
+                        .withBody("forwarded"));
+
+        pendingAuthenticator = new PendingProxyAuthenticator();
+        pendingProxyServer = bootstrapProxy()
+                .withPort(0)
+                .withAsyncProxyAuthenticator(pendingAuthenticator)
+                .start();
+    }
+
+    @Override
+    protected void tearDown() {
+        try {
+            if (pendingProxyServer != null) {
+                pendingProxyServer.abort();
+            }
+        } finally {
+            if (mockServer != null) {
+                mockServer.stop();
+            }
+        }
+    }
+
+    @Test
+    public void testMessagesHeldWhileAuthenticatingAreReplayedInOrder() throws Exception {
+        Socket socket = SocketClientUtil.getSocketToProxyServer(pendingProxyServer);
+        try {
+            // the body chunks arrive together with the request, while its credentials are still being verified
+            SocketClientUtil.writeStringToSocket(chunkedRequest(), socket);
+            Promise<Boolean> result = pendingAuthenticator.pending.poll(5, TimeUnit.SECONDS);
+            assertNotNull("Expected the proxy to ask the authenticator", result);
+
+            Thread.sleep(500);
+            mockServer.verify(request().withPath("/held"), VerificationTimes.exactly(0));
+
+            result.setSuccess(true);
+
+            assertThat(SocketClientUtil.readStringFromSocket(socket), startsWith("HTTP/1.1 200"));
+            mockServer.verify(request()
+                            .withMethod("POST")
+                            .withPath("/held")
+                            .withBody("firstsecondthird"),
+                    VerificationTimes.exactly(1));
+        } finally {
+            socket.close();
+        }
+    }
+
+    @Test
+    public void testRejectedCredentialsAreNotForwarded() throws Exception {
+        Socket socket = SocketClientUtil.getSocketToProxyServer(pendingProxyServer);
+        try {
+            SocketClientUtil.writeStringToSocket(chunkedRequest(), socket);
+            Promise<Boolean> result = pendingAuthenticator.pending.poll(5, TimeUnit.SECONDS);
+            assertNotNull("Expected the proxy to ask the authenticator", result);
+
+            result.setSuccess(false);
+
+            assertThat(SocketClientUtil.readStringFromSocket(socket), startsWith("HTTP/1.1 407"));
+            mockServer.verify(request().withPath("/held"), VerificationTimes.exactly(0));
+        } finally {
+            socket.close();
+        }
+    }
+
+    @Test
+    public void testFailedAuthenticationIsNotForwarded() throws Exception {
+        Socket socket = SocketClientUtil.getSocketToProxyServer(pendingProxyServer);
+        try {
+            SocketClientUtil.writeStringToSocket(chunkedRequest(), socket);
+            Promise<Boolean> result = pendingAuthenticator.pending.poll(5, TimeUnit.SECONDS);
+            assertNotNull("Expected the proxy to ask the authenticator", result);
+
+            result.setFailure(new IOException("Credential store unavailable"));
+
+            assertThat(SocketClientUtil.readStringFromSocket(socket), startsWith("HTTP/1.1 407"));
+            mockServer.verify(request().withPath("/held"), VerificationTimes.exactly(0));
+        } finally {
+            socket.close();
+        }
+    }
+
+    private String chunkedRequest() {
+        String url = "http://127.0.0.1:" + mockServer.getPort() + "/held";
+        String credentials = Base64.getEncoder().encodeToString(
+                (USERNAME + ":" + PASSWORD).getBytes(StandardCharsets.UTF_8));
+        return "POST " + url + " HTTP/1.1\r\n"
+                + "Host: 127.0.0.1:" + mockServer.getPort() + "\r\n"
+                + "Proxy-Authorization: Basic " + credentials + "\r\n"
+                + "Transfer-Encoding: chunked\r\n"
+                + "\r\n"
+                + "5\r\nfirst\r\n"
+                + "6\r\nsecond\r\n"
+                + "5\r\nthird\r\n"
+                + "0\r\n\r\n";
+    }
+
+    /**
+     * Hands out the result of every authentication as a promise, for the test to complete.
+     */
+    private static class PendingProxyAuthenticator implements AsyncProxyAuthenticator {
+        private final BlockingQueue<Promise<Boolean>> pending = new LinkedBlockingQueue<Promise<Boolean>>();
+        private final ProxyAuthenticator responses = new TestBasicProxyAuthenticator(USERNAME, PASSWORD);
+
+        @Override
+        public Future<Boolean> authenticate(HttpRequest httpRequest, EventLoop eventLoop) {
+            Promise<Boolean> result = eventLoop.newPromise();
+            pending.add(result);
+            return result;
+        }
+
+        @Override
+        public String getRealm() {
+            return responses.getRealm();
+        }
+
+        @Override
+        public FullHttpResponse authenticationFailureResponse(HttpRequest request) {
+            return responses.authenticationFailureResponse(request);
+        }
+    }
+}
@@ -0,0 +1,246 @@
+package org.littleshoot.proxy;
+
+import io.netty.channel.EventLoop;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.handler.codec.dns.DnsResponseCode;
+import io.netty.resolver.dns.DnsNameResolverBuilder;
+import io.netty.resolver.dns.SingletonDnsServerAddressStreamProvider;
+import io.netty.util.concurrent.Future;
+import org.apache.http.HttpResponse;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.littleshoot.proxy.impl.DefaultHttpProxyServer;
+import org.littleshoot.proxy.test.HttpClientUtil;
+import org.littleshoot.proxy.test.StandInDnsServer;
+import org.mockserver.integration.ClientAndServer;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.hamcrest.Matchers.not;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.mockserver.model.HttpRequest.request;
+import static org.mockserver.model.HttpResponse.response;
+
+/**
+ * Tests {@link CachingHostResolver} against an in-process DNS server.
+ */
+public class CachingHostResolverTest {
+    private StandInDnsServer dnsServer;
+    private EventLoopGroup eventLoopGroup;
+    private EventLoop eventLoop;
+
+    private NettyDnsHostResolver dnsResolver;
+
+    @Before
+    public void setUp() throws Exception {
+        dnsServer = new StandInDnsServer().start();
+        eventLoopGroup = new NioEventLoopGroup(1);
+        eventLoop = eventLoopGroup.next();
+        dnsResolver = new NettyDnsHostResolver(new SingletonDnsServerAddressStreamProvider(dnsServer.getAddress()));
+    }
+
+    @After
+    public void tearDown() {
+        try {
+            dnsResolver.close();
+            dnsServer.stop();
+        } finally {
+            eventLoopGroup.shutdownGracefully();
+        }
+    }
+
+    @Test
+    public void testCachesForRecordTtl() throws Exception {
+        dnsServer.addHost("cached.test", InetAddress.getByName("127.0.0.2"), 60);
+        CachingHostResolver resolver = new CachingHostResolver(dnsResolver, new DnsCacheConfiguration());
+
+        InetSocketAddress first = resolve(resolver, "cached.test", 80);
+        int queriesAfterFirstLookup = dnsServer.getQueryCount();
+        InetSocketAddress second = resolve(resolver, "cached.test", 8080);
+
+        assertEquals(InetAddress.getByName("127.0.0.2"), first.getAddress());
+        assertEquals(InetAddress.getByName("127.0.0.2"), second.getAddress());
+        assertEquals("Expected the port of the second lookup", 8080, second.getPort());
+
+        assertEquals("Expected no further DNS queries", queriesAfterFirstLookup, dnsServer.getQueryCount());
+        assertEquals(1, resolver.getMisses());
+        assertEquals(1, resolver.getHits());
+    }
+
+    @Test
+    public void testMaxTtlBoundsRecordTtl() throws Exception {
+        dnsServer.addHost("bounded.test", InetAddress.getByName("127.0.0.2"), 3600);
+        CachingHostResolver resolver = new CachingHostResolver(dnsResolver, new DnsCacheConfiguration()
+                .withMaxTtlSeconds(1)
+                .withStaleTtlSeconds(0));
+
+        resolve(resolver, "bounded.test", 80);
+        Thread.sleep(1500);
+        resolve(resolver, "bounded.test", 80);
+
+        assertEquals("Expected the entry to expire after the maximum TTL", 2, resolver.getMisses());
+        assertEquals(0, resolver.getHits());
+    }
+
+    @Test
+    public void testCachesUnknownHosts() throws Exception {
+        CachingHostResolver resolver = new CachingHostResolver(dnsResolver, new DnsCacheConfiguration());
+
+        Future<InetSocketAddress> first = resolver.resolve("unknown.test", 80, eventLoop).await();
+        int queriesAfterFirstLookup = dnsServer.getQueryCount();
+        Future<InetSocketAddress> second = resolver.resolve("unknown.test", 80, eventLoop).await();
+
+        assertThat(first.cause(), instanceOf(NonexistentHostException.class));
+        assertThat(second.cause(), instanceOf(NonexistentHostException.class));
+        assertEquals("Expected no further DNS queries", queriesAfterFirstLookup, dnsServer.getQueryCount());
+        assertEquals(1, resolver.getNegativeHits());
+    }
+
+    @Test
+    public void testDoesNotCacheTimeouts() throws Exception {
+        NettyDnsHostResolver impatientResolver = new NettyDnsHostResolver(new SingletonDnsServerAddressStreamProvider(dnsServer.getAddress())) {
+            @Override
+            protected DnsNameResolverBuilder newResolverBuilder(EventLoop eventLoop) {
+                return super.newResolverBuilder(eventLoop).queryTimeoutMillis(200);
+            }
+        };
+        try {
+            CachingHostResolver resolver = new CachingHostResolver(impatientResolver, new DnsCacheConfiguration());
+
+            dnsServer.dropHost("unreachable.test");
+            Future<InetSocketAddress> failed = resolver.resolve("unreachable.test", 80, eventLoop).await();
+
+            assertThat(failed.cause(), instanceOf(UnknownHostException.class));
+            assertThat(failed.cause(), not(instanceOf(NonexistentHostException.class)));
+            assertEquals("Expected the timeout not to be cached", 0, resolver.size());
+
+            dnsServer.removeHost("unreachable.test");
+            dnsServer.addHost("unreachable.test", InetAddress.getByName("127.0.0.2"), 60);
+            InetSocketAddress recovered = resolve(resolver, "unreachable.test", 80);
+
+            assertEquals(InetAddress.getByName("127.0.0.2"), recovered.getAddress());
+            assertEquals(0, resolver.getNegativeHits());
+            assertEquals(2, resolver.getMisses());
+        } finally {
+            impatientResolver.close();
+        }
+    }
+
+    @Test
+    public void testDoesNotCacheServerFailures() throws Exception {
+        CachingHostResolver resolver = new CachingHostResolver(dnsResolver, new DnsCacheConfiguration());
+
+        dnsServer.failHost("failing.test", DnsResponseCode.SERVFAIL);
+        Future<InetSocketAddress> failed = resolver.resolve("failing.test", 80, eventLoop).await();
+
+        assertThat(failed.cause(), instanceOf(UnknownHostException.class));
+        assertThat(failed.cause(), not(instanceOf(NonexistentHostException.class)));
+        assertEquals("Expected the server failure not to be cached", 0, resolver.size());
+
+        dnsServer.removeHost("failing.test");
+        dnsServer.addHost("failing.test", InetAddress.getByName("127.0.0.2"), 60);
+        InetSocketAddress recovered = resolve(resolver, "failing.test", 80);
+
+        assertEquals(InetAddress.getByName("127.0.0.2"), recovered.getAddress());
+        assertEquals(0, resolver.getNegativeHits());
+    }
+
+    @Test
+    public void testServesStaleEntryWhileRefreshing() throws Exception {
+        dnsServer.addHost("stale.test", InetAddress.getByName("127.0.0.2"), 1);
+        CachingHostResolver resolver = new CachingHostResolver(dnsResolver, new DnsCacheConfiguration()
+                .withStaleTtlSeconds(30));
+
+        resolve(resolver, "stale.test", 80);
+
+        dnsServer.addHost("stale.test", InetAddress.getByName("127.0.0.3"), 60);
+        Thread.sleep(1500);
+
+        InetSocketAddress stale = resolve(resolver, "stale.test", 80);
+        assertEquals("Expected the stale address to be served", InetAddress.getByName("127.0.0.2"), stale.getAddress());
+        assertEquals(1, resolver.getStaleHits());
+        assertEquals(1, resolver.getRefreshes());
+
+        InetSocketAddress refreshed = null;
+        for (int i = 0; i < 50; i++) {
+            refreshed = resolve(resolver, "stale.test", 80);
+            if (refreshed.getAddress().equals(InetAddress.getByName("127.0.0.3"))) {
+                break;
+            }
+            Thread.sleep(20);
+        }
+        assertEquals("Expected the refreshed address to be served", InetAddress.getByName("127.0.0.3"), refreshed.getAddress());
+        assertEquals("Expected a single miss for the initial lookup", 1, resolver.getMisses());
+    }
+
+    @Test
+    public void testBoundedSize() throws Exception {
+        HostResolver blockingResolver = new HostResolver() {
+            @Override
+            public InetSocketAddress resolve(String host, int port) throws UnknownHostException {
+                return new InetSocketAddress(InetAddress.getByName("127.0.0.1"), port);
+            }
+        };
+        CachingHostResolver resolver = new CachingHostResolver(blockingResolver, new DnsCacheConfiguration()
+                .withMaxEntries(2));
+
+        resolve(resolver, "one.test", 80);
+        resolve(resolver, "two.test", 80);
+        resolve(resolver, "three.test", 80);
+
+        assertThat(resolver.size(), lessThanOrEqualTo(2));
+        assertThat(resolver.getEvictions(), greaterThan(0L));
+    }
+
+    @Test
+    public void testCacheMetricsExposedByProxy() throws Exception {
+        ClientAndServer mockServer = new ClientAndServer(0);
+        HttpProxyServer proxyServer = null;
+        try {
+            mockServer.when(request()
+                            .withMethod("GET")
+                            .withPath("/cached"))
+                    .respond(response()
+                            .withStatusCode(200));
+
+            dnsServer.addHost("origin.test", InetAddress.getByName("127.0.0.1"), 60);
+
+            proxyServer = DefaultHttpProxyServer.bootstrap()
+                    .withPort(0)
+                    .withAsyncServerResolver(dnsResolver)
+                    .withServerResolverCache(new DnsCacheConfiguration())
+                    .start();
+
+            for (int i = 0; i < 2; i++) {
+                HttpResponse response = HttpClientUtil.performHttpGet("http://origin.test:" + mockServer.getPort() + "/cached", proxyServer);
+                assertEquals("Expected to receive a 200 from the server", 200, response.getStatusLine().getStatusCode());
+            }
+
+            CachingHostResolver cache = ((DefaultHttpProxyServer) proxyServer).getServerResolverCache();
+            assertEquals(1, cache.getMisses());
+            assertEquals(1, cache.getHits());
+        } finally {
+            if (proxyServer != null) {
+                proxyServer.abort();
+            }
+            mockServer.stop();
+        }
+    }
+
+    private InetSocketAddress resolve(CachingHostResolver resolver, String host, int port) throws InterruptedException {
+        Future<InetSocketAddress> future = resolver.resolve(host, port, eventLoop).await();
+        assertTrue("Expected " + host + " to resolve", future.isSuccess());
+        assertFalse(future.getNow().isUnresolved());
+        return future.getNow();
+    }
+}
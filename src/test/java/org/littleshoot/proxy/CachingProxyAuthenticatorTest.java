@@ -0,0 +1,115 @@
+package org.littleshoot.proxy;
+
+import com.google.common.io.BaseEncoding;
+import io.netty.handler.codec.http.DefaultHttpRequest;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpVersion;
+import org.junit.Test;
+import org.littleshoot.proxy.authenticator.BasicProxyAuthenticator;
+import org.littleshoot.proxy.authenticator.CachingProxyAuthenticator;
+import org.littleshoot.proxy.authenticator.CredentialCacheConfiguration;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that {@link CachingProxyAuthenticator} answers repeated credentials from its cache.
+ */
+public class CachingProxyAuthenticatorTest {
+    private final CountingAuthenticator delegate = new CountingAuthenticator();
+
+    @Test
+    public void testAcceptedCredentialsCached() {
+        TestAuthenticator authenticator = new TestAuthenticator(new CredentialCacheConfiguration().withTtlSeconds(60));
+
+        assertTrue(authenticator.authenticate(request("user", "secret")));
+        assertTrue(authenticator.authenticate(request("user", "secret")));
+        assertEquals("Expected the second request to be answered from the cache", 1, delegate.calls.get());
+        assertEquals(1, authenticator.getHits());
+        assertEquals(1, authenticator.getMisses());
+
+        authenticator.advance(60);
+        assertTrue(authenticator.authenticate(request("user", "secret")));
+        assertEquals("Expected the expired entry to be verified again", 2, delegate.calls.get());
+    }
+
+    @Test
+    public void testRejectedCredentialsCachedSeparately() {
+        TestAuthenticator authenticator = new TestAuthenticator(new CredentialCacheConfiguration()
+                .withTtlSeconds(60)
+                .withNegativeTtlSeconds(5));
+
+        assertFalse(authenticator.authenticate(request("user", "wrong")));
+        assertFalse(authenticator.authenticate(request("user", "wrong")));
+        assertTrue("Expected other credentials of the same user to be verified",
+                authenticator.authenticate(request("user", "secret")));
+        assertEquals(2, delegate.calls.get());
+        assertEquals(1, authenticator.getNegativeHits());
+
+        authenticator.advance(5);
+        assertFalse(authenticator.authenticate(request("user", "wrong")));
+        assertEquals(3, delegate.calls.get());
+    }
+
+    @Test
+    public void testBoundedAndInvalidated() {
+        TestAuthenticator authenticator = new TestAuthenticator(new CredentialCacheConfiguration().withMaxEntries(2));
+
+        authenticator.authenticate(request("user", "secret"));
+        authenticator.authenticate(request("other", "secret"));
+        authenticator.authenticate(request("third", "secret"));
+        assertEquals(2, authenticator.size());
+        assertEquals(1, authenticator.getEvictions());
+
+        authenticator.clear();
+        authenticator.authenticate(request("user", "secret"));
+        authenticator.invalidate("user");
+        assertEquals(0, authenticator.size());
+    }
+
+    private static HttpRequest request(String username, String password) {
+        HttpRequest request = new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "http://localhost/");
+        String credentials = BaseEncoding.base64().encode((username + ":" + password).getBytes(StandardCharsets.UTF_8));
+        request.headers().set(HttpHeaderNames.PROXY_AUTHORIZATION, "Basic " + credentials);
+        return request;
+    }
+
+    private static class CountingAuthenticator extends BasicProxyAuthenticator {
+        private final AtomicInteger calls = new AtomicInteger();
+
+        @Override
+        public boolean authenticate(String username, String password, HttpRequest request) {
+            calls.incrementAndGet();
+            return "secret".equals(password);
+        }
+
+        @Override
+        public String getRealm() {
+            return null;
+        }
+    }
+
+    private class TestAuthenticator extends CachingProxyAuthenticator {
+        private long now = TimeUnit.SECONDS.toNanos(1000);
+
+        TestAuthenticator(CredentialCacheConfiguration configuration) {
+            super(delegate, configuration);
+        }
+
+        void advance(long seconds) {
+            now += TimeUnit.SECONDS.toNanos(seconds);
+        }
+
+        @Override
+        protected long nanoTime() {
+            return now;
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package org.littleshoot.proxy;
+
+import org.apache.http.HttpResponse;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.littleshoot.proxy.impl.DefaultHttpProxyServer;
+import org.littleshoot.proxy.impl.EventLoopTransport;
+import org.littleshoot.proxy.impl.ThreadPoolConfiguration;
+import org.littleshoot.proxy.test.HttpClientUtil;
+import org.mockserver.integration.ClientAndServer;
+
+import static org.hamcrest.Matchers.isOneOf;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+import static org.mockserver.model.HttpRequest.request;
+import static org.mockserver.model.HttpResponse.response;
+
+/**
+ * Tests that the proxy works with each {@link EventLoopTransport}, falling back to NIO where the native transport is
+ * not available.
+ */
+public class EventLoopTransportTest {
+    private ClientAndServer mockServer;
+    private int mockServerPort;
+
+    private HttpProxyServer proxyServer;
+
+    @Before
+    public void setUp() {
+        mockServer = new ClientAndServer(0);
+        mockServerPort = mockServer.getPort();
+
+        mockServer.when(request()
+                        .withMethod("GET")
+                        .withPath("/transport"))
+                .respond(response()
+                        .withStatusCode(200)
+                        .withBody("transport"));
+    }
+
+    @After
+    public void tearDown() {
+        try {
+            if (mockServer != null) {
+                mockServer.stop();
+            }
+        } finally {
+            if (proxyServer != null) {
+                proxyServer.abort();
+            }
+        }
+    }
+
+    @Test
+    public void testResolvesToConcreteTransport() {
+        for (EventLoopTransport transport : EventLoopTransport.values()) {
+            assertThat(transport.resolve(), isOneOf(EventLoopTransport.NIO, EventLoopTransport.EPOLL));
+        }
+        assertEquals(EventLoopTransport.NIO, EventLoopTransport.NIO.resolve());
+    }
+
+    @Test
+    public void testNioTransport() {
+        assertProxiesWith(EventLoopTransport.NIO);
+    }
+
+    @Test
+    public void testEpollTransport() {
+        assertProxiesWith(EventLoopTransport.EPOLL);
+    }
+
+    @Test
+    public void testAutoTransport() {
+        assertProxiesWith(EventLoopTransport.AUTO);
+    }
+
+    private void assertProxiesWith(EventLoopTransport transport) {
+        proxyServer = DefaultHttpProxyServer.bootstrap()
+                .withPort(0)
+                .withThreadPoolConfiguration(new ThreadPoolConfiguration()
+                        .withTransport(transport))
+                .start();
+
+        for (int i = 0; i < 2; i++) {
+            HttpResponse response = HttpClientUtil.performHttpGet("http://localhost:" + mockServerPort + "/transport", proxyServer);
+            assertEquals("Expected to receive a 200 from the server", 200, response.getStatusLine().getStatusCode());
+        }
+    }
+}
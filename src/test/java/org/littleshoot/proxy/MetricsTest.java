@@ -0,0 +1,140 @@
+package org.littleshoot.proxy;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.util.EntityUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.littleshoot.proxy.impl.DefaultHttpProxyServer;
+import org.littleshoot.proxy.impl.TlsSessionCacheConfiguration;
+import org.littleshoot.proxy.monitoring.MetricsConfiguration;
+import org.littleshoot.proxy.monitoring.MetricsEndpoint;
+import org.littleshoot.proxy.monitoring.PhaseMetrics;
+import org.littleshoot.proxy.monitoring.PhaseMetrics.Phase;
+import org.littleshoot.proxy.monitoring.ProxyMetrics;
+import org.littleshoot.proxy.test.HttpClientUtil;
+import org.mockserver.integration.ClientAndServer;
+
+import java.net.InetSocketAddress;
+import java.util.Map;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.mockserver.model.HttpRequest.request;
+import static org.mockserver.model.HttpResponse.response;
+
+/**
+ * Tests that the proxy records the latencies of requests, overall and for each origin, and serves them on its admin
+ * endpoint.
+ */
+public class MetricsTest {
+    private ClientAndServer mockServer;
+    private int mockServerPort;
+
+    private HttpProxyServer proxyServer;
+
+    @Before
+    public void setUp() {
+        mockServer = new ClientAndServer(0);
+        mockServerPort = mockServer.getPort();
+
+        mockServer.when(request()
+                        .withMethod("GET")
+                        .withPath("/metered"))
+                .respond(response()
+                        .withStatusCode(200)
+                        .withBody("metered"));
+    }
+
+    @After
+    public void tearDown() {
+        try {
+            if (mockServer != null) {
+                mockServer.stop();
+            }
+        } finally {
+            if (proxyServer != null) {
+                proxyServer.abort();
+            }
+        }
+    }
+
+    @Test
+    public void testLatenciesRecordedPerOrigin() {
+        proxyServer = DefaultHttpProxyServer.bootstrap()
+                .withPort(0)
+                .withMetrics(new MetricsConfiguration())
+                .start();
+
+        for (int i = 0; i < 3; i++) {
+            HttpResponse response = HttpClientUtil.performHttpGet(
+                    "http://localhost:" + mockServerPort + "/metered", proxyServer);
+            assertEquals("Expected to receive a 200 from the server", 200, response.getStatusLine().getStatusCode());
+        }
+
+        ProxyMetrics metrics = ((DefaultHttpProxyServer) proxyServer).getMetrics();
+        PhaseMetrics totals = metrics.getTotals();
+        assertEquals(3, totals.getRequests());
+        assertEquals(0, totals.getFailures());
+        assertEquals("Expected every request to be timed", 3, totals.getHistogram(Phase.TOTAL).getCount());
+        assertEquals(3, totals.getHistogram(Phase.TIME_TO_FIRST_BYTE).getCount());
+        assertTrue("Expected at least one connection to the server to be timed",
+                totals.getHistogram(Phase.CONNECT).getCount() >= 1);
+        assertEquals("Expected no TLS handshakes with a plain HTTP server", 0,
+                totals.getHistogram(Phase.TLS_HANDSHAKE).getCount());
+
+        Map<String, PhaseMetrics> origins = metrics.getOrigins();
+        assertEquals(1, origins.size());
+        PhaseMetrics origin = origins.get("localhost:" + mockServerPort);
+        assertNotNull("Expected the requests to be recorded under their origin", origin);
+        assertEquals(3, origin.getRequests());
+    }
+
+    @Test
+    public void testOriginsBeyondMaximumRecordedTogether() {
+        proxyServer = DefaultHttpProxyServer.bootstrap()
+                .withPort(0)
+                .withMetrics(new MetricsConfiguration().withMaxOrigins(0))
+                .start();
+
+        HttpClientUtil.performHttpGet("http://localhost:" + mockServerPort + "/metered", proxyServer);
+
+        Map<String, PhaseMetrics> origins = ((DefaultHttpProxyServer) proxyServer).getMetrics().getOrigins();
+        assertEquals(1, origins.size());
+        assertEquals(1, origins.get(ProxyMetrics.OTHER_ORIGINS).getRequests());
+    }
+
+    @Test
+    public void testMetricsServedAsJson() throws Exception {
+        proxyServer = DefaultHttpProxyServer.bootstrap()
+                .withPort(0)
+                .withMetrics(new MetricsConfiguration().withAdminPort(0))
+                .withUpstreamTlsSessionCache(new TlsSessionCacheConfiguration())
+                .start();
+
+        HttpClientUtil.performHttpGet("http://localhost:" + mockServerPort + "/metered", proxyServer);
+
+        InetSocketAddress metricsAddress = ((DefaultHttpProxyServer) proxyServer).getMetricsAddress();
+        assertNotNull("Expected the metrics to be served", metricsAddress);
+
+        CloseableHttpClient httpClient = HttpClients.createDefault();
+        try {
+            HttpResponse response = httpClient.execute(new HttpGet("http://" + metricsAddress.getHostString() + ":"
+                    + metricsAddress.getPort() + MetricsEndpoint.PATH));
+            assertEquals(200, response.getStatusLine().getStatusCode());
+            String json = EntityUtils.toString(response.getEntity());
+            assertThat(json, containsString("\"totals\":{\"requests\":1,\"failures\":0"));
+            assertThat(json, containsString("\"localhost:" + mockServerPort + "\":{\"requests\":1"));
+            assertThat(json, containsString("\"time_to_first_byte\":{\"count\":1"));
+            assertThat(json, containsString("\"upstreamTls\":{\"fullHandshakes\":0,\"resumedHandshakes\":0}"));
+        } finally {
+            httpClient.close();
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package org.littleshoot.proxy;
+
+import org.apache.http.HttpResponse;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.littleshoot.proxy.impl.DefaultHttpProxyServer;
+import org.littleshoot.proxy.test.HttpClientUtil;
+import org.mockserver.integration.ClientAndServer;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.HttpRequest;
+
+import static org.hamcrest.Matchers.hasItem;
+import static org.hamcrest.Matchers.hasItems;
+import static org.hamcrest.Matchers.not;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+import static org.mockserver.model.HttpRequest.request;
+import static org.mockserver.model.HttpResponse.response;
+
+/**
+ * Tests that the client and server pipelines only contain the stages that the proxy's configuration needs.
+ */
+public class PipelineAssemblyTest {
+    private ClientAndServer mockServer;
+    private int mockServerPort;
+
+    private HttpProxyServer proxyServer;
+
+    private final AtomicReference<List<String>> clientHandlers = new AtomicReference<List<String>>();
+    private final AtomicReference<List<String>> serverHandlers = new AtomicReference<List<String>>();
+
+    @Before
+    public void setUp() {
+        mockServer = new ClientAndServer(0);
+        mockServerPort = mockServer.getPort();
+
+        mockServer.when(request()
+                        .withMethod("GET")
+                        .withPath("/pipeline"))
+                .respond(response()
+                        .withStatusCode(200)
+                        .withBody("pipeline"));
+    }
+
+    @After
+    public void tearDown() {
+        try {
+            if (mockServer != null) {
+                mockServer.stop();
+            }
+        } finally {
+            if (proxyServer != null) {
+                proxyServer.abort();
+            }
+        }
+    }
+
+    @Test
+    public void testFullPipeline() {
+        proxyServer = bootstrapProxy()
+                .plusActivityTracker(new ActivityTrackerAdapter())
+                .start();
+        performGet();
+
+        assertThat(clientHandlers.get(), hasItems("bytesMonitor", "brotli_compressor", "messageMonitor", "idle"));
+        assertThat(serverHandlers.get(), hasItems("bytesMonitor", "messageMonitor", "idle"));
+    }
+
+    @Test
+    public void testMinimalPipeline() {
+        proxyServer = bootstrapProxy()
+                .withAcceptProxyProtocol(false)
+                .withBrotliCompression(false)
+                .withIdleConnectionTimeout(0)
+                .start();
+        performGet();
+
+        for (String stage : new String[]{"bytesMonitor", "proxyProtocolReader", "brotli_compressor", "messageMonitor",
+                "idle"}) {
+            assertThat(clientHandlers.get(), not(hasItem(stage)));
+        }
+        for (String stage : new String[]{"bytesMonitor", "idle"}) {
+            assertThat(serverHandlers.get(), not(hasItem(stage)));
+        }
+        assertThat("Expected the filters to still be told when the request is sent", serverHandlers.get(),
+                hasItem("messageMonitor"));
+    }
+
+    private HttpProxyServerBootstrap bootstrapProxy() {
+        return DefaultHttpProxyServer.bootstrap()
+                .withPort(0)
+                .withFiltersSource(new HttpFiltersSourceAdapter() {
+                    @Override
+                    public HttpFilters filterRequest(HttpRequest originalRequest, ChannelHandlerContext ctx) {
+                        clientHandlers.set(ctx.pipeline().names());
+                        return new HttpFiltersAdapter(originalRequest, ctx) {
+                            @Override
+                            public void proxyToServerConnectionSucceeded(ChannelHandlerContext serverCtx) {
+                                serverHandlers.set(serverCtx.pipeline().names());
+                            }
+                        };
+                    }
+                });
+    }
+
+    private void performGet() {
+        HttpResponse response = HttpClientUtil.performHttpGet("http://localhost:" + mockServerPort + "/pipeline",
+                proxyServer);
+        assertEquals(200, response.getStatusLine().getStatusCode());
+    }
+}
@@ -3,19 +3,27 @@ package org.littleshoot.proxy;
 import static org.hamcrest.CoreMatchers.nullValue;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNull;
+import static org.littleshoot.proxy.impl.ProtocolHeadersRequestDecoder.PROXY_TLVS_ATTRIBUTE;
 import static org.littleshoot.proxy.impl.ProtocolHeadersRequestDecoder.CONNECTION_ID_ATTRIBUTE;
 import static org.littleshoot.proxy.impl.ProtocolHeadersRequestDecoder.SOURCE_IP_ATTRIBUTE;
 
 import com.tngtech.java.junit.dataprovider.DataProvider;
 import com.tngtech.java.junit.dataprovider.DataProviderRunner;
 import com.tngtech.java.junit.dataprovider.UseDataProvider;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.embedded.EmbeddedChannel;
 import io.netty.handler.codec.http.HttpObject;
 import io.netty.handler.codec.http.HttpRequest;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicReference;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
@@ -30,6 +38,7 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.littleshoot.proxy.impl.DefaultHttpProxyServer;
+import org.littleshoot.proxy.impl.ProtocolHeadersRequestDecoder;
 import org.littleshoot.proxy.impl.ThreadPoolConfiguration;
 
 @RunWith(DataProviderRunner.class)
@@ -153,6 +162,106 @@ public class ProtocolHeadersRequestDecoderTest {
     assertThat(context, nullValue());
   }
 
+  @Test
+  public void testHeaderSplitAcrossReads() throws Exception {
+    String header = "PROXY TCP4 11.22.33.44 99.88.77.66 5555 6666\r\nTRACE 0123456789abcdef0123456789abcdef\r\n";
+    String request = "GET / HTTP/1.1\r\n\r\n";
+
+    EmbeddedChannel channel = new EmbeddedChannel(new ProtocolHeadersRequestDecoder());
+    byte[] bytes = (header + request).getBytes(StandardCharsets.US_ASCII);
+    for (byte b : bytes) {
+      channel.writeInbound(Unpooled.wrappedBuffer(new byte[]{b}));
+    }
+
+    assertThat(channel.attr(SOURCE_IP_ATTRIBUTE).get(), equalTo("11.22.33.44"));
+    assertThat(channel.attr(CONNECTION_ID_ATTRIBUTE).get(), equalTo("0123456789abcdef0123456789abcdef"));
+    assertThat(readInbound(channel), equalTo(request));
+    assertThat(channel.pipeline().get(ProtocolHeadersRequestDecoder.class), nullValue());
+    channel.finishAndReleaseAll();
+  }
+
+  @Test
+  public void testNoHeaderPassesThroughUnchanged() throws Exception {
+    String request = "PUT / HTTP/1.1\r\n\r\n";
+
+    EmbeddedChannel channel = new EmbeddedChannel(new ProtocolHeadersRequestDecoder());
+    channel.writeInbound(Unpooled.copiedBuffer(request, StandardCharsets.US_ASCII));
+
+    assertThat(readInbound(channel), equalTo(request));
+    assertNull(channel.attr(SOURCE_IP_ATTRIBUTE).get());
+    assertThat("Expected the decoder to be removed after the first bytes",
+        channel.pipeline().get(ProtocolHeadersRequestDecoder.class), nullValue());
+    channel.finishAndReleaseAll();
+  }
+
+  @Test
+  public void testBinaryHeaderWithTlvs() throws Exception {
+    ByteBuf header = v2Header(0x21, 0x11, 12 + 3 + 4 + 3 + 1);
+    header.writeBytes(new byte[]{11, 22, 33, 44, 99, 88, 77, 66}).writeShort(5555).writeShort(6666);
+    header.writeByte(0xEA).writeShort(4).writeBytes(new byte[]{1, 2, 3, 4});
+    header.writeByte(0x04).writeShort(1).writeByte(0);
+    header.writeBytes("GET / HTTP/1.1\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+
+    EmbeddedChannel channel = new EmbeddedChannel(new ProtocolHeadersRequestDecoder());
+    channel.writeInbound(header);
+
+    assertThat(channel.attr(SOURCE_IP_ATTRIBUTE).get(), equalTo("11.22.33.44"));
+    Map<Integer, byte[]> tlvs = channel.attr(PROXY_TLVS_ATTRIBUTE).get();
+    assertThat(tlvs.size(), equalTo(2));
+    assertArrayEquals(new byte[]{1, 2, 3, 4}, tlvs.get(0xEA));
+    assertArrayEquals(new byte[]{0}, tlvs.get(0x04));
+    assertThat(readInbound(channel), equalTo("GET / HTTP/1.1\r\n\r\n"));
+    channel.finishAndReleaseAll();
+  }
+
+  @Test
+  public void testBinaryHeaderIpv6WithTrace() throws Exception {
+    ByteBuf header = v2Header(0x21, 0x21, 36);
+    header.writeBytes(new byte[]{(byte) 0xFE, (byte) 0x80, 0, 0, 0, 0, 0, 0, 0x02, 0x02, (byte) 0xB3, (byte) 0xFF, (byte) 0xFE, 0x1E, (byte) 0x83, 0x29});
+    header.writeZero(16).writeShort(5555).writeShort(6666);
+    header.writeBytes("TRACE 0123456789abcdef0123456789abcdef\r\n".getBytes(StandardCharsets.US_ASCII));
+
+    EmbeddedChannel channel = new EmbeddedChannel(new ProtocolHeadersRequestDecoder());
+    channel.writeInbound(header);
+
+    assertThat(channel.attr(SOURCE_IP_ATTRIBUTE).get(), equalTo("fe80::202:b3ff:fe1e:8329"));
+    assertThat(channel.attr(CONNECTION_ID_ATTRIBUTE).get(), equalTo("0123456789abcdef0123456789abcdef"));
+    assertNull(channel.attr(PROXY_TLVS_ATTRIBUTE).get());
+    assertThat(channel.pipeline().get(ProtocolHeadersRequestDecoder.class), nullValue());
+    channel.finishAndReleaseAll();
+  }
+
+  @Test
+  public void testBinaryLocalHeaderHasNoSourceIp() throws Exception {
+    ByteBuf header = v2Header(0x20, 0x00, 0);
+    header.writeBytes("GET / HTTP/1.1\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+
+    EmbeddedChannel channel = new EmbeddedChannel(new ProtocolHeadersRequestDecoder());
+    channel.writeInbound(header);
+
+    assertNull(channel.attr(SOURCE_IP_ATTRIBUTE).get());
+    assertThat(readInbound(channel), equalTo("GET / HTTP/1.1\r\n\r\n"));
+    channel.finishAndReleaseAll();
+  }
+
+  private static ByteBuf v2Header(int versionAndCommand, int familyAndTransport, int length) {
+    return Unpooled.buffer()
+        .writeBytes(new byte[]{0x0D, 0x0A, 0x0D, 0x0A, 0x00, 0x0D, 0x0A, 0x51, 0x55, 0x49, 0x54, 0x0A})
+        .writeByte(versionAndCommand)
+        .writeByte(familyAndTransport)
+        .writeShort(length);
+  }
+
+  private static String readInbound(EmbeddedChannel channel) {
+    StringBuilder read = new StringBuilder();
+    ByteBuf buf;
+    while ((buf = channel.readInbound()) != null) {
+      read.append(buf.toString(StandardCharsets.US_ASCII));
+      buf.release();
+    }
+    return read.toString();
+  }
+
   private ChannelHandlerContext runTest(String proxyProtocolHeader) throws Exception {
     final AtomicReference<ChannelHandlerContext> serverCtxReference = new AtomicReference<>();
 
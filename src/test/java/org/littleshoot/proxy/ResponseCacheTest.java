@@ -0,0 +1,189 @@
+package org.littleshoot.proxy;
+
+import org.apache.http.HttpResponse;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.littleshoot.proxy.impl.DefaultHttpProxyServer;
+import org.littleshoot.proxy.impl.HttpResponseCache;
+import org.littleshoot.proxy.impl.ResponseCacheConfiguration;
+import org.littleshoot.proxy.test.HttpClientUtil;
+import org.mockserver.integration.ClientAndServer;
+import org.mockserver.model.Delay;
+import org.mockserver.verify.VerificationTimes;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockserver.model.HttpRequest.request;
+import static org.mockserver.model.HttpResponse.response;
+
+/**
+ * Tests that the proxy-wide response cache serves, revalidates and refuses to store responses as RFC 7234 requires,
+ * and that it collapses concurrent requests for the same URI.
+ */
+public class ResponseCacheTest {
+    private ClientAndServer mockServer;
+    private int mockServerPort;
+
+    private HttpProxyServer proxyServer;
+    private HttpResponseCache cache;
+
+    @Before
+    public void setUp() {
+        mockServer = new ClientAndServer(0);
+        mockServerPort = mockServer.getPort();
+
+        mockServer.when(request()
+                        .withMethod("GET")
+                        .withPath("/fresh"))
+                .respond(response()
+                        .withStatusCode(200)
+                        .withHeader("Cache-Control", "max-age=600")
+                        .withBody("fresh"));
+
+        mockServer.when(request()
+                        .withMethod("GET")
+                        .withPath("/no-store"))
+                .respond(response()
+                        .withStatusCode(200)
+                        .withHeader("Cache-Control", "max-age=600, no-store")
+                        .withBody("no-store"));
+
+        // the conditional request sent to revalidate /stale is matched first
+        mockServer.when(request()
+                        .withMethod("GET")
+                        .withPath("/stale")
+                        .withHeader("If-None-Match", "\"v1\""))
+                .respond(response()
+                        .withStatusCode(304)
+                        .withHeader("ETag", "\"v1\"")
+                        .withHeader("Cache-Control", "max-age=0"));
+
+        mockServer.when(request()
+                        .withMethod("GET")
+                        .withPath("/stale"))
+                .respond(response()
+                        .withStatusCode(200)
+                        .withHeader("ETag", "\"v1\"")
+                        .withHeader("Cache-Control", "max-age=0")
+                        .withBody("stale"));
+
+        mockServer.when(request()
+                        .withMethod("GET")
+                        .withPath("/slow"))
+                .respond(response()
+                        .withStatusCode(200)
+                        .withHeader("Cache-Control", "max-age=600")
+                        .withDelay(new Delay(TimeUnit.MILLISECONDS, 1000))
+                        .withBody("slow"));
+
+        proxyServer = DefaultHttpProxyServer.bootstrap()
+                .withPort(0)
+                .withResponseCache(new ResponseCacheConfiguration())
+                .start();
+        cache = ((DefaultHttpProxyServer) proxyServer).getResponseCache();
+    }
+
+    @After
+    public void tearDown() {
+        try {
+            if (mockServer != null) {
+                mockServer.stop();
+            }
+        } finally {
+            if (proxyServer != null) {
+                proxyServer.abort();
+            }
+        }
+    }
+
+    @Test
+    public void testFreshResponseServedFromCache() {
+        HttpResponse firstResponse = performGet("/fresh");
+        assertEquals("Expected to receive a 200 from the server", 200, firstResponse.getStatusLine().getStatusCode());
+
+        HttpResponse secondResponse = performGet("/fresh");
+        assertEquals("Expected to receive a 200 from the cache", 200, secondResponse.getStatusLine().getStatusCode());
+        assertEquals("Expected the cached response to carry an Age header", "0",
+                secondResponse.getFirstHeader("Age").getValue());
+
+        mockServer.verify(request().withPath("/fresh"), VerificationTimes.exactly(1));
+        assertEquals("Expected the second request to hit the cache", 1, cache.getHits());
+        assertEquals("Expected the first request to miss the cache", 1, cache.getMisses());
+        assertEquals(1, cache.getEntries());
+    }
+
+    @Test
+    public void testNoStoreResponseNotCached() {
+        performGet("/no-store");
+        HttpResponse secondResponse = performGet("/no-store");
+        assertEquals("Expected to receive a 200 from the server", 200, secondResponse.getStatusLine().getStatusCode());
+        assertNull("Expected the response not to come from the cache", secondResponse.getFirstHeader("Age"));
+
+        mockServer.verify(request().withPath("/no-store"), VerificationTimes.exactly(2));
+        assertEquals(0, cache.getHits());
+        assertEquals(0, cache.getEntries());
+    }
+
+    @Test
+    public void testStaleResponseRevalidated() {
+        performGet("/stale");
+
+        HttpResponse secondResponse = performGet("/stale");
+        assertEquals("Expected the 304 from the server to be replaced with the cached response", 200,
+                secondResponse.getStatusLine().getStatusCode());
+        assertEquals("\"v1\"", secondResponse.getFirstHeader("ETag").getValue());
+
+        mockServer.verify(request().withPath("/stale").withHeader("If-None-Match", "\"v1\""),
+                VerificationTimes.exactly(1));
+        assertEquals(1, cache.getRevalidations());
+        assertEquals(1, cache.getRevalidatedHits());
+        assertEquals(0, cache.getHits());
+    }
+
+    @Test
+    public void testConcurrentRequestsCollapsed() throws Exception {
+        proxyServer.abort();
+        proxyServer = DefaultHttpProxyServer.bootstrap()
+                .withPort(0)
+                .withResponseCache(new ResponseCacheConfiguration().withCollapsedForwarding(true))
+                .start();
+        cache = ((DefaultHttpProxyServer) proxyServer).getResponseCache();
+
+        int clients = 4;
+        ExecutorService executor = Executors.newFixedThreadPool(clients);
+        try {
+            List<Future<HttpResponse>> responses = new ArrayList<Future<HttpResponse>>();
+            for (int i = 0; i < clients; i++) {
+                responses.add(executor.submit(new Callable<HttpResponse>() {
+                    @Override
+                    public HttpResponse call() {
+                        return performGet("/slow");
+                    }
+                }));
+            }
+            for (Future<HttpResponse> response : responses) {
+                assertEquals("Expected every client to receive a 200", 200,
+                        response.get(10, TimeUnit.SECONDS).getStatusLine().getStatusCode());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        mockServer.verify(request().withPath("/slow"), VerificationTimes.exactly(1));
+        assertEquals("Expected all but the first request to be collapsed into it", clients - 1,
+                cache.getCollapsedRequests());
+    }
+
+    private HttpResponse performGet(String path) {
+        return HttpClientUtil.performHttpGet("http://localhost:" + mockServerPort + path, proxyServer);
+    }
+}
@@ -19,7 +19,9 @@ import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 
+import static org.hamcrest.Matchers.containsString;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
 import static org.mockserver.model.HttpRequest.request;
 import static org.mockserver.model.HttpResponse.response;
 
@@ -150,4 +152,54 @@ public class ServerGroupTest {
         assertEquals("Expected serverToProxy filter methods to be executed on the same thread for both requests", firstProxyThreadName.get(), secondProxyThreadName.get());
     }
 
+    @Test
+    public void testEventLoopAffinity() throws Exception {
+        final String requestPath = "/testEventLoopAffinity";
+
+        mockServer.when(request()
+                        .withMethod("GET")
+                        .withPath(requestPath))
+                .respond(response()
+                                .withStatusCode(200)
+                                .withBody("affinity")
+                );
+
+        final AtomicReference<String> clientThreadName = new AtomicReference<String>();
+        final AtomicReference<String> serverThreadName = new AtomicReference<String>();
+
+        // with several worker threads, the client and server channels would only share a thread by chance
+        proxyServer = DefaultHttpProxyServer.bootstrap()
+                .withPort(0)
+                .withFiltersSource(new HttpFiltersSourceAdapter() {
+                    @Override
+                    public HttpFilters filterRequest(HttpRequest originalRequest) {
+                        return new HttpFiltersAdapter(originalRequest) {
+                            @Override
+                            public io.netty.handler.codec.http.HttpResponse clientToProxyRequest(HttpObject httpObject) {
+                                clientThreadName.set(Thread.currentThread().getName());
+                                return super.clientToProxyRequest(httpObject);
+                            }
+
+                            @Override
+                            public HttpObject serverToProxyResponse(HttpObject httpObject) {
+                                serverThreadName.set(Thread.currentThread().getName());
+                                return super.serverToProxyResponse(httpObject);
+                            }
+                        };
+                    }
+                })
+                .withThreadPoolConfiguration(new ThreadPoolConfiguration()
+                        .withClientToProxyWorkerThreads(4)
+                        .withEventLoopAffinity(true))
+                .start();
+
+        for (int i = 0; i < 4; i++) {
+            HttpResponse response = HttpClientUtil.performHttpGet("http://localhost:" + mockServerPort + requestPath, proxyServer);
+            assertEquals(200, response.getStatusLine().getStatusCode());
+
+            assertEquals("Expected the response to be received on the client's event loop", clientThreadName.get(), serverThreadName.get());
+            assertThat(serverThreadName.get(), containsString("SharedWorker"));
+        }
+    }
+
 }
@@ -0,0 +1,158 @@
+package org.littleshoot.proxy;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.littleshoot.proxy.impl.DefaultHttpProxyServer;
+import org.littleshoot.proxy.test.SocketClientUtil;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.hamcrest.Matchers.startsWith;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests relaying of raw bytes through CONNECT tunnels, against an in-process echo server.
+ */
+public class TunnelRelayTest {
+    private static final int PAYLOAD_SIZE = 4 * 1024 * 1024;
+
+    private ServerSocket echoServer;
+    private Thread echoThread;
+
+    private HttpProxyServer proxyServer;
+
+    private final AtomicLong bytesSentToServer = new AtomicLong();
+    private final AtomicLong bytesReceivedFromServer = new AtomicLong();
+    private final AtomicLong bytesSentToClient = new AtomicLong();
+
+    @Before
+    public void setUp() throws Exception {
+        echoServer = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        echoThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Socket socket = echoServer.accept();
+                    InputStream in = socket.getInputStream();
+                    OutputStream out = socket.getOutputStream();
+                    byte[] buffer = new byte[8192];
+                    int read;
+                    while ((read = in.read(buffer)) != -1) {
+                        out.write(buffer, 0, read);
+                        out.flush();
+                    }
+                    socket.close();
+                } catch (IOException e) {
+                    // the server socket was closed by the test
+                }
+            }
+        }, "TunnelRelayTest-Echo");
+        echoThread.setDaemon(true);
+        echoThread.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        try {
+            if (proxyServer != null) {
+                proxyServer.abort();
+            }
+        } finally {
+            echoServer.close();
+        }
+    }
+
+    @Test
+    public void testRelaysBytesInBothDirections() throws Exception {
+        proxyServer = DefaultHttpProxyServer.bootstrap()
+                .withPort(0)
+                .plusActivityTracker(new ActivityTrackerAdapter() {
+                    @Override
+                    public void bytesSentToServer(FullFlowContext flowContext, int numberOfBytes) {
+                        bytesSentToServer.addAndGet(numberOfBytes);
+                    }
+
+                    @Override
+                    public void bytesReceivedFromServer(FullFlowContext flowContext, int numberOfBytes) {
+                        bytesReceivedFromServer.addAndGet(numberOfBytes);
+                    }
+
+                    @Override
+                    public void bytesSentToClient(FlowContext flowContext, int numberOfBytes) {
+                        bytesSentToClient.addAndGet(numberOfBytes);
+                    }
+                })
+                .start();
+
+        Socket socket = SocketClientUtil.getSocketToProxyServer(proxyServer);
+        socket.setSoTimeout(10000);
+        try {
+            int echoPort = ((InetSocketAddress) echoServer.getLocalSocketAddress()).getPort();
+            String connect = "CONNECT 127.0.0.1:" + echoPort + " HTTP/1.1\r\nHost: 127.0.0.1:" + echoPort + "\r\n\r\n";
+            SocketClientUtil.writeStringToSocket(connect, socket);
+
+            String response = readResponseHeaders(socket.getInputStream());
+            assertThat("Expected the CONNECT to succeed", response, startsWith("HTTP/1.1 200"));
+            long connectResponseBytes = bytesSentToClient.get();
+
+            final byte[] payload = new byte[PAYLOAD_SIZE];
+            new Random(42).nextBytes(payload);
+
+            // write on a separate thread, so that a proxy that stops reading from the client can't deadlock the test
+            final OutputStream out = socket.getOutputStream();
+            Thread writer = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        out.write(payload);
+                        out.flush();
+                    } catch (IOException e) {
+                        // reported as a short read below
+                    }
+                }
+            });
+            writer.start();
+
+            byte[] echoed = new byte[PAYLOAD_SIZE];
+            new DataInputStream(socket.getInputStream()).readFully(echoed);
+            writer.join();
+
+            assertArrayEquals("Expected the payload to be echoed through the tunnel", payload, echoed);
+
+            // bytes are reported to activity trackers after each read batch
+            for (int i = 0; i < 50 && (bytesSentToServer.get() < PAYLOAD_SIZE
+                    || bytesSentToClient.get() - connectResponseBytes < PAYLOAD_SIZE); i++) {
+                Thread.sleep(20);
+            }
+            assertEquals(PAYLOAD_SIZE, bytesSentToServer.get());
+            assertEquals(PAYLOAD_SIZE, bytesReceivedFromServer.get());
+            assertEquals(PAYLOAD_SIZE, bytesSentToClient.get() - connectResponseBytes);
+        } finally {
+            socket.close();
+        }
+    }
+
+    private static String readResponseHeaders(InputStream in) throws IOException {
+        StringBuilder headers = new StringBuilder();
+        while (!headers.toString().endsWith("\r\n\r\n")) {
+            int b = in.read();
+            if (b == -1) {
+                break;
+            }
+            headers.append((char) b);
+        }
+        return headers.toString();
+    }
+}
@@ -0,0 +1,243 @@
+package org.littleshoot.proxy;
+
+import org.apache.http.HttpResponse;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.littleshoot.proxy.impl.ConnectionPoolConfiguration;
+import org.littleshoot.proxy.impl.DefaultHttpProxyServer;
+import org.littleshoot.proxy.impl.UpstreamConnectionPool;
+import org.littleshoot.proxy.test.HttpClientUtil;
+import org.mockserver.integration.ClientAndServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockserver.model.HttpRequest.request;
+import static org.mockserver.model.HttpResponse.response;
+
+/**
+ * Tests that upstream connections are shared between clients when the upstream connection pool is enabled.
+ */
+public class UpstreamConnectionPoolTest {
+    private ClientAndServer mockServer;
+    private int mockServerPort;
+
+    private HttpProxyServer proxyServer;
+
+    @Before
+    public void setUp() {
+        mockServer = new ClientAndServer(0);
+        mockServerPort = mockServer.getPort();
+
+        mockServer.when(request()
+                        .withMethod("GET")
+                        .withPath("/pooled"))
+                .respond(response()
+                        .withStatusCode(200)
+                        .withBody("pooled"));
+    }
+
+    @After
+    public void tearDown() {
+        try {
+            if (mockServer != null) {
+                mockServer.stop();
+            }
+        } finally {
+            if (proxyServer != null) {
+                proxyServer.abort();
+            }
+        }
+    }
+
+    @Test
+    public void testConnectionReusedAcrossClients() throws InterruptedException {
+        proxyServer = DefaultHttpProxyServer.bootstrap()
+                .withPort(0)
+                .withUpstreamConnectionPool(new ConnectionPoolConfiguration())
+                .start();
+
+        UpstreamConnectionPool pool = ((DefaultHttpProxyServer) proxyServer).getUpstreamConnectionPool();
+
+        HttpResponse firstResponse = HttpClientUtil.performHttpGet("http://localhost:" + mockServerPort + "/pooled", proxyServer);
+        assertEquals("Expected to receive a 200 from the server", 200, firstResponse.getStatusLine().getStatusCode());
+
+        waitForIdleConnections(pool, 1);
+        assertEquals("Expected the first request to miss the pool", 1, pool.getMisses());
+        assertEquals("Expected the first client's connection to be pooled", 1, pool.getIdleConnections());
+
+        HttpResponse secondResponse = HttpClientUtil.performHttpGet("http://localhost:" + mockServerPort + "/pooled", proxyServer);
+        assertEquals("Expected to receive a 200 from the server", 200, secondResponse.getStatusLine().getStatusCode());
+
+        assertEquals("Expected the second request to reuse the pooled connection", 1, pool.getHits());
+        assertEquals("Expected no additional pool misses", 1, pool.getMisses());
+    }
+
+    @Test
+    public void testPoolDisabledByDefault() {
+        proxyServer = DefaultHttpProxyServer.bootstrap()
+                .withPort(0)
+                .start();
+
+        assertNull("Expected no upstream connection pool by default", ((DefaultHttpProxyServer) proxyServer).getUpstreamConnectionPool());
+
+        HttpResponse response = HttpClientUtil.performHttpGet("http://localhost:" + mockServerPort + "/pooled", proxyServer);
+        assertEquals("Expected to receive a 200 from the server", 200, response.getStatusLine().getStatusCode());
+    }
+
+    @Test
+    public void testIdleConnectionsExpire() throws InterruptedException {
+        proxyServer = DefaultHttpProxyServer.bootstrap()
+                .withPort(0)
+                .withUpstreamConnectionPool(new ConnectionPoolConfiguration()
+                        .withIdleTimeoutMillis(200))
+                .start();
+
+        UpstreamConnectionPool pool = ((DefaultHttpProxyServer) proxyServer).getUpstreamConnectionPool();
+
+        HttpClientUtil.performHttpGet("http://localhost:" + mockServerPort + "/pooled", proxyServer);
+        waitForIdleConnections(pool, 1);
+
+        waitForIdleConnections(pool, 0);
+        assertEquals("Expected the expired connection to be evicted", 1, pool.getEvictions());
+    }
+
+    @Test
+    public void testRequestRetriedWhenServerClosesPooledConnection() throws Exception {
+        ClosingOrigin origin = new ClosingOrigin();
+        try {
+            proxyServer = DefaultHttpProxyServer.bootstrap()
+                    .withPort(0)
+                    .withUpstreamConnectionPool(new ConnectionPoolConfiguration())
+                    .start();
+
+            UpstreamConnectionPool pool = ((DefaultHttpProxyServer) proxyServer).getUpstreamConnectionPool();
+            String url = "http://127.0.0.1:" + origin.getPort() + "/closing";
+
+            HttpResponse firstResponse = HttpClientUtil.performHttpGet(url, proxyServer);
+            assertEquals(200, firstResponse.getStatusLine().getStatusCode());
+            waitForIdleConnections(pool, 1);
+
+            // the origin closes the pooled connection as soon as the next request arrives on it
+            HttpResponse secondResponse = HttpClientUtil.performHttpGet(url, proxyServer);
+            assertEquals("Expected the request to be retried on a new connection", 200,
+                    secondResponse.getStatusLine().getStatusCode());
+            assertEquals("Expected the second request to adopt the pooled connection", 1, pool.getHits());
+            assertEquals("Expected a new connection for the retry", 2, origin.getConnections());
+        } finally {
+            origin.close();
+        }
+    }
+
+    /**
+     * Origin that answers the first request on its first connection, keeps that connection open, and closes it without
+     * answering when the next request arrives on it, like a server whose idle timeout expires as the request is sent.
+     * Requests on later connections are all answered.
+     */
+    private static class ClosingOrigin implements Runnable {
+        private static final byte[] RESPONSE = ("HTTP/1.1 200 OK\r\n"
+                + "Content-Length: 2\r\n"
+                + "Connection: keep-alive\r\n"
+                + "\r\n"
+                + "ok").getBytes(StandardCharsets.US_ASCII);
+
+        private final ServerSocket serverSocket;
+        private final AtomicInteger connections = new AtomicInteger();
+
+        ClosingOrigin() throws IOException {
+            serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+            Thread acceptor = new Thread(this, "ClosingOrigin");
+            acceptor.setDaemon(true);
+            acceptor.start();
+        }
+
+        int getPort() {
+            return serverSocket.getLocalPort();
+        }
+
+        int getConnections() {
+            return connections.get();
+        }
+
+        void close() throws IOException {
+            serverSocket.close();
+        }
+
+        @Override
+        public void run() {
+            while (!serverSocket.isClosed()) {
+                final Socket socket;
+                try {
+                    socket = serverSocket.accept();
+                } catch (IOException e) {
+                    return;
+                }
+                final boolean first = connections.incrementAndGet() == 1;
+                Thread handler = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        serve(socket, first);
+                    }
+                }, "ClosingOrigin-connection");
+                handler.setDaemon(true);
+                handler.start();
+            }
+        }
+
+        private static void serve(Socket socket, boolean closeOnSecondRequest) {
+            try {
+                InputStream in = socket.getInputStream();
+                OutputStream out = socket.getOutputStream();
+                for (int requests = 1; readRequestHead(in); requests++) {
+                    if (closeOnSecondRequest && requests == 2) {
+                        break;
+                    }
+                    out.write(RESPONSE);
+                    out.flush();
+                }
+            } catch (IOException e) {
+                // the peer went away
+            } finally {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+
+        /**
+         * Reads a request without a body.
+         *
+         * @return false if the connection was closed first
+         */
+        private static boolean readRequestHead(InputStream in) throws IOException {
+            int matched = 0;
+            int b;
+            while ((b = in.read()) >= 0) {
+                matched = (b == '\r' && matched % 2 == 0) || (b == '\n' && matched % 2 == 1) ? matched + 1 : 0;
+                if (matched == 4) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private static void waitForIdleConnections(UpstreamConnectionPool pool, int expected) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (pool.getIdleConnections() != expected && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+}
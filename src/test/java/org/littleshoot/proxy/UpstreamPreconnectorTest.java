@@ -0,0 +1,163 @@
+package org.littleshoot.proxy;
+
+import org.apache.http.HttpResponse;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.littleshoot.proxy.impl.DefaultHttpProxyServer;
+import org.littleshoot.proxy.impl.PreconnectConfiguration;
+import org.littleshoot.proxy.impl.ThreadPoolConfiguration;
+import org.littleshoot.proxy.impl.UpstreamConnectionPool;
+import org.littleshoot.proxy.impl.UpstreamPreconnector;
+import org.littleshoot.proxy.test.HttpClientUtil;
+import org.littleshoot.proxy.test.SocketClientUtil;
+import org.mockserver.integration.ClientAndServer;
+
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertThat;
+import static org.mockserver.model.HttpRequest.request;
+import static org.mockserver.model.HttpResponse.response;
+
+/**
+ * Tests that warm upstream connections are opened for hot origins and used by new clients.
+ */
+public class UpstreamPreconnectorTest {
+    private ClientAndServer mockServer;
+    private int mockServerPort;
+
+    private HttpProxyServer proxyServer;
+
+    @Before
+    public void setUp() {
+        mockServer = new ClientAndServer(0);
+        mockServerPort = mockServer.getPort();
+
+        mockServer.when(request()
+                        .withMethod("GET")
+                        .withPath("/warm"))
+                .respond(response()
+                        .withStatusCode(200)
+                        .withBody("warm"));
+    }
+
+    @After
+    public void tearDown() {
+        try {
+            if (mockServer != null) {
+                mockServer.stop();
+            }
+        } finally {
+            if (proxyServer != null) {
+                proxyServer.abort();
+            }
+        }
+    }
+
+    @Test
+    public void testWarmConnectionUsedByNextClient() throws Exception {
+        proxyServer = DefaultHttpProxyServer.bootstrap()
+                .withPort(0)
+                .withUpstreamPreconnect(new PreconnectConfiguration()
+                        .withRefreshIntervalMillis(50)
+                        .withRateHalfLifeMillis(1000)
+                        .withMinConnectionRate(0.01))
+                .start();
+
+        UpstreamConnectionPool pool = ((DefaultHttpProxyServer) proxyServer).getUpstreamConnectionPool();
+        UpstreamPreconnector preconnector = ((DefaultHttpProxyServer) proxyServer).getUpstreamPreconnector();
+        assertNotNull("Expected pre-connecting to enable the connection pool", pool);
+        assertNotNull(preconnector);
+
+        // this client keeps its upstream connection, so the pool can only be filled by the pre-connector
+        Socket socket = SocketClientUtil.getSocketToProxyServer(proxyServer);
+        try {
+            SocketClientUtil.writeStringToSocket("GET http://localhost:" + mockServerPort + "/warm HTTP/1.1\r\n"
+                    + "Host: localhost:" + mockServerPort + "\r\n\r\n", socket);
+            SocketClientUtil.readStringFromSocket(socket);
+
+            assertThat(preconnector.getConnectionRate("localhost:" + mockServerPort), greaterThan(0d));
+
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (pool.getIdleConnections() == 0 && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            assertThat("Expected a warm connection to be opened", preconnector.getPreconnects(), greaterThanOrEqualTo(1L));
+            assertThat("Expected the warm connection to wait in the pool", pool.getIdleConnections(), greaterThanOrEqualTo(1));
+
+            HttpResponse response = HttpClientUtil.performHttpGet("http://localhost:" + mockServerPort + "/warm", proxyServer);
+            assertEquals("Expected to receive a 200 from the server", 200, response.getStatusLine().getStatusCode());
+            assertEquals("Expected the second client to use the warm connection", 1, pool.getHits());
+        } finally {
+            socket.close();
+        }
+    }
+
+    @Test
+    public void testWarmConnectionsSpreadOverEventLoopsWithAffinity() throws Exception {
+        int eventLoops = 4;
+        proxyServer = DefaultHttpProxyServer.bootstrap()
+                .withPort(0)
+                .withThreadPoolConfiguration(new ThreadPoolConfiguration()
+                        .withClientToProxyWorkerThreads(eventLoops)
+                        .withProxyToServerWorkerThreads(eventLoops)
+                        .withEventLoopAffinity(true))
+                .withUpstreamPreconnect(new PreconnectConfiguration()
+                        .withRefreshIntervalMillis(50)
+                        .withRateHalfLifeMillis(60000)
+                        .withMinConnectionRate(0.01))
+                .start();
+
+        UpstreamConnectionPool pool = ((DefaultHttpProxyServer) proxyServer).getUpstreamConnectionPool();
+
+        // this client keeps its upstream connection, so the pool can only be filled by the pre-connector
+        Socket socket = SocketClientUtil.getSocketToProxyServer(proxyServer);
+        try {
+            SocketClientUtil.writeStringToSocket("GET http://localhost:" + mockServerPort + "/warm HTTP/1.1\r\n"
+                    + "Host: localhost:" + mockServerPort + "\r\n\r\n", socket);
+            SocketClientUtil.readStringFromSocket(socket);
+
+            // the origin's rate only asks for a single warm connection, but clients on every event loop need one
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (pool.getIdleConnections() < eventLoops && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals("Expected a warm connection on every event loop", eventLoops, pool.getIdleConnections());
+
+            // new clients are assigned to the event loops in turn, and each finds a warm connection on its own loop
+            long missesBefore = pool.getMisses();
+            for (int i = 0; i < eventLoops; i++) {
+                HttpResponse response = HttpClientUtil.performHttpGet(
+                        "http://localhost:" + mockServerPort + "/warm", proxyServer);
+                assertEquals("Expected to receive a 200 from the server", 200, response.getStatusLine().getStatusCode());
+            }
+            assertEquals("Expected every client to use a warm connection on its own event loop", missesBefore,
+                    pool.getMisses());
+        } finally {
+            socket.close();
+        }
+    }
+
+    @Test
+    public void testColdOriginNotPreconnected() throws Exception {
+        proxyServer = DefaultHttpProxyServer.bootstrap()
+                .withPort(0)
+                .withUpstreamPreconnect(new PreconnectConfiguration()
+                        .withRefreshIntervalMillis(50)
+                        .withMinConnectionRate(1000))
+                .start();
+
+        UpstreamPreconnector preconnector = ((DefaultHttpProxyServer) proxyServer).getUpstreamPreconnector();
+
+        HttpResponse response = HttpClientUtil.performHttpGet("http://localhost:" + mockServerPort + "/warm", proxyServer);
+        assertEquals("Expected to receive a 200 from the server", 200, response.getStatusLine().getStatusCode());
+
+        Thread.sleep(300);
+        assertEquals("Expected no warm connections for an origin below the minimum rate", 0, preconnector.getPreconnects());
+    }
+}
@@ -0,0 +1,58 @@
+package org.littleshoot.proxy;
+
+import org.junit.Test;
+import org.littleshoot.proxy.extras.SelfSignedMitmManagerFactory;
+import org.littleshoot.proxy.impl.DefaultHttpProxyServer;
+import org.littleshoot.proxy.impl.TlsSessionCacheConfiguration;
+import org.littleshoot.proxy.impl.UpstreamTlsSessionCache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that the TLS sessions of a proxy running as a man in the middle are resumed by later connections to the same
+ * server.
+ */
+public class UpstreamTlsSessionCacheTest extends AbstractProxyTest {
+    @Override
+    protected void setUp() {
+        this.proxyServer = bootstrapProxy()
+                .withPort(0)
+                .withManInTheMiddle(new SelfSignedMitmManagerFactory())
+                .withUpstreamTlsSessionCache(new TlsSessionCacheConfiguration()
+                        .withMaxSessions(100)
+                        .withSessionLifetimeSeconds(60))
+                .start();
+    }
+
+    @Test
+    public void testSessionResumedByNextConnection() throws Exception {
+        // each request comes from a new client, so the proxy opens a new connection to the server for each
+        for (int i = 0; i < 3; i++) {
+            ResponseInfo response = httpGetWithApacheClient(httpsWebHost, DEFAULT_RESOURCE, true, false);
+            assertEquals(200, response.getStatusCode());
+        }
+
+        UpstreamTlsSessionCache tlsSessionCache = ((DefaultHttpProxyServer) proxyServer).getUpstreamTlsSessionCache();
+        assertNotNull(tlsSessionCache);
+        assertEquals("Expected every connection to the server to be counted", 3,
+                tlsSessionCache.getFullHandshakes() + tlsSessionCache.getResumedHandshakes());
+        assertTrue("Expected the first connection to do a full handshake", tlsSessionCache.getFullHandshakes() >= 1);
+        assertTrue("Expected later connections to resume the session", tlsSessionCache.getResumedHandshakes() >= 1);
+    }
+
+    @Test
+    public void testDisabledByDefault() throws Exception {
+        HttpProxyServer withoutCache = DefaultHttpProxyServer.bootstrap()
+                .withPort(0)
+                .withManInTheMiddle(new SelfSignedMitmManagerFactory())
+                .start();
+        try {
+            assertNull(((DefaultHttpProxyServer) withoutCache).getUpstreamTlsSessionCache());
+        } finally {
+            withoutCache.abort();
+        }
+    }
+}
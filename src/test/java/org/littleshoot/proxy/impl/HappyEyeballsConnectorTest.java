@@ -0,0 +1,235 @@
+package org.littleshoot.proxy.impl;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoop;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.util.concurrent.Future;
+import org.apache.http.HttpResponse;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.littleshoot.proxy.HttpProxyServer;
+import org.littleshoot.proxy.MultiAddressHostResolver;
+import org.littleshoot.proxy.test.HttpClientUtil;
+import org.mockserver.integration.ClientAndServer;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.mockserver.model.HttpRequest.request;
+import static org.mockserver.model.HttpResponse.response;
+
+/**
+ * Tests racing of connection attempts to the addresses of a server with several addresses.
+ */
+public class HappyEyeballsConnectorTest {
+    private static final int CONNECT_TIMEOUT_MILLIS = 10000;
+
+    private EventLoopGroup group;
+    private ServerSocket liveServer;
+    private InetSocketAddress liveAddress;
+    private InetSocketAddress refusingAddress;
+
+    private ClientAndServer mockServer;
+    private HttpProxyServer proxyServer;
+
+    @Before
+    public void setUp() throws Exception {
+        group = new NioEventLoopGroup(1);
+
+        liveServer = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        liveAddress = (InetSocketAddress) liveServer.getLocalSocketAddress();
+
+        // nothing listens on the port of a closed server socket, so connections to it are refused
+        ServerSocket closed = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        refusingAddress = (InetSocketAddress) closed.getLocalSocketAddress();
+        closed.close();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        try {
+            if (proxyServer != null) {
+                proxyServer.abort();
+            }
+            if (mockServer != null) {
+                mockServer.stop();
+            }
+        } finally {
+            liveServer.close();
+            group.shutdownGracefully().awaitUninterruptibly();
+        }
+    }
+
+    @Test
+    public void testInterleavesAddressFamilies() throws Exception {
+        InetSocketAddress v4a = address("192.0.2.1");
+        InetSocketAddress v4b = address("192.0.2.2");
+        InetSocketAddress v4c = address("192.0.2.3");
+        InetSocketAddress v6a = address("2001:db8::1");
+        InetSocketAddress v6b = address("2001:db8::2");
+
+        assertEquals(Arrays.asList(v4a, v6a, v4b, v6b, v4c),
+                HappyEyeballsConnector.interleave(Arrays.asList(v4a, v4b, v4c, v6a, v6b)));
+        assertEquals(Arrays.asList(v6a, v4a, v6b, v4b, v4c),
+                HappyEyeballsConnector.interleave(Arrays.asList(v6a, v4a, v4b, v6b, v4c)));
+    }
+
+    @Test
+    public void testPenalizedAddressesAreTriedLast() throws Exception {
+        InetSocketAddress first = address("192.0.2.1");
+        InetSocketAddress second = address("192.0.2.2");
+        InetSocketAddress third = address("192.0.2.3");
+
+        AddressPenaltyTracker penalties = new AddressPenaltyTracker();
+        penalties.penalize(first);
+
+        assertEquals(Arrays.asList(second, third, first), penalties.deprioritizePenalized(Arrays.asList(first, second, third)));
+
+        penalties.succeeded(first);
+        assertEquals(Arrays.asList(first, second, third), penalties.deprioritizePenalized(Arrays.asList(first, second, third)));
+    }
+
+    @Test
+    public void testPenaltiesExpire() throws Exception {
+        InetSocketAddress address = address("192.0.2.1");
+
+        AddressPenaltyTracker penalties = new AddressPenaltyTracker(50, 10);
+        penalties.penalize(address);
+        assertTrue(penalties.isPenalized(address));
+
+        Thread.sleep(100);
+        assertFalse(penalties.isPenalized(address));
+    }
+
+    @Test
+    public void testPenaltiesBounded() throws Exception {
+        AddressPenaltyTracker penalties = new AddressPenaltyTracker(AddressPenaltyTracker.DEFAULT_PENALTY_MILLIS, 10);
+        for (int i = 1; i <= 20; i++) {
+            penalties.penalize(address("192.0.2." + i));
+        }
+
+        assertThat(penalties.size(), lessThanOrEqualTo(10));
+        assertTrue("Expected the most recent penalty to be kept", penalties.isPenalized(address("192.0.2.20")));
+    }
+
+    @Test
+    public void testFallsBackToNextAddressWhenRefused() throws Exception {
+        AddressPenaltyTracker penalties = new AddressPenaltyTracker();
+
+        // a long attempt delay, so that the second address is only tried because the first one failed
+        Channel channel = connect(Arrays.asList(refusingAddress, liveAddress), 5000, penalties);
+        try {
+            assertEquals(liveAddress, channel.remoteAddress());
+            assertTrue("Expected the refusing address to be penalized", penalties.isPenalized(refusingAddress));
+            assertFalse(penalties.isPenalized(liveAddress));
+        } finally {
+            channel.close();
+        }
+
+        // next time, the live address is tried first
+        channel = connect(Arrays.asList(refusingAddress, liveAddress), 5000, penalties);
+        channel.close();
+    }
+
+    @Test
+    public void testRacesUnresponsiveAddress() throws Exception {
+        // addresses reserved for documentation are not routed, so attempts to them either hang or fail
+        InetSocketAddress unresponsive = new InetSocketAddress(InetAddress.getByName("192.0.2.1"), 80);
+        AddressPenaltyTracker penalties = new AddressPenaltyTracker();
+
+        long start = System.nanoTime();
+        Channel channel = connect(Arrays.asList(unresponsive, liveAddress), 100, penalties);
+        try {
+            long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+            assertEquals(liveAddress, channel.remoteAddress());
+            assertThat("Expected the live address to win long before the connect timeout",
+                    elapsedMillis, lessThan((long) CONNECT_TIMEOUT_MILLIS / 2));
+            assertTrue("Expected the unresponsive address to be penalized", penalties.isPenalized(unresponsive));
+        } finally {
+            channel.close();
+        }
+    }
+
+    @Test
+    public void testProxyRacesResolvedAddresses() throws Exception {
+        mockServer = new ClientAndServer(0);
+        mockServer.when(request()
+                        .withMethod("GET")
+                        .withPath("/eyeballs"))
+                .respond(response()
+                        .withStatusCode(200)
+                        .withBody("eyeballs"));
+
+        final InetSocketAddress unresponsive = new InetSocketAddress(InetAddress.getByName("192.0.2.1"), mockServer.getPort());
+        final InetSocketAddress origin = new InetSocketAddress(InetAddress.getByName("127.0.0.1"), mockServer.getPort());
+
+        proxyServer = DefaultHttpProxyServer.bootstrap()
+                .withPort(0)
+                .withConnectTimeout(CONNECT_TIMEOUT_MILLIS)
+                .withConnectionAttemptDelay(100)
+                .withAsyncServerResolver(new MultiAddressHostResolver() {
+                    @Override
+                    public Future<List<InetSocketAddress>> resolveAll(String host, int port, EventLoop eventLoop) {
+                        return eventLoop.<List<InetSocketAddress>>newSucceededFuture(Arrays.asList(unresponsive, origin));
+                    }
+
+                    @Override
+                    public Future<InetSocketAddress> resolve(String host, int port, EventLoop eventLoop) {
+                        return eventLoop.newSucceededFuture(unresponsive);
+                    }
+                })
+                .start();
+
+        long start = System.nanoTime();
+        HttpResponse response = HttpClientUtil.performHttpGet("http://eyeballs.test:" + mockServer.getPort() + "/eyeballs", proxyServer);
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertEquals("Expected to receive a 200 from the server", 200, response.getStatusLine().getStatusCode());
+        assertThat("Expected the origin to be reached long before the connect timeout",
+                elapsedMillis, lessThan((long) CONNECT_TIMEOUT_MILLIS / 2));
+        assertTrue("Expected the unresponsive address to be penalized",
+                ((DefaultHttpProxyServer) proxyServer).getAddressPenaltyTracker().isPenalized(unresponsive));
+    }
+
+    private Channel connect(List<InetSocketAddress> addresses, long attemptDelayMillis, AddressPenaltyTracker penalties)
+            throws Exception {
+        Bootstrap bootstrap = new Bootstrap()
+                .group(group)
+                .channel(NioSocketChannel.class)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, CONNECT_TIMEOUT_MILLIS)
+                .handler(new ChannelInitializer<Channel>() {
+                    @Override
+                    protected void initChannel(Channel ch) throws Exception {
+                    }
+                });
+
+        EventLoop scheduler = group.next();
+        Future<Channel> future = new HappyEyeballsConnector(bootstrap, addresses, null, attemptDelayMillis, penalties, scheduler)
+                .connect();
+        assertTrue("Expected a connection before the connect timeout",
+                future.await(CONNECT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        assertTrue("Expected a connection, but failed with " + future.cause(), future.isSuccess());
+        return future.getNow();
+    }
+
+    private static InetSocketAddress address(String literal) throws Exception {
+        return new InetSocketAddress(InetAddress.getByName(literal), 80);
+    }
+}
@@ -0,0 +1,218 @@
+package org.littleshoot.proxy.impl;
+
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.DefaultHttpResponse;
+import io.netty.handler.codec.http.DefaultLastHttpContent;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.LastHttpContent;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests for the storage, selection and expiration rules of {@link HttpResponseCache}.
+ */
+public class HttpResponseCacheTest {
+    private static final String HOST = "www.example.com:80";
+
+    private long now = 1000000L;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private HttpResponseCache cache = newCache(new ResponseCacheConfiguration());
+
+    @After
+    public void tearDown() {
+        cache.clear();
+    }
+
+    @Test
+    public void testFreshResponseExpires() {
+        store("/a", "max-age=60", null, "hello");
+
+        now += 59000;
+        assertBody("hello", lookup(request("/a")));
+
+        now += 2000;
+        assertNull("Expected a response without validators to expire", lookup(request("/a")));
+        assertEquals(1, cache.getHits());
+    }
+
+    @Test
+    public void testVariantsSelectedByVaryHeader() {
+        HttpRequest gzip = request("/v");
+        gzip.headers().set(HttpHeaderNames.ACCEPT_ENCODING, "gzip");
+        HttpRequest identity = request("/v");
+        identity.headers().set(HttpHeaderNames.ACCEPT_ENCODING, "identity");
+
+        store(gzip, "max-age=60", "Accept-Encoding", "gzip body");
+        store(identity, "max-age=60", "Accept-Encoding", "identity body");
+
+        assertEquals("Expected both variants under a single URI", 1, cache.getEntries());
+        assertBody("gzip body", lookup(gzip));
+        assertBody("identity body", lookup(identity));
+        assertNull("Expected no variant for a request without Accept-Encoding", lookup(request("/v")));
+    }
+
+    @Test
+    public void testUnsafeRequestInvalidatesUri() {
+        store("/a", "max-age=60", null, "hello");
+
+        assertNull(cache.begin(HOST, new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.POST, "/a")));
+        assertNull(lookup(request("/a")));
+        assertEquals(0, cache.getEntries());
+        assertEquals(0, cache.getBytes());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedUrisEvicted() {
+        cache = newCache(new ResponseCacheConfiguration().withMaxBytes(600).withMaxEntryBytes(300));
+        store("/a", "max-age=60", null, repeat('a', 200));
+        store("/b", "max-age=60", null, repeat('b', 200));
+        lookup(request("/a")).release();
+        store("/c", "max-age=60", null, repeat('c', 200));
+
+        assertEquals(2, cache.getEntries());
+        assertEquals(1, cache.getEvictions());
+        assertNull("Expected the least recently used URI to be evicted", lookup(request("/b")));
+        assertBody(repeat('a', 200), lookup(request("/a")));
+    }
+
+    @Test
+    public void testMappedStorage() {
+        cache = newCache(new ResponseCacheConfiguration().withStorage(ResponseCacheConfiguration.Storage.MAPPED));
+        store("/a", "max-age=60", null, "mapped");
+
+        assertBody("mapped", lookup(request("/a")));
+    }
+
+    @Test
+    public void testEvictionUnmapsMappedBody() throws Exception {
+        File maps = new File("/proc/self/maps");
+        Assume.assumeTrue("Mappings can only be inspected on Linux", maps.canRead());
+
+        File storageDirectory = temporaryFolder.newFolder();
+        cache = newCache(new ResponseCacheConfiguration()
+                .withStorage(ResponseCacheConfiguration.Storage.MAPPED)
+                .withStorageDirectory(storageDirectory)
+                .withMaxBytes(600)
+                .withMaxEntryBytes(300));
+        store("/a", "max-age=60", null, repeat('a', 200));
+        store("/b", "max-age=60", null, repeat('b', 200));
+        assertEquals(2, mappingsIn(maps, storageDirectory));
+
+        store("/c", "max-age=60", null, repeat('c', 200));
+        assertEquals(1, cache.getEvictions());
+        assertEquals("Expected the evicted body to be unmapped", 2, mappingsIn(maps, storageDirectory));
+
+        cache.clear();
+        assertEquals("Expected all bodies to be unmapped", 0, mappingsIn(maps, storageDirectory));
+    }
+
+    @Test
+    public void testParseCacheControl() {
+        HttpResponse response = new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
+        response.headers().add(HttpHeaderNames.CACHE_CONTROL, "Public, max-age=\"30\"");
+        response.headers().add(HttpHeaderNames.CACHE_CONTROL, "no-cache=\"Set-Cookie\"");
+
+        assertEquals("", HttpResponseCache.parseCacheControl(response.headers()).get("public"));
+        assertEquals("30", HttpResponseCache.parseCacheControl(response.headers()).get("max-age"));
+        assertEquals("Set-Cookie", HttpResponseCache.parseCacheControl(response.headers()).get("no-cache"));
+        assertEquals(-1, HttpResponseCache.parseDeltaSeconds("-1"));
+        assertEquals(Integer.MAX_VALUE, HttpResponseCache.parseDeltaSeconds("99999999999999999999"));
+    }
+
+    private HttpResponseCache newCache(ResponseCacheConfiguration configuration) {
+        return new HttpResponseCache(configuration) {
+            @Override
+            long currentTimeMillis() {
+                return now;
+            }
+        };
+    }
+
+    private static HttpRequest request(String uri) {
+        return new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, uri);
+    }
+
+    private void store(String uri, String cacheControl, String vary, String body) {
+        store(request(uri), cacheControl, vary, body);
+    }
+
+    /**
+     * Passes a request and a response through the cache, the way {@link ClientToProxyConnection} does.
+     */
+    private void store(HttpRequest request, String cacheControl, String vary, String body) {
+        ResponseCacheExchange exchange = cache.begin(HOST, request);
+        FullHttpResponse cached = exchange.cachedResponse();
+        if (cached != null) {
+            cached.release();
+            return;
+        }
+        exchange.prepareRequest(request);
+
+        HttpResponse response = new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
+        response.headers().set(HttpHeaderNames.CACHE_CONTROL, cacheControl);
+        if (vary != null) {
+            response.headers().set(HttpHeaderNames.VARY, vary);
+        }
+        exchange.serverResponse(response);
+        LastHttpContent content = new DefaultLastHttpContent(Unpooled.copiedBuffer(body, StandardCharsets.UTF_8));
+        exchange.serverResponse(content);
+        content.release();
+    }
+
+    private FullHttpResponse lookup(HttpRequest request) {
+        ResponseCacheExchange exchange = cache.begin(HOST, request);
+        FullHttpResponse response = exchange.cachedResponse();
+        exchange.release();
+        return response;
+    }
+
+    private static void assertBody(String expected, FullHttpResponse response) {
+        assertNotNull("Expected a cached response", response);
+        try {
+            assertEquals(expected, response.content().toString(StandardCharsets.UTF_8));
+            assertEquals(String.valueOf(expected.length()), response.headers().get(HttpHeaderNames.CONTENT_LENGTH));
+        } finally {
+            response.release();
+        }
+    }
+
+    private static int mappingsIn(File maps, File directory) throws IOException {
+        int mappings = 0;
+        for (String line : Files.readAllLines(maps.toPath(), StandardCharsets.UTF_8)) {
+            if (line.contains(directory.getPath())) {
+                mappings++;
+            }
+        }
+        return mappings;
+    }
+
+    private static String repeat(char c, int count) {
+        StringBuilder sb = new StringBuilder(count);
+        for (int i = 0; i < count; i++) {
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+}
@@ -17,6 +17,7 @@ import java.util.ArrayList;
 import java.util.List;
 
 import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
 import static org.hamcrest.Matchers.empty;
 import static org.hamcrest.Matchers.hasSize;
 import static org.junit.Assert.assertEquals;
@@ -239,6 +240,25 @@ public class ProxyUtilsTest {
         assertThat("Expected no header tokens", ProxyUtils.splitCommaSeparatedHeaderValues(" ,  ,\t, "), empty());
     }
 
+    @Test
+    public void testStripHopByHopHeaders() {
+        HttpHeaders headers = new DefaultHttpHeaders();
+        headers.add("Proxy-Connection", "keep-alive, X-Session");
+        headers.add("X-Session", "abc");
+        headers.add("Keep-Alive", "timeout=5");
+        headers.add("Proxy-Authorization", "Basic dXNlcjpwYXNz");
+        headers.add(HttpHeaders.Names.TRANSFER_ENCODING, "chunked");
+        headers.add(HttpHeaders.Names.ACCEPT, "*/*");
+
+        ProxyUtils.switchProxyConnectionHeader(headers);
+        assertEquals("keep-alive, X-Session", headers.get(HttpHeaders.Names.CONNECTION));
+
+        ProxyUtils.stripConnectionTokens(headers);
+        ProxyUtils.stripHopByHopHeaders(headers);
+
+        assertThat(headers.names(), containsInAnyOrder(HttpHeaders.Names.TRANSFER_ENCODING, HttpHeaders.Names.ACCEPT));
+    }
+
     /**
      * Verifies that 'sdch' is removed from the 'Accept-Encoding' header list.
      */
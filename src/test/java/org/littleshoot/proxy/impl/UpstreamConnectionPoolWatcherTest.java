@@ -0,0 +1,95 @@
+package org.littleshoot.proxy.impl;
+
+import io.netty.channel.Channel;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.timeout.IdleStateEvent;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.littleshoot.proxy.TransportProtocol;
+
+import java.net.InetSocketAddress;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests how the watcher that {@link UpstreamConnectionPool} adds to idle channels treats channels that are in the pool
+ * and channels that were just handed out, and which channels the pool evicts when it is full.
+ */
+public class UpstreamConnectionPoolWatcherTest {
+    private static final UpstreamConnectionPool.PoolKey KEY = new UpstreamConnectionPool.PoolKey("example.com:80",
+            TransportProtocol.TCP, InetSocketAddress.createUnresolved("example.com", 80));
+
+    private UpstreamConnectionPool pool;
+    private EmbeddedChannel channel;
+
+    @Before
+    public void setUp() {
+        pool = new UpstreamConnectionPool(new ConnectionPoolConfiguration());
+        channel = new EmbeddedChannel();
+
+        assertTrue("Expected the pool to take the channel", pool.release(KEY, channel));
+        channel.runPendingTasks();
+        assertEquals(1, pool.getIdleConnections());
+    }
+
+    @After
+    public void tearDown() {
+        pool.close();
+        channel.finishAndReleaseAll();
+    }
+
+    @Test
+    public void testIdleEventClosesPooledChannel() {
+        channel.pipeline().fireUserEventTriggered(IdleStateEvent.ALL_IDLE_STATE_EVENT);
+
+        assertFalse("Expected the expired channel to be closed", channel.isOpen());
+        assertEquals(0, pool.getIdleConnections());
+        assertEquals(1, pool.getEvictions());
+    }
+
+    @Test
+    public void testIdleEventBeforeDetachLeavesAcquiredChannelOpen() {
+        Channel acquired = pool.acquire(KEY, channel.eventLoop());
+        assertSame(channel, acquired);
+
+        // the watcher is still in the pipeline until the adopting connection detaches it on the event loop
+        channel.pipeline().fireUserEventTriggered(IdleStateEvent.ALL_IDLE_STATE_EVENT);
+
+        assertTrue("Expected the acquired channel to be left to its new owner", channel.isOpen());
+        assertEquals(0, pool.getIdleConnections());
+        assertEquals(0, pool.getEvictions());
+
+        pool.detach(channel.pipeline());
+        assertTrue(channel.isActive());
+    }
+
+    @Test
+    public void testLeastRecentlyReleasedChannelEvictedAcrossEventLoops() throws Exception {
+        UpstreamConnectionPool fullPool = new UpstreamConnectionPool(new ConnectionPoolConfiguration()
+                .withMaxIdleTotal(1));
+        // every embedded channel has its own event loop, and so its own partition of the pool
+        EmbeddedChannel older = new EmbeddedChannel();
+        EmbeddedChannel newer = new EmbeddedChannel();
+        try {
+            fullPool.release(KEY, older);
+            older.runPendingTasks();
+            Thread.sleep(5);
+            fullPool.release(KEY, newer);
+            newer.runPendingTasks();
+
+            assertFalse("Expected the older channel on the other event loop to be evicted", older.isOpen());
+            assertTrue("Expected the channel just released to be kept", newer.isOpen());
+            assertEquals(1, fullPool.getIdleConnections());
+            assertEquals(1, fullPool.getEvictions());
+            assertSame(newer, fullPool.acquire(KEY, newer.eventLoop()));
+        } finally {
+            fullPool.close();
+            older.finishAndReleaseAll();
+            newer.finishAndReleaseAll();
+        }
+    }
+}
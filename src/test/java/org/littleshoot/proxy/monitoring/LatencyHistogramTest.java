@@ -0,0 +1,64 @@
+package org.littleshoot.proxy.monitoring;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+
+  @Test
+  public void testBucketsCoverEveryValue() {
+    long previousHighest = -1;
+    for (int index = 0; index <= LatencyHistogram.indexOf(LatencyHistogram.MAX_VALUE_MICROS); index++) {
+      long highest = LatencyHistogram.highestValueAt(index);
+      assertEquals("Expected bucket " + index + " to start after the previous one", index,
+          LatencyHistogram.indexOf(previousHighest + 1));
+      assertEquals(index, LatencyHistogram.indexOf(highest));
+      long lowest = previousHighest + 1;
+      assertTrue("Expected a relative error below 2/" + LatencyHistogram.SUB_BUCKETS + " in bucket " + index,
+          (highest - lowest) * LatencyHistogram.SUB_BUCKETS / 2 < Math.max(1, lowest));
+      previousHighest = highest;
+    }
+    assertEquals(LatencyHistogram.MAX_VALUE_MICROS, previousHighest);
+  }
+
+  @Test
+  public void testPercentiles() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    assertEquals(0, histogram.getValueAtPercentileMicros(50));
+
+    for (int millis = 1; millis <= 100; millis++) {
+      histogram.recordNanos(TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+
+    assertEquals(100, histogram.getCount());
+    assertEquals(50500, histogram.getMeanMicros(), 0.001);
+    assertEquals(100000, histogram.getMaxMicros());
+    assertWithinPrecision(50000, histogram.getValueAtPercentileMicros(50));
+    assertWithinPrecision(90000, histogram.getValueAtPercentileMicros(90));
+    assertWithinPrecision(99000, histogram.getValueAtPercentileMicros(99));
+    assertEquals("Expected the 100th percentile to be the maximum", 100000,
+        histogram.getValueAtPercentileMicros(100));
+  }
+
+  @Test
+  public void testOutOfRangeValuesClamped() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    histogram.recordNanos(-1);
+    histogram.recordNanos(TimeUnit.DAYS.toNanos(1));
+
+    assertEquals(2, histogram.getCount());
+    assertEquals(0, histogram.getValueAtPercentileMicros(50));
+    assertEquals(LatencyHistogram.MAX_VALUE_MICROS, histogram.getMaxMicros());
+    assertEquals(LatencyHistogram.MAX_VALUE_MICROS, histogram.getValueAtPercentileMicros(100));
+  }
+
+  private static void assertWithinPrecision(long expected, long actual) {
+    assertTrue("Expected " + actual + " to be at least " + expected, actual >= expected);
+    assertTrue("Expected " + actual + " to be within the histogram's precision of " + expected,
+        actual - expected < expected * 2 / LatencyHistogram.SUB_BUCKETS);
+  }
+}
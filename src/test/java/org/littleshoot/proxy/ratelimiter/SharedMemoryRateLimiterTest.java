@@ -0,0 +1,101 @@
+package org.littleshoot.proxy.ratelimiter;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.littleshoot.proxy.FlowContext;
+import org.littleshoot.proxy.ratelimit.SharedMemoryRateLimiter;
+import org.littleshoot.proxy.ratelimit.TokenBucketRateLimiter;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+
+import io.netty.handler.codec.http.DefaultHttpRequest;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpVersion;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class SharedMemoryRateLimiterTest {
+
+  private static final HttpRequest REQUEST = new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/");
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testLimitSharedThroughFile() throws IOException {
+    File file = new File(folder.getRoot(), "ratelimit");
+    TestRateLimiter first = new TestRateLimiter(file, 10, 3, 1024);
+    TestRateLimiter second = new TestRateLimiter(file, 10, 3, 1024);
+    FlowContext client = flowContext("10.0.0.1");
+
+    assertFalse(first.isOverLimit(REQUEST, client));
+    assertFalse(second.isOverLimit(REQUEST, client));
+    assertFalse(first.isOverLimit(REQUEST, client));
+    assertTrue("Expected the burst to be shared by both limiters", second.isOverLimit(REQUEST, client));
+    assertFalse("Expected other clients to have their own bucket",
+        second.isOverLimit(REQUEST, flowContext("10.0.0.2")));
+
+    // one token is added every 100ms
+    first.advance(100);
+    second.advance(100);
+    assertFalse(second.isOverLimit(REQUEST, client));
+    assertTrue(first.isOverLimit(REQUEST, client));
+    assertEquals(1, first.getLimitedRequests());
+    assertEquals(1, second.getLimitedRequests());
+  }
+
+  @Test
+  public void testIdleSlotsReused() throws IOException {
+    // a single slot, which every client has to share
+    TestRateLimiter rateLimiter = new TestRateLimiter(folder.newFile(), 1, 1, 1);
+
+    assertFalse(rateLimiter.isOverLimit(REQUEST, flowContext("10.0.0.1")));
+    assertFalse("Expected the request to be let through while the slot is taken",
+        rateLimiter.isOverLimit(REQUEST, flowContext("10.0.0.2")));
+    assertEquals(1, rateLimiter.getOverflows());
+
+    rateLimiter.advance(1000);
+    assertFalse(rateLimiter.isOverLimit(REQUEST, flowContext("10.0.0.2")));
+    assertTrue("Expected the idle slot to be taken over", rateLimiter.isOverLimit(REQUEST, flowContext("10.0.0.2")));
+    assertEquals(1, rateLimiter.getOverflows());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testSlotCountMismatchRejected() throws IOException {
+    File file = new File(folder.getRoot(), "ratelimit");
+    new TestRateLimiter(file, 10, 3, 1024);
+    new TestRateLimiter(file, 10, 3, 2048);
+  }
+
+  private static FlowContext flowContext(String clientIp) {
+    FlowContext flowContext = mock(FlowContext.class);
+    when(flowContext.getClientAddress()).thenReturn(new InetSocketAddress(clientIp, 40000));
+    return flowContext;
+  }
+
+  private static class TestRateLimiter extends SharedMemoryRateLimiter {
+    private long now = TimeUnit.SECONDS.toNanos(1000);
+
+    TestRateLimiter(File file, double requestsPerSecond, int burst, int slots) throws IOException {
+      super(file, TokenBucketRateLimiter.KeyType.CLIENT_IP, requestsPerSecond, burst, slots);
+    }
+
+    void advance(long millis) {
+      now += TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    @Override
+    protected long currentTimeNanos() {
+      return now;
+    }
+  }
+}
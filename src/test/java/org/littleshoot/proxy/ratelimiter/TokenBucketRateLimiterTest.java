@@ -0,0 +1,207 @@
+package org.littleshoot.proxy.ratelimiter;
+
+import org.apache.http.HttpResponse;
+import org.junit.After;
+import org.junit.Test;
+import org.littleshoot.proxy.FlowContext;
+import org.littleshoot.proxy.HttpProxyServer;
+import org.littleshoot.proxy.impl.DefaultHttpProxyServer;
+import org.littleshoot.proxy.ratelimit.TokenBucketRateLimiter;
+import org.littleshoot.proxy.test.HttpClientUtil;
+import org.mockserver.integration.ClientAndServer;
+import org.mockserver.verify.VerificationTimes;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+import io.netty.handler.codec.http.DefaultHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockserver.model.HttpRequest.request;
+import static org.mockserver.model.HttpResponse.response;
+
+public class TokenBucketRateLimiterTest {
+
+  private static final HttpRequest REQUEST = new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/");
+
+  private TestRateLimiter rateLimiter;
+  private ClientAndServer mockServer;
+  private HttpProxyServer proxyServer;
+
+  @After
+  public void tearDown() {
+    try {
+      if (mockServer != null) {
+        mockServer.stop();
+      }
+      if (proxyServer != null) {
+        proxyServer.abort();
+      }
+    } finally {
+      if (rateLimiter != null) {
+        rateLimiter.shutdown();
+      }
+    }
+  }
+
+  @Test
+  public void testBurstThenSustainedRate() {
+    rateLimiter = new TestRateLimiter(TokenBucketRateLimiter.KeyType.CLIENT_IP, 10, 3);
+    FlowContext client = flowContext("10.0.0.1", null, null);
+
+    for (int i = 0; i < 3; i++) {
+      assertFalse("Expected the burst to be allowed", rateLimiter.isOverLimit(REQUEST, client));
+    }
+    assertTrue("Expected the request after the burst to be limited", rateLimiter.isOverLimit(REQUEST, client));
+
+    // one token is added every 100ms
+    rateLimiter.advance(100);
+    assertFalse(rateLimiter.isOverLimit(REQUEST, client));
+    assertTrue(rateLimiter.isOverLimit(REQUEST, client));
+    assertEquals(2, rateLimiter.getLimitedRequests());
+  }
+
+  @Test
+  public void testClientsHaveSeparateBuckets() {
+    rateLimiter = new TestRateLimiter(TokenBucketRateLimiter.KeyType.CLIENT_IP, 1, 1);
+
+    assertFalse(rateLimiter.isOverLimit(REQUEST, flowContext("10.0.0.1", null, null)));
+    assertTrue(rateLimiter.isOverLimit(REQUEST, flowContext("10.0.0.1", null, null)));
+    assertFalse(rateLimiter.isOverLimit(REQUEST, flowContext("10.0.0.2", null, null)));
+  }
+
+  @Test
+  public void testKeyedBySourceIpAndUser() {
+    rateLimiter = new TestRateLimiter(TokenBucketRateLimiter.KeyType.SOURCE_IP, 1, 1);
+    // two clients behind the same load balancer
+    assertFalse(rateLimiter.isOverLimit(REQUEST, flowContext("10.0.0.1", "192.168.0.1", null)));
+    assertFalse(rateLimiter.isOverLimit(REQUEST, flowContext("10.0.0.1", "192.168.0.2", null)));
+    assertTrue(rateLimiter.isOverLimit(REQUEST, flowContext("10.0.0.1", "192.168.0.1", null)));
+    rateLimiter.shutdown();
+
+    rateLimiter = new TestRateLimiter(TokenBucketRateLimiter.KeyType.USER, 1, 1);
+    // the same user on two connections
+    assertFalse(rateLimiter.isOverLimit(REQUEST, flowContext("10.0.0.1", null, "alice")));
+    assertTrue(rateLimiter.isOverLimit(REQUEST, flowContext("10.0.0.2", null, "alice")));
+    assertFalse(rateLimiter.isOverLimit(REQUEST, flowContext("10.0.0.2", null, "bob")));
+  }
+
+  @Test
+  public void testIdleBucketsEvicted() {
+    rateLimiter = new TestRateLimiter(TokenBucketRateLimiter.KeyType.CLIENT_IP, 1, 2);
+    rateLimiter.isOverLimit(REQUEST, flowContext("10.0.0.1", null, null));
+    rateLimiter.isOverLimit(REQUEST, flowContext("10.0.0.2", null, null));
+    rateLimiter.advance(500);
+    rateLimiter.isOverLimit(REQUEST, flowContext("10.0.0.2", null, null));
+
+    rateLimiter.advance(600);
+    rateLimiter.evict();
+    assertEquals("Expected only the bucket that is not full yet to be kept", 1, rateLimiter.getBuckets());
+  }
+
+  @Test
+  public void testRequestsLimitedByProxy() {
+    mockServer = new ClientAndServer(0);
+    mockServer.when(request().withPath("/limited")).respond(response().withStatusCode(200));
+    rateLimiter = new TestRateLimiter(TokenBucketRateLimiter.KeyType.CLIENT_IP, 0.01, 2);
+    proxyServer = DefaultHttpProxyServer.bootstrap()
+        .withPort(0)
+        .withRateLimiter(rateLimiter)
+        .start();
+
+    String url = "http://localhost:" + mockServer.getPort() + "/limited";
+    assertEquals(200, HttpClientUtil.performHttpGet(url, proxyServer).getStatusLine().getStatusCode());
+    assertEquals(200, HttpClientUtil.performHttpGet(url, proxyServer).getStatusLine().getStatusCode());
+    HttpResponse limited = HttpClientUtil.performHttpGet(url, proxyServer);
+    assertEquals(HttpResponseStatus.TOO_MANY_REQUESTS.code(), limited.getStatusLine().getStatusCode());
+    assertEquals("100", limited.getFirstHeader("Retry-After").getValue());
+
+    mockServer.verify(request().withPath("/limited"), VerificationTimes.exactly(2));
+  }
+
+  @Test
+  public void testRetryAfterFromRejectingBucket() {
+    rateLimiter = new TestRateLimiter(TokenBucketRateLimiter.KeyType.CLIENT_IP, 10, 1);
+    rateLimiter.withAuthenticationLimit(0.01, 1);
+    FlowContext client = flowContext("10.0.0.1", null, null);
+    HttpRequest authenticating = new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/");
+    authenticating.headers().set(HttpHeaderNames.PROXY_AUTHORIZATION,
+        "Basic " + Base64.getEncoder().encodeToString("alice:secret".getBytes(StandardCharsets.UTF_8)));
+
+    // the authentication bucket holds a token again 100 seconds after the first attempt
+    assertFalse(rateLimiter.isAuthenticationOverLimit(authenticating));
+    rateLimiter.advance(40000);
+    assertTrue(rateLimiter.isAuthenticationOverLimit(authenticating));
+    assertRetryAfter("60", rateLimiter.limitReachedResponse(authenticating));
+
+    // the request bucket holds a token again 100ms after the first request, rounded up to a second
+    assertFalse(rateLimiter.isOverLimit(REQUEST, client));
+    assertTrue(rateLimiter.isOverLimit(REQUEST, client));
+    assertRetryAfter("1", rateLimiter.limitReachedResponse(REQUEST));
+  }
+
+  @Test
+  public void testShutdownWhenLastProxyStops() {
+    rateLimiter = new TestRateLimiter(TokenBucketRateLimiter.KeyType.CLIENT_IP, 10, 1);
+    proxyServer = DefaultHttpProxyServer.bootstrap()
+        .withPort(0)
+        .withRateLimiter(rateLimiter)
+        .start();
+    HttpProxyServer clone = proxyServer.clone().withPort(0).start();
+
+    proxyServer.stop();
+    assertFalse("Expected the clone to keep using the rate limiter", rateLimiter.isShutdown());
+
+    clone.stop();
+    assertTrue("Expected the eviction thread to be stopped with the last proxy", rateLimiter.isShutdown());
+  }
+
+  private static void assertRetryAfter(String expected, FullHttpResponse response) {
+    try {
+      assertEquals(expected, response.headers().get(HttpHeaderNames.RETRY_AFTER));
+    } finally {
+      response.release();
+    }
+  }
+
+  private static FlowContext flowContext(String clientIp, String sourceIp, String user) {
+    FlowContext flowContext = mock(FlowContext.class);
+    when(flowContext.getClientAddress()).thenReturn(new InetSocketAddress(clientIp, 40000));
+    when(flowContext.getSourceIp()).thenReturn(sourceIp);
+    when(flowContext.getAuthenticatedUser()).thenReturn(user);
+    return flowContext;
+  }
+
+  private static class TestRateLimiter extends TokenBucketRateLimiter {
+    private long now = TimeUnit.SECONDS.toNanos(1000);
+
+    TestRateLimiter(KeyType keyType, double requestsPerSecond, int burst) {
+      super(keyType, requestsPerSecond, burst, TimeUnit.HOURS.toMillis(1));
+    }
+
+    void advance(long millis) {
+      now += TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    void evict() {
+      evictIdleBuckets();
+    }
+
+    @Override
+    protected long nanoTime() {
+      return now;
+    }
+  }
+}
@@ -0,0 +1,168 @@
+package org.littleshoot.proxy.test;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.DatagramChannel;
+import io.netty.channel.socket.nio.NioDatagramChannel;
+import io.netty.handler.codec.dns.DatagramDnsQuery;
+import io.netty.handler.codec.dns.DatagramDnsQueryDecoder;
+import io.netty.handler.codec.dns.DatagramDnsResponse;
+import io.netty.handler.codec.dns.DatagramDnsResponseEncoder;
+import io.netty.handler.codec.dns.DefaultDnsRawRecord;
+import io.netty.handler.codec.dns.DnsQuestion;
+import io.netty.handler.codec.dns.DnsRecordType;
+import io.netty.handler.codec.dns.DnsResponseCode;
+import io.netty.handler.codec.dns.DnsSection;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A minimal in-process DNS server for tests. It answers A queries for the hosts registered with
+ * {@link #addHost(String, InetAddress, long)}, and responds with NXDOMAIN for all other names. Queries for hosts
+ * registered with {@link #failHost(String, DnsResponseCode)} are answered with an error code, and queries for hosts
+ * registered with {@link #dropHost(String)} are never answered.
+ */
+public class StandInDnsServer {
+    private final Map<String, Entry> hosts = new ConcurrentHashMap<String, Entry>();
+    private final Map<String, DnsResponseCode> failingHosts = new ConcurrentHashMap<String, DnsResponseCode>();
+    private final Set<String> droppedHosts = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final AtomicInteger queries = new AtomicInteger(0);
+
+    private EventLoopGroup group;
+    private Channel channel;
+
+    /**
+     * Starts the server on an ephemeral port on the loopback interface.
+     *
+     * @return this server, for chaining
+     */
+    public StandInDnsServer start() throws InterruptedException {
+        group = new NioEventLoopGroup(1);
+        channel = new Bootstrap()
+                .group(group)
+                .channel(NioDatagramChannel.class)
+                .handler(new ChannelInitializer<DatagramChannel>() {
+                    @Override
+                    protected void initChannel(DatagramChannel ch) throws Exception {
+                        ch.pipeline().addLast(new DatagramDnsQueryDecoder());
+                        ch.pipeline().addLast(new DatagramDnsResponseEncoder());
+                        ch.pipeline().addLast(new QueryHandler());
+                    }
+                })
+                .bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0))
+                .sync()
+                .channel();
+        return this;
+    }
+
+    public void stop() {
+        if (channel != null) {
+            channel.close().awaitUninterruptibly();
+        }
+        if (group != null) {
+            group.shutdownGracefully().awaitUninterruptibly();
+        }
+    }
+
+    /**
+     * @return the address to send DNS queries to
+     */
+    public InetSocketAddress getAddress() {
+        return (InetSocketAddress) channel.localAddress();
+    }
+
+    /**
+     * Registers an IPv4 address for a host.
+     *
+     * @param host name of the host, without a trailing dot
+     * @param address IPv4 address to answer with
+     * @param ttlSeconds TTL of the answer record
+     */
+    public void addHost(String host, InetAddress address, long ttlSeconds) {
+        hosts.put(host.toLowerCase(), new Entry(address, ttlSeconds));
+    }
+
+    public void removeHost(String host) {
+        hosts.remove(host.toLowerCase());
+        failingHosts.remove(host.toLowerCase());
+        droppedHosts.remove(host.toLowerCase());
+    }
+
+    /**
+     * Answers queries for a host with an error code, e.g. SERVFAIL.
+     */
+    public void failHost(String host, DnsResponseCode code) {
+        failingHosts.put(host.toLowerCase(), code);
+    }
+
+    /**
+     * Never answers queries for a host, so that they time out.
+     */
+    public void dropHost(String host) {
+        droppedHosts.add(host.toLowerCase());
+    }
+
+    /**
+     * @return number of queries received so far
+     */
+    public int getQueryCount() {
+        return queries.get();
+    }
+
+    private static class Entry {
+        private final InetAddress address;
+        private final long ttlSeconds;
+
+        private Entry(InetAddress address, long ttlSeconds) {
+            this.address = address;
+            this.ttlSeconds = ttlSeconds;
+        }
+    }
+
+    private class QueryHandler extends SimpleChannelInboundHandler<DatagramDnsQuery> {
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, DatagramDnsQuery query) throws Exception {
+            queries.incrementAndGet();
+
+            DnsQuestion question = query.recordAt(DnsSection.QUESTION);
+            String name = question.name();
+            if (name.endsWith(".")) {
+                name = name.substring(0, name.length() - 1);
+            }
+            name = name.toLowerCase();
+
+            if (droppedHosts.contains(name)) {
+                return;
+            }
+
+            DatagramDnsResponse response = new DatagramDnsResponse(query.recipient(), query.sender(), query.id());
+            response.setRecursionAvailable(true);
+            response.addRecord(DnsSection.QUESTION, question);
+
+            Entry entry = hosts.get(name);
+            if (failingHosts.containsKey(name)) {
+                response.setCode(failingHosts.get(name));
+            } else if (entry == null) {
+                response.setCode(DnsResponseCode.NXDOMAIN);
+            } else if (question.type() == DnsRecordType.A && entry.address instanceof Inet4Address) {
+                response.addRecord(DnsSection.ANSWER, new DefaultDnsRawRecord(question.name(), DnsRecordType.A,
+                        entry.ttlSeconds, Unpooled.wrappedBuffer(entry.address.getAddress())));
+            }
+
+            ctx.writeAndFlush(response);
+        }
+    }
+}